@@ -1,6 +1,13 @@
 package put.mlc.classifiers.br;
 
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import put.mlc.classifiers.common.AsyncMultiLabelLearner;
+import put.mlc.classifiers.common.CachedPredictions;
+import put.mlc.classifiers.common.PredictionCache;
 import put.mlc.classifiers.f.QuadraticNaiveFMaximizer;
+import put.mlc.utils.AsyncPredictor;
 import mulan.classifier.InvalidDataException;
 import mulan.classifier.MultiLabelLearnerBase;
 import mulan.classifier.MultiLabelOutput;
@@ -31,7 +38,7 @@ import weka.core.TechnicalInformation.Type;
  * @author Adrian Jaroszewicz
  * @author Arkadiusz Jachnik
  */
-public class LFP extends MultiLabelLearnerBase {
+public class LFP extends MultiLabelLearnerBase implements AsyncMultiLabelLearner {
 
 	private static final long serialVersionUID = -6945566475355936517L;
 
@@ -45,6 +52,11 @@ public class LFP extends MultiLabelLearnerBase {
 	 */
 	private QuadraticNaiveFMaximizer FMaximizer;
 	
+	/**
+	 * cached predictions, taken anew after each training
+	 */
+	private final CachedPredictions predictions = new CachedPredictions();
+	
 	/**
 	 * Class constructor specifying the binary relevance learner (taken from
 	 * Mulan).
@@ -67,6 +79,7 @@ public class LFP extends MultiLabelLearnerBase {
 	@Override
 	protected void buildInternal(MultiLabelInstances trainingSet) throws Exception {
 		br.build(trainingSet);
+		predictions.invalidate();
 	}
 
 	/**
@@ -82,6 +95,23 @@ public class LFP extends MultiLabelLearnerBase {
 	@Override
 	protected MultiLabelOutput makePredictionInternal(Instance instance)
 			throws Exception, InvalidDataException {
+		PredictionCache.Key key = predictions.key(instance, labelIndices, 0);
+		MultiLabelOutput output = predictions.get(key);
+		if (output == null) {
+			output = predict(instance);
+			predictions.put(key, output);
+		}
+		return output;
+	}
+	
+	/**
+	 * Makes a prediction for the given instance, without the cache.
+	 * 
+	 * @param instance the data instance to predict on
+	 * @return the output of the learner for the given instance
+	 * @throws Exception if an error occurs while making the prediction
+	 */
+	private MultiLabelOutput predict(Instance instance) throws Exception {
 		MultiLabelOutput output;
 		output = br.makePrediction(instance);
 		
@@ -93,6 +123,31 @@ public class LFP extends MultiLabelLearnerBase {
 		return mlo;
 	}
 	
+	/**
+	 * Submits a prediction for the given instance to {@link AsyncPredictor}.
+	 * 
+	 * @param instance the instance to predict on
+	 * @return the future output of the learner
+	 */
+	@Override
+	public Future<MultiLabelOutput> predictAsync(Instance instance) {
+		return AsyncPredictor.submit(this, instance);
+	}
+
+	/**
+	 * Submits a prediction for the given instance to {@link AsyncPredictor}
+	 * with a timeout.
+	 * 
+	 * @param instance the instance to predict on
+	 * @param timeout time after which the prediction fails
+	 * @param unit unit of the timeout
+	 * @return the future output of the learner
+	 */
+	@Override
+	public Future<MultiLabelOutput> predictAsync(Instance instance, long timeout, TimeUnit unit) {
+		return AsyncPredictor.submit(this, instance, timeout, unit, null);
+	}
+	
 	/**
      * Returns an instance of a TechnicalInformation object, containing detailed
      * information about the technical background of this class, e.g., paper
@@ -117,6 +172,23 @@ public class LFP extends MultiLabelLearnerBase {
 		return "Label-independence-Fbeta-Plug-in-classifier algorithm";
 	}
 	
+	/**
+	 * Sets a cache of the predictions, which may be shared with other
+	 * learners. It is not serialized with the learner.
+	 * 
+	 * @param predictionCache the cache, or null to turn the caching off
+	 */
+	public void setPredictionCache(PredictionCache predictionCache) {
+		predictions.setCache(predictionCache);
+	}
+	
+	/**
+	 * @return the cache of the predictions, or null
+	 */
+	public PredictionCache getPredictionCache() {
+		return predictions.getCache();
+	}
+	
 	/**
 	 * @param classifier the base classifier to set
 	 */
@@ -0,0 +1,40 @@
+package put.mlc.classifiers.common;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import mulan.classifier.MultiLabelOutput;
+import put.mlc.utils.AsyncPredictor;
+import weka.core.Instance;
+
+/**
+ * Interface for multi-label learners which make predictions
+ * asynchronously, without blocking the calling thread for the time of the
+ * inference. The learners in this library submit the predictions to
+ * {@link AsyncPredictor}, which bounds the number of the predictions
+ * computed at the same time.
+ */
+public interface AsyncMultiLabelLearner {
+
+	/**
+	 * Submits a prediction for the given instance. Cancelling the returned
+	 * future stops the inference.
+	 *
+	 * @param instance the instance to predict on
+	 * @return the future output of the learner
+	 */
+	public Future<MultiLabelOutput> predictAsync(Instance instance);
+
+	/**
+	 * Submits a prediction for the given instance with a timeout. After the
+	 * timeout the inference is stopped and the future fails with
+	 * {@link java.util.concurrent.TimeoutException} as the cause.
+	 *
+	 * @param instance the instance to predict on
+	 * @param timeout time after which the prediction fails, counted from the
+	 * submission
+	 * @param unit unit of the timeout
+	 * @return the future output of the learner
+	 */
+	public Future<MultiLabelOutput> predictAsync(Instance instance, long timeout, TimeUnit unit);
+}
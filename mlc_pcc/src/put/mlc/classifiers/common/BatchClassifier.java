@@ -0,0 +1,29 @@
+package put.mlc.classifiers.common;
+
+import weka.core.Instance;
+
+/**
+ * Interface for binary classifiers which are able to compute probability
+ * distributions for many copies of one instance in one call. It is used by
+ * the links of classifier chains, which are asked for the distributions of
+ * many label prefixes of the same instance during an inference.
+ */
+public interface BatchClassifier {
+
+	/**
+	 * Returns probability distributions for copies of one instance which
+	 * differ only in values of the given attributes. The values of these
+	 * attributes in the base instance are ignored.
+	 *
+	 * @param base the base instance
+	 * @param prefixAttributes indices of the attributes to be set
+	 * @param prefixes an array with values of the attributes for each copy,
+	 * the j-th value is set to the attribute prefixAttributes[j]
+	 * @param length number of copies to classify, starting from the first
+	 * element of the array
+	 * @return an array with a distribution for each of the copies
+	 * @throws Exception
+	 */
+	public double[][] distributionsForPrefixes(Instance base, int[] prefixAttributes,
+			double[][] prefixes, int length) throws Exception;
+}
@@ -0,0 +1,45 @@
+package put.mlc.classifiers.common;
+
+import mulan.classifier.MultiLabelOutput;
+import weka.core.Instance;
+
+/**
+ * Interface for multi-label learners which are able to make predictions
+ * for a block of instances in one call. The evaluators in this package
+ * use it instead of classifying the test instances one by one.
+ */
+public interface BatchMultiLabelLearner {
+
+	/**
+	 * Makes predictions for a block of instances. The results are the same
+	 * as for calling makePrediction for each of the instances. The method
+	 * may be called by many threads at once, each with its own block.
+	 *
+	 * @param instances instances to classify
+	 * @param length number of instances to classify, starting from the first
+	 * element of the array
+	 * @return an array with the output of the learner for each of the instances
+	 * @throws Exception if the model has not been trained or an error occurs
+	 * while making the predictions
+	 */
+	public MultiLabelOutput[] predictBatch(Instance[] instances, int length) throws Exception;
+
+	/**
+	 * Makes predictions for a block of instances and measures the time of
+	 * the work done for each of them, e.g. to report the latency of a single
+	 * prediction in an evaluation made in blocks. The times add up to about
+	 * the time of the call.
+	 *
+	 * @param instances instances to classify
+	 * @param length number of instances to classify, starting from the first
+	 * element of the array
+	 * @param nanos array the time of each of the instances is written to, in
+	 * nanoseconds
+	 * @return an array with the output of the learner for each of the instances
+	 * @throws Exception if the model has not been trained or an error occurs
+	 * while making the predictions
+	 * @see #predictBatch(Instance[], int)
+	 */
+	public MultiLabelOutput[] predictBatch(Instance[] instances, int length, long[] nanos)
+			throws Exception;
+}
@@ -0,0 +1,139 @@
+package put.mlc.classifiers.common;
+
+import java.io.Serializable;
+
+import mulan.classifier.MultiLabelOutput;
+import weka.core.Instance;
+
+/**
+ * Predictions of a learner in a {@link PredictionCache}: the cache set for
+ * the learner and the generation of its model. The learners keep an object
+ * of this class and pass the predictions through it, e.g.
+ * <pre>
+ * PredictionCache.Key key = predictions.key(instance, labelIndices, 0);
+ * MultiLabelOutput output = predictions.get(key);
+ * if (output == null) {
+ *     output = predict(instance);
+ *     predictions.put(key, output);
+ * }
+ * </pre>
+ * A new generation is taken by {@link #invalidate()} whenever the model
+ * changes (e.g. after training), and when the configuration passed with an
+ * instance changes (e.g. of the inference method). Neither the cache nor
+ * the generation is serialized with the learner, so a copy of a learner
+ * does not use the cache until it is set.
+ */
+public final class CachedPredictions implements Serializable {
+
+	private static final long serialVersionUID = -3203917754106352237L;
+
+	/**
+	 * cache of the predictions, null if they are not cached
+	 */
+	private transient volatile PredictionCache cache = null;
+
+	/**
+	 * generation of the model in the cache of the predictions, 0 until it
+	 * is used; a new one is taken whenever the predictions may change
+	 */
+	private transient volatile long generation = 0;
+
+	/**
+	 * version of the configuration for which the generation has been taken
+	 */
+	private transient volatile long configuration = 0;
+
+	/**
+	 * Sets a cache of the predictions, which may be shared with other
+	 * learners.
+	 *
+	 * @param cache the cache, or null to turn the caching off
+	 */
+	public void setCache(PredictionCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @return the cache of the predictions, or null
+	 */
+	public PredictionCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Takes a new generation of the model, so that the predictions cached
+	 * before are not returned any more.
+	 */
+	public void invalidate() {
+		generation = PredictionCache.nextGeneration();
+	}
+
+	/**
+	 * Returns the generation of the model, taking one on the first call and
+	 * after the configuration has changed.
+	 *
+	 * @param currentConfiguration version of the configuration the predictions
+	 * depend on, e.g. {@link put.mlc.classifiers.pcc.inference.Inference#getConfiguration()},
+	 * or 0 if there is none
+	 * @return the generation
+	 */
+	public long generation(long currentConfiguration) {
+		// the configuration is written after the generation, so the generation
+		// read after a matching configuration is not older than it
+		boolean matching = (configuration == currentConfiguration);
+		long current = generation;
+		if (current == 0 || !matching) {
+			synchronized (this) {
+				current = generation;
+				if (current == 0 || configuration != currentConfiguration) {
+					current = PredictionCache.nextGeneration();
+					generation = current;
+					configuration = currentConfiguration;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Makes the key of an instance for the current generation.
+	 *
+	 * @param instance the instance
+	 * @param labelIndices indices of the label attributes, which are skipped
+	 * @param currentConfiguration version of the configuration the predictions
+	 * depend on, or 0 if there is none
+	 * @return the key, or null if the predictions are not cached
+	 */
+	public PredictionCache.Key key(Instance instance, int[] labelIndices,
+			long currentConfiguration) {
+		PredictionCache current = cache;
+		if (current == null) {
+			return null;
+		}
+		return current.key(generation(currentConfiguration), instance, labelIndices);
+	}
+
+	/**
+	 * Returns the cached prediction for a key.
+	 *
+	 * @param key the key of the instance, or null
+	 * @return the prediction, or null if it is not cached
+	 */
+	public MultiLabelOutput get(PredictionCache.Key key) {
+		PredictionCache current = cache;
+		return (key == null || current == null) ? null : current.get(key);
+	}
+
+	/**
+	 * Puts a prediction into the cache.
+	 *
+	 * @param key the key of the instance, or null
+	 * @param output the prediction, it must not be modified later
+	 */
+	public void put(PredictionCache.Key key, MultiLabelOutput output) {
+		PredictionCache current = cache;
+		if (key != null && current != null) {
+			current.put(key, output);
+		}
+	}
+}
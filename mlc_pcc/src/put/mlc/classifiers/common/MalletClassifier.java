@@ -1,11 +1,13 @@
 package put.mlc.classifiers.common;
 
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import mulan.data.MultiLabelInstances;
 import cc.mallet.classify.Classifier;
 import cc.mallet.classify.ClassifierTrainer;
+import cc.mallet.classify.MaxEnt;
 import cc.mallet.classify.MaxEntOptimizableByLabelLikelihood;
 import cc.mallet.classify.MaxEntTrainer;
 import cc.mallet.types.*;
@@ -22,10 +24,17 @@ import weka.core.SparseInstance;
  * This class extends AbstractClassifier, an abstract class from Weka
  * and runs given in constructor Mallet trainer. After training it returns
  * a Mallet classifier object.<br>
+ * <br>
+ * If the trained classifier is {@link MaxEnt}, the distributions are
+ * computed directly from its parameters, without converting instances to
+ * Mallet format. Then many label prefixes of one instance are scored by
+ * {@link #distributionsForPrefixes(Instance, int[], double[][], int)} at
+ * the cost of the prefixes only, since the scores of the remaining
+ * attributes are computed once.
  * 
  * @author Adrian Jaroszewicz
  */
-public class MalletClassifier extends AbstractClassifier {
+public class MalletClassifier extends AbstractClassifier implements BatchClassifier {
 
 	private static final long serialVersionUID = 5979046914468641037L;
 	
@@ -35,6 +44,12 @@ public class MalletClassifier extends AbstractClassifier {
 	private ClassifierTrainer<?> trainer;
 	private Attribute classAttribute = null;
 	
+	/**
+	 * indices of the features for the attributes of the training data set,
+	 * -1 for the class attribute
+	 */
+	private int[] featureIndices = null;
+	
 	/**
 	 * Class constructor taking a ClassifierTrainer from Mallet as a parameter.
 	 * 
@@ -161,9 +176,64 @@ public class MalletClassifier extends AbstractClassifier {
 	 */
 	@Override
 	public void buildClassifier(Instances instances) throws Exception {
+		InstanceList instanceList = prepare(instances);
+		silenceLoggers();
+		
+		setModel(trainer.train(instanceList), instances);
+	}
+	
+	/**
+	 * Prepares the alphabets for the given training data set and converts it
+	 * to Mallet format.
+	 * 
+	 * @param instances the training data set
+	 * @return the training data set in Mallet format
+	 */
+	InstanceList prepare(Instances instances) {
 		classAttribute = instances.classAttribute().copy("");
-		InstanceList instanceList = instancesFromWekaToMallet(instances);
-
+		return instancesFromWekaToMallet(instances);
+	}
+	
+	/**
+	 * Sets the trained Mallet classifier.
+	 * 
+	 * @param model classifier trained on the data set given to
+	 * {@link #prepare(Instances)}
+	 * @param instances the training data set
+	 */
+	void setModel(Classifier model, Instances instances) {
+		this.classifier = model;
+		trainer = null;
+		
+		featureIndices = new int[instances.numAttributes()];
+		for (int i = 0; i < featureIndices.length; i++) {
+			featureIndices[i] = (i == instances.classIndex()) ? -1
+					: features.lookupIndex(instances.attribute(i).name(), false);
+		}
+	}
+	
+	/**
+	 * Creates a classifier with another model trained on the same data set
+	 * as this one.
+	 * 
+	 * @param model classifier trained on the data set given to
+	 * {@link #prepare(Instances)}
+	 * @param instances the training data set
+	 * @return a new classifier sharing the alphabets with this one
+	 */
+	MalletClassifier withModel(Classifier model, Instances instances) {
+		MalletClassifier result = new MalletClassifier(null);
+		result.features = this.features;
+		result.labels = this.labels;
+		result.classAttribute = this.classAttribute;
+		result.setModel(model, instances);
+		return result;
+	}
+	
+	/**
+	 * Turns off the progress messages of Mallet trainers.
+	 */
+	static void silenceLoggers() {
 		MalletProgressMessageLogger.getLogger(MaxEntOptimizableByLabelLikelihood.class.getName()+"-pl").setLevel(Level.OFF);
 		MalletLogger.getLogger(MaxEntOptimizableByLabelLikelihood.class.getName()).setLevel(Level.OFF);
 		MalletProgressMessageLogger.getLogger(MaxEntTrainer.class.getName()+"-pl").setLevel(Level.OFF);
@@ -173,9 +243,6 @@ public class MalletClassifier extends AbstractClassifier {
 		MalletLogger.getLogger("global").setLevel(Level.OFF);
 		MalletProgressMessageLogger.getLogger("global").setLevel(Level.OFF);
 		Logger.getLogger("global").setLevel(Level.OFF);
-		
-		this.classifier = trainer.train(instanceList);
-		trainer = null;
 	}
 	
 	/**
@@ -185,6 +252,13 @@ public class MalletClassifier extends AbstractClassifier {
 	 */
 	@Override
 	public double[] distributionForInstance(Instance wekaInstance) throws Exception {
+		MaxEnt maxEnt = getMaxEnt();
+		if (maxEnt != null) {
+			double[] scores = new double[maxEnt.getLabelAlphabet().size()];
+			addScores(maxEnt, wekaInstance, null, scores);
+			return normalize(scores);
+		}
+		
 		cc.mallet.types.Instance malletInstance;
 		
 		if (wekaInstance instanceof SparseInstance)
@@ -203,6 +277,175 @@ public class MalletClassifier extends AbstractClassifier {
 		return distribution;
 	}
 	
+	/**
+	 * Returns probability distributions for copies of one instance which
+	 * differ only in values of the given attributes.
+	 * 
+	 * @param base the base instance
+	 * @param prefixAttributes indices of the attributes to be set
+	 * @param prefixes an array with values of the attributes for each copy
+	 * @param length number of copies to classify
+	 * @return an array with a distribution for each of the copies
+	 */
+	@Override
+	public double[][] distributionsForPrefixes(Instance base, int[] prefixAttributes,
+			double[][] prefixes, int length) throws Exception {
+		
+		double[][] distributions = new double[length][];
+		MaxEnt maxEnt = getMaxEnt();
+		
+		if (maxEnt == null) {
+			Instance copy = (Instance) base.copy();
+			for (int r = 0; r < length; r++) {
+				for (int j = 0; j < prefixAttributes.length; j++) {
+					copy.setValue(prefixAttributes[j], prefixes[r][j]);
+				}
+				distributions[r] = distributionForInstance(copy);
+			}
+			return distributions;
+		}
+		
+		int[] skipped = prefixAttributes.clone();
+		Arrays.sort(skipped);
+		
+		double[] baseScores = new double[maxEnt.getLabelAlphabet().size()];
+		addScores(maxEnt, base, skipped, baseScores);
+		
+		double[] parameters = maxEnt.getParameters();
+		int defaultFeature = maxEnt.getDefaultFeatureIndex();
+		int numFeatures = defaultFeature + 1;
+		
+		for (int r = 0; r < length; r++) {
+			double[] scores = baseScores.clone();
+			for (int j = 0; j < prefixAttributes.length; j++) {
+				int feature = featureIndices[prefixAttributes[j]];
+				double value = prefixes[r][j];
+				if (feature < 0 || feature >= defaultFeature || value == 0) {
+					continue;
+				}
+				for (int c = 0; c < scores.length; c++) {
+					scores[c] += parameters[c * numFeatures + feature] * value;
+				}
+			}
+			distributions[r] = normalize(scores);
+		}
+		return distributions;
+	}
+	
+	/**
+	 * Returns the parameters of the trained classifier as a linear model over
+	 * the given attributes of the training data set, if it is {@link MaxEnt}
+	 * without feature selection. The distribution is then the softmax of the
+	 * scores: the bias plus the sum of the weights multiplied by the values
+	 * of the attributes.
+	 * 
+	 * @param attributes indices of the attributes of the training data set,
+	 * -1 for the attributes which are not in it
+	 * @return an array with a row for each class: the weights of the given
+	 * attributes (0 for the attributes which are not features of the model)
+	 * followed by the bias; null if the model is not linear
+	 */
+	public double[][] getLinearModel(int[] attributes) {
+		MaxEnt maxEnt = getMaxEnt();
+		if (maxEnt == null) {
+			return null;
+		}
+		
+		double[] parameters = maxEnt.getParameters();
+		int defaultFeature = maxEnt.getDefaultFeatureIndex();
+		int numFeatures = defaultFeature + 1;
+		
+		double[][] model = new double[maxEnt.getLabelAlphabet().size()][attributes.length + 1];
+		for (int c = 0; c < model.length; c++) {
+			for (int k = 0; k < attributes.length; k++) {
+				int index = attributes[k];
+				int feature = (index >= 0 && index < featureIndices.length) ? featureIndices[index] : -1;
+				if (feature >= 0 && feature < defaultFeature) {
+					model[c][k] = parameters[c * numFeatures + feature];
+				}
+			}
+			model[c][attributes.length] = parameters[c * numFeatures + defaultFeature];
+		}
+		return model;
+	}
+	
+	/**
+	 * Returns the trained classifier if its distributions may be computed
+	 * directly from its parameters.
+	 * 
+	 * @return the MaxEnt classifier or null
+	 */
+	private MaxEnt getMaxEnt() {
+		if (featureIndices == null || !(classifier instanceof MaxEnt)) {
+			return null;
+		}
+		MaxEnt maxEnt = (MaxEnt) classifier;
+		if (maxEnt.getFeatureSelection() != null || maxEnt.getPerClassFeatureSelection() != null) {
+			return null;
+		}
+		return maxEnt;
+	}
+	
+	/**
+	 * Adds the unnormalized scores of the classes for the given instance,
+	 * in the same way as {@link MaxEnt#getUnnormalizedClassificationScores}
+	 * does.
+	 * 
+	 * @param maxEnt the MaxEnt classifier
+	 * @param instance instance in Weka format
+	 * @param skipped sorted indices of the attributes to be skipped or null
+	 * @param scores an array the scores are added to
+	 */
+	private void addScores(MaxEnt maxEnt, Instance instance, int[] skipped, double[] scores) {
+		double[] parameters = maxEnt.getParameters();
+		int defaultFeature = maxEnt.getDefaultFeatureIndex();
+		int numFeatures = defaultFeature + 1;
+		
+		for (int c = 0; c < scores.length; c++) {
+			scores[c] += parameters[c * numFeatures + defaultFeature];
+		}
+		
+		for (int j = 0; j < instance.numValues(); j++) {
+			int index = instance.index(j);
+			if (index >= featureIndices.length) {
+				continue;
+			}
+			int feature = featureIndices[index];
+			if (feature < 0 || feature >= defaultFeature
+					|| (skipped != null && Arrays.binarySearch(skipped, index) >= 0)) {
+				continue;
+			}
+			double value = instance.valueSparse(j);
+			if (value == 0) {
+				continue;
+			}
+			for (int c = 0; c < scores.length; c++) {
+				scores[c] += parameters[c * numFeatures + feature] * value;
+			}
+		}
+	}
+	
+	/**
+	 * Turns the scores of the classes into a probability distribution.
+	 * 
+	 * @param scores unnormalized scores, overwritten by the distribution
+	 * @return the distribution
+	 */
+	private double[] normalize(double[] scores) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int c = 0; c < scores.length; c++) {
+			max = Math.max(max, scores[c]);
+		}
+		double sum = 0.0;
+		for (int c = 0; c < scores.length; c++) {
+			sum += (scores[c] = Math.exp(scores[c] - max));
+		}
+		for (int c = 0; c < scores.length; c++) {
+			scores[c] /= sum;
+		}
+		return scores;
+	}
+	
 	/**
 	 * Returns a class attribute.
 	 * 
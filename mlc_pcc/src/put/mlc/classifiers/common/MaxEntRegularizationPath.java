@@ -0,0 +1,120 @@
+package put.mlc.classifiers.common;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import cc.mallet.classify.MaxEnt;
+import cc.mallet.classify.MaxEntTrainer;
+import cc.mallet.types.InstanceList;
+import weka.core.Instances;
+
+/**
+ * Trainer of the regularization path of the MaxEnt classifier. It trains
+ * {@link MalletClassifier} objects for many values of the Gaussian prior
+ * variance on one data set in one call.<br>
+ * <br>
+ * The variances are sorted in ascending order (from the strongest to the
+ * weakest regularization), and each optimization starts from the parameters
+ * of the previous solution instead of zeros. The neighbouring solutions are
+ * close to each other, so the optimizer needs much fewer iterations than
+ * for separate fits. The data set is converted to Mallet format only once.
+ */
+public class MaxEntRegularizationPath implements Serializable {
+
+	private static final long serialVersionUID = -3394582165903627440L;
+
+	/**
+	 * values of the Gaussian prior variance
+	 */
+	private double[] variances;
+
+	/**
+	 * order of the variances on the path (ascending)
+	 */
+	private Integer[] order;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param variances values of the Gaussian prior variance, in any order
+	 */
+	public MaxEntRegularizationPath(double[] variances) {
+		if (variances == null || variances.length == 0) {
+			throw new IllegalArgumentException("At least one variance is needed.");
+		}
+		this.variances = variances.clone();
+
+		this.order = new Integer[variances.length];
+		for (int k = 0; k < this.order.length; k++) {
+			this.order[k] = k;
+		}
+		final double[] values = this.variances;
+		Arrays.sort(this.order, new Comparator<Integer>() {
+
+			public int compare(Integer left, Integer right) {
+				return Double.compare(values[left], values[right]);
+			}
+		});
+	}
+
+	/**
+	 * @return values of the Gaussian prior variance, in the order given in
+	 * the constructor
+	 */
+	public double[] getVariances() {
+		return variances.clone();
+	}
+
+	/**
+	 * Trains the classifiers for all variances.
+	 *
+	 * @param instances the training data set
+	 * @return an array with a trained classifier for each of the variances,
+	 * in the order given in the constructor
+	 * @throws Exception
+	 */
+	public MalletClassifier[] train(Instances instances) throws Exception {
+		return train(instances, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Trains the classifiers for the variances not greater than the given one.
+	 * The path is stopped there, since the following solutions are not
+	 * needed to compute it.
+	 *
+	 * @param instances the training data set
+	 * @param maxVariance the greatest variance to train the classifier for
+	 * @return an array with a trained classifier for each of the variances,
+	 * in the order given in the constructor, null for the variances greater
+	 * than maxVariance
+	 * @throws Exception
+	 */
+	public MalletClassifier[] train(Instances instances, double maxVariance) throws Exception {
+		MalletClassifier[] classifiers = new MalletClassifier[variances.length];
+
+		MalletClassifier prototype = new MalletClassifier();
+		InstanceList instanceList = prototype.prepare(instances);
+		MalletClassifier.silenceLoggers();
+
+		MaxEnt previous = null;
+		for (int k = 0; k < order.length; k++) {
+			int index = order[k];
+			if (variances[index] > maxVariance) {
+				break;
+			}
+
+			// the trainer optimizes the parameters of the initial classifier in place
+			MaxEntTrainer trainer = (previous == null) ? new MaxEntTrainer()
+					: new MaxEntTrainer(new MaxEnt(previous.getInstancePipe(),
+							previous.getParameters().clone()));
+			trainer.setGaussianPriorVariance(variances[index]);
+
+			MaxEnt model = trainer.train(instanceList);
+			classifiers[index] = prototype.withModel(model, instances);
+			previous = model;
+		}
+
+		return classifiers;
+	}
+}
@@ -1,10 +1,11 @@
 package put.mlc.classifiers.common;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
 
+import put.mlc.utils.ParallelExecutor;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.core.Instance;
@@ -14,7 +15,10 @@ import weka.core.Instances;
  * Implementation of a classifier that tunes parameters. It chooses the best of
  * given classifiers with regard to logistic loss.<br>
  * The decision is made via internal cross validation.<br>
- * This is multi-thread beta version of {@link TunedClassifier}.
+ * This is multi-thread beta version of {@link TunedClassifier}. Each candidate
+ * is trained and tested in each trial as a separate task in the threads of
+ * {@link ParallelExecutor}, and the same candidate is chosen as by
+ * {@link TunedClassifier}.
  * 
  * @author Arkadiusz Jachnik
  */
@@ -25,23 +29,17 @@ public class MultiThreadTunedClassifier extends AbstractClassifier {
 	int trials = 3;
 	int seed = 0;
 
-	final int NUM_OF_PROCESSORS = Runtime.getRuntime().availableProcessors();
-
 	private boolean optimizeLogLoss = true;
 
 	Classifier[] baseClassifiers = null;
 
 	protected Classifier tunedClassifier = null;
-	
+
 	/**
-	 * Stores values of the best loss for multi-thread learning.
-	 * The fields of this class are shared between threads.
+	 * losses of the candidates computed in the last tuning
 	 */
-	private static class Values {
-		public double loss;
-		public int best;
-	}
-
+	private double[] candidateLosses = null;
+	
 	/**
 	 * Class constructor setting number of folds and trials, random seed and
 	 * list of classifiers to compare.
@@ -61,30 +59,6 @@ public class MultiThreadTunedClassifier extends AbstractClassifier {
 		this.baseClassifiers = classifiers;
 	}
 
-	/**
-	 * Splits original training set for cross-validation operation.
-	 * 
-	 * @param dataset instances from original training set
-	 * @param train set of the new training examples
-	 * @param tests set of the new testing examples
-	 * @param trials number of trials
-	 * @param folds number of folds in CV
-	 * @param random {@link Random} object
-	 * @throws Exception
-	 */
-	private void crossData(Instances dataset, Instances[] train,
-			Instances[] tests, int trials, int folds, Random random)
-			throws Exception {
-
-		Instances workingSet = new Instances(dataset);
-		workingSet.randomize(random);
-
-		for (int i = 0; i < trials; i++) {
-			train[i] = workingSet.trainCV(folds, i, random);
-			tests[i] = workingSet.testCV(folds, i);
-		}
-	}
-
 	/**
 	 * Tunes the parameters in cross-validation and returns the best base classifier.
 	 * 
@@ -103,90 +77,117 @@ public class MultiThreadTunedClassifier extends AbstractClassifier {
 		if (this.baseClassifiers.length == 1)
 			return baseClassifiers[0];
 		
-		final int trialsF = trials;
-
 		final Instances[] trains = new Instances[trials];
 		final Instances[] tests = new Instances[trials];
 
-		crossData(train, trains, tests, trials, folds, new Random(seed));
-
-		final Values v = new Values();
-		v.loss = Double.MAX_VALUE;
-		v.best = 0;
-
-		ExecutorService execLoop = Executors.newFixedThreadPool(NUM_OF_PROCESSORS);
-		final CountDownLatch latch = new CountDownLatch(this.baseClassifiers.length);
-
-		for (int j = 0; j < this.baseClassifiers.length; j++) {
-			final int jF = j;
-			execLoop.submit(new Runnable() {
-				@Override
-				public void run() {
-					double currentLoss;
-					try {
-						currentLoss = test(baseClassifiers[jF], trains, tests, trialsF);
-					
-						if (currentLoss < v.loss) {
-							v.loss = currentLoss;
-							v.best = jF;
-						}
-					} catch (Exception e) {
-						e.printStackTrace();
+		TuningData.crossData(train, trains, tests, trials, folds, new Random(seed));
+
+		// every candidate is trained and tested in every trial independently
+		final int numCandidates = this.baseClassifiers.length;
+		List<Callable<TrialResult>> tasks = new ArrayList<Callable<TrialResult>>(numCandidates * trials);
+		for (int j = 0; j < numCandidates; j++) {
+			for (int i = 0; i < trials; i++) {
+				final int jF = j;
+				final int iF = i;
+				tasks.add(new Callable<TrialResult>() {
+					@Override
+					public TrialResult call() throws Exception {
+						return testTrial(baseClassifiers[jF], trains[iF], tests[iF]);
 					}
-					latch.countDown();
-				}
-			});
+				});
+			}
 		}
-		try {
-			latch.await();
-		} catch (InterruptedException e2) {
-			e2.printStackTrace();
+		List<TrialResult> results = ParallelExecutor.invokeAll(tasks);
+
+		// the losses are reduced in the order of the candidates and trials,
+		// ties are broken in favor of the candidate with the lower index
+		double[] losses = new double[numCandidates];
+		double loss = Double.MAX_VALUE;
+		int best = 0;
+		for (int j = 0; j < numCandidates; j++) {
+			losses[j] = reduce(results.subList(j * trials, (j + 1) * trials));
+			if (losses[j] < loss) {
+				loss = losses[j];
+				best = j;
+			}
 		}
-		execLoop.shutdown();
+		this.candidateLosses = losses;
 
 		// choose the best base classifier
-		return baseClassifiers[v.best];
+		return baseClassifiers[best];
 	}
 
 	/**
-	 * Tests classifiers on the basis of a given training and testing examples.
+	 * Losses of a classifier in a single trial.
+	 */
+	private static class TrialResult {
+		/**
+		 * weighted logistic loss for each of the testing examples
+		 */
+		double[] logLosses;
+		/**
+		 * number of misclassified testing examples
+		 */
+		int errors;
+	}
+
+	/**
+	 * Tests a classifier in a single trial.
 	 * 
-	 * @param classifier tested classifier
-	 * @param trains training examples
-	 * @param tests testing examples
-	 * @param trials number of trials
-	 * @return 0/1 loss
+	 * @param classifier tested classifier, it is not modified
+	 * @param train training examples
+	 * @param test testing examples
+	 * @return losses for the testing examples
 	 * @throws Exception
 	 */
-	private double test(Classifier classifier, Instances[] trains, Instances[] tests, int trials) throws Exception {
-		double zeroOneLoss = 0;
-		double logLoss = 0.0;
-		int Z = 0;
+	private TrialResult testTrial(Classifier classifier, Instances train, Instances test) throws Exception {
+		TrialResult result = new TrialResult();
+		result.logLosses = new double[test.numInstances()];
 
-		for (int i = 0; i < trials; i++) {
-			Classifier testedClassifier = AbstractClassifier.makeCopy(classifier);
+		Classifier testedClassifier = AbstractClassifier.makeCopy(classifier);
 
-			testedClassifier.buildClassifier(trains[i]);
+		testedClassifier.buildClassifier(train);
 
-			for (int j = 0; j < tests[i].numInstances(); j++) {
-				Instance instance = tests[i].instance(j);
-				double[] p = testedClassifier.distributionForInstance(instance);
+		for (int j = 0; j < test.numInstances(); j++) {
+			Instance instance = test.instance(j);
+			double[] p = testedClassifier.distributionForInstance(instance);
 
-				int y = (int) tests[i].instance(j).classValue();
+			int y = (int) instance.classValue();
 
-				double tempLogLoss = 0;
+			double tempLogLoss = 0;
 
-				for (int k = 0; k < instance.numClasses(); k++) {
-					tempLogLoss -= (y == k ? 1 : 0) * Math.log(p[k]);
-				}
+			for (int k = 0; k < instance.numClasses(); k++) {
+				tempLogLoss -= (y == k ? 1 : 0) * Math.log(p[k]);
+			}
+
+			result.logLosses[j] = tempLogLoss * instance.weight();
 
-				logLoss += tempLogLoss * instance.weight();
+			int y_hat = (int) testedClassifier.classifyInstance(instance);
+			result.errors += (y_hat == y) ? 0 : 1;
+		}
+
+		return result;
+	}
 
-				int y_hat = (int) testedClassifier.classifyInstance(instance);
-				zeroOneLoss += (y_hat == y) ? 0 : 1;
+	/**
+	 * Computes the loss of a classifier over all trials. The logistic losses
+	 * are summed in the same order as in {@link TunedClassifier}, so the
+	 * result does not depend on the order in which the trials are completed.
+	 * 
+	 * @param trials losses in the subsequent trials
+	 * @return logistic loss or 0/1 loss
+	 */
+	private double reduce(List<TrialResult> trials) {
+		double zeroOneLoss = 0;
+		double logLoss = 0.0;
+		int Z = 0;
 
-				Z++;
+		for (TrialResult trial : trials) {
+			for (int j = 0; j < trial.logLosses.length; j++) {
+				logLoss += trial.logLosses[j];
 			}
+			zeroOneLoss += trial.errors;
+			Z += trial.logLosses.length;
 		}
 
 		if (this.isOptimizeLogLoss())
@@ -195,6 +196,17 @@ public class MultiThreadTunedClassifier extends AbstractClassifier {
 			return zeroOneLoss / (double) Z;
 	}
 
+	/**
+	 * Returns the losses of the candidates computed in the last tuning, in the
+	 * order of the classifiers given in the constructor.
+	 * 
+	 * @return an array with the loss of each candidate or null if the
+	 * classifier has not been tuned (e.g. there is a single candidate)
+	 */
+	public double[] getCandidateLosses() {
+		return (candidateLosses == null) ? null : candidateLosses.clone();
+	}
+
 	/**
 	 * Builds tuned-classifier for original training set.
 	 */
@@ -0,0 +1,211 @@
+package put.mlc.classifiers.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import put.mlc.utils.ParallelExecutor;
+import weka.classifiers.AbstractClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Implementation of a classifier that tunes the regularization of MaxEnt.
+ * It chooses the best of the given Gaussian prior variances with regard to
+ * logistic loss or 0/1 loss via internal cross validation, like
+ * {@link TunedClassifier} does for MaxEnt classifiers with these variances.
+ * However, in each trial the whole family of classifiers is trained in one
+ * call by {@link MaxEntRegularizationPath}, with warm starts.<br>
+ * The trials are run in the threads of {@link ParallelExecutor}.
+ */
+public class PathTunedClassifier extends AbstractClassifier {
+
+	private static final long serialVersionUID = 2791833015608296471L;
+
+	int folds = 3;
+	int trials = 3;
+	int seed = 0;
+
+	private boolean optimizeLogLoss = true;
+
+	private MaxEntRegularizationPath path = null;
+
+	protected MalletClassifier tunedClassifier = null;
+
+	/**
+	 * chosen Gaussian prior variance
+	 */
+	private double bestVariance = Double.NaN;
+
+	/**
+	 * losses of the variances computed in the last tuning
+	 */
+	private double[] candidateLosses = null;
+
+	/**
+	 * Class constructor setting number of folds and trials, random seed and
+	 * the variances to compare.
+	 *
+	 * @param folds number of folds in internal cross validation
+	 * @param trials number of trials
+	 * @param seed random seed
+	 * @param optimizeLogLoss
+	 * @param variances values of the Gaussian prior variance to compare
+	 */
+	public PathTunedClassifier(int folds, int trials, int seed,
+			boolean optimizeLogLoss, double[] variances) {
+		this.folds = folds;
+		this.trials = trials;
+		this.seed = seed;
+		this.optimizeLogLoss = optimizeLogLoss;
+		this.path = new MaxEntRegularizationPath(variances);
+	}
+
+	/**
+	 * Tunes the variance in cross-validation and returns it.
+	 *
+	 * @param train training examples
+	 * @param folds number of folds
+	 * @param trials number of trials
+	 * @param seed seed value
+	 * @return the best variance
+	 * @throws Exception
+	 */
+	private double tune(Instances train, int folds, int trials, int seed)
+			throws Exception {
+
+		final double[] variances = path.getVariances();
+		if (variances.length == 1)
+			return variances[0];
+
+		final Instances[] trains = new Instances[trials];
+		final Instances[] tests = new Instances[trials];
+
+		TuningData.crossData(train, trains, tests, trials, folds, new Random(seed));
+
+		List<Callable<double[][]>> tasks = new ArrayList<Callable<double[][]>>(trials);
+		for (int i = 0; i < trials; i++) {
+			final int iF = i;
+			tasks.add(new Callable<double[][]>() {
+				@Override
+				public double[][] call() throws Exception {
+					return testTrial(path.train(trains[iF]), tests[iF]);
+				}
+			});
+		}
+		List<double[][]> results = ParallelExecutor.invokeAll(tasks);
+
+		// the losses are reduced in the order of the variances and trials,
+		// ties are broken in favor of the variance given first
+		double[] losses = new double[variances.length];
+		double loss = Double.MAX_VALUE;
+		int best = 0;
+		for (int j = 0; j < variances.length; j++) {
+			double sum = 0.0;
+			int Z = 0;
+			for (double[][] trial : results) {
+				for (int n = 0; n < trial[j].length; n++) {
+					sum += trial[j][n];
+				}
+				Z += trial[j].length;
+			}
+			losses[j] = sum / (double) Z;
+			if (losses[j] < loss) {
+				loss = losses[j];
+				best = j;
+			}
+		}
+		this.candidateLosses = losses;
+
+		return variances[best];
+	}
+
+	/**
+	 * Tests the classifiers of a path in a single trial.
+	 *
+	 * @param classifiers classifiers trained for each of the variances
+	 * @param test testing examples
+	 * @return loss of each classifier for each of the testing examples
+	 * @throws Exception
+	 */
+	private double[][] testTrial(MalletClassifier[] classifiers, Instances test) throws Exception {
+		double[][] losses = new double[classifiers.length][test.numInstances()];
+
+		for (int c = 0; c < classifiers.length; c++) {
+			for (int j = 0; j < test.numInstances(); j++) {
+				Instance instance = test.instance(j);
+				int y = (int) instance.classValue();
+
+				if (this.isOptimizeLogLoss()) {
+					double[] p = classifiers[c].distributionForInstance(instance);
+					losses[c][j] = -Math.log(p[y]) * instance.weight();
+				} else {
+					int y_hat = (int) classifiers[c].classifyInstance(instance);
+					losses[c][j] = (y_hat == y) ? 0 : 1;
+				}
+			}
+		}
+
+		return losses;
+	}
+
+	/**
+	 * Builds tuned-classifier for original training set. The path is trained
+	 * on the whole set up to the chosen variance.
+	 */
+	@Override
+	public void buildClassifier(Instances instances) throws Exception {
+		this.bestVariance = tune(instances, this.folds, this.trials, this.seed);
+
+		MalletClassifier[] classifiers = path.train(instances, this.bestVariance);
+		double[] variances = path.getVariances();
+		for (int j = 0; j < variances.length; j++) {
+			if (variances[j] == this.bestVariance) {
+				this.tunedClassifier = classifiers[j];
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return probability distribution for the given instance (observation).
+	 */
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		return this.tunedClassifier.distributionForInstance(instance);
+	}
+
+	/**
+	 * @return the Gaussian prior variance chosen in the last tuning
+	 */
+	public double getBestVariance() {
+		return bestVariance;
+	}
+
+	/**
+	 * Returns the losses of the variances computed in the last tuning, in the
+	 * order given in the constructor.
+	 *
+	 * @return an array with the loss of each variance or null if the
+	 * classifier has not been tuned (e.g. there is a single variance)
+	 */
+	public double[] getCandidateLosses() {
+		return (candidateLosses == null) ? null : candidateLosses.clone();
+	}
+
+	/**
+	 * @param optimizeLogLoss the optimizeLogLoss to set
+	 */
+	void setOptimizeLogLoss(boolean optimizeLogLoss) {
+		this.optimizeLogLoss = optimizeLogLoss;
+	}
+
+	/**
+	 * @return the optimizeLogLoss
+	 */
+	boolean isOptimizeLogLoss() {
+		return optimizeLogLoss;
+	}
+
+}
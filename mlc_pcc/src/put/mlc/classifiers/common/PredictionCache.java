@@ -0,0 +1,327 @@
+package put.mlc.classifiers.common;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mulan.classifier.MultiLabelOutput;
+import weka.core.Instance;
+
+/**
+ * Cache of the predictions of multi-label learners, for the traffic with
+ * many repeated instances. The predictions are kept by the non-zero values
+ * of the features of the instances (the labels are skipped) and the
+ * generation of the model: a number given to each trained, loaded or
+ * reconfigured model, unique in the virtual machine (see
+ * {@link #nextGeneration()}). The learners take a new generation whenever
+ * their predictions may change, e.g. after training, setting another
+ * inference method or changing a parameter of the inference method (see
+ * {@link put.mlc.classifiers.pcc.inference.Inference#getConfiguration()}),
+ * so a prediction of the previous model is never returned. One cache may be shared by many learners.<br>
+ * <br>
+ * The cache is divided into segments selected by the hash of the instance,
+ * each with its own lock. A segment is a segmented LRU: a new prediction is
+ * put into the probationary part, and moved to the protected part (80% of
+ * the capacity) when it is hit again; the least recently used predictions of
+ * the protected part go back to the probationary part, and the ones of the
+ * probationary part are evicted. So the predictions hit once do not push
+ * out the frequently hit ones.<br>
+ * <br>
+ * The instances are matched exactly: the hash selects the candidates, and
+ * their features are compared. The cached outputs are shared, so they must
+ * not be modified. The learners whose predictions are random (e.g. the
+ * Monte Carlo inference without a fixed seed) return the first prediction
+ * made for an instance.
+ */
+public class PredictionCache {
+
+	/**
+	 * source of the generations of the models
+	 */
+	private static final AtomicLong generations = new AtomicLong();
+
+	private static final int NUM_SEGMENTS = 16;
+
+	private final Segment[] segments = new Segment[NUM_SEGMENTS];
+
+	private final int capacity;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param capacity maximal number of the cached predictions
+	 */
+	public PredictionCache(int capacity) {
+		if (capacity < NUM_SEGMENTS) {
+			throw new IllegalArgumentException("The capacity must be at least " + NUM_SEGMENTS + ".");
+		}
+		this.capacity = capacity;
+		for (int s = 0; s < NUM_SEGMENTS; s++) {
+			segments[s] = new Segment(capacity / NUM_SEGMENTS + (s < capacity % NUM_SEGMENTS ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Returns a new generation of a model, greater than all generations given
+	 * so far in the virtual machine.
+	 *
+	 * @return the generation (positive)
+	 */
+	public static long nextGeneration() {
+		return generations.incrementAndGet();
+	}
+
+	/**
+	 * Makes the key of an instance.
+	 *
+	 * @param generation generation of the model
+	 * @param instance the instance
+	 * @param labelIndices indices of the label attributes, which are skipped
+	 * @return the key
+	 */
+	public Key key(long generation, Instance instance, int[] labelIndices) {
+		int[] labels = labelIndices.clone();
+		Arrays.sort(labels);
+
+		int numValues = instance.numValues();
+		int[] indices = new int[numValues];
+		double[] values = new double[numValues];
+		int length = 0;
+		long hash = generation;
+		for (int j = 0; j < numValues; j++) {
+			int index = instance.index(j);
+			double value = instance.valueSparse(j);
+			if (value == 0 || Arrays.binarySearch(labels, index) >= 0) {
+				continue;
+			}
+			indices[length] = index;
+			values[length] = value;
+			length++;
+			hash = mix(hash ^ index);
+			hash = mix(hash ^ Double.doubleToLongBits(value));
+		}
+		return new Key(generation, hash, Arrays.copyOf(indices, length), Arrays.copyOf(values, length));
+	}
+
+	/**
+	 * Mixes the bits of a hash (the finalizer of MurmurHash3).
+	 */
+	private static long mix(long hash) {
+		hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+		hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return hash ^ (hash >>> 33);
+	}
+
+	private Segment segment(Key key) {
+		return segments[(int) (key.hash >>> 60) & (NUM_SEGMENTS - 1)];
+	}
+
+	/**
+	 * Returns the cached prediction for a key.
+	 *
+	 * @param key the key of the instance
+	 * @return the prediction or null
+	 */
+	public MultiLabelOutput get(Key key) {
+		MultiLabelOutput output = segment(key).get(key);
+		if (output == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return output;
+	}
+
+	/**
+	 * Puts a prediction into the cache.
+	 *
+	 * @param key the key of the instance
+	 * @param output the prediction, it must not be modified later
+	 */
+	public void put(Key key, MultiLabelOutput output) {
+		evictions.addAndGet(segment(key).put(key, output));
+	}
+
+	/**
+	 * Removes all predictions.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * @return maximal number of the cached predictions
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return number of the cached predictions
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return number of the found predictions
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of the predictions which were not found
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of the evicted predictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return ratio of the found predictions to all requests, 0 if there
+	 * were none
+	 */
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0.0 : (double) h / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Predictions: %d of %d; hits: %d, misses: %d (hit rate %.3f), evictions: %d",
+				size(), capacity, getHits(), getMisses(), getHitRate(), getEvictions());
+	}
+
+	/**
+	 * Key of an instance: the generation of the model and the non-zero values
+	 * of the features.
+	 */
+	public static final class Key {
+
+		private final long generation;
+
+		private final long hash;
+
+		private final int[] indices;
+
+		private final double[] values;
+
+		private Key(long generation, long hash, int[] indices, double[] values) {
+			this.generation = generation;
+			this.hash = hash;
+			this.indices = indices;
+			this.values = values;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (hash ^ (hash >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) object;
+			return hash == other.hash && generation == other.generation
+					&& Arrays.equals(indices, other.indices) && Arrays.equals(values, other.values);
+		}
+	}
+
+	/**
+	 * A segment of the cache: a segmented LRU guarded by its own lock.
+	 */
+	private static class Segment {
+
+		private final int protectedCapacity;
+
+		private final int capacity;
+
+		/**
+		 * the predictions hit once, in the order of use
+		 */
+		private final LinkedHashMap<Key, MultiLabelOutput> probation =
+				new LinkedHashMap<Key, MultiLabelOutput>(16, 0.75f, true);
+
+		/**
+		 * the predictions hit more than once, in the order of use
+		 */
+		private final LinkedHashMap<Key, MultiLabelOutput> protectedPart =
+				new LinkedHashMap<Key, MultiLabelOutput>(16, 0.75f, true);
+
+		Segment(int capacity) {
+			this.capacity = capacity;
+			this.protectedCapacity = capacity * 4 / 5;
+		}
+
+		synchronized MultiLabelOutput get(Key key) {
+			MultiLabelOutput output = protectedPart.get(key);
+			if (output != null) {
+				return output;
+			}
+			output = probation.remove(key);
+			if (output == null) {
+				return null;
+			}
+			protectedPart.put(key, output);
+			if (protectedPart.size() > protectedCapacity) {
+				Iterator<Map.Entry<Key, MultiLabelOutput>> eldest = protectedPart.entrySet().iterator();
+				Map.Entry<Key, MultiLabelOutput> demoted = eldest.next();
+				eldest.remove();
+				probation.put(demoted.getKey(), demoted.getValue());
+			}
+			return output;
+		}
+
+		/**
+		 * @return number of the evicted predictions
+		 */
+		synchronized int put(Key key, MultiLabelOutput output) {
+			if (protectedPart.containsKey(key)) {
+				protectedPart.put(key, output);
+				return 0;
+			}
+			probation.put(key, output);
+			int evicted = 0;
+			Iterator<Key> eldest = probation.keySet().iterator();
+			while (probation.size() + protectedPart.size() > capacity && eldest.hasNext()) {
+				eldest.next();
+				eldest.remove();
+				evicted++;
+			}
+			return evicted;
+		}
+
+		synchronized void clear() {
+			probation.clear();
+			protectedPart.clear();
+		}
+
+		synchronized int size() {
+			return probation.size() + protectedPart.size();
+		}
+	}
+}
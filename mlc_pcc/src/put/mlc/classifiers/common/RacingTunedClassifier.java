@@ -0,0 +1,308 @@
+package put.mlc.classifiers.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import put.mlc.utils.ParallelExecutor;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Implementation of a classifier that tunes parameters by racing the given
+ * classifiers (successive halving). It chooses the best of them with regard
+ * to logistic loss or 0/1 loss, like {@link TunedClassifier}, but not every
+ * classifier is tested in every trial of the internal cross validation.<br>
+ * <br>
+ * All classifiers are tested in the first trial. Then the worse half of them
+ * is dropped, apart from the classifiers whose mean loss is within the safety
+ * margin of the best one (given in standard errors of the mean). The rest is
+ * tested in the next trial, and so on, until one classifier is left or the
+ * trials are over. Hence, there are about twice as many fits as classifiers,
+ * instead of the number of classifiers times the number of trials.<br>
+ * The classifiers tested in one trial are trained in the threads of
+ * {@link ParallelExecutor}.
+ */
+public class RacingTunedClassifier extends AbstractClassifier {
+
+	private static final long serialVersionUID = -5170393261684629530L;
+
+	int folds = 3;
+	int trials = 3;
+	int seed = 0;
+
+	/**
+	 * safety margin in standard errors of the mean loss
+	 */
+	private double margin = 2.0;
+
+	private boolean optimizeLogLoss = true;
+
+	Classifier[] baseClassifiers = null;
+
+	protected Classifier tunedClassifier = null;
+
+	/**
+	 * mean losses of the candidates in the trials they have been tested in
+	 */
+	private double[] candidateLosses = null;
+
+	/**
+	 * number of trials each candidate has been tested in
+	 */
+	private int[] candidateTrials = null;
+
+	/**
+	 * Class constructor setting number of folds and trials, random seed and
+	 * list of classifiers to compare.
+	 *
+	 * @param folds number of folds in internal cross validation
+	 * @param trials number of trials
+	 * @param seed random seed
+	 * @param optimizeLogLoss
+	 * @param classifiers list of classifiers to compare
+	 */
+	public RacingTunedClassifier(int folds, int trials, int seed,
+			boolean optimizeLogLoss, Classifier[] classifiers) {
+		this.folds = folds;
+		this.trials = trials;
+		this.seed = seed;
+		this.optimizeLogLoss = optimizeLogLoss;
+		this.baseClassifiers = classifiers;
+	}
+
+	/**
+	 * Sets the safety margin. A classifier is kept in the race, even if it
+	 * is in the worse half, as long as its mean loss minus the margin times
+	 * its standard error does not exceed the mean loss of the best classifier
+	 * plus the margin times the standard error of the best one.
+	 *
+	 * @param margin number of standard errors, 0 for pure successive halving
+	 */
+	public void setMargin(double margin) {
+		if (margin < 0) {
+			throw new IllegalArgumentException("Margin cannot be negative.");
+		}
+		this.margin = margin;
+	}
+
+	/**
+	 * @return safety margin in standard errors of the mean loss
+	 */
+	public double getMargin() {
+		return margin;
+	}
+
+	/**
+	 * Races the classifiers in cross-validation and returns the best one.
+	 *
+	 * @param train training examples
+	 * @param folds number of folds
+	 * @param trials number of trials
+	 * @param seed seed value
+	 * @return the best base classifier
+	 * @throws Exception
+	 */
+	private Classifier tune(Instances train, int folds, int trials, int seed)
+			throws Exception {
+
+		if (this.baseClassifiers.length == 1)
+			return baseClassifiers[0];
+
+		final Instances[] trains = new Instances[trials];
+		final Instances[] tests = new Instances[trials];
+
+		TuningData.crossData(train, trains, tests, trials, folds, new Random(seed));
+
+		int numCandidates = this.baseClassifiers.length;
+		double[] sums = new double[numCandidates];
+		double[] squares = new double[numCandidates];
+		int[] counts = new int[numCandidates];
+		int[] tested = new int[numCandidates];
+
+		List<Integer> survivors = new ArrayList<Integer>(numCandidates);
+		for (int j = 0; j < numCandidates; j++) {
+			survivors.add(j);
+		}
+
+		for (int i = 0; i < trials && survivors.size() > 1; i++) {
+			final int iF = i;
+			List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>(survivors.size());
+			for (final int j : survivors) {
+				tasks.add(new Callable<double[]>() {
+					@Override
+					public double[] call() throws Exception {
+						return testTrial(baseClassifiers[j], trains[iF], tests[iF]);
+					}
+				});
+			}
+			List<double[]> losses = ParallelExecutor.invokeAll(tasks);
+
+			for (int k = 0; k < survivors.size(); k++) {
+				int j = survivors.get(k);
+				for (double loss : losses.get(k)) {
+					sums[j] += loss;
+					squares[j] += loss * loss;
+				}
+				counts[j] += losses.get(k).length;
+				tested[j]++;
+			}
+
+			if (i < trials - 1) {
+				survivors = halve(survivors, sums, squares, counts);
+			}
+		}
+
+		this.candidateLosses = new double[numCandidates];
+		this.candidateTrials = tested;
+		for (int j = 0; j < numCandidates; j++) {
+			this.candidateLosses[j] = (counts[j] == 0) ? Double.NaN : sums[j] / counts[j];
+		}
+
+		// ties are broken in favor of the candidate with the lower index
+		int best = survivors.get(0);
+		for (int j : survivors) {
+			if (this.candidateLosses[j] < this.candidateLosses[best]) {
+				best = j;
+			}
+		}
+
+		// choose the best base classifier
+		return baseClassifiers[best];
+	}
+
+	/**
+	 * Drops the worse half of the candidates, apart from the ones within the
+	 * safety margin of the best candidate.
+	 *
+	 * @param candidates indices of the candidates in the race
+	 * @param sums sums of the losses of the candidates
+	 * @param squares sums of the squared losses of the candidates
+	 * @param counts numbers of the losses of the candidates
+	 * @return indices of the candidates left in the race, ordered by their
+	 * mean losses
+	 */
+	private List<Integer> halve(List<Integer> candidates, double[] sums,
+			double[] squares, int[] counts) {
+
+		final double[] means = new double[sums.length];
+		double[] errors = new double[sums.length];
+		for (int j : candidates) {
+			means[j] = sums[j] / counts[j];
+			double variance = Math.max(0.0, squares[j] / counts[j] - means[j] * means[j]);
+			errors[j] = Math.sqrt(variance / counts[j]);
+		}
+
+		Integer[] order = candidates.toArray(new Integer[candidates.size()]);
+		Arrays.sort(order, new Comparator<Integer>() {
+
+			public int compare(Integer left, Integer right) {
+				int result = Double.compare(means[left], means[right]);
+				return (result != 0) ? result : left.compareTo(right);
+			}
+		});
+
+		int best = order[0];
+		double bound = means[best] + this.margin * errors[best];
+		int half = (order.length + 1) / 2;
+
+		List<Integer> survivors = new ArrayList<Integer>(order.length);
+		for (int k = 0; k < order.length; k++) {
+			int j = order[k];
+			if (k < half || means[j] - this.margin * errors[j] <= bound) {
+				survivors.add(j);
+			}
+		}
+		return survivors;
+	}
+
+	/**
+	 * Tests a classifier in a single trial.
+	 *
+	 * @param classifier tested classifier, it is not modified
+	 * @param train training examples
+	 * @param test testing examples
+	 * @return loss for each of the testing examples
+	 * @throws Exception
+	 */
+	private double[] testTrial(Classifier classifier, Instances train, Instances test) throws Exception {
+		double[] losses = new double[test.numInstances()];
+
+		Classifier testedClassifier = AbstractClassifier.makeCopy(classifier);
+
+		testedClassifier.buildClassifier(train);
+
+		for (int j = 0; j < test.numInstances(); j++) {
+			Instance instance = test.instance(j);
+			int y = (int) instance.classValue();
+
+			if (this.isOptimizeLogLoss()) {
+				double[] p = testedClassifier.distributionForInstance(instance);
+				losses[j] = -Math.log(p[y]) * instance.weight();
+			} else {
+				int y_hat = (int) testedClassifier.classifyInstance(instance);
+				losses[j] = (y_hat == y) ? 0 : 1;
+			}
+		}
+
+		return losses;
+	}
+
+	/**
+	 * Returns the mean losses of the candidates computed in the last tuning,
+	 * in the order of the classifiers given in the constructor. The candidates
+	 * dropped from the race have been tested in fewer trials.
+	 *
+	 * @return an array with the loss of each candidate or null if the
+	 * classifier has not been tuned (e.g. there is a single candidate)
+	 */
+	public double[] getCandidateLosses() {
+		return (candidateLosses == null) ? null : candidateLosses.clone();
+	}
+
+	/**
+	 * @return an array with the number of trials each candidate has been
+	 * tested in during the last tuning or null if the classifier has not been
+	 * tuned
+	 */
+	public int[] getCandidateTrials() {
+		return (candidateTrials == null) ? null : candidateTrials.clone();
+	}
+
+	/**
+	 * Builds tuned-classifier for original training set.
+	 */
+	@Override
+	public void buildClassifier(Instances instances) throws Exception {
+		this.tunedClassifier = tune(instances, this.folds, this.trials, this.seed);
+		this.tunedClassifier.buildClassifier(instances);
+	}
+
+	/**
+	 * @return probability distribution for the given instance (observation).
+	 */
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		return this.tunedClassifier.distributionForInstance(instance);
+	}
+
+	/**
+	 * @param optimizeLogLoss the optimizeLogLoss to set
+	 */
+	void setOptimizeLogLoss(boolean optimizeLogLoss) {
+		this.optimizeLogLoss = optimizeLogLoss;
+	}
+
+	/**
+	 * @return the optimizeLogLoss
+	 */
+	boolean isOptimizeLogLoss() {
+		return optimizeLogLoss;
+	}
+
+}
@@ -44,29 +44,6 @@ public class TunedClassifier extends AbstractClassifier {
 		this.baseClassifiers = classifiers;
 	}
 	
-	/**
-	 * Splits original training set for cross-validation operation.
-	 * 
-	 * @param dataset instances from original training set
-	 * @param train set of the new training examples
-	 * @param tests set of the new testing examples
-	 * @param trials number of trials
-	 * @param folds number of folds in CV
-	 * @param random {@link Random} object
-	 * @throws Exception
-	 */
-	private void crossData(Instances dataset, Instances[] train, Instances[] tests, int trials,
-			int folds, Random random) throws Exception {
-		
-		Instances workingSet = new Instances(dataset);
-		workingSet.randomize(random);
-
-		for (int i = 0; i < trials; i++) {
-			train[i] = workingSet.trainCV(folds, i, random);
-			tests[i] = workingSet.testCV(folds, i);
-		}
-	}
-	
 	/**
 	 * Tunes the parameters in cross-validation and returns the best base classifier.
 	 * 
@@ -85,7 +62,7 @@ public class TunedClassifier extends AbstractClassifier {
 		Instances[] trains = new Instances[trials];
 		Instances[] tests = new Instances[trials];
 		
-		crossData(train, trains, tests, trials, folds, new Random(seed));
+		TuningData.crossData(train, trains, tests, trials, folds, new Random(seed));
 		
 		double loss = Double.MAX_VALUE;
 		int best = 0;
@@ -0,0 +1,38 @@
+package put.mlc.classifiers.common;
+
+import java.util.Random;
+
+import weka.core.Instances;
+
+/**
+ * Splits of the training set used by the tuned classifiers to compare the
+ * candidates in internal cross-validation.
+ */
+final class TuningData {
+
+	private TuningData() {
+	}
+
+	/**
+	 * Splits original training set for cross-validation operation.
+	 * 
+	 * @param dataset instances from original training set
+	 * @param train set of the new training examples
+	 * @param tests set of the new testing examples
+	 * @param trials number of trials
+	 * @param folds number of folds in CV
+	 * @param random {@link Random} object
+	 * @throws Exception
+	 */
+	static void crossData(Instances dataset, Instances[] train, Instances[] tests, int trials,
+			int folds, Random random) throws Exception {
+		
+		Instances workingSet = new Instances(dataset);
+		workingSet.randomize(random);
+
+		for (int i = 0; i < trials; i++) {
+			train[i] = workingSet.trainCV(folds, i, random);
+			tests[i] = workingSet.testCV(folds, i);
+		}
+	}
+}
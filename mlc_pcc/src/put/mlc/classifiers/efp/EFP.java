@@ -8,8 +8,15 @@ import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import put.mlc.classifiers.common.AsyncMultiLabelLearner;
+import put.mlc.classifiers.common.CachedPredictions;
+import put.mlc.classifiers.common.PredictionCache;
 import put.mlc.classifiers.f.FMeasure;
+import put.mlc.utils.AsyncPredictor;
+import put.mlc.utils.Cancellation;
 
 import weka.classifiers.functions.Logistic;
 
@@ -44,7 +51,7 @@ import weka.filters.unsupervised.attribute.Remove;
  * @author Krzysztof Dembczynski
  * @author Arkadiusz Jachnik
  */
-public class EFP extends TransformationBasedMultiLabelLearner {
+public class EFP extends TransformationBasedMultiLabelLearner implements AsyncMultiLabelLearner {
 
 	private static final long serialVersionUID = -8081673809038221406L;
 
@@ -67,6 +74,11 @@ public class EFP extends TransformationBasedMultiLabelLearner {
 	 * classifier for prediction consisting of all 0s
 	 */
 	protected Classifier allZeros;
+	
+	/**
+	 * cached predictions, taken anew after each training
+	 */
+	private final CachedPredictions predictions = new CachedPredictions();
 
 	/**
 	 * Default constructor. It is used only with tuned experiment.
@@ -138,6 +150,8 @@ public class EFP extends TransformationBasedMultiLabelLearner {
 			
 			ensemble[i].buildClassifier(trainingData);
 		}
+		
+		predictions.invalidate();
 	}
 
 	/**
@@ -151,6 +165,23 @@ public class EFP extends TransformationBasedMultiLabelLearner {
      * @return the output of the learner for the given instance
      */
 	protected MultiLabelOutput makePredictionInternal(Instance instance) throws Exception {
+		PredictionCache.Key key = predictions.key(instance, labelIndices, 0);
+		MultiLabelOutput output = predictions.get(key);
+		if (output == null) {
+			output = predict(instance);
+			predictions.put(key, output);
+		}
+		return output;
+	}
+	
+	/**
+	 * Makes a prediction for the given instance, without the cache.
+	 * 
+	 * @param instance the data instance to predict on
+	 * @return the output of the learner for the given instance
+	 * @throws Exception if an error occurs while making the prediction
+	 */
+	private MultiLabelOutput predict(Instance instance) throws Exception {
 
 		double p_0 = 0.0;
 		
@@ -165,6 +196,7 @@ public class EFP extends TransformationBasedMultiLabelLearner {
 		double[] marginals = new double[numLabels];
 		
 		for (int i = 0; i < numLabels; i++) {
+			Cancellation.check();
 			double[] distribution = ensemble[i].distributionForInstance(transformedInstance);
 			for (int j = 0; j < distribution.length; j++) {
 				int label = Integer.parseInt(transformedInstance.attribute(this.labelIndices[i]).value(j));
@@ -184,6 +216,48 @@ public class EFP extends TransformationBasedMultiLabelLearner {
 		return prediction;
 	}
 	
+	/**
+	 * Submits a prediction for the given instance to {@link AsyncPredictor}.
+	 * 
+	 * @param instance the instance to predict on
+	 * @return the future output of the learner
+	 */
+	@Override
+	public Future<MultiLabelOutput> predictAsync(Instance instance) {
+		return AsyncPredictor.submit(this, instance);
+	}
+
+	/**
+	 * Submits a prediction for the given instance to {@link AsyncPredictor}
+	 * with a timeout.
+	 * 
+	 * @param instance the instance to predict on
+	 * @param timeout time after which the prediction fails
+	 * @param unit unit of the timeout
+	 * @return the future output of the learner
+	 */
+	@Override
+	public Future<MultiLabelOutput> predictAsync(Instance instance, long timeout, TimeUnit unit) {
+		return AsyncPredictor.submit(this, instance, timeout, unit, null);
+	}
+	
+	/**
+	 * Sets a cache of the predictions, which may be shared with other
+	 * learners. It is not serialized with the learner.
+	 * 
+	 * @param predictionCache the cache, or null to turn the caching off
+	 */
+	public void setPredictionCache(PredictionCache predictionCache) {
+		predictions.setCache(predictionCache);
+	}
+	
+	/**
+	 * @return the cache of the predictions, or null
+	 */
+	public PredictionCache getPredictionCache() {
+		return predictions.getCache();
+	}
+	
 	/**
 	 * Sets the base classifier.
 	 * @param baseClassifier base classifier
@@ -192,4 +266,4 @@ public class EFP extends TransformationBasedMultiLabelLearner {
 		this.baseClassifier = baseClassifier;
 	}
 
-}
\ No newline at end of file
+}
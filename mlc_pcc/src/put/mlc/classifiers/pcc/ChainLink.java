@@ -0,0 +1,206 @@
+package put.mlc.classifiers.pcc;
+
+import java.util.Arrays;
+
+import put.mlc.classifiers.common.BatchClassifier;
+import put.mlc.classifiers.common.MalletClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.meta.FilteredClassifier;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.filters.unsupervised.attribute.Remove;
+
+/**
+ * A single link of a classifier chain. It is a {@link FilteredClassifier}
+ * which removes the labels following the given one in the chain before
+ * training the base classifier.<br>
+ * <br>
+ * After training, the instances are not passed through the filter. The link
+ * maps their attributes itself, so it may be used by many threads at once,
+ * and it scores many label prefixes of one instance in one call if the base
+ * classifier implements {@link BatchClassifier}.
+ */
+public class ChainLink extends FilteredClassifier implements BatchClassifier {
+
+	private static final long serialVersionUID = 3371409525826045519L;
+
+	/**
+	 * indices of the attributes removed before training
+	 */
+	private int[] indicesToRemove;
+
+	/**
+	 * index of each attribute of the training data set after filtering,
+	 * -1 for the removed attributes
+	 */
+	private int[] attributeMap = null;
+
+	/**
+	 * structure of the filtered data set
+	 */
+	private Instances header = null;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param classifier base classifier
+	 * @param indicesToRemove indices of the attributes to be removed
+	 */
+	public ChainLink(Classifier classifier, int[] indicesToRemove) {
+		setClassifier(classifier);
+		this.indicesToRemove = indicesToRemove.clone();
+	}
+
+	/**
+	 * Builds the base classifier on the filtered data set.
+	 *
+	 * @param data the training data set
+	 * @throws Exception
+	 */
+	@Override
+	public void buildClassifier(Instances data) throws Exception {
+		Remove remove = new Remove();
+		remove.setAttributeIndicesArray(indicesToRemove);
+		remove.setInputFormat(data);
+		remove.setInvertSelection(false);
+		setFilter(remove);
+
+		super.buildClassifier(data);
+
+		header = remove.getOutputFormat();
+
+		int[] removed = indicesToRemove.clone();
+		Arrays.sort(removed);
+		attributeMap = new int[data.numAttributes()];
+		int next = 0;
+		for (int i = 0; i < attributeMap.length; i++) {
+			attributeMap[i] = (Arrays.binarySearch(removed, i) >= 0) ? -1 : next++;
+		}
+	}
+
+	/**
+	 * Returns probability distribution for the given instance.
+	 *
+	 * @param instance instance to classify
+	 */
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		return getClassifier().distributionForInstance(filterInstance(instance));
+	}
+
+	/**
+	 * Returns probability distributions for copies of one instance which
+	 * differ only in values of the given attributes. The attributes removed
+	 * by this link are skipped.
+	 *
+	 * @param base the base instance
+	 * @param prefixAttributes indices of the attributes to be set
+	 * @param prefixes an array with values of the attributes for each copy
+	 * @param length number of copies to classify
+	 * @return an array with a distribution for each of the copies
+	 */
+	@Override
+	public double[][] distributionsForPrefixes(Instance base, int[] prefixAttributes,
+			double[][] prefixes, int length) throws Exception {
+
+		Instance filteredBase = filterInstance(base);
+
+		int[] kept = new int[prefixAttributes.length];
+		int[] attributes = new int[prefixAttributes.length];
+		int numKept = 0;
+		for (int j = 0; j < prefixAttributes.length; j++) {
+			int index = attributeMap[prefixAttributes[j]];
+			if (index >= 0) {
+				kept[numKept] = j;
+				attributes[numKept] = index;
+				numKept++;
+			}
+		}
+
+		double[][] values = prefixes;
+		if (numKept < prefixAttributes.length) {
+			attributes = Arrays.copyOf(attributes, numKept);
+			values = new double[length][numKept];
+			for (int r = 0; r < length; r++) {
+				for (int j = 0; j < numKept; j++) {
+					values[r][j] = prefixes[r][kept[j]];
+				}
+			}
+		}
+
+		if (getClassifier() instanceof BatchClassifier) {
+			return ((BatchClassifier) getClassifier()).distributionsForPrefixes(
+					filteredBase, attributes, values, length);
+		}
+
+		double[][] distributions = new double[length][];
+		for (int r = 0; r < length; r++) {
+			for (int j = 0; j < attributes.length; j++) {
+				filteredBase.setValue(attributes[j], values[r][j]);
+			}
+			distributions[r] = getClassifier().distributionForInstance(filteredBase);
+		}
+		return distributions;
+	}
+
+	/**
+	 * Returns the base classifier as a linear model over the given attributes
+	 * of the training data set, if it is one.
+	 *
+	 * @param attributes indices of the attributes of the training data set
+	 * @return an array with a row for each class: the weights of the given
+	 * attributes (0 for the removed ones) followed by the bias; null if the
+	 * base classifier is not linear
+	 * @see MalletClassifier#getLinearModel(int[])
+	 */
+	double[][] getLinearModel(int[] attributes) {
+		if (attributeMap == null || !(getClassifier() instanceof MalletClassifier)) {
+			return null;
+		}
+		int[] filtered = new int[attributes.length];
+		for (int k = 0; k < attributes.length; k++) {
+			filtered[k] = attributeMap[attributes[k]];
+		}
+		return ((MalletClassifier) getClassifier()).getLinearModel(filtered);
+	}
+
+	/**
+	 * Maps the attributes of the given instance to the structure of the
+	 * filtered data set.
+	 *
+	 * @param instance instance with the structure of the training data set
+	 * @return a new, filtered instance
+	 */
+	private Instance filterInstance(Instance instance) {
+		int numValues = instance.numValues();
+		int[] indices = new int[numValues];
+		double[] values = new double[numValues];
+		int length = 0;
+
+		for (int j = 0; j < numValues; j++) {
+			int index = attributeMap[instance.index(j)];
+			if (index >= 0) {
+				indices[length] = index;
+				values[length] = instance.valueSparse(j);
+				length++;
+			}
+		}
+
+		Instance result;
+		if (instance instanceof SparseInstance) {
+			result = new SparseInstance(instance.weight(), Arrays.copyOf(values, length),
+					Arrays.copyOf(indices, length), header.numAttributes());
+		} else {
+			double[] dense = new double[header.numAttributes()];
+			for (int k = 0; k < length; k++) {
+				dense[indices[k]] = values[k];
+			}
+			result = new DenseInstance(instance.weight(), dense);
+		}
+		result.setDataset(header);
+
+		return result;
+	}
+}
@@ -0,0 +1,280 @@
+package put.mlc.classifiers.pcc;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import put.mlc.classifiers.common.BatchClassifier;
+import weka.classifiers.AbstractClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A link of a classifier chain loaded from a file in {@link CompactModel}
+ * format. It is a linear model over the features of the data set and the
+ * labels preceding its label in the chain, which scores the instances in
+ * the same way as {@link put.mlc.classifiers.common.MalletClassifier}
+ * scores them with a MaxEnt model.<br>
+ * <br>
+ * The weights are kept in a mapped block of the file until the link is used
+ * for the first time, so loading a model with thousands of links does not
+ * read them. The link can be used by many threads at once.
+ */
+class CompactLink extends AbstractClassifier implements BatchClassifier {
+
+	private static final long serialVersionUID = -2516802749461187063L;
+
+	/**
+	 * column of the weights for each attribute, shared by all links of the
+	 * chain: the position among the features for the features and the number
+	 * of features plus the position in the chain for the labels; -1 for the
+	 * other attributes
+	 */
+	private final int[] columns;
+
+	/**
+	 * number of weights of a class, including the bias in the last column
+	 */
+	private final int width;
+
+	private final int numClasses;
+
+	/**
+	 * true if the weights are stored as floats
+	 */
+	private final boolean singlePrecision;
+
+	/**
+	 * the mapped block of the weights, null after they are read
+	 */
+	private transient ByteBuffer block;
+
+	/**
+	 * the weights of the classes row by row, null until the first use
+	 */
+	private volatile double[] weights = null;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param columns column of the weights for each attribute
+	 * @param width number of weights of a class, including the bias
+	 * @param numClasses number of classes
+	 * @param block the block of the weights in little-endian order
+	 * @param singlePrecision true if the weights are stored as floats
+	 */
+	CompactLink(int[] columns, int width, int numClasses, ByteBuffer block,
+			boolean singlePrecision) {
+		this.columns = columns;
+		this.width = width;
+		this.numClasses = numClasses;
+		this.block = block;
+		this.singlePrecision = singlePrecision;
+	}
+
+	/**
+	 * Returns the weights, reading them from the block on the first call.
+	 */
+	private double[] weights() {
+		double[] result = weights;
+		if (result == null) {
+			synchronized (this) {
+				result = weights;
+				if (result == null) {
+					result = new double[numClasses * width];
+					ByteBuffer buffer = block.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+					if (singlePrecision) {
+						FloatBuffer floats = buffer.asFloatBuffer();
+						for (int k = 0; k < result.length; k++) {
+							result[k] = floats.get(k);
+						}
+					} else {
+						buffer.asDoubleBuffer().get(result);
+					}
+					weights = result;
+					block = null;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return true if the weights have been read from the file
+	 */
+	boolean isMaterialized() {
+		return weights != null;
+	}
+
+	/**
+	 * Reads the weights from the file if they have not been read yet.
+	 */
+	void materialize() {
+		weights();
+	}
+
+	/**
+	 * Returns the link as a linear model over the given attributes.
+	 *
+	 * @param attributes indices of the attributes of the data set
+	 * @return an array with a row for each class: the weights of the given
+	 * attributes (0 for the ones which are not used by the link) followed by
+	 * the bias
+	 */
+	double[][] getLinearModel(int[] attributes) {
+		double[] w = weights();
+		double[][] model = new double[numClasses][attributes.length + 1];
+		for (int c = 0; c < numClasses; c++) {
+			for (int k = 0; k < attributes.length; k++) {
+				int column = column(attributes[k]);
+				if (column >= 0) {
+					model[c][k] = w[c * width + column];
+				}
+			}
+			model[c][attributes.length] = w[c * width + width - 1];
+		}
+		return model;
+	}
+
+	/**
+	 * Returns the column of the weights for the given attribute, -1 if it is
+	 * not used by the link.
+	 */
+	private int column(int index) {
+		if (index >= columns.length) {
+			return -1;
+		}
+		int column = columns[index];
+		return (column < width - 1) ? column : -1;
+	}
+
+	/**
+	 * The link can not be trained, it is loaded from a file.
+	 */
+	@Override
+	public void buildClassifier(Instances data) throws Exception {
+		throw new UnsupportedOperationException("A loaded link can not be trained.");
+	}
+
+	/**
+	 * Returns probability distribution for the given instance.
+	 *
+	 * @param instance instance to classify
+	 */
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		double[] scores = new double[numClasses];
+		addScores(weights(), instance, null, scores);
+		return normalize(scores);
+	}
+
+	/**
+	 * Returns probability distributions for copies of one instance which
+	 * differ only in values of the given attributes. The scores of the
+	 * remaining attributes are computed once.
+	 *
+	 * @param base the base instance
+	 * @param prefixAttributes indices of the attributes to be set
+	 * @param prefixes an array with values of the attributes for each copy
+	 * @param length number of copies to classify
+	 * @return an array with a distribution for each of the copies
+	 */
+	@Override
+	public double[][] distributionsForPrefixes(Instance base, int[] prefixAttributes,
+			double[][] prefixes, int length) throws Exception {
+		double[] w = weights();
+
+		int[] skipped = prefixAttributes.clone();
+		Arrays.sort(skipped);
+
+		double[] baseScores = new double[numClasses];
+		addScores(w, base, skipped, baseScores);
+
+		double[][] distributions = new double[length][];
+		for (int r = 0; r < length; r++) {
+			double[] scores = baseScores.clone();
+			for (int j = 0; j < prefixAttributes.length; j++) {
+				int column = column(prefixAttributes[j]);
+				double value = prefixes[r][j];
+				if (column < 0 || value == 0) {
+					continue;
+				}
+				for (int c = 0; c < numClasses; c++) {
+					scores[c] += w[c * width + column] * value;
+				}
+			}
+			distributions[r] = normalize(scores);
+		}
+		return distributions;
+	}
+
+	/**
+	 * Adds the unnormalized scores of the classes for the given instance, in
+	 * the same order of operations as the MaxEnt model the link has been
+	 * written from, so that the distributions are equal.
+	 *
+	 * @param w the weights
+	 * @param instance instance to classify
+	 * @param skipped sorted indices of the attributes to be skipped or null
+	 * @param scores an array the scores are added to
+	 */
+	private void addScores(double[] w, Instance instance, int[] skipped, double[] scores) {
+		for (int c = 0; c < numClasses; c++) {
+			scores[c] += w[c * width + width - 1];
+		}
+
+		for (int j = 0; j < instance.numValues(); j++) {
+			int index = instance.index(j);
+			int column = column(index);
+			if (column < 0 || (skipped != null && Arrays.binarySearch(skipped, index) >= 0)) {
+				continue;
+			}
+			double value = instance.valueSparse(j);
+			if (value == 0) {
+				continue;
+			}
+			for (int c = 0; c < numClasses; c++) {
+				scores[c] += w[c * width + column] * value;
+			}
+		}
+	}
+
+	/**
+	 * Turns the scores of the classes into a probability distribution.
+	 *
+	 * @param scores unnormalized scores, overwritten by the distribution
+	 * @return the distribution
+	 */
+	private static double[] normalize(double[] scores) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int c = 0; c < scores.length; c++) {
+			max = Math.max(max, scores[c]);
+		}
+		double sum = 0.0;
+		for (int c = 0; c < scores.length; c++) {
+			sum += (scores[c] = Math.exp(scores[c] - max));
+		}
+		for (int c = 0; c < scores.length; c++) {
+			scores[c] /= sum;
+		}
+		return scores;
+	}
+
+	/**
+	 * Reads the weights before serialization, since the mapped block is not
+	 * serializable.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		weights();
+		out.defaultWriteObject();
+	}
+
+	@Override
+	public String toString() {
+		return "Linear link: " + numClasses + " classes, " + (width - 1) + " attributes"
+				+ (isMaterialized() ? "" : " (not read yet)") + "\n";
+	}
+}
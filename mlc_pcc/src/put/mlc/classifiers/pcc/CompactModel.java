@@ -0,0 +1,405 @@
+package put.mlc.classifiers.pcc;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import put.mlc.classifiers.pcc.inference.Inference;
+import put.mlc.classifiers.pcc.inference.depthfirst.ExactInference;
+import put.mlc.utils.AtomicFiles;
+import weka.classifiers.Classifier;
+
+/**
+ * Compact binary format of trained {@link PCC} models whose links are
+ * linear, i.e. MaxEnt models trained by
+ * {@link put.mlc.classifiers.common.MalletClassifier}. A file consists of:
+ * <ul>
+ * <li>a preamble: magic number, version, length of the header and flags,</li>
+ * <li>a header: number of attributes, indices of the labels, the chain
+ * ordering, indices of the features and number of classes,</li>
+ * <li>a block of weights for each position in the chain: a row for each
+ * class with the weights of the features, the weights of the preceding
+ * labels in the chain and the bias.</li>
+ * </ul>
+ * The header is written by {@link DataOutputStream}, the preamble and the
+ * blocks are written in little-endian order and aligned to 8 bytes. The
+ * weights are stored as doubles, so the loaded model gives exactly the same
+ * distributions as the trained one, or as floats, which halves the file.<br>
+ * <br>
+ * The loaded model maps the blocks into memory and reads the weights of
+ * a link on its first use (see {@link CompactLink}), so it starts in the
+ * time of reading the header, even with thousands of labels.
+ */
+public final class CompactModel {
+
+	/**
+	 * extension of the files in this format
+	 */
+	public static final String EXTENSION = ".pccm";
+
+	static final int MAGIC = 0x4D434350;
+
+	static final int VERSION = 1;
+
+	/**
+	 * length of the preamble in bytes
+	 */
+	static final int PREAMBLE = 16;
+
+	/**
+	 * the weights are stored as floats
+	 */
+	static final int FLAG_FLOAT = 1;
+
+	/**
+	 * size of the buffer used to write the blocks
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private CompactModel() {
+	}
+
+	/**
+	 * Returns the given position aligned to 8 bytes.
+	 */
+	static long align(long position) {
+		return (position + 7) & ~7L;
+	}
+
+	/**
+	 * Writes a trained model with the weights stored as doubles.
+	 *
+	 * @param pcc the trained model
+	 * @param file the file to write to, it is replaced by a rename, so the
+	 * models loaded from the old file are not affected
+	 * @throws IOException
+	 * @see #write(PCC, File, boolean)
+	 */
+	public static void write(PCC pcc, File file) throws IOException {
+		write(pcc, file, false);
+	}
+
+	/**
+	 * Writes a trained model. All links of the chain have to be linear: MaxEnt
+	 * models without feature selection, trained by
+	 * {@link put.mlc.classifiers.common.MalletClassifier}, or links of
+	 * a model loaded from this format.
+	 *
+	 * @param pcc the trained model
+	 * @param file the file to write to, it is replaced by a rename, so the
+	 * models loaded from the old file are not affected
+	 * @param singlePrecision true to store the weights as floats
+	 * @throws IOException
+	 * @throws IllegalArgumentException if the model has not been trained or
+	 * its links are not linear
+	 */
+	public static void write(PCC pcc, File file, boolean singlePrecision) throws IOException {
+		Classifier[] ensemble = pcc.getEnsemble();
+		if (ensemble == null) {
+			throw new IllegalArgumentException("The model has not been trained.");
+		}
+		int[] labelIndices = pcc.getLabelIndices();
+		int[] featureIndices = pcc.getFeatureIndices();
+		int[] chain = pcc.getChain();
+		int numLabels = labelIndices.length;
+		int numFeatures = featureIndices.length;
+
+		int numAttributes = 0;
+		for (int index : labelIndices) {
+			numAttributes = Math.max(numAttributes, index + 1);
+		}
+		for (int index : featureIndices) {
+			numAttributes = Math.max(numAttributes, index + 1);
+		}
+
+		// the attributes of the last link: the features and all labels but its own
+		int[] attributes = new int[numFeatures + numLabels - 1];
+		System.arraycopy(featureIndices, 0, attributes, 0, numFeatures);
+		for (int i = 0; i < numLabels - 1; i++) {
+			attributes[numFeatures + i] = labelIndices[chain[i]];
+		}
+
+		double[][] first = linearModel(ensemble, 0, attributes, numFeatures);
+		int numClasses = first.length;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeInt(numAttributes);
+		header.writeInt(numLabels);
+		for (int i = 0; i < numLabels; i++) {
+			header.writeInt(labelIndices[i]);
+		}
+		for (int i = 0; i < numLabels; i++) {
+			header.writeInt(chain[i]);
+		}
+		header.writeInt(numFeatures);
+		for (int k = 0; k < numFeatures; k++) {
+			header.writeInt(featureIndices[k]);
+		}
+		header.writeInt(numClasses);
+		header.flush();
+		byte[] headerBytes = bytes.toByteArray();
+
+		// the file may be mapped by the loaded models, so it is replaced, not truncated
+		File temporary = AtomicFiles.createTemporary(file);
+		RandomAccessFile out = new RandomAccessFile(temporary, "rw");
+		boolean written = false;
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(headerBytes.length);
+			buffer.putInt(singlePrecision ? FLAG_FLOAT : 0);
+			flush(channel, buffer);
+			channel.write(ByteBuffer.wrap(headerBytes));
+			pad(channel, buffer);
+
+			for (int i = 0; i < numLabels; i++) {
+				double[][] model = (i == 0) ? first
+						: linearModel(ensemble, i, attributes, numFeatures + i);
+				if (model.length != numClasses) {
+					throw new IllegalArgumentException("The links have different numbers of classes.");
+				}
+				for (int c = 0; c < numClasses; c++) {
+					for (int k = 0; k < model[c].length; k++) {
+						if (buffer.remaining() < 8) {
+							flush(channel, buffer);
+						}
+						if (singlePrecision) {
+							buffer.putFloat((float) model[c][k]);
+						} else {
+							buffer.putDouble(model[c][k]);
+						}
+					}
+				}
+				pad(channel, buffer);
+			}
+			written = true;
+		} finally {
+			out.close();
+			if (!written) {
+				temporary.delete();
+			}
+		}
+		AtomicFiles.replace(temporary, file);
+	}
+
+	/**
+	 * Returns the link at the given position as a linear model over the
+	 * given number of the first attributes.
+	 */
+	private static double[][] linearModel(Classifier[] ensemble, int i, int[] attributes,
+			int length) {
+		int[] used = new int[length];
+		System.arraycopy(attributes, 0, used, 0, length);
+
+		double[][] model = null;
+		if (ensemble[i] instanceof ChainLink) {
+			model = ((ChainLink) ensemble[i]).getLinearModel(used);
+		} else if (ensemble[i] instanceof CompactLink) {
+			model = ((CompactLink) ensemble[i]).getLinearModel(used);
+		}
+		if (model == null) {
+			throw new IllegalArgumentException("The link at position " + i
+					+ " of the chain is not a linear model.");
+		}
+		return model;
+	}
+
+	/**
+	 * Loads a model with the exact inference.
+	 *
+	 * @param file the file to read
+	 * @return the loaded model
+	 * @throws IOException if the file can not be read or is not in the format
+	 * @see #load(File, Inference)
+	 */
+	public static PCC load(File file) throws IOException {
+		return load(file, new ExactInference());
+	}
+
+	/**
+	 * Loads a model. The blocks of the weights are mapped into memory, and
+	 * the weights of each link are read on its first use.
+	 *
+	 * @param file the file to read
+	 * @param inference inference method of the model
+	 * @return the loaded model
+	 * @throws IOException if the file can not be read or is not in the format
+	 */
+	public static PCC load(File file, Inference inference) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer preamble = map(channel, 0, PREAMBLE);
+			if (preamble.getInt() != MAGIC) {
+				throw new IOException("Not a compact PCC model.");
+			}
+			int version = preamble.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version of the format: " + version);
+			}
+			int headerLength = preamble.getInt();
+			boolean singlePrecision = (preamble.getInt() & FLAG_FLOAT) != 0;
+
+			byte[] headerBytes = new byte[headerLength];
+			map(channel, PREAMBLE, headerLength).get(headerBytes);
+			DataInputStream header = new DataInputStream(new ByteArrayInputStream(headerBytes));
+
+			int numAttributes = header.readInt();
+			int numLabels = header.readInt();
+			int[] labelIndices = new int[numLabels];
+			for (int i = 0; i < numLabels; i++) {
+				labelIndices[i] = header.readInt();
+			}
+			int[] chain = new int[numLabels];
+			for (int i = 0; i < numLabels; i++) {
+				chain[i] = header.readInt();
+			}
+			int numFeatures = header.readInt();
+			int[] featureIndices = new int[numFeatures];
+			for (int k = 0; k < numFeatures; k++) {
+				featureIndices[k] = header.readInt();
+			}
+			int numClasses = header.readInt();
+
+			int[] columns = new int[numAttributes];
+			for (int a = 0; a < numAttributes; a++) {
+				columns[a] = -1;
+			}
+			for (int k = 0; k < numFeatures; k++) {
+				columns[featureIndices[k]] = k;
+			}
+			for (int i = 0; i < numLabels; i++) {
+				columns[labelIndices[chain[i]]] = numFeatures + i;
+			}
+
+			int size = singlePrecision ? 4 : 8;
+			long position = align(PREAMBLE + headerLength);
+			Classifier[] ensemble = new Classifier[numLabels];
+			for (int i = 0; i < numLabels; i++) {
+				int width = numFeatures + i + 1;
+				long length = (long) size * numClasses * width;
+				ensemble[i] = new CompactLink(columns, width, numClasses,
+						map(channel, position, length), singlePrecision);
+				position = align(position + length);
+			}
+
+			PCC pcc = new PCC(inference);
+			pcc.setModel(ensemble, chain, labelIndices, featureIndices);
+			return pcc;
+		} finally {
+			// the mapped blocks stay valid after the file is closed
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the weights of all links of a loaded model which have not been
+	 * read yet, so that the model does not use its file any more, e.g.
+	 * before the file is replaced. Other models are not changed.
+	 *
+	 * @param pcc a model
+	 */
+	public static void materialize(PCC pcc) {
+		Classifier[] ensemble = pcc.getEnsemble();
+		if (ensemble == null) {
+			return;
+		}
+		for (Classifier link : ensemble) {
+			if (link instanceof CompactLink) {
+				((CompactLink) link).materialize();
+			}
+		}
+	}
+
+	/**
+	 * Estimates the memory taken by a model loaded from a file when all its
+	 * links have been read. The weights are read as doubles, so the memory
+	 * of a file with floats is about twice its length.
+	 *
+	 * @param file the file with the model
+	 * @return memory in bytes
+	 * @throws IOException if the file can not be read or is not in the format
+	 */
+	public static long estimateMemory(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			byte[] preambleBytes = new byte[PREAMBLE];
+			in.readFully(preambleBytes);
+			ByteBuffer preamble = ByteBuffer.wrap(preambleBytes).order(ByteOrder.LITTLE_ENDIAN);
+			if (preamble.getInt() != MAGIC) {
+				throw new IOException("Not a compact PCC model.");
+			}
+			preamble.getInt();
+			int headerLength = preamble.getInt();
+
+			// the header is big-endian, written by DataOutputStream
+			int numAttributes = in.readInt();
+			int numLabels = in.readInt();
+			in.skipBytes(8 * numLabels);
+			int numFeatures = in.readInt();
+			in.skipBytes(4 * numFeatures);
+			int numClasses = in.readInt();
+
+			// the links have numFeatures + i + 1 weights per class
+			long numWeights = (long) numClasses
+					* ((long) numLabels * (numFeatures + 1) + (long) numLabels * (numLabels - 1) / 2);
+			// the weights and the columns shared by the links
+			return 8 * numWeights + 4L * numAttributes + headerLength;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Maps a block of the file in little-endian order.
+	 */
+	private static ByteBuffer map(FileChannel channel, long position, long length)
+			throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Block of " + length + " bytes is too large to be mapped.");
+		}
+		if (position + length > channel.size()) {
+			throw new IOException("The file is truncated.");
+		}
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+		return buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Writes the content of the buffer to the channel and clears it.
+	 */
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Writes the content of the buffer and pads the file with zeros to
+	 * 8 bytes.
+	 */
+	private static void pad(FileChannel channel, ByteBuffer buffer) throws IOException {
+		flush(channel, buffer);
+		long position = channel.position();
+		for (long p = position; p < align(position); p++) {
+			buffer.put((byte) 0);
+		}
+		flush(channel, buffer);
+	}
+}
@@ -1,18 +1,25 @@
 package put.mlc.classifiers.pcc;
 
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import mulan.classifier.InvalidDataException;
+import mulan.classifier.ModelInitializationException;
 import mulan.classifier.MultiLabelOutput;
 import mulan.classifier.transformation.TransformationBasedMultiLabelLearner;
 import mulan.data.MultiLabelInstances;
+import put.mlc.classifiers.common.AsyncMultiLabelLearner;
+import put.mlc.classifiers.common.BatchMultiLabelLearner;
+import put.mlc.classifiers.common.CachedPredictions;
+import put.mlc.classifiers.common.PredictionCache;
 import put.mlc.classifiers.pcc.inference.Inference;
 import put.mlc.classifiers.pcc.inference.depthfirst.ExactInference;
 import put.mlc.classifiers.pcc.inference.montecarlo.MonteCarloInference;
+import put.mlc.utils.AsyncPredictor;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
-import weka.classifiers.meta.FilteredClassifier;
 import weka.core.Instance;
 import weka.core.Instances;
-import weka.filters.unsupervised.attribute.Remove;
 
 /**
  * Implementation of the PCC (Probabilistic Classifier Chains) algorithm
@@ -29,7 +36,8 @@ import weka.filters.unsupervised.attribute.Remove;
  * @author Adrian Jaroszewicz
  * @author Arkadiusz Jachnik
  */
-public class PCC extends TransformationBasedMultiLabelLearner {
+public class PCC extends TransformationBasedMultiLabelLearner implements BatchMultiLabelLearner,
+		AsyncMultiLabelLearner {
 
 	private static final long serialVersionUID = 5342355436L;
 
@@ -41,7 +49,18 @@ public class PCC extends TransformationBasedMultiLabelLearner {
 	/**
 	 * the ensemble of binary relevance models
 	 */
-	private FilteredClassifier[] ensemble = null;
+	private Classifier[] ensemble = null;
+	
+	/**
+	 * true if the model has been loaded instead of trained
+	 */
+	private boolean loaded = false;
+	
+	/**
+	 * training time of each classifier in the chain in nanoseconds, null if
+	 * the model has not been trained
+	 */
+	private long[] linkTrainingTimes = null;
 	
 	/**
 	 * the new chain ordering of the label indices
@@ -52,6 +71,12 @@ public class PCC extends TransformationBasedMultiLabelLearner {
 	 * inference algorithm
 	 */
 	private Inference inference;
+	
+	/**
+	 * cached predictions, with a new generation for each configuration of
+	 * the inference method
+	 */
+	private final CachedPredictions predictions = new CachedPredictions();
 
 	/**
 	 * Class constructor. When no inference method is specified, PCC runs
@@ -81,6 +106,31 @@ public class PCC extends TransformationBasedMultiLabelLearner {
 		inference.setEnsemble(ensemble);
 		inference.setLabelIndices(labelIndices);
 		inference.setNumLabels(numLabels);
+		predictions.invalidate();
+	}
+	
+	/**
+	 * @return the inference algorithm
+	 */
+	public Inference getInference() {
+		return inference;
+	}
+	
+	/**
+	 * Sets a cache of the predictions, which may be shared with other
+	 * learners. It is not serialized with the learner.
+	 * 
+	 * @param predictionCache the cache, or null to turn the caching off
+	 */
+	public void setPredictionCache(PredictionCache predictionCache) {
+		predictions.setCache(predictionCache);
+	}
+	
+	/**
+	 * @return the cache of the predictions, or null
+	 */
+	public PredictionCache getPredictionCache() {
+		return predictions.getCache();
 	}
 	
 	/**
@@ -110,13 +160,12 @@ public class PCC extends TransformationBasedMultiLabelLearner {
 
 		Instances trainDataset;
 		numLabels = train.getNumLabels();
-		ensemble = new FilteredClassifier[numLabels];
+		loaded = false;
+		ensemble = new Classifier[numLabels];
+		linkTrainingTimes = new long[numLabels];
 		trainDataset = train.getDataSet();
 
 		for (int i = 0; i < numLabels; i++) {
-			ensemble[i] = new FilteredClassifier();
-			ensemble[i].setClassifier(AbstractClassifier.makeCopy(baseClassifier));
-
 			// Indices of attributes to remove first removes numLabels
 			// attributes
 			// the numLabels - 1 attributes and so on.
@@ -128,23 +177,87 @@ public class PCC extends TransformationBasedMultiLabelLearner {
 				counter2++;
 			}
 
-//			ensemble[i].initFilter(indicesToRemove, trainDataset);
-			
-			Remove remove = new Remove();
-            remove.setAttributeIndicesArray(indicesToRemove);
-            remove.setInputFormat(trainDataset);
-            remove.setInvertSelection(false);
-            ensemble[i].setFilter(remove);
+			ensemble[i] = new ChainLink(AbstractClassifier.makeCopy(baseClassifier), indicesToRemove);
 
 			trainDataset.setClassIndex(labelIndices[chain[i]]);
 			debug("Bulding model " + (i + 1) + "/" + numLabels);
+			long start = System.nanoTime();
 			ensemble[i].buildClassifier(trainDataset);
+			linkTrainingTimes[i] = System.nanoTime() - start;
 		}
 		
 		setInference(this.inference);
 		
 	}
 
+	/**
+	 * Sets a trained model, e.g. loaded from a file.
+	 * 
+	 * @param ensemble a classifier for each position in the chain
+	 * @param chain the chain ordering of the label indices
+	 * @param labelIndices indices of the label attributes
+	 * @param featureIndices indices of the feature attributes
+	 * @see CompactModel#load(java.io.File, Inference)
+	 */
+	void setModel(Classifier[] ensemble, int[] chain, int[] labelIndices, int[] featureIndices) {
+		this.ensemble = ensemble;
+		this.chain = chain;
+		this.labelIndices = labelIndices;
+		this.featureIndices = featureIndices;
+		this.numLabels = labelIndices.length;
+		this.loaded = true;
+		this.linkTrainingTimes = null;
+		setInference(this.inference);
+	}
+	
+	/**
+	 * @return the classifier for each position in the chain, null if the
+	 * model has not been trained
+	 */
+	Classifier[] getEnsemble() {
+		return ensemble;
+	}
+	
+	/**
+	 * @return the chain ordering of the label indices
+	 */
+	int[] getChain() {
+		return chain;
+	}
+	
+	/**
+	 * Returns the training time of each classifier in the chain, in the order
+	 * of the chain.
+	 * 
+	 * @return training times in nanoseconds, null if the model has not been
+	 * trained (e.g. it has been loaded)
+	 */
+	public long[] getLinkTrainingTimes() {
+		return linkTrainingTimes == null ? null : linkTrainingTimes.clone();
+	}
+	
+	/**
+	 * @return indices of the label attributes
+	 */
+	int[] getLabelIndices() {
+		return labelIndices;
+	}
+	
+	/**
+	 * @return indices of the feature attributes
+	 */
+	int[] getFeatureIndices() {
+		return featureIndices;
+	}
+	
+	/**
+	 * @return true if the model has been trained or loaded
+	 */
+	@Override
+	protected boolean isModelInitialized() {
+		return loaded || super.isModelInitialized();
+	}
+	
 	/**
      * Learner specific implementation for predicting on specified data based on trained model.
      * This method is called from {@link #makePrediction(weka.core.Instance)} which guards for model
@@ -157,9 +270,132 @@ public class PCC extends TransformationBasedMultiLabelLearner {
      */
 	@Override
 	public MultiLabelOutput makePredictionInternal(Instance instance) throws Exception {
-		return inference.inferenceProcedure(instance);
+		PredictionCache.Key key = predictions.key(instance, labelIndices,
+				inference.getConfiguration());
+		MultiLabelOutput output = predictions.get(key);
+		if (output == null) {
+			output = inference.infer(instance);
+			predictions.put(key, output);
+		}
+		return output;
+	}
+
+	/**
+	 * Makes predictions for all instances of the given data set. The instances
+	 * are passed to the inference method in one block, so the methods which
+	 * explore the chain level by level use each classifier in the chain for
+	 * all of the instances before the next one.
+	 * 
+	 * @param instances the data set to predict on
+	 * @return an array with the output of the learner for each of the instances
+	 * @throws Exception if the model has not been trained or an error occurs
+	 * while making the predictions
+	 */
+	public MultiLabelOutput[] predictBatch(Instances instances) throws Exception {
+		Instance[] block = new Instance[instances.numInstances()];
+		for (int n = 0; n < block.length; n++) {
+			block[n] = instances.instance(n);
+		}
+		return predictBatch(block, block.length);
+	}
+
+	/**
+	 * Makes predictions for a block of instances.
+	 * 
+	 * @param instances instances to classify
+	 * @param length number of instances to classify
+	 * @return an array with the output of the learner for each of the instances
+	 * @throws Exception if the model has not been trained or an error occurs
+	 * while making the predictions
+	 */
+	@Override
+	public MultiLabelOutput[] predictBatch(Instance[] instances, int length) throws Exception {
+		return predictBatch(instances, length, null);
 	}
 
+	/**
+	 * Makes predictions for a block of instances and measures the time of
+	 * each of them: the time of its lookup in the prediction cache and of the
+	 * work of the inference done for it (see
+	 * {@link Inference#inferBatch(Instance[], int, long[])}).
+	 * 
+	 * @param instances instances to classify
+	 * @param length number of instances to classify
+	 * @param nanos array the time of each of the instances is written to (in
+	 * nanoseconds), or null
+	 * @return an array with the output of the learner for each of the instances
+	 * @throws Exception if the model has not been trained or an error occurs
+	 * while making the predictions
+	 */
+	@Override
+	public MultiLabelOutput[] predictBatch(Instance[] instances, int length, long[] nanos)
+			throws Exception {
+		if (ensemble == null) {
+			throw new ModelInitializationException("The model has not been trained.");
+		}
+		if (predictions.getCache() == null) {
+			return inference.inferBatch(instances, length, nanos);
+		}
+		
+		// only the instances which are not in the cache are passed to the inference
+		long configuration = inference.getConfiguration();
+		MultiLabelOutput[] outputs = new MultiLabelOutput[length];
+		PredictionCache.Key[] keys = new PredictionCache.Key[length];
+		Instance[] missing = new Instance[length];
+		int[] positions = new int[length];
+		int numMissing = 0;
+		for (int n = 0; n < length; n++) {
+			long start = (nanos != null) ? System.nanoTime() : 0;
+			keys[n] = predictions.key(instances[n], labelIndices, configuration);
+			outputs[n] = predictions.get(keys[n]);
+			if (outputs[n] == null) {
+				missing[numMissing] = instances[n];
+				positions[numMissing] = n;
+				numMissing++;
+			}
+			if (nanos != null) {
+				nanos[n] = System.nanoTime() - start;
+			}
+		}
+		if (numMissing > 0) {
+			long[] computedNanos = (nanos != null) ? new long[numMissing] : null;
+			MultiLabelOutput[] computed = inference.inferBatch(missing, numMissing, computedNanos);
+			for (int k = 0; k < numMissing; k++) {
+				outputs[positions[k]] = computed[k];
+				predictions.put(keys[positions[k]], computed[k]);
+				if (nanos != null) {
+					nanos[positions[k]] += computedNanos[k];
+				}
+			}
+		}
+		return outputs;
+	}
+
+	/**
+	 * Submits a prediction for the given instance to {@link AsyncPredictor}.
+	 * 
+	 * @param instance the instance to predict on
+	 * @return the future output of the learner
+	 */
+	@Override
+	public Future<MultiLabelOutput> predictAsync(Instance instance) {
+		return AsyncPredictor.submit(this, instance);
+	}
+
+	/**
+	 * Submits a prediction for the given instance to {@link AsyncPredictor}
+	 * with a timeout.
+	 * 
+	 * @param instance the instance to predict on
+	 * @param timeout time after which the prediction fails
+	 * @param unit unit of the timeout
+	 * @return the future output of the learner
+	 */
+	@Override
+	public Future<MultiLabelOutput> predictAsync(Instance instance, long timeout, TimeUnit unit) {
+		return AsyncPredictor.submit(this, instance, timeout, unit, null);
+	}
+	
 	/**
      * Returns a string describing the multi-label learner.
      */
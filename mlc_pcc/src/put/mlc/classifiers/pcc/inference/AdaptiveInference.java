@@ -0,0 +1,304 @@
+package put.mlc.classifiers.pcc.inference;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import put.mlc.classifiers.pcc.inference.beamsearch.BeamSearchInference;
+import put.mlc.classifiers.pcc.inference.common.LabelCombination;
+import put.mlc.classifiers.pcc.inference.common.LabelCombinationExtended;
+import put.mlc.classifiers.pcc.inference.depthfirst.ExactInference;
+import mulan.classifier.MultiLabelLearner;
+import mulan.classifier.MultiLabelOutput;
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+
+/**
+ * Implementation of an adaptive inference in Probabilistic Classifier Chains.
+ * It returns the joint mode, as {@link ExactInference} does, but it chooses
+ * the cheapest search that can prove the answer for each instance:
+ * <ol>
+ * <li>the greedy search: each time a label is fixed, the branch that is not
+ * taken gets the probability of the prefix times the smaller conditional
+ * probability. No label combination in that branch is more probable. If the
+ * greedy combination is at least as probable as every such branch, it is
+ * the mode,</li>
+ * <li>the beam search (see {@link BeamSearchInference}): the answer is
+ * the mode if it is at least as probable as every prefix that dropped out
+ * of the beam,</li>
+ * <li>the exact best-first search, in which all nodes that are not more
+ * probable than the best combination found so far are pruned.</li>
+ * </ol>
+ * The counters of instances resolved by each of the tiers are kept and may
+ * be read with {@link #getTierCounts()}.
+ */
+public class AdaptiveInference extends Inference {
+
+	private static final long serialVersionUID = 8826396414870564853L;
+
+	/**
+	 * index of the greedy tier in the array of tier counts
+	 */
+	public static final int GREEDY = 0;
+
+	/**
+	 * index of the beam search tier in the array of tier counts
+	 */
+	public static final int BEAM = 1;
+
+	/**
+	 * index of the exact search tier in the array of tier counts
+	 */
+	public static final int EXACT = 2;
+
+	/**
+	 * beam search used as the second tier (null if the tier is skipped)
+	 */
+	private BeamSearchInference beamSearch = null;
+
+	/**
+	 * number of instances resolved by each tier
+	 */
+	private final AtomicLong[] tierCounts = { new AtomicLong(), new AtomicLong(), new AtomicLong() };
+
+	/**
+	 * Class constructor. The beam search tier uses beams of width 10.
+	 */
+	public AdaptiveInference() {
+		this(10);
+	}
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param beamWidth width of the beam in the second tier, 0 skips the tier
+	 */
+	public AdaptiveInference(int beamWidth) {
+		setBeamWidth(beamWidth);
+	}
+
+	/**
+	 * Sets the width of the beam in the second tier.
+	 *
+	 * @param beamWidth width of the beam, 0 skips the beam search tier
+	 */
+	public void setBeamWidth(int beamWidth) {
+		if (beamWidth < 0) {
+			throw new IllegalArgumentException("Beam width cannot be negative.");
+		}
+		reconfigure();
+		if (beamWidth == 0) {
+			this.beamSearch = null;
+			return;
+		}
+		this.beamSearch = new BeamSearchInference(beamWidth);
+		this.beamSearch.setChain(chain);
+		this.beamSearch.setEnsemble(ensemble);
+		this.beamSearch.setLabelIndices(labelIndices);
+		this.beamSearch.setNumLabels(numLabels);
+		this.beamSearch.setCacheCapacity(cacheCapacity);
+	}
+
+	/**
+	 * @return width of the beam in the second tier, 0 if the tier is skipped
+	 */
+	public int getBeamWidth() {
+		return beamSearch == null ? 0 : beamSearch.getBeamWidth();
+	}
+
+	@Override
+	public void setCacheCapacity(int cacheCapacity) {
+		super.setCacheCapacity(cacheCapacity);
+		if (beamSearch != null) {
+			beamSearch.setCacheCapacity(cacheCapacity);
+		}
+	}
+
+	@Override
+	public void setEnsemble(Classifier[] ensemble) {
+		super.setEnsemble(ensemble);
+		if (beamSearch != null) {
+			beamSearch.setEnsemble(ensemble);
+		}
+	}
+
+	@Override
+	public void setChain(int[] chain) {
+		super.setChain(chain);
+		if (beamSearch != null) {
+			beamSearch.setChain(chain);
+		}
+	}
+
+	@Override
+	public void setNumLabels(int numLabels) {
+		super.setNumLabels(numLabels);
+		if (beamSearch != null) {
+			beamSearch.setNumLabels(numLabels);
+		}
+	}
+
+	@Override
+	public void setLabelIndices(int[] labelIndices) {
+		super.setLabelIndices(labelIndices);
+		if (beamSearch != null) {
+			beamSearch.setLabelIndices(labelIndices);
+		}
+	}
+
+	/**
+	 * Returns the number of instances resolved by each tier, indexed by
+	 * {@link #GREEDY}, {@link #BEAM} and {@link #EXACT}.
+	 *
+	 * @return array with the number of instances per tier
+	 */
+	public long[] getTierCounts() {
+		long[] counts = new long[tierCounts.length];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = tierCounts[i].get();
+		}
+		return counts;
+	}
+
+	/**
+	 * Resets the counters of instances resolved by each tier.
+	 */
+	public void resetTierCounts() {
+		for (AtomicLong count : tierCounts) {
+			count.set(0);
+		}
+	}
+
+	/**
+	 * Runs an inference procedure for a given instance.
+	 *
+	 * @param instance instance to classify
+	 * @return output of a {@link MultiLabelLearner}
+	 * @throws Exception
+	 */
+	@Override
+	public MultiLabelOutput inferenceProcedure(Instance instance) throws Exception {
+		beginInstance(instance);
+
+		double[] bound = new double[1];
+
+		LabelCombination best = greedySearch(instance, bound);
+		int tier = GREEDY;
+
+		if (best.getLogP() < bound[0] && beamSearch != null) {
+			LabelCombination beamBest = beamSearch.bestCombination(instance, bound);
+			if (beamBest.getLogP() > best.getLogP()) {
+				best = beamBest;
+			}
+			tier = BEAM;
+		}
+
+		if (best.getLogP() < bound[0]) {
+			LabelCombination exactBest = exactSearch(instance, best.getLogP());
+			if (exactBest != null) {
+				best = exactBest;
+			}
+			tier = EXACT;
+		}
+
+		tierCounts[tier].incrementAndGet();
+
+		MultiLabelOutput result = new MultiLabelOutput(
+				booleansFromDoubles(best.getCombination()));
+
+		return result;
+	}
+
+	/**
+	 * Greedy search for the label combination.
+	 *
+	 * @param instance instance to classify
+	 * @param branchMax the first element is set to the highest log-probability
+	 * of a branch that was not taken
+	 * @return the greedy label combination
+	 * @throws Exception
+	 */
+	private LabelCombination greedySearch(Instance instance, double[] branchMax)
+			throws Exception {
+
+		LabelCombinationExtended lc = new LabelCombinationExtended(this.numLabels);
+		double max = Double.NEGATIVE_INFINITY;
+
+		while (lc.getCurrentLabel() < this.numLabels) {
+			int i = lc.getCurrentLabel();
+
+			double p = linkDistribution(i, lc.getLabels(), instance)[1];
+			countExpanded(1);
+			max = Math.max(max, lc.getLogP() + Math.log(Math.min(p, 1 - p)));
+			lc.setNextLabel(p >= 0.5 ? 1 : 0, Math.max(p, 1 - p));
+		}
+
+		branchMax[0] = max;
+		return lc;
+	}
+
+	/**
+	 * Best-first search for the mode of the joint distribution.
+	 *
+	 * @param instance instance to classify
+	 * @param lowerBound log-probability of the best label combination found
+	 * so far
+	 * @return the mode or null, if no combination is more probable than the
+	 * lower bound
+	 * @throws Exception
+	 */
+	private LabelCombination exactSearch(Instance instance, double lowerBound)
+			throws Exception {
+
+		PriorityQueue<LabelCombinationExtended> queue = new PriorityQueue<LabelCombinationExtended>(
+				this.numLabels, new Comparator<LabelCombinationExtended>() {
+
+					public int compare(LabelCombinationExtended left, LabelCombinationExtended right) {
+						return Double.compare(right.getLogP(), left.getLogP());
+					}
+				});
+		queue.add(new LabelCombinationExtended(this.numLabels));
+
+		while (!queue.isEmpty()) {
+			LabelCombinationExtended current = queue.poll();
+
+			if (current.getCurrentLabel() == this.numLabels) {
+				return current;
+			}
+
+			int i = current.getCurrentLabel();
+
+			double p = linkDistribution(i, current.getLabels(), instance)[1];
+			countExpanded(1);
+
+			LabelCombinationExtended left = new LabelCombinationExtended(current);
+			left.setNextLabel(0, 1 - p);
+			if (left.getLogP() > lowerBound) {
+				queue.add(left);
+			} else {
+				countPruned(1);
+			}
+
+			LabelCombinationExtended right = new LabelCombinationExtended(current);
+			right.setNextLabel(1, p);
+			if (right.getLogP() > lowerBound) {
+				queue.add(right);
+			} else {
+				countPruned(1);
+			}
+			updateFrontier(queue.size());
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns a string containing the name of this inference method.
+	 *
+	 * @return name of the inference method
+	 */
+	@Override
+	public String getName() {
+		return "Adaptive inference (beamWidth=" + getBeamWidth() + ")";
+	}
+}
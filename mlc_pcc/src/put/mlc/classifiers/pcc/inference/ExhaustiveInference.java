@@ -4,7 +4,6 @@ import java.util.LinkedList;
 import put.mlc.classifiers.pcc.inference.common.LabelCombinationExtended;
 import mulan.classifier.MultiLabelLearner;
 import mulan.classifier.MultiLabelOutput;
-import mulan.data.DataUtils;
 import weka.core.Instance;
 
 /**
@@ -29,42 +28,49 @@ public class ExhaustiveInference extends Inference {
 		double[] confidences = new double[this.numLabels];
 		LabelCombinationExtended best = null;
 
-		Instance tempInstance = DataUtils.createInstance(instance,
-				instance.weight(), instance.toDoubleArray());
-		
+		beginInstance(instance);
+
 		LinkedList<LabelCombinationExtended> lifo = new LinkedList<LabelCombinationExtended>();
-		lifo.add(new LabelCombinationExtended(this.numLabels, tempInstance, this));
+		lifo.add(new LabelCombinationExtended(this.numLabels));
 
 		while (!lifo.isEmpty()) {
 
-			LabelCombinationExtended current = lifo.getFirst();
-			int label = current.nextState();
-			if (label > 1 || current.getP() == 0) {
-				lifo.removeFirst();
-				continue;
-			}
-
-			Instance currentInstance = current.getInstance();
+			LabelCombinationExtended current = lifo.removeFirst();
 			
 			int i = current.getCurrentLabel();
 			
-			double p = this.ensemble[i].distributionForInstance(currentInstance)[label];
+			// both children are scored with one call to the classifier
+			double[] distribution = linkDistribution(i, current.getLabels(), instance);
+			countExpanded(1);
+			LabelCombinationExtended[] children = new LabelCombinationExtended[2];
 
-			LabelCombinationExtended next = new LabelCombinationExtended(current);
-			next.resetState();
-			next.setNextLabel(label, p);
+			for (int label = 0; label <= 1; label++) {
+				LabelCombinationExtended next = new LabelCombinationExtended(current);
+				next.setNextLabel(label, distribution[label]);
 
-			if (next.getCurrentLabel() == this.numLabels) {
-				if (best == null || next.getP() > best.getP()) {
-					best = new LabelCombinationExtended(next);
+				if (next.getCurrentLabel() == this.numLabels) {
+					if (best == null || next.getLogP() > best.getLogP()) {
+						best = new LabelCombinationExtended(next);
+					}
+					double p = next.getP();
+					for (int s = 0; s < this.numLabels; s++) {
+						if (next.getLabel(s) == 1)
+							confidences[s] += p;
+					}
+				} else if (next.getLogP() != Double.NEGATIVE_INFINITY) {
+					children[label] = next;
+				} else {
+					countPruned(1);
 				}
-				for (int s = 0; s < this.numLabels; s++) {
-					if (next.getCombination()[s] == 1)
-						confidences[s] += next.getP();
+			}
+			
+			// the subtree of label 0 is explored first
+			for (int label = 1; label >= 0; label--) {
+				if (children[label] != null) {
+					lifo.addFirst(children[label]);
 				}
-			} else {
-				lifo.addFirst(next);
 			}
+			updateFrontier(lifo.size());
 		}
 
 		MultiLabelOutput result = new MultiLabelOutput(
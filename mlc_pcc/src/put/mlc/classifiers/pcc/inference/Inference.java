@@ -2,6 +2,13 @@ package put.mlc.classifiers.pcc.inference;
 
 import java.io.Serializable;
 
+import put.mlc.classifiers.common.BatchClassifier;
+import put.mlc.classifiers.common.PredictionCache;
+import put.mlc.classifiers.pcc.inference.common.ConditionalProbabilityCache;
+import put.mlc.classifiers.pcc.inference.common.InferenceCounters;
+import put.mlc.classifiers.pcc.inference.common.InferenceMetrics;
+import put.mlc.classifiers.pcc.inference.common.LabelCombination;
+import put.mlc.utils.Cancellation;
 import mulan.classifier.MultiLabelLearner;
 import mulan.classifier.MultiLabelOutput;
 import weka.classifiers.Classifier;
@@ -26,6 +33,46 @@ public abstract class Inference implements IInference, Serializable {
 	
 	protected Attribute[] classAttributes;
 	
+	/**
+	 * maximal number of conditional distributions memorized for an instance,
+	 * 0 turns the memo off
+	 */
+	protected int cacheCapacity = 0;
+	
+	/**
+	 * memo of conditional distributions shared by all inference methods
+	 * run in the same thread
+	 */
+	private static final ThreadLocal<ConditionalProbabilityCache> cache = 
+			new ThreadLocal<ConditionalProbabilityCache>();
+	
+	/**
+	 * counters of the call of {@link #infer(Instance)} or
+	 * {@link #inferBatch(Instance[], int)} running in the current thread,
+	 * null if there is none or the metrics are turned off
+	 */
+	private static final ThreadLocal<InferenceCounters> counters = 
+			new ThreadLocal<InferenceCounters>();
+	
+	/**
+	 * counters and wall time of each instance of the call of
+	 * {@link #inferBatch(Instance[], int, long[])} running in the current
+	 * thread, null if there is none or nothing is recorded
+	 */
+	private static final ThreadLocal<BlockAccounting> block = 
+			new ThreadLocal<BlockAccounting>();
+	
+	/**
+	 * metrics of this inference method, taken by the name
+	 */
+	private transient volatile InferenceMetrics metrics = null;
+	
+	/**
+	 * version of the configuration, taken anew by each setter which may
+	 * change the predictions, 0 if none has been called
+	 */
+	private transient volatile long configuration = 0;
+	
 	public Inference() {}
 	
 	public Inference(int arg0) {}
@@ -37,6 +84,7 @@ public abstract class Inference implements IInference, Serializable {
 	 */
 	public void setEnsemble(Classifier[] ensemble) {
 		this.ensemble = ensemble;
+		reconfigure();
 	}
 
 	/**
@@ -46,6 +94,7 @@ public abstract class Inference implements IInference, Serializable {
 	 */
 	public void setChain(int[] chain) {
 		this.chain = chain;
+		reconfigure();
 	}
 
 	/**
@@ -62,6 +111,7 @@ public abstract class Inference implements IInference, Serializable {
 	 */
 	public void setNumLabels(int numLabels) {
 		this.numLabels = numLabels;
+		reconfigure();
 	}
 
 	/**
@@ -71,6 +121,7 @@ public abstract class Inference implements IInference, Serializable {
 	 */
 	public void setLabelIndices(int[] labelIndices) {
 		this.labelIndices = labelIndices;
+		reconfigure();
 	}
 
 	/**
@@ -80,6 +131,25 @@ public abstract class Inference implements IInference, Serializable {
 		return labelIndices;
 	}
 
+	/**
+	 * Takes a new version of the configuration. It has to be called by each
+	 * setter which may change the predictions, so that the predictions
+	 * cached for the previous configuration are not returned (see
+	 * {@link PredictionCache}).
+	 */
+	protected void reconfigure() {
+		configuration = PredictionCache.nextGeneration();
+	}
+	
+	/**
+	 * @return version of the configuration, a number unique in the virtual
+	 * machine which changes whenever the predictions may change, 0 if no
+	 * setter has been called
+	 */
+	public long getConfiguration() {
+		return configuration;
+	}
+
 	/**
 	 * Sets an array with class attributes.
 	 * 
@@ -90,6 +160,382 @@ public abstract class Inference implements IInference, Serializable {
 	}
 	
 	
+	/**
+	 * Sets the maximal number of conditional distributions memorized for
+	 * an instance. When it is positive, each classifier in the chain is called
+	 * at most once for the same label prefix of the same instance, also across
+	 * different inference methods run on that instance in one thread.
+	 * 
+	 * @param cacheCapacity maximal number of memorized distributions, 0 turns
+	 * the memo off
+	 */
+	public void setCacheCapacity(int cacheCapacity) {
+		this.cacheCapacity = cacheCapacity;
+	}
+	
+	/**
+	 * @return maximal number of conditional distributions memorized for
+	 * an instance
+	 */
+	public int getCacheCapacity() {
+		return cacheCapacity;
+	}
+	
+	/**
+	 * Returns the memo of conditional distributions used by inference methods
+	 * in the current thread, e.g. to read its hit rate.
+	 * 
+	 * @return the memo or null if it has not been used in this thread
+	 */
+	public static ConditionalProbabilityCache getCache() {
+		return cache.get();
+	}
+	
+	/**
+	 * Prepares the memo of conditional distributions for a given instance.
+	 * It has to be called before {@link #linkDistributions(int, Instance, long[][], int)}
+	 * is used for the instance.
+	 * 
+	 * @param instance instance to classify
+	 */
+	protected void beginInstance(Instance instance) {
+		if (this.cacheCapacity <= 0) {
+			return;
+		}
+		ConditionalProbabilityCache current = cache.get();
+		if (current == null || current.getCapacity() < this.cacheCapacity
+				|| current.getWords() < (this.numLabels + 63) >>> 6) {
+			current = new ConditionalProbabilityCache(this.cacheCapacity, this.numLabels);
+			cache.set(current);
+		}
+		current.begin(this.ensemble, instance, this.labelIndices);
+	}
+	
+	/**
+	 * Returns the aggregated costs of the calls of this inference method
+	 * (and of all inference methods with the same name).
+	 * 
+	 * @return the metrics
+	 */
+	public InferenceMetrics getMetrics() {
+		String name = getName();
+		InferenceMetrics current = metrics;
+		if (current == null || !current.getName().equals(name)) {
+			current = InferenceMetrics.get(name);
+			metrics = current;
+		}
+		return current;
+	}
+	
+	/**
+	 * Runs the inference procedure for a given instance and records its
+	 * costs in {@link #getMetrics()}. The calls which fail are not recorded.
+	 * 
+	 * @param instance instance to classify
+	 * @return output of a {@link MultiLabelLearner}
+	 * @throws Exception
+	 * @see #inferenceProcedure(Instance)
+	 */
+	public MultiLabelOutput infer(Instance instance) throws Exception {
+		if (!InferenceMetrics.isEnabled()) {
+			return inferenceProcedure(instance);
+		}
+		InferenceCounters previous = counters.get();
+		InferenceCounters current = new InferenceCounters();
+		counters.set(current);
+		try {
+			long start = System.nanoTime();
+			MultiLabelOutput result = inferenceProcedure(instance);
+			getMetrics().record(current, System.nanoTime() - start);
+			return result;
+		} finally {
+			counters.set(previous);
+		}
+	}
+	
+	/**
+	 * Runs the inference procedure for a block of instances and records its
+	 * costs in {@link #getMetrics()}, as a call for each of the instances
+	 * with the counters and the wall time of the work done for it (see
+	 * {@link #chargeInstance(int)}). The calls which fail are not recorded.
+	 * 
+	 * @param instances instances to classify
+	 * @param length number of instances, starting from the first element of
+	 * the array
+	 * @return an array with output of a {@link MultiLabelLearner} for each
+	 * of the instances
+	 * @throws Exception
+	 * @see #batchInferenceProcedure(Instance[], int)
+	 */
+	public MultiLabelOutput[] inferBatch(Instance[] instances, int length) throws Exception {
+		return inferBatch(instances, length, null);
+	}
+	
+	/**
+	 * Runs the inference procedure for a block of instances, records its
+	 * costs in {@link #getMetrics()} and returns the wall time of the work
+	 * done for each of the instances.
+	 * 
+	 * @param instances instances to classify
+	 * @param length number of instances, starting from the first element of
+	 * the array
+	 * @param nanos array the wall time of each of the instances is written to
+	 * (in nanoseconds), or null
+	 * @return an array with output of a {@link MultiLabelLearner} for each
+	 * of the instances
+	 * @throws Exception
+	 * @see #inferBatch(Instance[], int)
+	 */
+	public MultiLabelOutput[] inferBatch(Instance[] instances, int length, long[] nanos)
+			throws Exception {
+		boolean recorded = InferenceMetrics.isEnabled();
+		if ((!recorded && nanos == null) || length == 0) {
+			return batchInferenceProcedure(instances, length);
+		}
+		InferenceCounters previous = counters.get();
+		BlockAccounting previousBlock = block.get();
+		BlockAccounting current = new BlockAccounting(length);
+		block.set(current);
+		try {
+			MultiLabelOutput[] results = batchInferenceProcedure(instances, length);
+			current.finish();
+			if (recorded) {
+				InferenceMetrics metrics = getMetrics();
+				for (int n = 0; n < length; n++) {
+					metrics.record(current.counters[n], current.nanos[n]);
+				}
+			}
+			if (nanos != null) {
+				System.arraycopy(current.nanos, 0, nanos, 0, length);
+			}
+			return results;
+		} finally {
+			counters.set(previous);
+			block.set(previousBlock);
+		}
+	}
+	
+	/**
+	 * Charges the following work of the current block to its n-th instance:
+	 * the counters and the wall time until the next call (or the end of the
+	 * block). The work before the first call is charged to the first
+	 * instance. The methods which classify the instances of a block together
+	 * call it whenever they turn to another instance.
+	 * 
+	 * @param n position of the instance in the block
+	 * @see #inferBatch(Instance[], int)
+	 */
+	protected void chargeInstance(int n) {
+		BlockAccounting current = block.get();
+		if (current != null) {
+			current.charge(n);
+		}
+	}
+	
+	/**
+	 * Counts the nodes of the search tree expanded by the current call.
+	 * 
+	 * @param nodes number of expanded nodes
+	 */
+	protected void countExpanded(int nodes) {
+		InferenceCounters current = counters.get();
+		if (current != null) {
+			current.addExpanded(nodes);
+		}
+	}
+	
+	/**
+	 * Counts the nodes of the search tree pruned by the current call.
+	 * 
+	 * @param nodes number of pruned nodes
+	 */
+	protected void countPruned(int nodes) {
+		InferenceCounters current = counters.get();
+		if (current != null) {
+			current.addPruned(nodes);
+		}
+	}
+	
+	/**
+	 * Reports the current size of the frontier of the search (the nodes
+	 * waiting for the expansion), to keep its peak.
+	 * 
+	 * @param size size of the frontier
+	 */
+	protected void updateFrontier(int size) {
+		InferenceCounters current = counters.get();
+		if (current != null) {
+			current.updateFrontier(size);
+		}
+	}
+	
+	/**
+	 * Counts a sample of label combinations drawn by the current call.
+	 * 
+	 * @param combinations number of distinct label combinations
+	 * @param treeNodes number of nodes of the tree of label combinations
+	 */
+	protected void countSample(int combinations, int treeNodes) {
+		InferenceCounters current = counters.get();
+		if (current != null) {
+			current.addSample(combinations, treeNodes);
+		}
+	}
+	
+	/**
+	 * Returns the distribution of a label computed by the classifier in the
+	 * chain for a single label prefix.
+	 * 
+	 * @param i position of the label in the chain
+	 * @param labels values of the labels packed into bits (see
+	 * {@link LabelCombination#getLabels()}), the first i of them are the prefix
+	 * @param instance instance to classify, values of its labels are ignored
+	 * @return distribution over the values of the label
+	 * @throws Exception
+	 * @see #linkDistributions(int, Instance, long[][], int)
+	 */
+	protected double[] linkDistribution(int i, long[] labels, Instance instance) throws Exception {
+		return linkDistributions(i, instance, new long[][] { labels }, 1)[0];
+	}
+	
+	/**
+	 * Returns the distributions of a label computed by the classifier in the
+	 * chain for many label prefixes of one instance. If the classifier
+	 * implements {@link BatchClassifier}, all of them are computed in one
+	 * call. The distributions are taken from the memo if they have been
+	 * already computed for the same label prefixes.
+	 * 
+	 * @param i position of the label in the chain
+	 * @param instance instance to classify, values of its labels are ignored
+	 * @param prefixes values of the labels packed into bits for each prefix,
+	 * the first i of them are used
+	 * @param length number of prefixes, starting from the first element of
+	 * the array
+	 * @return an array with a distribution for each of the prefixes
+	 * @throws Exception
+	 */
+	protected double[][] linkDistributions(int i, Instance instance, long[][] prefixes,
+			int length) throws Exception {
+		
+		// every step of the search evaluates a link, so it stops here when cancelled
+		Cancellation.check();
+		
+		if (this.cacheCapacity <= 0) {
+			return computeLinkDistributions(i, instance, prefixes, length);
+		}
+		
+		ConditionalProbabilityCache current = cache.get();
+		double[][] distributions = new double[length][];
+		long[][] missing = new long[length][];
+		int[] positions = new int[length];
+		int numMissing = 0;
+		
+		for (int r = 0; r < length; r++) {
+			distributions[r] = current.get(i, prefixes[r]);
+			if (distributions[r] == null) {
+				missing[numMissing] = prefixes[r];
+				positions[numMissing] = r;
+				numMissing++;
+			}
+		}
+		
+		if (numMissing > 0) {
+			double[][] computed = computeLinkDistributions(i, instance, missing, numMissing);
+			for (int k = 0; k < numMissing; k++) {
+				distributions[positions[k]] = computed[k];
+				current.put(i, missing[k], computed[k]);
+			}
+		}
+		
+		return distributions;
+	}
+	
+	/**
+	 * Returns the distributions of a label computed by the classifier in the
+	 * chain for label prefixes of many instances. The prefixes of the n-th
+	 * instance are stored in the rows from offsets[n] to offsets[n + 1] - 1.
+	 * The memo is not used, since it keeps the distributions of one instance
+	 * only.
+	 *
+	 * @param i position of the label in the chain
+	 * @param instances instances to classify, values of their labels are ignored
+	 * @param offsets index of the first prefix of each instance, followed by
+	 * the total number of prefixes
+	 * @param prefixes values of the labels packed into bits for each prefix,
+	 * the first i of them are used
+	 * @return an array with a distribution for each of the prefixes
+	 * @throws Exception
+	 */
+	protected double[][] linkDistributions(int i, Instance[] instances, int[] offsets,
+			long[][] prefixes) throws Exception {
+
+		Cancellation.check();
+		
+		int numInstances = offsets.length - 1;
+		double[][] distributions = new double[offsets[numInstances]][];
+		long[][] block = new long[distributions.length][];
+
+		for (int n = 0; n < numInstances; n++) {
+			int length = offsets[n + 1] - offsets[n];
+			if (length == 0) {
+				continue;
+			}
+			chargeInstance(n);
+			System.arraycopy(prefixes, offsets[n], block, 0, length);
+			double[][] computed = computeLinkDistributions(i, instances[n], block, length);
+			System.arraycopy(computed, 0, distributions, offsets[n], length);
+		}
+
+		return distributions;
+	}
+
+	/**
+	 * Computes the distributions of a label for many label prefixes of one
+	 * instance, without the memo.
+	 * 
+	 * @param i position of the label in the chain
+	 * @param instance instance to classify
+	 * @param prefixes values of the labels packed into bits for each prefix
+	 * @param length number of prefixes
+	 * @return an array with a distribution for each of the prefixes
+	 * @throws Exception
+	 */
+	private double[][] computeLinkDistributions(int i, Instance instance, long[][] prefixes,
+			int length) throws Exception {
+		
+		InferenceCounters current = counters.get();
+		if (current != null) {
+			current.addClassifierCalls(length);
+		}
+		
+		int[] prefixAttributes = new int[i];
+		for (int j = 0; j < i; j++) {
+			prefixAttributes[j] = this.labelIndices[this.chain[j]];
+		}
+		
+		double[][] values = new double[length][i];
+		for (int r = 0; r < length; r++) {
+			for (int j = 0; j < i; j++) {
+				values[r][j] = (prefixes[r][j >>> 6] >>> j) & 1L;
+			}
+		}
+		
+		if (this.ensemble[i] instanceof BatchClassifier) {
+			return ((BatchClassifier) this.ensemble[i]).distributionsForPrefixes(
+					instance, prefixAttributes, values, length);
+		}
+		
+		Instance copy = (Instance) instance.copy();
+		double[][] distributions = new double[length][];
+		for (int r = 0; r < length; r++) {
+			for (int j = 0; j < i; j++) {
+				copy.setValue(prefixAttributes[j], values[r][j]);
+			}
+			distributions[r] = this.ensemble[i].distributionForInstance(copy);
+		}
+		return distributions;
+	}
+	
 	/**
 	 * Converts double to boolean. If the given number is higher or equal
 	 * to 0.5, it returns true. False otherwise.
@@ -143,6 +589,29 @@ public abstract class Inference implements IInference, Serializable {
 	@Override
 	public abstract MultiLabelOutput inferenceProcedure(Instance instance) throws Exception;
 
+	/**
+	 * Runs an inference procedure for a block of instances. By default, the
+	 * instances are classified one by one. The methods which explore the chain
+	 * level by level override it, so that each classifier in the chain is used
+	 * for all of the instances before the next one.
+	 *
+	 * @param instances instances to classify
+	 * @param length number of instances, starting from the first element of
+	 * the array
+	 * @return an array with output of a {@link MultiLabelLearner} for each
+	 * of the instances
+	 * @throws Exception
+	 */
+	public MultiLabelOutput[] batchInferenceProcedure(Instance[] instances, int length)
+			throws Exception {
+		MultiLabelOutput[] results = new MultiLabelOutput[length];
+		for (int n = 0; n < length; n++) {
+			chargeInstance(n);
+			results[n] = inferenceProcedure(instances[n]);
+		}
+		return results;
+	}
+
 	/**
 	 * Returns a string containing the name of specified inference method.
 	 * 
@@ -150,4 +619,41 @@ public abstract class Inference implements IInference, Serializable {
 	 */
 	@Override
 	public abstract String getName();
+	
+	/**
+	 * Counters and wall time of each instance of a block. The counters of
+	 * the current instance are the counters of the thread.
+	 */
+	private static final class BlockAccounting {
+		
+		final InferenceCounters[] counters;
+		
+		final long[] nanos;
+		
+		private int current = 0;
+		
+		private long since;
+		
+		BlockAccounting(int length) {
+			this.counters = new InferenceCounters[length];
+			for (int n = 0; n < length; n++) {
+				this.counters[n] = new InferenceCounters();
+			}
+			this.nanos = new long[length];
+			Inference.counters.set(this.counters[0]);
+			this.since = System.nanoTime();
+		}
+		
+		void charge(int n) {
+			long now = System.nanoTime();
+			nanos[current] += now - since;
+			since = now;
+			current = n;
+			Inference.counters.set(counters[n]);
+		}
+		
+		void finish() {
+			nanos[current] += System.nanoTime() - since;
+		}
+	}
 }
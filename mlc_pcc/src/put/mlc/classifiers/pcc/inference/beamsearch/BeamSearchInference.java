@@ -0,0 +1,260 @@
+package put.mlc.classifiers.pcc.inference.beamsearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import put.mlc.classifiers.pcc.inference.Inference;
+import put.mlc.classifiers.pcc.inference.common.LabelCombination;
+import put.mlc.classifiers.pcc.inference.common.LabelCombinationExtended;
+import mulan.classifier.MultiLabelLearner;
+import mulan.classifier.MultiLabelOutput;
+import weka.core.Instance;
+
+/**
+ * Implementation of the Beam Search inference for Probabilistic Classifier
+ * Chains. The chain is explored level by level and only the given number of
+ * the most probable label prefixes survive on each level. With the beam width
+ * equal to 1 it is the greedy search, with an unbounded width it is the
+ * exhaustive search.
+ */
+public class BeamSearchInference extends Inference {
+
+	private static final long serialVersionUID = -6417787813040218373L;
+
+	/**
+	 * number of label prefixes kept on each level
+	 */
+	private int beamWidth = 10;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param beamWidth number of label prefixes kept on each level
+	 */
+	public BeamSearchInference(int beamWidth) {
+		setBeamWidth(beamWidth);
+	}
+
+	/**
+	 * @return number of label prefixes kept on each level
+	 */
+	public int getBeamWidth() {
+		return beamWidth;
+	}
+
+	/**
+	 * Sets the number of label prefixes kept on each level.
+	 *
+	 * @param beamWidth beam width (at least 1)
+	 */
+	public void setBeamWidth(int beamWidth) {
+		if (beamWidth < 1) {
+			throw new IllegalArgumentException("Beam width must be at least 1.");
+		}
+		this.beamWidth = beamWidth;
+		reconfigure();
+	}
+
+	/**
+	 * Runs an inference procedure for a given instance.
+	 *
+	 * @param instance instance to classify
+	 * @return output of a {@link MultiLabelLearner}
+	 * @throws Exception
+	 */
+	@Override
+	public MultiLabelOutput inferenceProcedure(Instance instance) throws Exception {
+		LabelCombination best = bestCombination(instance, null);
+
+		MultiLabelOutput result = new MultiLabelOutput(
+				booleansFromDoubles(best.getCombination()));
+
+		return result;
+	}
+
+	/**
+	 * Runs an inference procedure for a block of instances. The beams of all
+	 * instances proceed along the chain together, so each classifier in the
+	 * chain is used for all of the label prefixes in the block before the next
+	 * one. The prefixes are kept in plain arrays instead of label combination
+	 * objects. The results are the same as for
+	 * {@link #inferenceProcedure(Instance)}.
+	 *
+	 * @param instances instances to classify
+	 * @param length number of instances
+	 * @return an array with output of a {@link MultiLabelLearner} for each
+	 * of the instances
+	 * @throws Exception
+	 */
+	@Override
+	public MultiLabelOutput[] batchInferenceProcedure(Instance[] instances, int length)
+			throws Exception {
+
+		Instance[] block = Arrays.copyOf(instances, length);
+
+		// the prefixes of the n-th instance are stored in the rows
+		// from offsets[n] to offsets[n + 1] - 1
+		int[] offsets = new int[length + 1];
+		long[][] prefixes = new long[length][];
+		double[] logP = new double[length];
+		for (int n = 0; n < length; n++) {
+			offsets[n + 1] = n + 1;
+			prefixes[n] = new long[LabelCombination.words(this.numLabels)];
+		}
+
+		for (int i = 0; i < this.numLabels; i++) {
+			double[][] distributions = linkDistributions(i, block, offsets, prefixes);
+
+			int[] nextOffsets = new int[length + 1];
+			long[][] nextPrefixes = new long[2 * offsets[length]][];
+			double[] nextLogP = new double[nextPrefixes.length];
+
+			for (int n = 0; n < length; n++) {
+				chargeInstance(n);
+				int first = offsets[n];
+				int count = offsets[n + 1] - first;
+				countExpanded(count);
+
+				// children are ordered as in the search for a single instance
+				final double[] candidates = new double[2 * count];
+				Integer[] order = new Integer[candidates.length];
+				for (int k = 0; k < count; k++) {
+					double p = distributions[first + k][1];
+					candidates[2 * k] = logP[first + k] + Math.log(1 - p);
+					candidates[2 * k + 1] = logP[first + k] + Math.log(p);
+					order[2 * k] = 2 * k;
+					order[2 * k + 1] = 2 * k + 1;
+				}
+
+				if (order.length > this.beamWidth) {
+					Arrays.sort(order, new Comparator<Integer>() {
+
+						public int compare(Integer left, Integer right) {
+							return Double.compare(candidates[right], candidates[left]);
+						}
+					});
+				}
+
+				int kept = Math.min(order.length, this.beamWidth);
+				countPruned(order.length - kept);
+				updateFrontier(kept);
+				int start = nextOffsets[n];
+				for (int c = 0; c < kept; c++) {
+					long[] prefix = prefixes[first + (order[c] >> 1)].clone();
+					if ((order[c] & 1) == 1) {
+						prefix[i >>> 6] |= 1L << i;
+					}
+					nextPrefixes[start + c] = prefix;
+					nextLogP[start + c] = candidates[order[c]];
+				}
+				nextOffsets[n + 1] = start + kept;
+			}
+
+			offsets = nextOffsets;
+			prefixes = nextPrefixes;
+			logP = nextLogP;
+		}
+
+		MultiLabelOutput[] results = new MultiLabelOutput[length];
+		for (int n = 0; n < length; n++) {
+			chargeInstance(n);
+			int best = offsets[n];
+			for (int r = offsets[n] + 1; r < offsets[n + 1]; r++) {
+				if (logP[r] > logP[best]) {
+					best = r;
+				}
+			}
+
+			boolean[] bipartition = new boolean[this.numLabels];
+			for (int j = 0; j < this.numLabels; j++) {
+				bipartition[j] = ((prefixes[best][j >>> 6] >>> j) & 1L) == 1L;
+			}
+			results[n] = new MultiLabelOutput(bipartition);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Searches for the most probable label combination within the beam.
+	 *
+	 * @param instance instance to classify
+	 * @param prunedMax if not null, the first element is set to the highest
+	 * log-probability of a label prefix that dropped out of the beam
+	 * (-Infinity if none did). No label combination outside of the beam is
+	 * more probable.
+	 * @return the most probable label combination found in the beam
+	 * @throws Exception
+	 */
+	public LabelCombination bestCombination(Instance instance, double[] prunedMax)
+			throws Exception {
+
+		beginInstance(instance);
+
+		Comparator<LabelCombinationExtended> probabilityComparator = new Comparator<LabelCombinationExtended>() {
+
+			public int compare(LabelCombinationExtended left, LabelCombinationExtended right) {
+				return Double.compare(right.getLogP(), left.getLogP());
+			}
+		};
+
+		List<LabelCombinationExtended> beam = new ArrayList<LabelCombinationExtended>(this.beamWidth);
+		beam.add(new LabelCombinationExtended(this.numLabels));
+
+		double pruned = Double.NEGATIVE_INFINITY;
+
+		for (int i = 0; i < this.numLabels; i++) {
+			List<LabelCombinationExtended> next = new ArrayList<LabelCombinationExtended>(2 * beam.size());
+
+			// the whole level is scored with one call to the classifier
+			long[][] prefixes = new long[beam.size()][];
+			for (int k = 0; k < prefixes.length; k++) {
+				prefixes[k] = beam.get(k).getLabels();
+			}
+			double[][] distributions = linkDistributions(i, instance, prefixes, prefixes.length);
+			countExpanded(prefixes.length);
+
+			for (int k = 0; k < prefixes.length; k++) {
+				LabelCombinationExtended current = beam.get(k);
+				double p = distributions[k][1];
+
+				LabelCombinationExtended left = new LabelCombinationExtended(current);
+				left.setNextLabel(0, 1 - p);
+				next.add(left);
+
+				LabelCombinationExtended right = new LabelCombinationExtended(current);
+				right.setNextLabel(1, p);
+				next.add(right);
+			}
+
+			if (next.size() > this.beamWidth) {
+				Collections.sort(next, probabilityComparator);
+				pruned = Math.max(pruned, next.get(this.beamWidth).getLogP());
+				countPruned(next.size() - this.beamWidth);
+				next = new ArrayList<LabelCombinationExtended>(next.subList(0, this.beamWidth));
+			}
+
+			beam = next;
+			updateFrontier(beam.size());
+		}
+
+		if (prunedMax != null) {
+			prunedMax[0] = pruned;
+		}
+
+		return Collections.min(beam, probabilityComparator);
+	}
+
+	/**
+	 * Returns a string containing the name of this inference method.
+	 *
+	 * @return name of the inference method
+	 */
+	@Override
+	public String getName() {
+		return "Beam search inference (beamWidth=" + beamWidth + ")";
+	}
+}
@@ -0,0 +1,319 @@
+package put.mlc.classifiers.pcc.inference.common;
+
+import java.util.Arrays;
+
+import weka.core.Instance;
+
+/**
+ * Memo of the conditional distributions computed by the chain of classifiers
+ * for one instance. An entry is identified by the position in the chain and
+ * the values of all the preceding labels, which are packed into bits. The
+ * memo uses open addressing with linear probing over primitive arrays, with
+ * no objects created per entry. It never grows: when it is filled up to its load
+ * factor, new distributions are not stored any more.<br>
+ * <br>
+ * The memo is bound to the model and to the feature values of one instance.
+ * It is cleared by {@link #begin(Object, Instance, int[])} as soon as either
+ * of them changes, so all inference methods run on the same instance share
+ * their entries. This class is not thread-safe.
+ */
+public class ConditionalProbabilityCache {
+
+	/**
+	 * maximal fraction of occupied slots
+	 */
+	private static final double LOAD_FACTOR = 0.75;
+
+	/**
+	 * number of slots (power of 2)
+	 */
+	private final int capacity;
+
+	/**
+	 * maximal number of stored distributions
+	 */
+	private final int maxSize;
+
+	/**
+	 * number of 64-bit words needed for a label prefix
+	 */
+	private final int words;
+
+	/**
+	 * packed label prefixes, words per slot
+	 */
+	private final long[] keys;
+
+	/**
+	 * position in the chain increased by 1 for each slot, 0 for empty slots
+	 */
+	private final int[] depths;
+
+	/**
+	 * stored distributions, 2 values per slot
+	 */
+	private final double[] values;
+
+	/**
+	 * packed prefix of the current lookup
+	 */
+	private final long[] buffer;
+
+	/**
+	 * number of stored distributions
+	 */
+	private int size = 0;
+
+	/**
+	 * number of lookups that found a distribution
+	 */
+	private long hits = 0;
+
+	/**
+	 * number of lookups that did not find a distribution
+	 */
+	private long misses = 0;
+
+	/**
+	 * model the distributions come from
+	 */
+	private Object model = null;
+
+	/**
+	 * indices of the label attributes the memo was bound with
+	 */
+	private int[] labelIndices = null;
+
+	/**
+	 * sorted copy of the indices of the label attributes
+	 */
+	private int[] sortedLabelIndices = null;
+
+	/**
+	 * indices of the feature values of the current instance
+	 */
+	private int[] featureIndices = new int[0];
+
+	/**
+	 * feature values of the current instance
+	 */
+	private double[] featureValues = new double[0];
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param capacity maximal number of stored distributions
+	 * @param numLabels number of labels in the chain
+	 */
+	public ConditionalProbabilityCache(int capacity, int numLabels) {
+		int slots = Integer.highestOneBit(Math.max(2, (int) Math.ceil(capacity / LOAD_FACTOR)) - 1) << 1;
+		this.capacity = slots;
+		this.maxSize = capacity;
+		this.words = Math.max(1, (numLabels + 63) >>> 6);
+		this.keys = new long[slots * words];
+		this.depths = new int[slots];
+		this.values = new double[2 * slots];
+		this.buffer = new long[words];
+	}
+
+	/**
+	 * Binds the memo to the given model and instance. The memo is cleared if
+	 * the model or any of the feature values differ from the previous call.
+	 * Values of the labels are not compared, since they are not seen by the
+	 * classifiers in the chain before being set by the inference.
+	 *
+	 * @param model the model computing the distributions (e.g. the ensemble)
+	 * @param instance instance to classify
+	 * @param labelIndices indices of the label attributes
+	 * @return true if the memo has been cleared
+	 */
+	public boolean begin(Object model, Instance instance, int[] labelIndices) {
+		if (labelIndices != this.labelIndices) {
+			this.labelIndices = labelIndices;
+			this.sortedLabelIndices = labelIndices.clone();
+			Arrays.sort(this.sortedLabelIndices);
+		}
+
+		int numValues = instance.numValues();
+		int[] indices = new int[numValues];
+		double[] instanceValues = new double[numValues];
+		int length = 0;
+
+		for (int j = 0; j < numValues; j++) {
+			int index = instance.index(j);
+			if (Arrays.binarySearch(sortedLabelIndices, index) < 0) {
+				indices[length] = index;
+				instanceValues[length] = instance.valueSparse(j);
+				length++;
+			}
+		}
+
+		indices = Arrays.copyOf(indices, length);
+		instanceValues = Arrays.copyOf(instanceValues, length);
+
+		if (model == this.model && Arrays.equals(indices, this.featureIndices)
+				&& Arrays.equals(instanceValues, this.featureValues)) {
+			return false;
+		}
+
+		this.model = model;
+		this.featureIndices = indices;
+		this.featureValues = instanceValues;
+		clear();
+
+		return true;
+	}
+
+	/**
+	 * Returns the stored distribution for the given position in the chain.
+	 *
+	 * @param depth position in the chain
+	 * @param labels values of the labels packed into bits (see
+	 * {@link LabelCombination#getLabels()}), only the first depth of them
+	 * are used
+	 * @return the distribution or null if it has not been stored
+	 */
+	public double[] get(int depth, long[] labels) {
+		int slot = find(depth, labels);
+		if (depths[slot] == 0) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return new double[] { values[2 * slot], values[2 * slot + 1] };
+	}
+
+	/**
+	 * Stores the distribution for the given position in the chain. Nothing
+	 * is stored if the memo is full.
+	 *
+	 * @param depth position in the chain
+	 * @param labels values of the labels packed into bits, only the first
+	 * depth of them are used
+	 * @param distribution distribution over the values of the label
+	 */
+	public void put(int depth, long[] labels, double[] distribution) {
+		if (size >= maxSize) {
+			return;
+		}
+		int slot = find(depth, labels);
+		if (depths[slot] == 0) {
+			depths[slot] = depth + 1;
+			System.arraycopy(buffer, 0, keys, slot * words, words);
+			size++;
+		}
+		values[2 * slot] = distribution[0];
+		values[2 * slot + 1] = distribution[1];
+	}
+
+	/**
+	 * Removes all the stored distributions.
+	 */
+	public void clear() {
+		if (size > 0) {
+			Arrays.fill(depths, 0);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Finds the slot of the given prefix or the empty slot where it should
+	 * be stored. The prefix is packed into the buffer.
+	 *
+	 * @param depth position in the chain
+	 * @param labels values of the labels packed into bits
+	 * @return index of the slot
+	 */
+	private int find(int depth, long[] labels) {
+		int fullWords = depth >>> 6;
+		for (int w = 0; w < words; w++) {
+			if (w < fullWords) {
+				buffer[w] = labels[w];
+			} else if (w == fullWords && (depth & 63) != 0) {
+				buffer[w] = labels[w] & ((1L << depth) - 1);
+			} else {
+				buffer[w] = 0L;
+			}
+		}
+
+		long hash = depth * 0x9E3779B97F4A7C15L;
+		for (int w = 0; w < words; w++) {
+			hash = (hash ^ buffer[w]) * 0xC2B2AE3D27D4EB4FL;
+		}
+		int slot = (int) (hash ^ (hash >>> 32)) & (capacity - 1);
+
+		while (depths[slot] != 0 && !matches(slot, depth)) {
+			slot = (slot + 1) & (capacity - 1);
+		}
+		return slot;
+	}
+
+	/**
+	 * @param slot index of the slot
+	 * @param depth position in the chain
+	 * @return true if the slot holds the prefix from the buffer
+	 */
+	private boolean matches(int slot, int depth) {
+		if (depths[slot] != depth + 1) {
+			return false;
+		}
+		int offset = slot * words;
+		for (int w = 0; w < words; w++) {
+			if (keys[offset + w] != buffer[w]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of the label prefix words the memo was created for
+	 */
+	public int getWords() {
+		return words;
+	}
+
+	/**
+	 * @return maximal number of stored distributions
+	 */
+	public int getCapacity() {
+		return maxSize;
+	}
+
+	/**
+	 * @return number of stored distributions
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return number of lookups that found a distribution
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of lookups that did not find a distribution
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return fraction of lookups that found a distribution
+	 */
+	public double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0.0 : hits / (double) lookups;
+	}
+
+	/**
+	 * Resets the counters of hits and misses.
+	 */
+	public void resetCounters() {
+		hits = 0;
+		misses = 0;
+	}
+}
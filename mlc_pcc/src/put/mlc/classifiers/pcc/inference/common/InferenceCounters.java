@@ -0,0 +1,109 @@
+package put.mlc.classifiers.pcc.inference.common;
+
+/**
+ * Counters of the work done by an inference method for one call: the
+ * distributions computed by the classifiers in the chain, the nodes of the
+ * search tree expanded and pruned, the peak size of the frontier (the
+ * priority queue, beam or stack of nodes waiting for the expansion) and,
+ * for the Monte Carlo methods, the distinct label combinations sampled and
+ * the nodes of the tree of label combinations. The counters of a call are
+ * added to {@link InferenceMetrics} when the call is over.<br>
+ * <br>
+ * An object is used by one thread only, so the counters are plain fields.
+ */
+public final class InferenceCounters {
+
+	private long classifierCalls = 0;
+
+	private long nodesExpanded = 0;
+
+	private long nodesPruned = 0;
+
+	private long peakFrontier = 0;
+
+	private long distinctCombinations = 0;
+
+	private long treeNodes = 0;
+
+	/**
+	 * @param calls number of distributions computed by a classifier in the chain
+	 */
+	public void addClassifierCalls(int calls) {
+		classifierCalls += calls;
+	}
+
+	/**
+	 * @param nodes number of expanded nodes of the search tree
+	 */
+	public void addExpanded(int nodes) {
+		nodesExpanded += nodes;
+	}
+
+	/**
+	 * @param nodes number of nodes of the search tree which are not expanded,
+	 * since they cannot lead to a better solution
+	 */
+	public void addPruned(int nodes) {
+		nodesPruned += nodes;
+	}
+
+	/**
+	 * @param size current size of the frontier, the greatest one is kept
+	 */
+	public void updateFrontier(int size) {
+		if (size > peakFrontier) {
+			peakFrontier = size;
+		}
+	}
+
+	/**
+	 * @param combinations number of distinct label combinations in a sample
+	 * @param nodes number of nodes of the tree of label combinations
+	 */
+	public void addSample(int combinations, int nodes) {
+		distinctCombinations += combinations;
+		treeNodes += nodes;
+	}
+
+	/**
+	 * @return number of distributions computed by the classifiers in the chain
+	 */
+	public long getClassifierCalls() {
+		return classifierCalls;
+	}
+
+	/**
+	 * @return number of expanded nodes of the search tree
+	 */
+	public long getNodesExpanded() {
+		return nodesExpanded;
+	}
+
+	/**
+	 * @return number of pruned nodes of the search tree
+	 */
+	public long getNodesPruned() {
+		return nodesPruned;
+	}
+
+	/**
+	 * @return the greatest size of the frontier
+	 */
+	public long getPeakFrontier() {
+		return peakFrontier;
+	}
+
+	/**
+	 * @return number of distinct sampled label combinations
+	 */
+	public long getDistinctCombinations() {
+		return distinctCombinations;
+	}
+
+	/**
+	 * @return number of nodes of the trees of label combinations
+	 */
+	public long getTreeNodes() {
+		return treeNodes;
+	}
+}
@@ -0,0 +1,320 @@
+package put.mlc.classifiers.pcc.inference.common;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import put.mlc.utils.LatencyHistogram;
+
+/**
+ * Aggregated costs of the calls of an inference method: histograms of the
+ * wall time and of the {@link InferenceCounters} of each call (instance).
+ * The metrics are kept per name of the inference method (see
+ * {@link put.mlc.classifiers.pcc.inference.Inference#getName()}), so all
+ * copies of a method, e.g. in the copies of a learner evaluated by many
+ * threads, add up together. The metrics of each name are registered as an
+ * MXBean named put.mlc:type=Inference,name="...".<br>
+ * <br>
+ * The histograms are updated without locks, so the recording costs a few
+ * atomic additions per call. It may be turned off with
+ * {@link #setEnabled(boolean)}.
+ */
+public class InferenceMetrics implements InferenceMetricsMXBean {
+
+	private static final ConcurrentMap<String, InferenceMetrics> registry =
+			new ConcurrentHashMap<String, InferenceMetrics>();
+
+	private static volatile boolean enabled = true;
+
+	private final String name;
+
+	private final LatencyHistogram wallTime = new LatencyHistogram();
+
+	private final LatencyHistogram classifierCalls = new LatencyHistogram();
+
+	private final LatencyHistogram nodesExpanded = new LatencyHistogram();
+
+	private final LatencyHistogram nodesPruned = new LatencyHistogram();
+
+	private final LatencyHistogram peakFrontier = new LatencyHistogram();
+
+	private final LatencyHistogram distinctCombinations = new LatencyHistogram();
+
+	private final LatencyHistogram treeNodes = new LatencyHistogram();
+
+	/**
+	 * Class constructor of metrics which are not registered.
+	 *
+	 * @param name name of the inference method
+	 */
+	public InferenceMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Returns the metrics of an inference method, registering them on the
+	 * first call.
+	 *
+	 * @param name name of the inference method
+	 * @return the metrics
+	 */
+	public static InferenceMetrics get(String name) {
+		InferenceMetrics metrics = registry.get(name);
+		if (metrics != null) {
+			return metrics;
+		}
+		InferenceMetrics created = new InferenceMetrics(name);
+		metrics = registry.putIfAbsent(name, created);
+		if (metrics != null) {
+			return metrics;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(created,
+					new ObjectName("put.mlc:type=Inference,name=" + ObjectName.quote(name)));
+		} catch (JMException e) {
+			// the metrics are still available programmatically
+		}
+		return created;
+	}
+
+	/**
+	 * @return the metrics of all inference methods run so far, by name
+	 */
+	public static Map<String, InferenceMetrics> getAll() {
+		return new TreeMap<String, InferenceMetrics>(registry);
+	}
+
+	/**
+	 * Turns the recording of the metrics on or off (it is on by default).
+	 *
+	 * @param enabled true to record the metrics
+	 */
+	public static void setEnabled(boolean enabled) {
+		InferenceMetrics.enabled = enabled;
+	}
+
+	/**
+	 * @return true if the metrics are recorded
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Records a call of the inference method for one instance. The instances
+	 * of a block classified together are recorded one by one, each with the
+	 * work done for it.
+	 *
+	 * @param counters counters of the call
+	 * @param nanos wall time of the call in nanoseconds
+	 */
+	public void record(InferenceCounters counters, long nanos) {
+		wallTime.record(nanos);
+		classifierCalls.record(counters.getClassifierCalls());
+		nodesExpanded.record(counters.getNodesExpanded());
+		nodesPruned.record(counters.getNodesPruned());
+		peakFrontier.record(counters.getPeakFrontier());
+		distinctCombinations.record(counters.getDistinctCombinations());
+		treeNodes.record(counters.getTreeNodes());
+	}
+
+	/**
+	 * Returns a copy of the metrics, which is not registered and is not
+	 * updated any more.
+	 *
+	 * @return the copy
+	 */
+	public InferenceMetrics snapshot() {
+		InferenceMetrics copy = new InferenceMetrics(name);
+		copy.wallTime.add(wallTime);
+		copy.classifierCalls.add(classifierCalls);
+		copy.nodesExpanded.add(nodesExpanded);
+		copy.nodesPruned.add(nodesPruned);
+		copy.peakFrontier.add(peakFrontier);
+		copy.distinctCombinations.add(distinctCombinations);
+		copy.treeNodes.add(treeNodes);
+		return copy;
+	}
+
+	/**
+	 * Returns the metrics of the calls recorded after a snapshot was taken,
+	 * e.g. for one experiment.
+	 *
+	 * @param earlier a snapshot of these metrics
+	 * @return metrics of the calls recorded since the snapshot, which are not
+	 * registered
+	 * @see #snapshot()
+	 */
+	public InferenceMetrics since(InferenceMetrics earlier) {
+		InferenceMetrics difference = snapshot();
+		difference.wallTime.subtract(earlier.wallTime);
+		difference.classifierCalls.subtract(earlier.classifierCalls);
+		difference.nodesExpanded.subtract(earlier.nodesExpanded);
+		difference.nodesPruned.subtract(earlier.nodesPruned);
+		difference.peakFrontier.subtract(earlier.peakFrontier);
+		difference.distinctCombinations.subtract(earlier.distinctCombinations);
+		difference.treeNodes.subtract(earlier.treeNodes);
+		return difference;
+	}
+
+	@Override
+	public void reset() {
+		wallTime.reset();
+		classifierCalls.reset();
+		nodesExpanded.reset();
+		nodesPruned.reset();
+		peakFrontier.reset();
+		distinctCombinations.reset();
+		treeNodes.reset();
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getCalls() {
+		return wallTime.getCount();
+	}
+
+	/**
+	 * @return histogram of the wall time of a call in nanoseconds
+	 */
+	public LatencyHistogram getWallTime() {
+		return wallTime;
+	}
+
+	/**
+	 * @return histogram of the distributions computed by the classifiers in
+	 * the chain per call
+	 */
+	public LatencyHistogram getClassifierCalls() {
+		return classifierCalls;
+	}
+
+	/**
+	 * @return histogram of the expanded nodes per call
+	 */
+	public LatencyHistogram getNodesExpanded() {
+		return nodesExpanded;
+	}
+
+	/**
+	 * @return histogram of the pruned nodes per call
+	 */
+	public LatencyHistogram getNodesPruned() {
+		return nodesPruned;
+	}
+
+	/**
+	 * @return histogram of the peak size of the frontier per call
+	 */
+	public LatencyHistogram getPeakFrontier() {
+		return peakFrontier;
+	}
+
+	/**
+	 * @return histogram of the distinct sampled label combinations per call
+	 */
+	public LatencyHistogram getDistinctCombinations() {
+		return distinctCombinations;
+	}
+
+	/**
+	 * @return histogram of the nodes of the trees of label combinations per call
+	 */
+	public LatencyHistogram getTreeNodes() {
+		return treeNodes;
+	}
+
+	@Override
+	public double getMeanWallTimeMillis() {
+		return wallTime.getMean() / 1e6;
+	}
+
+	@Override
+	public double getP50WallTimeMillis() {
+		return wallTime.getPercentile(50) / 1e6;
+	}
+
+	@Override
+	public double getP99WallTimeMillis() {
+		return wallTime.getPercentile(99) / 1e6;
+	}
+
+	@Override
+	public double getMaxWallTimeMillis() {
+		return wallTime.getMax() / 1e6;
+	}
+
+	@Override
+	public double getMeanClassifierCalls() {
+		return classifierCalls.getMean();
+	}
+
+	@Override
+	public long getP99ClassifierCalls() {
+		return classifierCalls.getPercentile(99);
+	}
+
+	@Override
+	public long getMaxClassifierCalls() {
+		return classifierCalls.getMax();
+	}
+
+	@Override
+	public double getMeanNodesExpanded() {
+		return nodesExpanded.getMean();
+	}
+
+	@Override
+	public long getP99NodesExpanded() {
+		return nodesExpanded.getPercentile(99);
+	}
+
+	@Override
+	public double getMeanNodesPruned() {
+		return nodesPruned.getMean();
+	}
+
+	@Override
+	public double getMeanPeakFrontier() {
+		return peakFrontier.getMean();
+	}
+
+	@Override
+	public long getMaxPeakFrontier() {
+		return peakFrontier.getMax();
+	}
+
+	@Override
+	public double getMeanDistinctCombinations() {
+		return distinctCombinations.getMean();
+	}
+
+	@Override
+	public double getMeanTreeNodes() {
+		return treeNodes.getMean();
+	}
+
+	/**
+	 * Returns a summary of the metrics: number of calls, wall time and the
+	 * means of the counters per call.
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s: calls=%d time[%s] classifier calls mean=%.1f p99=%d max=%d; "
+				+ "expanded mean=%.1f p99=%d; pruned mean=%.1f; peak frontier mean=%.1f max=%d; "
+				+ "combinations mean=%.1f; tree nodes mean=%.1f",
+				name, getCalls(), wallTime, getMeanClassifierCalls(), getP99ClassifierCalls(),
+				getMaxClassifierCalls(), getMeanNodesExpanded(), getP99NodesExpanded(),
+				getMeanNodesPruned(), getMeanPeakFrontier(), getMaxPeakFrontier(),
+				getMeanDistinctCombinations(), getMeanTreeNodes());
+	}
+}
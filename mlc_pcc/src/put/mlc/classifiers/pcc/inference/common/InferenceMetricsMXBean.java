@@ -0,0 +1,94 @@
+package put.mlc.classifiers.pcc.inference.common;
+
+/**
+ * Management interface of {@link InferenceMetrics}, through which the
+ * aggregated costs of an inference method are read with JMX (e.g. with
+ * JConsole, under put.mlc:type=Inference).
+ */
+public interface InferenceMetricsMXBean {
+
+	/**
+	 * @return name of the inference method
+	 */
+	public String getName();
+
+	/**
+	 * @return number of the recorded calls (instances)
+	 */
+	public long getCalls();
+
+	/**
+	 * @return mean wall time of a call in milliseconds
+	 */
+	public double getMeanWallTimeMillis();
+
+	/**
+	 * @return median wall time of a call in milliseconds
+	 */
+	public double getP50WallTimeMillis();
+
+	/**
+	 * @return 99th percentile of the wall time of a call in milliseconds
+	 */
+	public double getP99WallTimeMillis();
+
+	/**
+	 * @return the greatest wall time of a call in milliseconds
+	 */
+	public double getMaxWallTimeMillis();
+
+	/**
+	 * @return mean number of distributions computed by the classifiers per call
+	 */
+	public double getMeanClassifierCalls();
+
+	/**
+	 * @return 99th percentile of the distributions computed by the classifiers per call
+	 */
+	public long getP99ClassifierCalls();
+
+	/**
+	 * @return the greatest number of distributions computed by the classifiers in a call
+	 */
+	public long getMaxClassifierCalls();
+
+	/**
+	 * @return mean number of expanded nodes per call
+	 */
+	public double getMeanNodesExpanded();
+
+	/**
+	 * @return 99th percentile of the expanded nodes per call
+	 */
+	public long getP99NodesExpanded();
+
+	/**
+	 * @return mean number of pruned nodes per call
+	 */
+	public double getMeanNodesPruned();
+
+	/**
+	 * @return mean of the peak size of the frontier per call
+	 */
+	public double getMeanPeakFrontier();
+
+	/**
+	 * @return the greatest size of the frontier
+	 */
+	public long getMaxPeakFrontier();
+
+	/**
+	 * @return mean number of distinct sampled label combinations per call
+	 */
+	public double getMeanDistinctCombinations();
+
+	/**
+	 * @return mean number of nodes of the trees of label combinations per call
+	 */
+	public double getMeanTreeNodes();
+
+	/**
+	 * Removes all recorded values.
+	 */
+	public void reset();
+}
@@ -1,8 +1,12 @@
 package put.mlc.classifiers.pcc.inference.common;
 
 /**
- * Implementation of a representation of some label combination.
- * 
+ * Implementation of a representation of some label combination.<br>
+ * <br>
+ * The probability is kept as a logarithm, so it does not underflow on
+ * chains with hundreds of labels, and the values of the labels are packed
+ * into the bits of a long array.
+ *
  * @author Arkadiusz Jachnik
  */
 public class LabelCombination {
@@ -11,22 +15,27 @@ public class LabelCombination {
 	 * index of currently observed label
 	 */
 	protected int currentLabel = 0;
-	
+
 	/**
-	 * probability
+	 * natural logarithm of the probability
 	 */
-	protected double p = 1.0;
-	
+	protected double logP = 0.0;
+
 	/**
 	 * value of last saved probability
 	 */
 	protected double lastP = 1.0;
-	
+
+	/**
+	 * number of labels in the combination
+	 */
+	protected int numLabels = 0;
+
 	/**
-	 * labels combination
+	 * labels combination, one bit per label
 	 */
-	protected double[] labels = null;
-	
+	protected long[] labels = null;
+
 	/**
 	 * number of visits the node (when the label combination is a node of tree)
 	 */
@@ -42,44 +51,104 @@ public class LabelCombination {
 
 	public void copy(LabelCombination copy) {
 		this.currentLabel = copy.currentLabel;
-		this.p = copy.p;
+		this.logP = copy.logP;
 		this.lastP = copy.lastP;
+		this.numLabels = copy.numLabels;
 		this.freq = copy.freq;
 
 		if (copy.labels != null) {
-			this.labels = new double[copy.labels.length];
-			for (int i = 0; i < this.currentLabel; i++) {
-				this.labels[i] = copy.labels[i];
-			}
+			this.labels = copy.labels.clone();
 		}
 	}
 
+	/**
+	 * @return probability of the combination, it may underflow to 0 on long
+	 * chains, in which case {@link #getLogP()} should be used
+	 */
 	public double getP() {
-		return this.p;
+		return Math.exp(this.logP);
 	}
 
 	public void setP(double p) {
-		this.p = p;
+		this.logP = Math.log(p);
+	}
+
+	/**
+	 * @return natural logarithm of the probability of the combination
+	 */
+	public double getLogP() {
+		return this.logP;
+	}
+
+	public void setLogP(double logP) {
+		this.logP = logP;
 	}
 
 	public void setNextLabel(double p) {
 		this.currentLabel++;
-		this.p *= p;
+		this.logP += Math.log(p);
 		this.lastP = p;
 	}
 
+	/**
+	 * @return values of the labels as doubles (a new array)
+	 */
 	public double[] getCombination() {
+		if (this.labels == null) {
+			return null;
+		}
+		double[] combination = new double[this.numLabels];
+		for (int i = 0; i < this.numLabels; i++) {
+			combination[i] = getLabel(i);
+		}
+		return combination;
+	}
+
+	public void setCombination(double[] combination) {
+		this.numLabels = combination.length;
+		this.labels = new long[words(this.numLabels)];
+		for (int i = 0; i < combination.length; i++) {
+			if (combination[i] == 1) {
+				this.labels[i >>> 6] |= 1L << i;
+			}
+		}
+	}
+
+	/**
+	 * @return values of the labels packed into bits, the i-th label is
+	 * the (i % 64)-th bit of the (i / 64)-th element
+	 */
+	public long[] getLabels() {
 		return this.labels;
 	}
 
-	public void setCombination(double[] labels) {
+	/**
+	 * Sets the values of the labels packed into bits.
+	 *
+	 * @param labels values of the labels (the array is not copied)
+	 * @param numLabels number of labels
+	 */
+	public void setLabels(long[] labels, int numLabels) {
 		this.labels = labels;
+		this.numLabels = numLabels;
+	}
+
+	/**
+	 * @param i index of the label
+	 * @return value of the label (0 or 1)
+	 */
+	public int getLabel(int i) {
+		return (int) (this.labels[i >>> 6] >>> i) & 1;
 	}
 
 	public int getCurrentLabel() {
 		return this.currentLabel;
 	}
 
+	public int getNumLabels() {
+		return numLabels;
+	}
+
 	public double getLastP() {
 		return lastP;
 	}
@@ -99,7 +168,7 @@ public class LabelCombination {
 	public String toString() {
 		String str = "";
 		for (int i = 0; i < this.currentLabel; i++) {
-			str += (int) this.labels[i];
+			str += getLabel(i);
 		}
 
 		str += "\t" + this.freq;
@@ -107,4 +176,12 @@ public class LabelCombination {
 		return str;
 	}
 
+	/**
+	 * @param numLabels number of labels
+	 * @return number of longs needed to store the values of the labels
+	 */
+	public static int words(int numLabels) {
+		return (numLabels + 63) >>> 6;
+	}
+
 }
@@ -7,7 +7,6 @@ import put.mlc.classifiers.pcc.inference.Inference;
 import put.mlc.classifiers.pcc.inference.common.LabelCombinationExtended;
 import mulan.classifier.MultiLabelLearner;
 import mulan.classifier.MultiLabelOutput;
-import mulan.data.DataUtils;
 import weka.core.Instance;
 
 /**
@@ -28,6 +27,7 @@ public class DepthFirstExplorationInference extends Inference {
 
 	public void setMax(double max) {
 		this.max = max;
+		reconfigure();
 	}
 
 	public DepthFirstExplorationInference() {
@@ -49,14 +49,13 @@ public class DepthFirstExplorationInference extends Inference {
 	public MultiLabelOutput inferenceProcedure(Instance instance)
 			throws Exception {
 
-		Instance tempInstance = DataUtils.createInstance(instance,
-				instance.weight(), instance.toDoubleArray());
-		
+		beginInstance(instance);
+
 		Comparator<LabelCombinationExtended> probabilityComparator = new Comparator<LabelCombinationExtended>() {
 
 			public int compare(LabelCombinationExtended left, LabelCombinationExtended right) {
-				double probabilityLeft = left.getP();
-				double probabilityRight = right.getP();
+				double probabilityLeft = left.getLogP();
+				double probabilityRight = right.getLogP();
 
 				if (probabilityLeft > probabilityRight) {
 					return -1;
@@ -71,12 +70,13 @@ public class DepthFirstExplorationInference extends Inference {
 
 		PriorityQueue<LabelCombinationExtended> queue = new PriorityQueue<LabelCombinationExtended>(
 				this.numLabels, probabilityComparator);
-		queue.add(new LabelCombinationExtended(this.numLabels, tempInstance, this));
+		queue.add(new LabelCombinationExtended(this.numLabels));
 
 		PriorityQueue<LabelCombinationExtended> unsurvived = new PriorityQueue<LabelCombinationExtended>(
 				this.numLabels, probabilityComparator);
 
-		// double max = minMode;
+		// the threshold is compared with log-probabilities
+		double logThreshold = Math.log(this.max);
 		LabelCombinationExtended best = null;
 
 		while (!queue.isEmpty()) {
@@ -89,35 +89,38 @@ public class DepthFirstExplorationInference extends Inference {
 				break;
 			}
 
-			Instance currentInstance = current.getInstance();
-			
 			int i = current.getCurrentLabel();
 			
-			double p = this.ensemble[i].distributionForInstance(currentInstance)[1];
+			double p = linkDistribution(i, current.getLabels(), instance)[1];
+			countExpanded(1);
 
 			LabelCombinationExtended left = new LabelCombinationExtended(current);
 			left.setNextLabel(0, 1 - p);
-			boolean leftAdded = addToQueue(queue, left);
+			boolean leftAdded = addToQueue(queue, left, logThreshold);
 
 			LabelCombinationExtended right = new LabelCombinationExtended(current);
 			right.setNextLabel(1, p);
-			boolean rightAdded = addToQueue(queue, right);
+			boolean rightAdded = addToQueue(queue, right, logThreshold);
 
 			if (!leftAdded && !rightAdded) {
 				unsurvived.add(current);
 			}
+			updateFrontier(queue.size());
 		}
 
-		this.max = 0.0;
+		// the threshold is kept, the approximate solution is bounded locally
+		double max = Double.NEGATIVE_INFINITY;
 		
 		while (!unsurvived.isEmpty()) { // search for approximate solution
 			LabelCombinationExtended greedy = unsurvived.poll();
-			if (greedy.getP() <= this.max)
+			if (greedy.getLogP() <= max) {
+				countPruned(unsurvived.size() + 1);
 				break;
-			greedy = greedyApproximation(greedy, this.max);
-			if (greedy.getP() > this.max) {
+			}
+			greedy = greedyApproximation(instance, greedy, max);
+			if (greedy.getLogP() > max) {
 				best = greedy;
-				max = best.getP();
+				max = best.getLogP();
 			}
 		}
 
@@ -130,20 +133,21 @@ public class DepthFirstExplorationInference extends Inference {
 	/**
 	 * Greedy algorithm for the generation of approximate solution of label combination.
 	 * 
+	 * @param instance instance to classify
 	 * @param lc label combination
-	 * @param max max threshold for distribution
+	 * @param max log-probability of the best approximate solution so far
 	 * @return label combination
 	 * @throws Exception
 	 */
-	private LabelCombinationExtended greedyApproximation(LabelCombinationExtended lc, double max)
+	private LabelCombinationExtended greedyApproximation(Instance instance,
+			LabelCombinationExtended lc, double max)
 			throws Exception {
 
-		while (lc.getCurrentLabel() < this.numLabels && lc.getP() > max) {
-			Instance currentInstance = lc.getInstance();
-			
+		while (lc.getCurrentLabel() < this.numLabels && lc.getLogP() > max) {
 			int i = lc.getCurrentLabel();
 			
-			double p = this.ensemble[i].distributionForInstance(currentInstance)[1];
+			double p = linkDistribution(i, lc.getLabels(), instance)[1];
+			countExpanded(1);
 			lc.setNextLabel(p >= 0.5 ? 1 : 0, Math.max(p, 1 - p));
 		}
 
@@ -155,15 +159,18 @@ public class DepthFirstExplorationInference extends Inference {
 	 * 
 	 * @param queue priority queue of the label combinations
 	 * @param lc label combination
+	 * @param logThreshold logarithm of the threshold
 	 * @return if sucessfull return true, otherwise false
 	 */
 	private boolean addToQueue(PriorityQueue<LabelCombinationExtended> queue,
-			LabelCombinationExtended lc) {
-		if (lc.getP() > this.max) {
+			LabelCombinationExtended lc, double logThreshold) {
+		if (lc.getLogP() > logThreshold) {
 			queue.add(lc);
 			return true;
-		} else
+		} else {
+			countPruned(1);
 			return false;
+		}
 	}
 	
 	/**
@@ -0,0 +1,183 @@
+package put.mlc.classifiers.pcc.inference.depthfirst;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import put.mlc.classifiers.pcc.inference.Inference;
+import put.mlc.classifiers.pcc.inference.common.LabelCombination;
+import put.mlc.classifiers.pcc.inference.common.LabelCombinationExtended;
+import mulan.classifier.MultiLabelLearner;
+import mulan.classifier.MultiLabelOutput;
+import weka.core.Instance;
+
+/**
+ * Implementation of the k-best inference for Probabilistic Classifier Chains.
+ * It runs the same best-first search as {@link ExactInference}, but it does
+ * not stop at the first complete label combination. The search goes on until
+ * k complete combinations have been popped from the queue, so all of them
+ * share the nodes expanded on the way.<br>
+ * <br>
+ * The k best leaves found so far give a lower bound for the k-th best joint
+ * probability. Every node that cannot beat that bound is not added to the
+ * queue. Since the nodes in the queue are disjoint subtrees, each of them
+ * with probability above the bound, the queue never holds more than
+ * 1/bound nodes.
+ */
+public class KBestInference extends Inference {
+
+	private static final long serialVersionUID = -2704113598816403390L;
+
+	/**
+	 * number of label combinations to be found
+	 */
+	private int k = 1;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param k number of label combinations to be found
+	 */
+	public KBestInference(int k) {
+		setK(k);
+	}
+
+	/**
+	 * @return number of label combinations to be found
+	 */
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * Sets the number of label combinations to be found.
+	 *
+	 * @param k number of label combinations (at least 1)
+	 */
+	public void setK(int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1.");
+		}
+		this.k = k;
+		reconfigure();
+	}
+
+	/**
+	 * Runs an inference procedure for a given instance. The prediction is
+	 * the most probable label combination.
+	 *
+	 * @param instance instance to classify
+	 * @return output of a {@link MultiLabelLearner}
+	 * @throws Exception
+	 */
+	@Override
+	public MultiLabelOutput inferenceProcedure(Instance instance) throws Exception {
+		List<LabelCombination> best = kBestCombinations(instance);
+
+		MultiLabelOutput result = new MultiLabelOutput(
+				booleansFromDoubles(best.get(0).getCombination()));
+
+		return result;
+	}
+
+	/**
+	 * Finds the k most probable label combinations for a given instance.
+	 * The combinations are sorted by their joint probability (see
+	 * {@link LabelCombination#getLogP()}) in descending order. Less than k
+	 * combinations are returned only if there are less than k combinations
+	 * with non-zero probability.
+	 *
+	 * @param instance instance to classify
+	 * @return list of at most k label combinations
+	 * @throws Exception
+	 */
+	public List<LabelCombination> kBestCombinations(Instance instance) throws Exception {
+
+		beginInstance(instance);
+
+		Comparator<LabelCombinationExtended> probabilityComparator = new Comparator<LabelCombinationExtended>() {
+
+			public int compare(LabelCombinationExtended left, LabelCombinationExtended right) {
+				return Double.compare(right.getLogP(), left.getLogP());
+			}
+		};
+
+		PriorityQueue<LabelCombinationExtended> queue = new PriorityQueue<LabelCombinationExtended>(
+				this.numLabels, probabilityComparator);
+		queue.add(new LabelCombinationExtended(this.numLabels));
+
+		// the k best complete combinations generated so far, the worst on top
+		PriorityQueue<LabelCombinationExtended> leaves = new PriorityQueue<LabelCombinationExtended>(
+				this.k, new Comparator<LabelCombinationExtended>() {
+
+					public int compare(LabelCombinationExtended left, LabelCombinationExtended right) {
+						return Double.compare(left.getLogP(), right.getLogP());
+					}
+				});
+
+		List<LabelCombination> result = new ArrayList<LabelCombination>(this.k);
+
+		while (!queue.isEmpty() && result.size() < this.k) {
+
+			LabelCombinationExtended current = queue.poll();
+
+			if (current.getCurrentLabel() == this.numLabels) {
+				result.add(new LabelCombination(current));
+				continue;
+			}
+
+			int i = current.getCurrentLabel();
+
+			double p = linkDistribution(i, current.getLabels(), instance)[1];
+			countExpanded(1);
+
+			LabelCombinationExtended left = new LabelCombinationExtended(current);
+			left.setNextLabel(0, 1 - p);
+			addToQueue(queue, leaves, left);
+
+			LabelCombinationExtended right = new LabelCombinationExtended(current);
+			right.setNextLabel(1, p);
+			addToQueue(queue, leaves, right);
+			updateFrontier(queue.size());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Adds the given label combination to the priority queue if it can still
+	 * be one of the k best combinations.
+	 *
+	 * @param queue priority queue of the label combinations
+	 * @param leaves the k best complete label combinations generated so far
+	 * @param lc label combination
+	 */
+	private void addToQueue(PriorityQueue<LabelCombinationExtended> queue,
+			PriorityQueue<LabelCombinationExtended> leaves, LabelCombinationExtended lc) {
+
+		double bound = leaves.size() < this.k ? Double.NEGATIVE_INFINITY : leaves.peek().getLogP();
+		if (lc.getLogP() <= bound) {
+			countPruned(1);
+			return;
+		}
+
+		if (lc.getCurrentLabel() == this.numLabels) {
+			if (leaves.size() == this.k) {
+				leaves.poll();
+			}
+			leaves.add(lc);
+		}
+		queue.add(lc);
+	}
+
+	/**
+	 * Returns a string containing the name of this inference method.
+	 *
+	 * @return name of the inference method
+	 */
+	@Override
+	public String getName() {
+		return "K-best inference (k=" + k + ")";
+	}
+}
@@ -34,6 +34,18 @@ public class FMeasureMaximizerInference extends MonteCarloInference {
 	public FMeasureMaximizerInference(int numSimulations, int seed) {
 		super(numSimulations, seed);
 	}
+	
+	/**
+	 * Class constructor specifying the number of simulations in Monte Carlo
+	 * sampling method.
+	 * 
+	 * @param numOfSimulations number of simulations
+	 * @param seed value of the seed
+	 * @param samplingMode method of generating the uniform numbers
+	 */
+	public FMeasureMaximizerInference(int numSimulations, int seed, SamplingMode samplingMode) {
+		super(numSimulations, seed, samplingMode);
+	}
 
 	/**
 	 * Runs an inference procedure for a given instance.
@@ -25,6 +25,17 @@ public class JointModeInference extends MonteCarloInference {
 	public JointModeInference(int numOfSimulations, int seed) {
 		super(numOfSimulations, seed);
 	}
+	
+	/**
+	 * Class constructor.
+	 * 
+	 * @param numOfSimulations number of simulations
+	 * @param seed seed value
+	 * @param samplingMode method of generating the uniform numbers
+	 */
+	public JointModeInference(int numOfSimulations, int seed, SamplingMode samplingMode) {
+		super(numOfSimulations, seed, samplingMode);
+	}
 
 	/**
 	 * Runs an inference procedure for a given instance.
@@ -19,6 +19,10 @@ public class MarginalModesInference extends MonteCarloInference {
 	public MarginalModesInference(int numOfSimulations, int seed) {
 		super(numOfSimulations, seed);
 	}
+	
+	public MarginalModesInference(int numOfSimulations, int seed, SamplingMode samplingMode) {
+		super(numOfSimulations, seed, samplingMode);
+	}
 
 	/**
 	 * Runs an inference procedure for a given instance.
@@ -34,9 +38,7 @@ public class MarginalModesInference extends MonteCarloInference {
 		
 		LabelCombination[] sample = new LabelCombination[this.numSimulations];
 
-		int index = monteCarloSampling(instance, sample);
-
-		computeMarginals(confidences, sample, index);
+		sampleMarginals(instance, confidences, sample);
 		
 		MultiLabelOutput result = new MultiLabelOutput(
 				booleansFromDoubles(confidences), confidences);
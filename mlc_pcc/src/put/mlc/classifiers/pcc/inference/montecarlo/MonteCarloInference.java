@@ -1,11 +1,11 @@
 package put.mlc.classifiers.pcc.inference.montecarlo;
 
-import java.util.Random;
+import java.util.Arrays;
 
 import put.mlc.classifiers.pcc.inference.Inference;
 import put.mlc.classifiers.pcc.inference.common.LabelCombination;
 import put.mlc.classifiers.pcc.inference.common.LabelCombinationTree;
-import mulan.data.DataUtils;
+import put.mlc.classifiers.pcc.inference.montecarlo.SamplingMode.Uniforms;
 import weka.core.Attribute;
 import weka.core.Instance;
 
@@ -31,6 +31,23 @@ public abstract class MonteCarloInference extends Inference {
 	 */
 	int seed = 1; 
 	
+	/**
+	 * method of generating the uniform numbers
+	 */
+	SamplingMode samplingMode = SamplingMode.RANDOM;
+	
+	/**
+	 * number of the first positions in the chain stratified by
+	 * {@link SamplingMode#STRATIFIED}
+	 */
+	int stratifiedLinks = 3;
+	
+	/**
+	 * if true, the marginal probabilities are estimated with the conditional
+	 * probabilities along the sampled paths instead of the sampled labels
+	 */
+	boolean raoBlackwellized = true;
+	
 	/**
 	 * Class constructor.
 	 * 
@@ -38,8 +55,20 @@ public abstract class MonteCarloInference extends Inference {
 	 * @param seed value of the seed
 	 */
 	public MonteCarloInference(int numSimulations, int seed) {
+		this(numSimulations, seed, SamplingMode.RANDOM);
+	}
+	
+	/**
+	 * Class constructor.
+	 * 
+	 * @param numSimulations number of simulations
+	 * @param seed value of the seed
+	 * @param samplingMode method of generating the uniform numbers
+	 */
+	public MonteCarloInference(int numSimulations, int seed, SamplingMode samplingMode) {
 		this.numSimulations = numSimulations;
 		this.seed = seed;
+		setSamplingMode(samplingMode);
 	}
 
 	/**
@@ -51,6 +80,7 @@ public abstract class MonteCarloInference extends Inference {
 	 */
 	public void setNumOfSimulations(int numOfSimulations) {
 		this.numSimulations = numOfSimulations;
+		reconfigure();
 	}
 	
 	/**
@@ -68,6 +98,71 @@ public abstract class MonteCarloInference extends Inference {
 	 */
 	public void setSeed(int seed) {
 		this.seed = seed;
+		reconfigure();
+	}
+
+	/**
+	 * Sets the method of generating the uniform numbers. The low-discrepancy
+	 * and stratified methods spread the simulations more evenly than the
+	 * independent numbers, so fewer simulations are needed for the same
+	 * accuracy of the estimates.
+	 * 
+	 * @param samplingMode method of generating the uniform numbers
+	 */
+	public void setSamplingMode(SamplingMode samplingMode) {
+		if (samplingMode == null) {
+			throw new IllegalArgumentException("Sampling mode cannot be null.");
+		}
+		this.samplingMode = samplingMode;
+		reconfigure();
+	}
+	
+	/**
+	 * @return method of generating the uniform numbers
+	 */
+	public SamplingMode getSamplingMode() {
+		return samplingMode;
+	}
+	
+	/**
+	 * Sets the number of the first positions in the chain stratified by
+	 * {@link SamplingMode#STRATIFIED}.
+	 * 
+	 * @param stratifiedLinks number of stratified positions
+	 */
+	public void setStratifiedLinks(int stratifiedLinks) {
+		this.stratifiedLinks = stratifiedLinks;
+		reconfigure();
+	}
+	
+	/**
+	 * @return number of stratified positions in the chain
+	 */
+	public int getStratifiedLinks() {
+		return stratifiedLinks;
+	}
+
+	/**
+	 * Sets the estimator of the marginal probabilities. The Rao-Blackwellized
+	 * estimator averages the conditional probabilities P(y_i = 1 | sampled
+	 * prefix) computed by the chain along each sampled path, instead of
+	 * the sampled values of y_i. It is unbiased as well and its variance is
+	 * never higher, so fewer simulations are needed for the same accuracy.
+	 * 
+	 * @param raoBlackwellized true for the Rao-Blackwellized estimator,
+	 * false for the frequencies of the sampled labels
+	 */
+	public void setRaoBlackwellized(boolean raoBlackwellized) {
+		this.raoBlackwellized = raoBlackwellized;
+		reconfigure();
+	}
+	
+	/**
+	 * @return true if the Rao-Blackwellized estimator of the marginal
+	 * probabilities is used
+	 */
+	public boolean isRaoBlackwellized() {
+		return raoBlackwellized;
 	}
 
 	/**
@@ -81,7 +176,11 @@ public abstract class MonteCarloInference extends Inference {
 
 	/**
 	 * Sampling method for label combinations generation with the Monte Carlo
-	 * method.
+	 * method. All simulations proceed along the chain together, so the nodes
+	 * of the tree reached for the first time on a given level are scored by
+	 * the classifier in one call. The uniform numbers of each simulation do
+	 * not depend on that order (see {@link SamplingMode}), so neither does
+	 * the sample.
 	 * 
 	 * @param instance instance to classify
 	 * @param sample array of label combinations that is going to be filled
@@ -90,66 +189,99 @@ public abstract class MonteCarloInference extends Inference {
 	 */
 	protected int monteCarloSampling(Instance instance,
 			LabelCombination[] sample) throws Exception {
+		return monteCarloSampling(instance, sample, null);
+	}
+	
+	/**
+	 * Sampling method for label combinations generation with the Monte Carlo
+	 * method, which also computes the Rao-Blackwellized estimates of the
+	 * marginal probabilities.
+	 * 
+	 * @param instance instance to classify
+	 * @param sample array of label combinations that is going to be filled
+	 * @param marginals array that is going to be filled with the averages of
+	 * the conditional probabilities of the labels along the sampled paths,
+	 * or null
+	 * @return number of label combinations
+	 * @throws Exception
+	 * @see #setRaoBlackwellized(boolean)
+	 */
+	protected int monteCarloSampling(Instance instance,
+			LabelCombination[] sample, double[] marginals) throws Exception {
 
-		Random random = new Random(this.seed);
-		
-		Instance tempInstance = DataUtils.createInstance(instance, instance.weight(),
-				instance.toDoubleArray());
+		beginInstance(instance);
+
+		Uniforms uniforms = samplingMode.generate(numSimulations, numLabels,
+				stratifiedLinks, this.seed);
 		
 		LabelCombinationTree root = new LabelCombinationTree(new LabelCombination());
 		
+		LabelCombinationTree[] current = new LabelCombinationTree[numSimulations];
+		Arrays.fill(current, root);
+		long[][] values = new long[numSimulations][LabelCombination.words(numLabels)];
+		
+		LabelCombinationTree[] expanded = new LabelCombinationTree[numSimulations];
+		long[][] prefixes = new long[numSimulations][];
+		
 		int length = 0;
+		int treeNodes = 1;
 		
-		for (int s = 0; s < numSimulations; s++) {
-			LabelCombinationTree current = root;
-
-			double[] values = new double[numLabels];
+		for (int i = 0; i < this.numLabels; i++) {
+			int numExpanded = 0;
 			
-			for (int i = 0; i < this.numLabels; i++) {
-				double[] p;
-
-				if (current.hasKids()) {
-					p = new double[2];
-					p[0] = current.left().root().getLastP();
-					p[1] = current.right().root().getLastP();
-				}
-				else {
-					p = this.ensemble[i].distributionForInstance(tempInstance);
-					
-					LabelCombination left = new LabelCombination(current.root());
-					//left.resetState();
+			for (int s = 0; s < numSimulations; s++) {
+				if (!current[s].hasKids()) {
+					LabelCombination left = new LabelCombination(current[s].root());
 					left.resetFreq();
-					left.setNextLabel(p[0]);
-					LabelCombinationTree leftTree = new LabelCombinationTree(left);
-
-					LabelCombination right = new LabelCombination(current.root());
-					//right.resetState();
+					LabelCombination right = new LabelCombination(current[s].root());
 					right.resetFreq();
-					right.setNextLabel(p[1]);
-					LabelCombinationTree rightTree = new LabelCombinationTree(right);
-
-					current.setKids(leftTree, rightTree);
+					current[s].setKids(new LabelCombinationTree(left), new LabelCombinationTree(right));
+					
+					expanded[numExpanded] = current[s];
+					prefixes[numExpanded] = values[s];
+					numExpanded++;
+				}
+			}
+			
+			double[][] p = linkDistributions(i, instance, prefixes, numExpanded);
+			countExpanded(numExpanded);
+			treeNodes += 2 * numExpanded;
+			for (int k = 0; k < numExpanded; k++) {
+				expanded[k].left().root().setNextLabel(p[k][0]);
+				expanded[k].right().root().setNextLabel(p[k][1]);
+			}
+			
+			double sum = 0.0;
+			
+			for (int s = 0; s < numSimulations; s++) {
+				double p_i = current[s].right().root().getLastP();
+				sum += p_i;
+				
+				int y_i = (p_i > uniforms.get(s, i)) ? 1 : 0;
+				
+				if (y_i == 1) {
+					values[s][i >>> 6] |= 1L << i;
+					current[s] = current[s].right();
+				} else {
+					current[s] = current[s].left();
 				}
-
-				int y_i = (p[1] > random.nextDouble()) ? 1 : 0;
-				values[i] = y_i;
-				tempInstance.setValue(labelIndices[chain[i]], y_i);
 				
-				if (y_i == 1)
-					current = current.right();
-				else
-					current = current.left();
+				current[s].root().increaseFreq();
 				
-				current.root().increaseFreq();
+				if (i == this.numLabels - 1 && current[s].root().getFreq() == 1) {
+					current[s].root().setLabels(values[s], numLabels);
+					sample[length] = current[s].root();
+					length++;
+				}
 			}
-
-			if (current.root().getFreq() == 1) {
-				current.root().setCombination(values);
-				sample[length] = current.root();
-				length++;
+			
+			if (marginals != null) {
+				marginals[i] = sum / numSimulations;
 			}
 		}
 		
+		countSample(length, treeNodes);
+		
 		return length;
 	}
 	
@@ -166,10 +298,8 @@ public abstract class MonteCarloInference extends Inference {
 		int sum = 0;
 
 		for (int i = 0; i < length; i++) {
-			double[] labels = sample[i].getCombination();
-
-			for (int j = 0; j < labels.length; j++) {
-				confidences[j] += ((int) labels[j] * (int) sample[i].getFreq());
+			for (int j = 0; j < sample[i].getNumLabels(); j++) {
+				confidences[j] += sample[i].getLabel(j) * sample[i].getFreq();
 			}
 			sum += sample[i].getFreq();
 		}
@@ -178,6 +308,27 @@ public abstract class MonteCarloInference extends Inference {
 			confidences[j] /= (double) sum;
 	}
 	
+	/**
+	 * Samples label combinations and estimates marginal probabilities with
+	 * the estimator chosen by {@link #setRaoBlackwellized(boolean)}.
+	 * 
+	 * @param instance instance to classify
+	 * @param confidences array with marginal probabilities that is going to
+	 * be filled
+	 * @param sample array of label combinations that is going to be filled
+	 * @return number of label combinations
+	 * @throws Exception
+	 */
+	protected int sampleMarginals(Instance instance, double[] confidences,
+			LabelCombination[] sample) throws Exception {
+		if (this.raoBlackwellized) {
+			return monteCarloSampling(instance, sample, confidences);
+		}
+		int length = monteCarloSampling(instance, sample);
+		computeMarginals(confidences, sample, length);
+		return length;
+	}
+	
 	/**
 	 * Fills the array of predictions on the basis of modes from the samples' array.
 	 *  
@@ -199,7 +350,7 @@ public abstract class MonteCarloInference extends Inference {
 		}
 
 		for (int i = 0; i < predictions.length; i++) {
-			predictions[i] = sample[mode].getCombination()[i];
+			predictions[i] = sample[mode].getLabel(i);
 		}
 
 	}
@@ -35,6 +35,17 @@ public class QuadraticNaiveFMaximizerInference extends MonteCarloInference {
 	public QuadraticNaiveFMaximizerInference(int numSimulations, int seed) {
 		super(numSimulations, seed);
 	}
+	
+	/**
+	 * Class constructor.
+	 * 
+	 * @param numSimulations number of simulations
+	 * @param seed seed value
+	 * @param samplingMode method of generating the uniform numbers
+	 */
+	public QuadraticNaiveFMaximizerInference(int numSimulations, int seed, SamplingMode samplingMode) {
+		super(numSimulations, seed, samplingMode);
+	}
 
 	/**
 	 * Runs an inference procedure for a given instance.
@@ -49,9 +60,7 @@ public class QuadraticNaiveFMaximizerInference extends MonteCarloInference {
 
 		LabelCombination[] sample = new LabelCombination[this.numSimulations];
 
-		int index = monteCarloSampling(instance, sample);
-
-		computeMarginals(confidences, sample, index);
+		sampleMarginals(instance, confidences, sample);
 		
 		QuadraticNaiveFMaximizer qta = 
 				new QuadraticNaiveFMaximizer(AlgorithmComplexity.QUADRATIC);
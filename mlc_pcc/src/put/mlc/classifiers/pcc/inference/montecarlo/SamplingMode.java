@@ -0,0 +1,253 @@
+package put.mlc.classifiers.pcc.inference.montecarlo;
+
+import java.util.Random;
+
+/**
+ * Methods of generating the uniform numbers used by {@link MonteCarloInference}
+ * to sample the labels along the chain. The s-th simulation takes the label
+ * at the i-th position in the chain as 1 when the conditional probability
+ * of the label exceeds the (s, i) number.
+ */
+public enum SamplingMode {
+
+	/**
+	 * independent numbers from {@link Random}
+	 */
+	RANDOM {
+		@Override
+		public Uniforms generate(int numSimulations, int numLabels, int stratifiedLinks,
+				long seed) {
+			return new RandomUniforms(numSimulations, numLabels, seed);
+		}
+	},
+
+	/**
+	 * the Halton sequence over the positions in the chain, with a random
+	 * permutation of the digits and a random shift in each dimension
+	 */
+	HALTON {
+		@Override
+		public Uniforms generate(int numSimulations, int numLabels, int stratifiedLinks,
+				long seed) {
+			Random random = new Random(seed);
+			final double[][] uniforms = new double[numSimulations][numLabels];
+			int[] bases = primes(numLabels);
+
+			for (int i = 0; i < numLabels; i++) {
+				int base = bases[i];
+
+				// a permutation of the digits which keeps 0 in place, so that
+				// the radical inverse stays finite
+				int[] permutation = new int[base];
+				for (int d = 0; d < base; d++) {
+					permutation[d] = d;
+				}
+				for (int d = base - 1; d > 1; d--) {
+					int k = 1 + random.nextInt(d);
+					int temp = permutation[d];
+					permutation[d] = permutation[k];
+					permutation[k] = temp;
+				}
+				double shift = random.nextDouble();
+
+				for (int s = 0; s < numSimulations; s++) {
+					double u = radicalInverse(s + 1, base, permutation) + shift;
+					uniforms[s][i] = (u >= 1.0) ? u - 1.0 : u;
+				}
+			}
+			return new Uniforms() {
+				@Override
+				public double get(int simulation, int position) {
+					return uniforms[simulation][position];
+				}
+			};
+		}
+	},
+
+	/**
+	 * the Latin hypercube sampling at the first positions in the chain (each
+	 * of the simulations falls into a different stratum of each of these
+	 * positions) and independent numbers at the remaining ones
+	 */
+	STRATIFIED {
+		@Override
+		public Uniforms generate(final int numSimulations, int numLabels, int stratifiedLinks,
+				long seed) {
+			final RandomUniforms independent = new RandomUniforms(numSimulations, numLabels, seed);
+			// the strata are drawn after the independent numbers of all simulations
+			Random random = independent.following();
+			final int[][] strata = new int[Math.min(stratifiedLinks, numLabels)][numSimulations];
+
+			for (int i = 0; i < strata.length; i++) {
+				for (int s = 0; s < numSimulations; s++) {
+					strata[i][s] = s;
+				}
+				for (int s = numSimulations - 1; s > 0; s--) {
+					int k = random.nextInt(s + 1);
+					int temp = strata[i][s];
+					strata[i][s] = strata[i][k];
+					strata[i][k] = temp;
+				}
+			}
+			return new Uniforms() {
+				@Override
+				public double get(int simulation, int position) {
+					double u = independent.get(simulation, position);
+					if (position < strata.length) {
+						u = (strata[position][simulation] + u) / numSimulations;
+					}
+					return u;
+				}
+			};
+		}
+	};
+
+	/**
+	 * Creates the uniform numbers from [0, 1) for all simulations.
+	 *
+	 * @param numSimulations number of simulations
+	 * @param numLabels number of positions in the chain
+	 * @param stratifiedLinks number of the first positions in the chain that
+	 * are stratified (used by {@link #STRATIFIED} only)
+	 * @param seed seed of the randomness
+	 * @return the numbers for each simulation and position
+	 */
+	public abstract Uniforms generate(int numSimulations, int numLabels, int stratifiedLinks,
+			long seed);
+
+	/**
+	 * Uniform numbers of the simulations. The number of a simulation at a
+	 * position in the chain is read once, after its numbers at all of the
+	 * previous positions, so the numbers may be drawn on the fly.
+	 */
+	public static abstract class Uniforms {
+
+		/**
+		 * @param simulation index of the simulation
+		 * @param position position in the chain
+		 * @return the number from [0, 1)
+		 */
+		public abstract double get(int simulation, int position);
+	}
+
+	/**
+	 * Independent numbers which are the same as the ones drawn by
+	 * {@link Random#nextDouble()} for the simulations one after another, all
+	 * positions of a simulation before the next one. Each simulation keeps
+	 * the state of the generator at its own place of the sequence, found by
+	 * a jump of the linear congruential generator specified by
+	 * {@link Random}, so the numbers are drawn on the fly in any order of the
+	 * simulations and take a long per simulation.
+	 */
+	private static final class RandomUniforms extends Uniforms {
+
+		private static final long MULTIPLIER = 0x5DEECE66DL;
+
+		private static final long ADDEND = 0xBL;
+
+		private static final long MASK = (1L << 48) - 1;
+
+		/**
+		 * state of the generator of each simulation
+		 */
+		private final long[] states;
+
+		/**
+		 * state of the generator after the numbers of all simulations
+		 */
+		private final long end;
+
+		RandomUniforms(int numSimulations, int numLabels, long seed) {
+			// each number takes two steps of the generator
+			long[] jump = jump(2L * numLabels);
+			states = new long[numSimulations];
+			long state = (seed ^ MULTIPLIER) & MASK;
+			for (int s = 0; s < numSimulations; s++) {
+				states[s] = state;
+				state = (jump[0] * state + jump[1]) & MASK;
+			}
+			end = state;
+		}
+
+		@Override
+		public double get(int simulation, int position) {
+			long state = (MULTIPLIER * states[simulation] + ADDEND) & MASK;
+			long high = state >>> (48 - 26);
+			state = (MULTIPLIER * state + ADDEND) & MASK;
+			long low = state >>> (48 - 27);
+			states[simulation] = state;
+			return ((high << 27) + low) * 0x1.0p-53;
+		}
+
+		/**
+		 * @return a generator continuing the sequence after the numbers of
+		 * all simulations
+		 */
+		Random following() {
+			// the constructor scrambles the seed with the multiplier
+			return new Random(end ^ MULTIPLIER);
+		}
+
+		/**
+		 * Returns the multiplier and the addend of the given number of steps
+		 * of the generator.
+		 */
+		private static long[] jump(long steps) {
+			long multiplier = 1;
+			long addend = 0;
+			long stepMultiplier = MULTIPLIER;
+			long stepAddend = ADDEND;
+			while (steps > 0) {
+				if ((steps & 1) == 1) {
+					multiplier = (stepMultiplier * multiplier) & MASK;
+					addend = (stepMultiplier * addend + stepAddend) & MASK;
+				}
+				stepAddend = (stepMultiplier * stepAddend + stepAddend) & MASK;
+				stepMultiplier = (stepMultiplier * stepMultiplier) & MASK;
+				steps >>>= 1;
+			}
+			return new long[] { multiplier, addend };
+		}
+	}
+
+	/**
+	 * Computes the scrambled radical inverse of an index.
+	 *
+	 * @param index index of the point in the sequence
+	 * @param base base of the digits
+	 * @param permutation permutation of the digits
+	 * @return the radical inverse from [0, 1)
+	 */
+	private static double radicalInverse(int index, int base, int[] permutation) {
+		double result = 0.0;
+		double factor = 1.0 / base;
+		while (index > 0) {
+			result += permutation[index % base] * factor;
+			index /= base;
+			factor /= base;
+		}
+		return result;
+	}
+
+	/**
+	 * @param count number of primes
+	 * @return an array with the first prime numbers
+	 */
+	private static int[] primes(int count) {
+		int[] primes = new int[count];
+		int found = 0;
+		for (int candidate = 2; found < count; candidate++) {
+			boolean prime = true;
+			for (int k = 0; k < found && primes[k] * primes[k] <= candidate; k++) {
+				if (candidate % primes[k] == 0) {
+					prime = false;
+					break;
+				}
+			}
+			if (prime) {
+				primes[found++] = candidate;
+			}
+		}
+		return primes;
+	}
+}
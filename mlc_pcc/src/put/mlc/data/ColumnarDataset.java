@@ -0,0 +1,403 @@
+package put.mlc.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import mulan.data.InvalidDataFormatException;
+import mulan.data.LabelNodeImpl;
+import mulan.data.LabelsMetaData;
+import mulan.data.LabelsMetaDataImpl;
+import mulan.data.MultiLabelInstances;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * Read-only view of a multi-label data set stored in
+ * {@link ColumnarFormat}. The blocks of the file are mapped into memory by
+ * {@link FileChannel#map(FileChannel.MapMode, long, long)}, so opening
+ * the file takes the time of reading its header only, and the values are
+ * read from the page cache when they are used. The view can be read by many
+ * threads at the same time.<br>
+ * <br>
+ * The instances can be read directly (the non-zero features of an instance
+ * and its labels), or materialized as Weka instances, one by one or as
+ * a whole {@link MultiLabelInstances} object.<br>
+ * The blocks of the file are mapped in chunks of at most 1 GB, since a
+ * single mapping can not exceed 2 GB, so the number of the non-zero feature
+ * values is not limited by the mapping.
+ */
+public class ColumnarDataset {
+
+	private final Instances header;
+
+	private final LabelsMetaData labelsMetaData;
+
+	private final int[] labelIndices;
+
+	private final int numInstances;
+
+	private final int words;
+
+	private final boolean sparse;
+
+	/**
+	 * offsets of the rows in the blocks of indices and values
+	 */
+	private final Block offsets;
+
+	private final Block indices;
+
+	private final Block values;
+
+	private final Block labels;
+
+	/**
+	 * missing labels packed into bits, null if there are none
+	 */
+	private final Block missingLabels;
+
+	/**
+	 * weights of the instances, null if all of them are equal to 1
+	 */
+	private final Block weights;
+
+	/**
+	 * Opens a file in {@link ColumnarFormat}.
+	 *
+	 * @param file the file to open
+	 * @return a view of the data set
+	 * @throws IOException if the file can not be read or is not in the format
+	 */
+	public static ColumnarDataset open(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			return new ColumnarDataset(in.getChannel());
+		} finally {
+			// the mapped blocks stay valid after the file is closed
+			in.close();
+		}
+	}
+
+	private ColumnarDataset(FileChannel channel) throws IOException {
+		ByteBuffer preamble = map(channel, 0, ColumnarFormat.PREAMBLE);
+		if (preamble.getInt() != ColumnarFormat.MAGIC) {
+			throw new IOException("Not a columnar multi-label data set.");
+		}
+		int version = preamble.getInt();
+		if (version != ColumnarFormat.VERSION) {
+			throw new IOException("Unsupported version of the format: " + version);
+		}
+		int headerLength = preamble.getInt();
+		int flags = preamble.getInt();
+
+		byte[] headerBytes = new byte[headerLength];
+		map(channel, ColumnarFormat.PREAMBLE, headerLength).get(headerBytes);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(headerBytes));
+
+		String relationName = in.readUTF();
+		int numAttributes = in.readInt();
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>(numAttributes);
+		for (int a = 0; a < numAttributes; a++) {
+			String name = in.readUTF();
+			int type = in.readByte();
+			if (type == Attribute.NOMINAL) {
+				int numValues = in.readInt();
+				List<String> attributeValues = new ArrayList<String>(numValues);
+				for (int v = 0; v < numValues; v++) {
+					attributeValues.add(in.readUTF());
+				}
+				attributes.add(new Attribute(name, attributeValues));
+			} else {
+				attributes.add(new Attribute(name));
+			}
+		}
+
+		int numLabels = in.readInt();
+		this.labelIndices = new int[numLabels];
+		int[] parents = new int[numLabels];
+		for (int j = 0; j < numLabels; j++) {
+			this.labelIndices[j] = in.readInt();
+			parents[j] = in.readInt();
+		}
+		this.numInstances = in.readInt();
+		long numValues = in.readLong();
+
+		this.header = new Instances(relationName, attributes, 0);
+		this.labelsMetaData = labelsMetaData(parents);
+		this.words = ColumnarFormat.words(numLabels);
+		this.sparse = (flags & ColumnarFormat.FLAG_SPARSE) != 0;
+
+		long position = ColumnarFormat.align(ColumnarFormat.PREAMBLE + headerLength);
+		this.offsets = new Block(channel, position, 8L * (numInstances + 1));
+		position = ColumnarFormat.align(position + 8L * (numInstances + 1));
+		this.indices = new Block(channel, position, 4L * numValues);
+		position = ColumnarFormat.align(position + 4L * numValues);
+		this.values = new Block(channel, position, 8L * numValues);
+		position += 8L * numValues;
+
+		long labelsLength = 8L * numInstances * words;
+		this.labels = new Block(channel, position, labelsLength);
+		position += labelsLength;
+		if ((flags & ColumnarFormat.FLAG_MISSING_LABELS) != 0) {
+			this.missingLabels = new Block(channel, position, labelsLength);
+			position += labelsLength;
+		} else {
+			this.missingLabels = null;
+		}
+		if ((flags & ColumnarFormat.FLAG_WEIGHTS) != 0) {
+			this.weights = new Block(channel, position, 8L * numInstances);
+		} else {
+			this.weights = null;
+		}
+	}
+
+	/**
+	 * Maps a part of the file (of at most 2 GB) in little-endian order.
+	 */
+	private static ByteBuffer map(FileChannel channel, long position, long length)
+			throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Block of " + length + " bytes is too large to be mapped.");
+		}
+		if (position + length > channel.size()) {
+			throw new IOException("The file is truncated.");
+		}
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+		return buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Rebuilds the hierarchy of the labels.
+	 */
+	private LabelsMetaData labelsMetaData(int[] parents) {
+		LabelNodeImpl[] nodes = new LabelNodeImpl[parents.length];
+		for (int j = 0; j < nodes.length; j++) {
+			nodes[j] = new LabelNodeImpl(header.attribute(labelIndices[j]).name());
+		}
+		LabelsMetaDataImpl metaData = new LabelsMetaDataImpl();
+		for (int j = 0; j < nodes.length; j++) {
+			if (parents[j] >= 0) {
+				nodes[parents[j]].addChildNode(nodes[j]);
+			}
+		}
+		for (int j = 0; j < nodes.length; j++) {
+			if (parents[j] < 0) {
+				metaData.addRootNode(nodes[j]);
+			}
+		}
+		return metaData;
+	}
+
+	/**
+	 * @return a new empty data set with the attributes of this data set
+	 */
+	public Instances getHeader() {
+		return new Instances(header, 0);
+	}
+
+	/**
+	 * @return a copy of the meta-data of the labels
+	 */
+	public LabelsMetaData getLabelsMetaData() {
+		return labelsMetaData.clone();
+	}
+
+	/**
+	 * @return indices of the label attributes
+	 */
+	public int[] getLabelIndices() {
+		return labelIndices.clone();
+	}
+
+	/**
+	 * @return number of instances
+	 */
+	public int getNumInstances() {
+		return numInstances;
+	}
+
+	/**
+	 * @return number of labels
+	 */
+	public int getNumLabels() {
+		return labelIndices.length;
+	}
+
+	/**
+	 * @param n index of the instance
+	 * @return number of the non-zero feature values of the instance
+	 */
+	public int getNumValues(int n) {
+		return (int) (offsets.getLong(n + 1) - offsets.getLong(n));
+	}
+
+	/**
+	 * @param n index of the instance
+	 * @param k position of the value among the non-zero feature values
+	 * @return index of the attribute of the value
+	 */
+	public int getIndex(int n, int k) {
+		return indices.getInt(offsets.getLong(n) + k);
+	}
+
+	/**
+	 * @param n index of the instance
+	 * @param k position of the value among the non-zero feature values
+	 * @return the value (NaN if it is missing)
+	 */
+	public double getValue(int n, int k) {
+		return values.getDouble(offsets.getLong(n) + k);
+	}
+
+	/**
+	 * @param n index of the instance
+	 * @param j index of the label (the position in {@link #getLabelIndices()})
+	 * @return true if the label is relevant, false if it is not or is missing
+	 */
+	public boolean getLabel(int n, int j) {
+		return ((labels.getLong((long) n * words + (j >>> 6)) >>> j) & 1L) != 0;
+	}
+
+	/**
+	 * @param n index of the instance
+	 * @param j index of the label (the position in {@link #getLabelIndices()})
+	 * @return true if the label is missing
+	 */
+	public boolean isLabelMissing(int n, int j) {
+		return missingLabels != null
+				&& ((missingLabels.getLong((long) n * words + (j >>> 6)) >>> j) & 1L) != 0;
+	}
+
+	/**
+	 * @param n index of the instance
+	 * @return weight of the instance
+	 */
+	public double getWeight(int n) {
+		return weights == null ? 1.0 : weights.getDouble(n);
+	}
+
+	/**
+	 * Materializes an instance. It is sparse if the instances of the written
+	 * data set were sparse, and dense otherwise. It has no data set assigned.
+	 *
+	 * @param n index of the instance
+	 * @return a new instance
+	 */
+	public Instance instance(int n) {
+		int numAttributes = header.numAttributes();
+		long start = offsets.getLong(n);
+		int numValues = getNumValues(n);
+
+		if (!sparse) {
+			double[] attValues = new double[numAttributes];
+			for (int k = 0; k < numValues; k++) {
+				attValues[indices.getInt(start + k)] = values.getDouble(start + k);
+			}
+			for (int j = 0; j < labelIndices.length; j++) {
+				attValues[labelIndices[j]] = isLabelMissing(n, j) ? Double.NaN
+						: (getLabel(n, j) ? 1.0 : 0.0);
+			}
+			return new DenseInstance(getWeight(n), attValues);
+		}
+
+		// the features and the non-zero labels merged in the order of attributes
+		long[] labelEntries = new long[labelIndices.length];
+		int numLabelEntries = 0;
+		for (int j = 0; j < labelIndices.length; j++) {
+			if (isLabelMissing(n, j) || getLabel(n, j)) {
+				labelEntries[numLabelEntries++] = ((long) labelIndices[j] << 32) | j;
+			}
+		}
+		Arrays.sort(labelEntries, 0, numLabelEntries);
+
+		int size = numValues + numLabelEntries;
+		int[] attIndices = new int[size];
+		double[] attValues = new double[size];
+		int k = 0;
+		int l = 0;
+		for (int p = 0; p < size; p++) {
+			int labelIndex = (l < numLabelEntries) ? (int) (labelEntries[l] >>> 32) : Integer.MAX_VALUE;
+			if (k < numValues && indices.getInt(start + k) < labelIndex) {
+				attIndices[p] = indices.getInt(start + k);
+				attValues[p] = values.getDouble(start + k);
+				k++;
+			} else {
+				int j = (int) labelEntries[l];
+				attIndices[p] = labelIndex;
+				attValues[p] = isLabelMissing(n, j) ? Double.NaN : 1.0;
+				l++;
+			}
+		}
+		return new SparseInstance(getWeight(n), attValues, attIndices, numAttributes);
+	}
+
+	/**
+	 * Materializes the whole data set.
+	 *
+	 * @return a new multi-label data set
+	 * @throws InvalidDataFormatException
+	 */
+	public MultiLabelInstances toMultiLabelInstances() throws InvalidDataFormatException {
+		Instances dataSet = new Instances(header, numInstances);
+		for (int n = 0; n < numInstances; n++) {
+			dataSet.add(instance(n));
+		}
+		return new MultiLabelInstances(dataSet, labelsMetaData.clone());
+	}
+
+	/**
+	 * A block of the file mapped in chunks of {@link #CHUNK_SIZE} bytes (the
+	 * last one may be shorter), read by the index of an element. The chunks
+	 * are multiples of the sizes of the elements, so no element is split
+	 * between two chunks.
+	 */
+	private static final class Block {
+
+		private static final int CHUNK_SHIFT = 30;
+
+		private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+
+		private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+		private final ByteBuffer[] chunks;
+
+		Block(FileChannel channel, long position, long length) throws IOException {
+			if (position + length > channel.size()) {
+				throw new IOException("The file is truncated.");
+			}
+			this.chunks = new ByteBuffer[(int) ((length + CHUNK_MASK) >>> CHUNK_SHIFT)];
+			for (int c = 0; c < chunks.length; c++) {
+				long start = (long) c << CHUNK_SHIFT;
+				chunks[c] = map(channel, position + start, Math.min(CHUNK_SIZE, length - start));
+			}
+		}
+
+		int getInt(long index) {
+			long offset = index << 2;
+			return chunks[(int) (offset >>> CHUNK_SHIFT)].getInt((int) (offset & CHUNK_MASK));
+		}
+
+		long getLong(long index) {
+			long offset = index << 3;
+			return chunks[(int) (offset >>> CHUNK_SHIFT)].getLong((int) (offset & CHUNK_MASK));
+		}
+
+		double getDouble(long index) {
+			long offset = index << 3;
+			return chunks[(int) (offset >>> CHUNK_SHIFT)].getDouble((int) (offset & CHUNK_MASK));
+		}
+	}
+}
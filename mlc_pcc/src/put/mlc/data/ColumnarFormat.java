@@ -0,0 +1,329 @@
+package put.mlc.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import mulan.data.LabelNode;
+import mulan.data.LabelsMetaData;
+import mulan.data.MultiLabelInstances;
+import put.mlc.utils.AtomicFiles;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * Binary columnar format of multi-label data sets, read by
+ * {@link ColumnarDataset}. A file consists of:
+ * <ul>
+ * <li>a preamble: magic number, version, length of the header and flags,</li>
+ * <li>a header: name of the relation, attributes (name, type and values of
+ * the nominal ones) and labels (index of the attribute and index of the
+ * parent label in the hierarchy from the XML file),</li>
+ * <li>the values of the features in CSR format: offsets of the rows, indices
+ * of the attributes and values (only non-zero values are stored),</li>
+ * <li>the labels packed into bits, a row of 64-bit words for each instance,</li>
+ * <li>the missing labels packed into bits and the weights of the instances,
+ * if there are any missing labels or weights different from 1.</li>
+ * </ul>
+ * The header is written by {@link DataOutputStream}, the preamble and the
+ * blocks are written in little-endian order and aligned to 8 bytes, so they
+ * can be mapped directly into memory.
+ */
+public final class ColumnarFormat {
+
+	/**
+	 * extension of the files in this format
+	 */
+	public static final String EXTENSION = ".mlcb";
+
+	static final int MAGIC = 0x424C434D;
+
+	static final int VERSION = 1;
+
+	/**
+	 * length of the preamble in bytes
+	 */
+	static final int PREAMBLE = 16;
+
+	/**
+	 * the instances of the data set were sparse
+	 */
+	static final int FLAG_SPARSE = 1;
+
+	/**
+	 * the block with missing labels is present
+	 */
+	static final int FLAG_MISSING_LABELS = 2;
+
+	/**
+	 * the block with weights is present
+	 */
+	static final int FLAG_WEIGHTS = 4;
+
+	/**
+	 * size of the buffer used to write the blocks
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private ColumnarFormat() {
+	}
+
+	/**
+	 * Returns the number of 64-bit words in a row of the label matrix.
+	 */
+	static int words(int numLabels) {
+		return (numLabels + 63) >>> 6;
+	}
+
+	/**
+	 * Returns the given position aligned to 8 bytes.
+	 */
+	static long align(long position) {
+		return (position + 7) & ~7L;
+	}
+
+	/**
+	 * Writes a multi-label data set to a file. Only numeric and nominal
+	 * attributes are supported, the labels have to be binary.
+	 *
+	 * @param data the data set
+	 * @param file the file to write to, it is replaced by a rename, so the
+ * data sets which map the old file are not affected
+	 * @throws IOException
+	 */
+	public static void write(MultiLabelInstances data, File file) throws IOException {
+		Instances dataSet = data.getDataSet();
+		int numInstances = dataSet.numInstances();
+		int numAttributes = dataSet.numAttributes();
+		int[] labelIndices = data.getLabelIndices();
+		int numLabels = labelIndices.length;
+		int words = words(numLabels);
+
+		boolean[] isLabel = new boolean[numAttributes];
+		for (int labelIndex : labelIndices) {
+			isLabel[labelIndex] = true;
+		}
+
+		// flags and number of the stored feature values
+		int flags = 0;
+		long numValues = 0;
+		for (int n = 0; n < numInstances; n++) {
+			Instance instance = dataSet.instance(n);
+			if (instance instanceof SparseInstance) {
+				flags |= FLAG_SPARSE;
+			}
+			if (instance.weight() != 1.0) {
+				flags |= FLAG_WEIGHTS;
+			}
+			for (int labelIndex : labelIndices) {
+				if (instance.isMissing(labelIndex)) {
+					flags |= FLAG_MISSING_LABELS;
+				}
+			}
+			for (int k = 0; k < instance.numValues(); k++) {
+				if (!isLabel[instance.index(k)] && instance.valueSparse(k) != 0) {
+					numValues++;
+				}
+			}
+		}
+
+		byte[] header = header(data, numValues);
+
+		// the file may be mapped by the readers, so it is replaced, not truncated
+		File temporary = AtomicFiles.createTemporary(file);
+		RandomAccessFile out = new RandomAccessFile(temporary, "rw");
+		boolean written = false;
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(header.length);
+			buffer.putInt(flags);
+			flush(channel, buffer);
+			channel.write(ByteBuffer.wrap(header));
+			pad(channel, buffer);
+
+			// offsets of the rows
+			long offset = 0;
+			for (int n = 0; n < numInstances; n++) {
+				putLong(channel, buffer, offset);
+				Instance instance = dataSet.instance(n);
+				for (int k = 0; k < instance.numValues(); k++) {
+					if (!isLabel[instance.index(k)] && instance.valueSparse(k) != 0) {
+						offset++;
+					}
+				}
+			}
+			putLong(channel, buffer, offset);
+			flush(channel, buffer);
+
+			// indices of the attributes
+			for (int n = 0; n < numInstances; n++) {
+				Instance instance = dataSet.instance(n);
+				for (int k = 0; k < instance.numValues(); k++) {
+					if (!isLabel[instance.index(k)] && instance.valueSparse(k) != 0) {
+						if (buffer.remaining() < 4) {
+							flush(channel, buffer);
+						}
+						buffer.putInt(instance.index(k));
+					}
+				}
+			}
+			pad(channel, buffer);
+
+			// values
+			for (int n = 0; n < numInstances; n++) {
+				Instance instance = dataSet.instance(n);
+				for (int k = 0; k < instance.numValues(); k++) {
+					if (!isLabel[instance.index(k)] && instance.valueSparse(k) != 0) {
+						putDouble(channel, buffer, instance.valueSparse(k));
+					}
+				}
+			}
+			flush(channel, buffer);
+
+			// labels and missing labels
+			long[] row = new long[words];
+			for (int block = 0; block < 2; block++) {
+				boolean missing = (block == 1);
+				if (missing && (flags & FLAG_MISSING_LABELS) == 0) {
+					break;
+				}
+				for (int n = 0; n < numInstances; n++) {
+					Instance instance = dataSet.instance(n);
+					for (int w = 0; w < words; w++) {
+						row[w] = 0L;
+					}
+					for (int j = 0; j < numLabels; j++) {
+						boolean bit = missing ? instance.isMissing(labelIndices[j])
+								: !instance.isMissing(labelIndices[j])
+										&& instance.value(labelIndices[j]) == 1.0;
+						if (bit) {
+							row[j >>> 6] |= 1L << j;
+						}
+					}
+					for (int w = 0; w < words; w++) {
+						putLong(channel, buffer, row[w]);
+					}
+				}
+			}
+
+			// weights
+			if ((flags & FLAG_WEIGHTS) != 0) {
+				for (int n = 0; n < numInstances; n++) {
+					putDouble(channel, buffer, dataSet.instance(n).weight());
+				}
+			}
+			flush(channel, buffer);
+			written = true;
+		} finally {
+			out.close();
+			if (!written) {
+				temporary.delete();
+			}
+		}
+		AtomicFiles.replace(temporary, file);
+	}
+
+	/**
+	 * Encodes the header of a data set.
+	 */
+	private static byte[] header(MultiLabelInstances data, long numValues) throws IOException {
+		Instances dataSet = data.getDataSet();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeUTF(dataSet.relationName());
+		out.writeInt(dataSet.numAttributes());
+		for (int a = 0; a < dataSet.numAttributes(); a++) {
+			Attribute attribute = dataSet.attribute(a);
+			out.writeUTF(attribute.name());
+			if (attribute.type() == Attribute.NUMERIC) {
+				out.writeByte(Attribute.NUMERIC);
+			} else if (attribute.type() == Attribute.NOMINAL) {
+				out.writeByte(Attribute.NOMINAL);
+				out.writeInt(attribute.numValues());
+				for (int v = 0; v < attribute.numValues(); v++) {
+					out.writeUTF(attribute.value(v));
+				}
+			} else {
+				throw new IllegalArgumentException("Attribute " + attribute.name()
+						+ " is neither numeric nor nominal.");
+			}
+		}
+
+		int[] labelIndices = data.getLabelIndices();
+		LabelsMetaData labels = data.getLabelsMetaData();
+		Map<String, Integer> positions = new HashMap<String, Integer>();
+		for (int j = 0; j < labelIndices.length; j++) {
+			Attribute attribute = dataSet.attribute(labelIndices[j]);
+			if (attribute.type() != Attribute.NOMINAL || attribute.numValues() != 2) {
+				throw new IllegalArgumentException("Label " + attribute.name() + " is not binary.");
+			}
+			positions.put(attribute.name(), j);
+		}
+		out.writeInt(labelIndices.length);
+		for (int j = 0; j < labelIndices.length; j++) {
+			String name = dataSet.attribute(labelIndices[j]).name();
+			LabelNode parent = labels.getLabelNode(name).getParent();
+			out.writeInt(labelIndices[j]);
+			out.writeInt(parent == null ? -1 : positions.get(parent.getName()));
+		}
+
+		out.writeInt(dataSet.numInstances());
+		out.writeLong(numValues);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void putLong(FileChannel channel, ByteBuffer buffer, long value)
+			throws IOException {
+		if (buffer.remaining() < 8) {
+			flush(channel, buffer);
+		}
+		buffer.putLong(value);
+	}
+
+	private static void putDouble(FileChannel channel, ByteBuffer buffer, double value)
+			throws IOException {
+		if (buffer.remaining() < 8) {
+			flush(channel, buffer);
+		}
+		buffer.putDouble(value);
+	}
+
+	/**
+	 * Writes the content of the buffer to the channel and clears it.
+	 */
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Writes the content of the buffer and pads the file with zeros to
+	 * 8 bytes.
+	 */
+	private static void pad(FileChannel channel, ByteBuffer buffer) throws IOException {
+		flush(channel, buffer);
+		long position = channel.position();
+		for (long p = position; p < align(position); p++) {
+			buffer.put((byte) 0);
+		}
+		flush(channel, buffer);
+	}
+}
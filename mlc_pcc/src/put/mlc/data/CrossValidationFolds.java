@@ -0,0 +1,190 @@
+package put.mlc.data;
+
+import java.util.Random;
+
+import mulan.data.InvalidDataFormatException;
+import mulan.data.MultiLabelInstances;
+import weka.core.Instances;
+
+/**
+ * Partition of a multi-label data set into the folds of cross-validation.
+ * The folds are kept as arrays of indices into one data set, which is shared
+ * and never modified, so the same object can be used by many experiments and
+ * threads at the same time.<br>
+ * <br>
+ * The partition is the same as the one made by
+ * mulan.evaluation.Evaluator of Mulan 1.4: the data set is shuffled once by
+ * {@link Instances#randomize(Random)} with the given seed and divided by
+ * {@link Instances#trainCV(int, int)} and {@link Instances#testCV(int, int)};
+ * the training sets are not shuffled again, as they would be by
+ * {@link Instances#trainCV(int, int, Random)}. Hence, the results of
+ * cross-validation do not change.<br>
+ * <br>
+ * The training and testing sets of a fold are materialized on demand, since
+ * the learners modify the data sets they are built on (e.g. set the class
+ * attribute). The instances are copied from the shared data set, no file is
+ * parsed and no data set is shuffled again.
+ */
+public class CrossValidationFolds {
+
+	/**
+	 * the shared data set
+	 */
+	private final MultiLabelInstances data;
+
+	private final int numFolds;
+
+	private final int seed;
+
+	/**
+	 * indices of the instances in the order after shuffling
+	 */
+	private final int[] permutation;
+
+	/**
+	 * Class constructor. It divides the given data set into the folds.
+	 *
+	 * @param data the shared data set, it is not modified
+	 * @param numFolds number of folds
+	 * @param seed seed of the shuffling
+	 */
+	public CrossValidationFolds(MultiLabelInstances data, int numFolds, int seed) {
+		int numInstances = data.getNumInstances();
+		if (numFolds < 2) {
+			throw new IllegalArgumentException("Number of folds must be at least 2!");
+		}
+		if (numFolds > numInstances) {
+			throw new IllegalArgumentException("Can't have more folds than instances!");
+		}
+
+		this.data = data;
+		this.numFolds = numFolds;
+		this.seed = seed;
+
+		// the same swaps as in Instances.randomize(Random)
+		this.permutation = new int[numInstances];
+		for (int j = 0; j < numInstances; j++) {
+			this.permutation[j] = j;
+		}
+		Random random = new Random(seed);
+		for (int j = numInstances - 1; j > 0; j--) {
+			int k = random.nextInt(j + 1);
+			int swap = this.permutation[j];
+			this.permutation[j] = this.permutation[k];
+			this.permutation[k] = swap;
+		}
+	}
+
+	/**
+	 * @return the shared data set, it must not be modified
+	 */
+	public MultiLabelInstances getData() {
+		return data;
+	}
+
+	/**
+	 * @return number of folds
+	 */
+	public int getNumFolds() {
+		return numFolds;
+	}
+
+	/**
+	 * @return seed of the shuffling
+	 */
+	public int getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Returns the position of the first testing instance of a fold in the
+	 * shuffled data set, as computed by {@link Instances#testCV(int, int)}.
+	 */
+	private int first(int fold) {
+		int numInstances = permutation.length;
+		int offset = (fold < numInstances % numFolds) ? fold : numInstances % numFolds;
+		return fold * (numInstances / numFolds) + offset;
+	}
+
+	/**
+	 * Returns the number of testing instances of a fold.
+	 */
+	private int size(int fold) {
+		int numInstances = permutation.length;
+		return numInstances / numFolds + ((fold < numInstances % numFolds) ? 1 : 0);
+	}
+
+	private void checkFold(int fold) {
+		if (fold < 0 || fold >= numFolds) {
+			throw new IllegalArgumentException("Invalid fold: " + fold);
+		}
+	}
+
+	/**
+	 * @param fold number of the fold (from 0)
+	 * @return indices of the testing instances of the fold in the shared data set
+	 */
+	public int[] getTestIndices(int fold) {
+		checkFold(fold);
+		int[] indices = new int[size(fold)];
+		System.arraycopy(permutation, first(fold), indices, 0, indices.length);
+		return indices;
+	}
+
+	/**
+	 * @param fold number of the fold (from 0)
+	 * @return indices of the training instances of the fold in the shared data
+	 * set
+	 */
+	public int[] getTrainIndices(int fold) {
+		checkFold(fold);
+		int first = first(fold);
+		int size = size(fold);
+		int[] indices = new int[permutation.length - size];
+		System.arraycopy(permutation, 0, indices, 0, first);
+		System.arraycopy(permutation, first + size, indices, first,
+				permutation.length - first - size);
+		return indices;
+	}
+
+	/**
+	 * Materializes the training set of a fold.
+	 *
+	 * @param fold number of the fold (from 0)
+	 * @return a new data set with copies of the training instances
+	 * @throws InvalidDataFormatException
+	 */
+	public MultiLabelInstances getTrain(int fold) throws InvalidDataFormatException {
+		return select(data, getTrainIndices(fold));
+	}
+
+	/**
+	 * Materializes the testing set of a fold.
+	 *
+	 * @param fold number of the fold (from 0)
+	 * @return a new data set with copies of the testing instances
+	 * @throws InvalidDataFormatException
+	 */
+	public MultiLabelInstances getTest(int fold) throws InvalidDataFormatException {
+		return select(data, getTestIndices(fold));
+	}
+
+	/**
+	 * Creates a data set with copies of the given instances of another data set.
+	 *
+	 * @param data the data set, it is not modified
+	 * @param indices indices of the instances to copy
+	 * @return a new data set with the same header and labels
+	 * @throws InvalidDataFormatException
+	 */
+	public static MultiLabelInstances select(MultiLabelInstances data, int[] indices)
+			throws InvalidDataFormatException {
+		Instances source = data.getDataSet();
+		Instances selected = new Instances(source, indices.length);
+		for (int index : indices) {
+			// the instance is copied by Instances.add(Instance)
+			selected.add(source.instance(index));
+		}
+		return new MultiLabelInstances(selected, data.getLabelsMetaData());
+	}
+}
@@ -0,0 +1,342 @@
+package put.mlc.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import mulan.data.InvalidDataFormatException;
+import mulan.data.MultiLabelInstances;
+
+/**
+ * Registry of the multi-label data sets loaded in the virtual machine. Each
+ * pair of an ARFF file and an XML file with labels is parsed only once, and
+ * the folds of cross-validation are computed only once for each number of
+ * folds and seed. The registry is shared by all experiments, so the same
+ * data set loaded for many regularization parameters, grid points or
+ * learners is read from memory.<br>
+ * <br>
+ * The data sets can be also cached on disk in {@link ColumnarFormat}, see
+ * {@link #setBinaryCache(boolean)}.<br>
+ * <br>
+ * If many threads ask for the same data set, one of them parses it and the
+ * others wait for it. The shared data sets must not be modified; the
+ * experiments get copies or materialize the folds from
+ * {@link CrossValidationFolds}.<br>
+ * <br>
+ * A data set is kept in the registry while it is acquired, see
+ * {@link #acquire(String, String)}: the experiments acquire the data sets of
+ * their grid before the first job and release them after the last one, and
+ * the last release removes the data set and its folds. A copy of a data set
+ * which is neither acquired nor loaded is parsed for the caller alone and
+ * not kept. The shared data sets and folds taken without acquiring stay in
+ * the registry until the one who took them calls
+ * {@link #remove(String, String)} (or {@link #clear()}).
+ */
+public final class DatasetRegistry {
+
+	/**
+	 * the shared data sets, by their files
+	 */
+	private static final ConcurrentMap<String, Future<MultiLabelInstances>> datasets =
+			new ConcurrentHashMap<String, Future<MultiLabelInstances>>();
+
+	/**
+	 * the folds of the shared data sets, by their files, number of folds
+	 * and seed
+	 */
+	private static final ConcurrentMap<String, CrossValidationFolds> folds =
+			new ConcurrentHashMap<String, CrossValidationFolds>();
+
+	/**
+	 * number of the holders of the acquired data sets, by their files
+	 */
+	private static final Map<String, Integer> references = new HashMap<String, Integer>();
+
+	/**
+	 * if true, the data sets are cached in {@link ColumnarFormat} next to
+	 * their ARFF files
+	 */
+	private static volatile boolean binaryCache = false;
+
+	private DatasetRegistry() {
+	}
+
+	/**
+	 * Turns on or off the binary cache of the data sets. When it is on,
+	 * a data set parsed from ARFF is written in {@link ColumnarFormat} to
+	 * a file next to the ARFF file, and the next virtual machines open this
+	 * file instead of parsing, as long as it is newer than the ARFF and XML
+	 * files.
+	 *
+	 * @param binaryCache true to use the binary cache
+	 */
+	public static void setBinaryCache(boolean binaryCache) {
+		DatasetRegistry.binaryCache = binaryCache;
+	}
+
+	/**
+	 * @return true if the binary cache of the data sets is used
+	 */
+	public static boolean isBinaryCache() {
+		return binaryCache;
+	}
+
+	/**
+	 * Returns the file of the binary cache of a data set, e.g.
+	 * yeast-train.arff.yeast.mlcb for yeast-train.arff and yeast.xml.
+	 */
+	private static File cacheFile(String arffFile, String xmlFile) {
+		String labels = new File(xmlFile).getName();
+		if (labels.endsWith(".xml")) {
+			labels = labels.substring(0, labels.length() - 4);
+		}
+		return new File(arffFile + "." + labels + ColumnarFormat.EXTENSION);
+	}
+
+	/**
+	 * Returns the file of the binary cache of a data set if the cache is on
+	 * and the file is up to date (newer than the ARFF and XML files), e.g. to
+	 * read the data set incrementally from it.
+	 *
+	 * @param arffFile name of ARFF file with the data set
+	 * @param xmlFile name of XML file with IDs of labels
+	 * @return the file in {@link ColumnarFormat} or null
+	 */
+	public static File findCacheFile(String arffFile, String xmlFile) {
+		if (!binaryCache) {
+			return null;
+		}
+		File cache = cacheFile(arffFile, xmlFile);
+		if (cache.isFile() && cache.lastModified() >= new File(arffFile).lastModified()
+				&& cache.lastModified() >= new File(xmlFile).lastModified()) {
+			return cache;
+		}
+		return null;
+	}
+
+	/**
+	 * Loads a data set, from the binary cache if it is on and up to date.
+	 */
+	private static MultiLabelInstances load(String arffFile, String xmlFile)
+			throws InvalidDataFormatException {
+		if (!binaryCache) {
+			return new MultiLabelInstances(arffFile, xmlFile);
+		}
+
+		File cache = findCacheFile(arffFile, xmlFile);
+		if (cache != null) {
+			try {
+				return ColumnarDataset.open(cache).toMultiLabelInstances();
+			} catch (IOException e) {
+				Logger.getLogger(DatasetRegistry.class.getName()).log(Level.WARNING,
+						"Cannot read " + cache + ", parsing " + arffFile, e);
+			}
+		}
+
+		MultiLabelInstances data = new MultiLabelInstances(arffFile, xmlFile);
+		cache = cacheFile(arffFile, xmlFile);
+		try {
+			ColumnarFormat.write(data, cache);
+		} catch (IOException e) {
+			Logger.getLogger(DatasetRegistry.class.getName()).log(Level.WARNING,
+					"Cannot write " + cache, e);
+			cache.delete();
+		} catch (IllegalArgumentException e) {
+			// the data set can not be stored in the format
+			Logger.getLogger(DatasetRegistry.class.getName()).log(Level.WARNING,
+					"Cannot write " + cache, e);
+			cache.delete();
+		}
+		return data;
+	}
+
+	/**
+	 * Returns the key of a data set. The paths are made absolute, so that the
+	 * same files given in different ways are parsed once.
+	 */
+	private static String key(String arffFile, String xmlFile) {
+		return new File(arffFile).getAbsolutePath() + "|"
+				+ new File(xmlFile).getAbsolutePath();
+	}
+
+	/**
+	 * Returns the shared data set, parsing it on the first use. It must not
+	 * be modified (nor given to a learner to build on).
+	 *
+	 * @param arffFile name of ARFF file with the data set
+	 * @param xmlFile name of XML file with IDs of labels
+	 * @return the shared data set
+	 * @throws InvalidDataFormatException if format of the data set is invalid
+	 */
+	public static MultiLabelInstances getShared(final String arffFile, final String xmlFile)
+			throws InvalidDataFormatException {
+		String key = key(arffFile, xmlFile);
+		Future<MultiLabelInstances> future = datasets.get(key);
+		if (future == null) {
+			FutureTask<MultiLabelInstances> task = new FutureTask<MultiLabelInstances>(
+					new Callable<MultiLabelInstances>() {
+						@Override
+						public MultiLabelInstances call() throws Exception {
+							return load(arffFile, xmlFile);
+						}
+					});
+			future = datasets.putIfAbsent(key, task);
+			if (future == null) {
+				future = task;
+				task.run();
+			}
+		}
+
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while loading " + arffFile, e);
+		} catch (ExecutionException e) {
+			// a failed data set is parsed again on the next use
+			datasets.remove(key, future);
+			Throwable cause = e.getCause();
+			if (cause instanceof InvalidDataFormatException) {
+				throw (InvalidDataFormatException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Returns a copy of the shared data set, which can be modified, e.g.
+	 * given to a learner to build on. Copying the instances is much cheaper
+	 * than parsing the files. If the data set is neither acquired nor loaded,
+	 * it is parsed for the caller and not kept in the registry.
+	 *
+	 * @param arffFile name of ARFF file with the data set
+	 * @param xmlFile name of XML file with IDs of labels
+	 * @return a new copy of the data set
+	 * @throws InvalidDataFormatException if format of the data set is invalid
+	 */
+	public static MultiLabelInstances get(String arffFile, String xmlFile)
+			throws InvalidDataFormatException {
+		String key = key(arffFile, xmlFile);
+		if (!datasets.containsKey(key) && !isAcquired(key)) {
+			return load(arffFile, xmlFile);
+		}
+		return getShared(arffFile, xmlFile).clone();
+	}
+
+	/**
+	 * Returns the folds of cross-validation of the shared data set, computing
+	 * them on the first use. They are the same as the folds made by
+	 * mulan.evaluation.Evaluator with the given seed.
+	 *
+	 * @param arffFile name of ARFF file with the data set
+	 * @param xmlFile name of XML file with IDs of labels
+	 * @param numFolds number of folds
+	 * @param seed seed of the shuffling
+	 * @return the shared folds
+	 * @throws InvalidDataFormatException if format of the data set is invalid
+	 */
+	public static CrossValidationFolds getFolds(String arffFile, String xmlFile,
+			int numFolds, int seed) throws InvalidDataFormatException {
+		String key = key(arffFile, xmlFile) + "|" + numFolds + "|" + seed;
+		CrossValidationFolds cached = folds.get(key);
+		if (cached == null) {
+			// computing the folds twice in a race is cheap and gives equal folds
+			CrossValidationFolds computed = new CrossValidationFolds(
+					getShared(arffFile, xmlFile), numFolds, seed);
+			cached = folds.putIfAbsent(key, computed);
+			if (cached == null) {
+				cached = computed;
+			}
+		}
+		return cached;
+	}
+
+	/**
+	 * Acquires a data set, so that it is kept in the registry, once loaded,
+	 * until the matching call of {@link #release(String, String)}. The data
+	 * set is not loaded by this method.
+	 *
+	 * @param arffFile name of ARFF file with the data set
+	 * @param xmlFile name of XML file with IDs of labels
+	 */
+	public static void acquire(String arffFile, String xmlFile) {
+		String key = key(arffFile, xmlFile);
+		synchronized (references) {
+			Integer count = references.get(key);
+			references.put(key, (count == null) ? 1 : count + 1);
+		}
+	}
+
+	/**
+	 * Releases a data set acquired by {@link #acquire(String, String)}. When
+	 * it is released by all its holders, the data set and its folds are
+	 * removed from the registry.
+	 *
+	 * @param arffFile name of ARFF file with the data set
+	 * @param xmlFile name of XML file with IDs of labels
+	 * @throws IllegalStateException if the data set is not acquired
+	 */
+	public static void release(String arffFile, String xmlFile) {
+		String key = key(arffFile, xmlFile);
+		synchronized (references) {
+			Integer count = references.get(key);
+			if (count == null) {
+				throw new IllegalStateException(arffFile + " is not acquired.");
+			}
+			if (count > 1) {
+				references.put(key, count - 1);
+				return;
+			}
+			references.remove(key);
+			remove(arffFile, xmlFile);
+		}
+	}
+
+	private static boolean isAcquired(String key) {
+		synchronized (references) {
+			return references.containsKey(key);
+		}
+	}
+
+	/**
+	 * Removes a data set and its folds from the registry, e.g. when the files
+	 * have been changed. It does not change the holders of an acquired data
+	 * set, which is loaded again on the next use.
+	 *
+	 * @param arffFile name of ARFF file with the data set
+	 * @param xmlFile name of XML file with IDs of labels
+	 */
+	public static void remove(String arffFile, String xmlFile) {
+		String key = key(arffFile, xmlFile);
+		datasets.remove(key);
+		for (String foldsKey : folds.keySet()) {
+			if (foldsKey.startsWith(key + "|")) {
+				folds.remove(foldsKey);
+			}
+		}
+	}
+
+	/**
+	 * Removes all data sets and folds from the registry. The holders of the
+	 * acquired data sets are not changed.
+	 */
+	public static void clear() {
+		datasets.clear();
+		folds.clear();
+	}
+}
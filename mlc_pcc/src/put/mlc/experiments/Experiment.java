@@ -5,15 +5,17 @@ import java.util.List;
 
 import put.mlc.experiments.common.ExperimentResult;
 import put.mlc.experiments.common.ExperimentResults;
+import put.mlc.experiments.common.GridScheduler;
 import put.mlc.measures.InstanceBasedFMeasure;
+import put.mlc.measures.MergeableHammingLoss;
+import put.mlc.measures.MergeableMacroFMeasure;
+import put.mlc.measures.MergeableMicroFMeasure;
 import put.mlc.measures.ZeroOneLossMeasure;
+import put.mlc.utils.ParallelExecutor;
 import mulan.classifier.MultiLabelLearner;
 import mulan.evaluation.Evaluation;
 import mulan.evaluation.MultipleEvaluation;
-import mulan.evaluation.measure.HammingLoss;
-import mulan.evaluation.measure.MacroFMeasure;
 import mulan.evaluation.measure.Measure;
-import mulan.evaluation.measure.MicroFMeasure;
 
 /**
  * General class that allows making experiments. Every experiment class has to extend this class.
@@ -44,6 +46,18 @@ public abstract class Experiment {
 	 */
 	protected boolean multiThreading = false;
 	
+	/**
+	 * number of copies of the data set taken by the training and evaluation
+	 * of a learner, used to estimate the memory of a job
+	 */
+	protected double memoryFactor = 4.0;
+	
+	/**
+	 * maximal sum of the estimated memory of the jobs run at the same time,
+	 * 0 for the default
+	 */
+	protected long memoryBudget = 0;
+	
 	/**
 	 * Default constructor with multi-label learner to set.
 	 * 
@@ -59,12 +73,24 @@ public abstract class Experiment {
 	 * @param numOfLabels number of labels in selected data set
 	 */
 	protected void initMeasures(int numOfLabels) {
-		measures = new ArrayList<Measure>();
-		measures.add(new HammingLoss());
+		measures = createMeasures(numOfLabels);
+	}
+	
+	/**
+	 * Creates a new list of the measures that are desirable to evaluate, e.g.
+	 * for one of many evaluations run at the same time.
+	 * 
+	 * @param numOfLabels number of labels in selected data set
+	 * @return a new list of measures
+	 */
+	protected List<Measure> createMeasures(int numOfLabels) {
+		List<Measure> measures = new ArrayList<Measure>();
+		measures.add(new MergeableHammingLoss());
 		measures.add(new ZeroOneLossMeasure());
 		measures.add(new InstanceBasedFMeasure());
-		measures.add(new MicroFMeasure(numOfLabels));
-		measures.add(new MacroFMeasure(numOfLabels));
+		measures.add(new MergeableMicroFMeasure(numOfLabels));
+		measures.add(new MergeableMacroFMeasure(numOfLabels));
+		return measures;
 	}
 	
 	/**
@@ -89,7 +115,65 @@ public abstract class Experiment {
 	}
 	
 	/**
-	 * Runs experiment for the given train set file and test set file
+	 * Sets the factor of the memory estimate of a job: the number of copies
+	 * of the data set taken by the training and evaluation of a learner.
+	 * 
+	 * @param memoryFactor the factor of the memory estimate
+	 */
+	public void setMemoryFactor(double memoryFactor) {
+		if (memoryFactor <= 0) {
+			throw new IllegalArgumentException("Memory factor must be positive.");
+		}
+		this.memoryFactor = memoryFactor;
+	}
+	
+	/**
+	 * @return the factor of the memory estimate of a job
+	 */
+	public double getMemoryFactor() {
+		return memoryFactor;
+	}
+	
+	/**
+	 * Sets the maximal sum of the estimated memory of the jobs run at the
+	 * same time.
+	 * 
+	 * @param memoryBudget memory budget in bytes, 0 for the default
+	 * (see {@link GridScheduler#defaultMemoryBudget()})
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		if (memoryBudget < 0) {
+			throw new IllegalArgumentException("Memory budget cannot be negative.");
+		}
+		this.memoryBudget = memoryBudget;
+	}
+	
+	/**
+	 * @return the maximal sum of the estimated memory of the jobs run at the
+	 * same time, 0 for the default
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+	
+	/**
+	 * Creates the scheduler of the jobs of the experiment. In multi-threaded
+	 * mode it runs as many jobs at the same time as the parallelism of
+	 * {@link ParallelExecutor}, otherwise one job at a time.
+	 * 
+	 * @return a new scheduler
+	 */
+	protected GridScheduler createScheduler() {
+		int maxJobs = isMultiThreading() ? ParallelExecutor.getParallelism() : 1;
+		return (this.memoryBudget > 0)
+				? new GridScheduler(maxJobs, this.memoryBudget) : new GridScheduler(maxJobs);
+	}
+	
+	/**
+	 * Runs experiment for the given train set file and test set file. In
+	 * multi-threaded mode it is called for many data sets at the same time
+	 * (see {@link #evaluation()}), so it must not change the state of the
+	 * experiment.
 	 * 
 	 * @param trainSet name of ARFF file with the training set
 	 * @param testSet name of ARFF file with the testing set
@@ -100,17 +184,42 @@ public abstract class Experiment {
 	public abstract ExperimentResult evaluation(String trainSet, String testSet, String labelsXML) throws Exception;
 	
 	/**
-	 * Runs experiment for defined data sets.
+	 * Runs experiment for defined data sets. Each data set is a job of
+	 * {@link GridScheduler}, so in multi-threaded mode the data sets are
+	 * evaluated at the same time, as long as their estimated memory fits into
+	 * the budget; otherwise they are evaluated one by one in the order of
+	 * definition. The memory of a data set is estimated from its files (see
+	 * {@link GridScheduler#estimateMemory(String, String)}), and the data set
+	 * is loaded by its job. The times of the data sets evaluated at the same
+	 * time are measured under the load of each other.
 	 * 
 	 * @return {@link ExperimentResults} object containing {@link ExperimentResult} for each data set
 	 * @throws Exception
 	 */
 	public ExperimentResults evaluation() throws Exception {
-		ExperimentResults results = new ExperimentResults();
-		for (String datasetName : this.datasets) {
-			ExperimentResult result = evaluation(datasetName + "-train.arff", datasetName + "-test.arff", datasetName + ".xml");
-			results.addResult(datasetName, result);
+		final ExperimentResults results = new ExperimentResults();
+		GridScheduler scheduler = createScheduler();
+		for (final String datasetName : this.datasets) {
+			final String trainSet = datasetName + "-train.arff";
+			final String testSet = datasetName + "-test.arff";
+			final String labelsXML = datasetName + ".xml";
+			long memory = (long) (this.memoryFactor
+					* GridScheduler.estimateMemory(trainSet, labelsXML));
+			scheduler.submit(new GridScheduler.Job(memory) {
+				private ExperimentResult result = null;
+				
+				@Override
+				protected void run() throws Exception {
+					result = evaluation(trainSet, testSet, labelsXML);
+				}
+				
+				@Override
+				protected void done() {
+					results.addResult(datasetName, result);
+				}
+			});
 		}
+		scheduler.run();
 		return results;
 	}
 
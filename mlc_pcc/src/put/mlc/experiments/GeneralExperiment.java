@@ -1,17 +1,26 @@
 package put.mlc.experiments;
 
+import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.List;
 
 import cc.mallet.classify.MaxEntTrainer;
 import mulan.classifier.MultiLabelLearner;
 import mulan.data.MultiLabelInstances;
 import mulan.evaluation.Evaluation;
 import mulan.evaluation.Evaluator;
+import mulan.evaluation.measure.Measure;
 import put.mlc.classifiers.common.MalletClassifier;
 import put.mlc.classifiers.common.TunedClassifier;
+import put.mlc.classifiers.pcc.PCC;
+import put.mlc.classifiers.pcc.inference.common.InferenceMetrics;
+import put.mlc.data.DatasetRegistry;
 import put.mlc.experiments.common.ExperimentResult;
+import put.mlc.utils.BatchEvaluator;
 import put.mlc.utils.MultiThreadEvaluator;
+import put.mlc.utils.StreamingEvaluator;
+import put.mlc.utils.TimedEvaluator;
 import weka.classifiers.Classifier;
 
 /**
@@ -23,6 +32,11 @@ import weka.classifiers.Classifier;
  */
 public class GeneralExperiment extends Experiment {
 	
+	/**
+	 * if true, the test set is read incrementally during the evaluation
+	 */
+	private boolean streamingEvaluation = false;
+	
 	/**
 	 * Constructor with multi-label learner to set. 
 	 */
@@ -30,10 +44,42 @@ public class GeneralExperiment extends Experiment {
 		super(learner);
 	}
 	
+	/**
+	 * Sets the streaming evaluation. If it is on, the test set is not loaded
+	 * into the memory, but read incrementally by {@link StreamingEvaluator}
+	 * (from the binary cache of {@link DatasetRegistry} if it is available),
+	 * and the time of reading is a part of the testing time.
+	 * 
+	 * @param streamingEvaluation true to read the test set incrementally
+	 */
+	public void setStreamingEvaluation(boolean streamingEvaluation) {
+		this.streamingEvaluation = streamingEvaluation;
+	}
+	
+	/**
+	 * @return true if the test set is read incrementally
+	 */
+	public boolean isStreamingEvaluation() {
+		return streamingEvaluation;
+	}
+	
 	protected void setBaseCLassifierForLearner(Classifier baseClassifier) throws Exception {
+		setBaseCLassifierForLearner(this.learner, baseClassifier);
+	}
+	
+	/**
+	 * Sets the base classifier of a given learner, e.g. of a copy of the
+	 * learner of this experiment.
+	 * 
+	 * @param learner the multi-label learner
+	 * @param baseClassifier the base classifier to set
+	 * @throws Exception if the learner has no base classifier
+	 */
+	protected static void setBaseCLassifierForLearner(MultiLabelLearner learner,
+			Classifier baseClassifier) throws Exception {
 		Method setBaseClassifier = null;
 		try {
-			setBaseClassifier = this.learner.getClass().getMethod("setBaseClassifier", Classifier.class);
+			setBaseClassifier = learner.getClass().getMethod("setBaseClassifier", Classifier.class);
 		} catch (SecurityException e) {
 		  e.printStackTrace();
 		  throw new Exception(e.getMessage());
@@ -43,7 +89,7 @@ public class GeneralExperiment extends Experiment {
 		}
 		
 		try {
-			setBaseClassifier.invoke(this.learner, baseClassifier);
+			setBaseClassifier.invoke(learner, baseClassifier);
 		} catch (IllegalArgumentException e) {
 			e.printStackTrace();
 			throw new Exception(e.getMessage());
@@ -57,7 +103,12 @@ public class GeneralExperiment extends Experiment {
 	}
 	
 	/**
-	 * Runs experiment using a given multi-label learner.
+	 * Runs experiment using a given multi-label learner. A copy of the
+	 * learner is trained, so the learner of the experiment stays untrained
+	 * and many data sets can be evaluated at the same time; in multi-threaded
+	 * mode the inference costs of PCC are then recorded together for the data
+	 * sets evaluated with the same inference method (see
+	 * {@link InferenceMetrics}).
 	 * 
 	 * @param trainSet name of ARFF file with the training set
 	 * @param testSet name of ARFF file with the testing set
@@ -68,21 +119,54 @@ public class GeneralExperiment extends Experiment {
 	@Override
 	public ExperimentResult evaluation(String trainSet, String testSet,
 			String labelsXML) throws Exception {
-		MultiLabelInstances train = new MultiLabelInstances(trainSet, labelsXML);
-		MultiLabelInstances test = new MultiLabelInstances(testSet, labelsXML);
+		MultiLabelInstances train = DatasetRegistry.get(trainSet, labelsXML);
+		MultiLabelInstances test = this.streamingEvaluation ? null
+				: DatasetRegistry.get(testSet, labelsXML);
 	
-		long trainingTimeStart = System.currentTimeMillis();
-		this.learner.build(train);
-		long trainingTime = System.currentTimeMillis() - trainingTimeStart;
+		MultiLabelLearner learner = this.learner.makeCopy();
+	
+		long trainingTimeStart = System.nanoTime();
+		learner.build(train);
+		long trainingTime = (System.nanoTime() - trainingTimeStart) / 1000000;
+		
+		List<Measure> measures = createMeasures(train.getNumLabels());
 		
-		initMeasures(train.getNumLabels());
+		// the costs of the inference are the ones recorded during testing
+		InferenceMetrics inferenceMetrics = (learner instanceof PCC)
+				? ((PCC) learner).getInference().getMetrics() : null;
+		InferenceMetrics inferenceStart = (inferenceMetrics != null) ? inferenceMetrics.snapshot() : null;
 		
-		Evaluator eval = isMultiThreading() ? new MultiThreadEvaluator() : new Evaluator();
-		long testingTimeStart = System.currentTimeMillis();
-		Evaluation results = eval.evaluate(this.learner, test, measures);
-		long testingTime = System.currentTimeMillis() - testingTimeStart;
+		Evaluation results;
+		TimedEvaluator timed;
+		long testingTimeStart = System.nanoTime();
+		if (this.streamingEvaluation) {
+			File cache = DatasetRegistry.findCacheFile(testSet, labelsXML);
+			String testFile = (cache != null) ? cache.getPath() : testSet;
+			
+			StreamingEvaluator eval = new StreamingEvaluator();
+			if (!isMultiThreading()) {
+				eval.setThreads(1);
+			}
+			results = eval.evaluate(learner, testFile, labelsXML, measures);
+			timed = eval;
+		} else {
+			Evaluator eval = isMultiThreading() ? new MultiThreadEvaluator() : new BatchEvaluator();
+			results = eval.evaluate(learner, test, measures);
+			timed = (TimedEvaluator) eval;
+		}
+		long testingTime = (System.nanoTime() - testingTimeStart) / 1000000;
 		
-		return new ExperimentResult(results, trainingTime, testingTime);
+		ExperimentResult result = new ExperimentResult(results, trainingTime, testingTime);
+		result.setLatency(timed.getLatency());
+		result.setBlockLatency(timed.getBlockLatency());
+		result.setThroughput(timed.getThroughput());
+		if (learner instanceof PCC) {
+			result.setLinkTrainingTimes(((PCC) learner).getLinkTrainingTimes());
+		}
+		if (inferenceMetrics != null) {
+			result.setInferenceCost(inferenceMetrics.since(inferenceStart));
+		}
+		return result;
 	}
 
 }
@@ -4,12 +4,18 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import put.mlc.classifiers.pcc.inference.common.InferenceMetrics;
+import put.mlc.utils.LatencyHistogram;
+
 import mulan.evaluation.Evaluation;
 import mulan.evaluation.measure.Measure;
 
 /**
  * Objects implementing this class contain evaluation results for each measure,
- * training time and inference time (in milliseconds). 
+ * training time and inference time (in milliseconds), the distribution of the
+ * prediction times of the instances and the throughput of testing, the
+ * training time of each classifier in the chain and, for learners with
+ * an inference method, its cost: the work done per instance. 
  * 
  * @author Arkadiusz Jachnik
  */
@@ -30,6 +36,33 @@ public class ExperimentResult {
 	 */
 	private Map<String,Double> resultsForMeasures;
 	
+	/**
+	 * prediction times of the test instances in nanoseconds, null if unknown
+	 */
+	private LatencyHistogram latency = null;
+	
+	/**
+	 * times of the calls predicting a block of test instances in nanoseconds,
+	 * null if unknown
+	 */
+	private LatencyHistogram blockLatency = null;
+	
+	/**
+	 * number of test instances predicted per second
+	 */
+	private double throughput = 0;
+	
+	/**
+	 * training time of each classifier in the chain in nanoseconds, null if
+	 * unknown
+	 */
+	private long[] linkTrainingTimes = null;
+	
+	/**
+	 * costs of the inference method during testing, null if unknown
+	 */
+	private InferenceMetrics inferenceCost = null;
+	
 	/**
 	 * decimal places for double values
 	 */
@@ -76,11 +109,36 @@ public class ExperimentResult {
 		}
 		out.append("Training time = " + this.trainingTime + "\n");
 		out.append("Testing time = " + this.testingTime);
+		if (this.latency != null) {
+			out.append("\nInference latency = " + this.latency);
+			out.append("\nThroughput = " + numFormat(this.throughput) + " instances/s");
+		}
+		if (this.blockLatency != null && this.blockLatency.getCount() > 0) {
+			out.append("\nBlock latency = " + this.blockLatency);
+		}
+		if (this.linkTrainingTimes != null) {
+			out.append("\nLink training times =");
+			for (long time : this.linkTrainingTimes) {
+				out.append(" " + numFormat(time / 1e6));
+			}
+			out.append(" ms");
+		}
+		if (this.inferenceCost != null && this.inferenceCost.getCalls() > 0) {
+			out.append("\nInference cost = " + this.inferenceCost);
+		}
 		
 		return out.toString();
 	}
 	
 	/**
+	 * Returns the results as a CSV row: the measures, training and testing
+	 * time, 50th, 90th and 99th percentile and maximum of the prediction
+	 * times, the throughput, 50th percentile and maximum of the times of the
+	 * calls predicting a block of instances, and the total and maximum
+	 * training time of the classifiers in the chain. The times are in
+	 * milliseconds and the unknown values are 0, so all rows have the same
+	 * columns.
+	 * 
 	 * @return string with CSV representation of results splitting by tabs
 	 */
 	public String toCSVString() {
@@ -95,6 +153,28 @@ public class ExperimentResult {
 		
 		out.append(this.trainingTime + "\t" + this.testingTime);
 		
+		LatencyHistogram times = (this.latency != null) ? this.latency : new LatencyHistogram();
+		out.append("\t" + numFormat(times.getPercentile(50) / 1e6));
+		out.append("\t" + numFormat(times.getPercentile(90) / 1e6));
+		out.append("\t" + numFormat(times.getPercentile(99) / 1e6));
+		out.append("\t" + numFormat(times.getMax() / 1e6));
+		out.append("\t" + numFormat(this.throughput));
+		
+		LatencyHistogram blocks = (this.blockLatency != null) ? this.blockLatency : new LatencyHistogram();
+		out.append("\t" + numFormat(blocks.getPercentile(50) / 1e6));
+		out.append("\t" + numFormat(blocks.getMax() / 1e6));
+		
+		long totalLinkTime = 0;
+		long maxLinkTime = 0;
+		if (this.linkTrainingTimes != null) {
+			for (long time : this.linkTrainingTimes) {
+				totalLinkTime += time;
+				maxLinkTime = Math.max(maxLinkTime, time);
+			}
+		}
+		out.append("\t" + numFormat(totalLinkTime / 1e6));
+		out.append("\t" + numFormat(maxLinkTime / 1e6));
+		
 		return out.toString();
 	}
 	
@@ -142,6 +222,82 @@ public class ExperimentResult {
 		this.testingTime = testingTime;
 	}
 
+	/**
+	 * @return the prediction times of the test instances in nanoseconds,
+	 * null if unknown
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @param latency the prediction times of the test instances in nanoseconds
+	 */
+	public void setLatency(LatencyHistogram latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * @return the times of the calls predicting a block of test instances in
+	 * nanoseconds, null if unknown
+	 */
+	public LatencyHistogram getBlockLatency() {
+		return blockLatency;
+	}
+
+	/**
+	 * @param blockLatency the times of the calls predicting a block of test
+	 * instances in nanoseconds
+	 */
+	public void setBlockLatency(LatencyHistogram blockLatency) {
+		this.blockLatency = blockLatency;
+	}
+
+	/**
+	 * @return the number of test instances predicted per second
+	 */
+	public double getThroughput() {
+		return throughput;
+	}
+
+	/**
+	 * @param throughput the number of test instances predicted per second
+	 */
+	public void setThroughput(double throughput) {
+		this.throughput = throughput;
+	}
+
+	/**
+	 * @return the training time of each classifier in the chain in
+	 * nanoseconds, null if unknown
+	 */
+	public long[] getLinkTrainingTimes() {
+		return linkTrainingTimes;
+	}
+
+	/**
+	 * @param linkTrainingTimes the training time of each classifier in the
+	 * chain in nanoseconds
+	 */
+	public void setLinkTrainingTimes(long[] linkTrainingTimes) {
+		this.linkTrainingTimes = linkTrainingTimes;
+	}
+
+	/**
+	 * @return the costs of the inference method during testing, null if unknown
+	 */
+	public InferenceMetrics getInferenceCost() {
+		return inferenceCost;
+	}
+
+	/**
+	 * @param inferenceCost the costs of the inference method during testing
+	 * @see InferenceMetrics#since(InferenceMetrics)
+	 */
+	public void setInferenceCost(InferenceMetrics inferenceCost) {
+		this.inferenceCost = inferenceCost;
+	}
+
 	/**
 	 * @return the resultsForMeasures
 	 */
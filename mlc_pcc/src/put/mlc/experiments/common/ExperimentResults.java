@@ -1,11 +1,14 @@
 package put.mlc.experiments.common;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
- * Set of {@link ExperimentResult} objects for each data set.
+ * Set of {@link ExperimentResult} objects for each data set. The results
+ * can be added by many threads at the same time, e.g. as the data sets of
+ * a grid are finished, and they are kept in the order of the names of the
+ * data sets.
  * 
  * @author Arkadiusz Jachnik
  * 
@@ -16,13 +19,13 @@ public class ExperimentResults {
 	/**
 	 * results stored in {@link ExperimentResult} for each data set
 	 */
-	private Map<String,ExperimentResult> results;
+	private final Map<String,ExperimentResult> results;
 	
 	/**
 	 * Default constructor.
 	 */
 	public ExperimentResults() {
-		results = new HashMap<String, ExperimentResult>();
+		results = new ConcurrentSkipListMap<String, ExperimentResult>();
 	}
 	
 	/**
@@ -47,7 +50,7 @@ public class ExperimentResults {
 	 * @return string array with paths and names of data sets
 	 */
 	public String[] getDatasets() {
-		return (String[]) results.keySet().toArray();
+		return results.keySet().toArray(new String[0]);
 	}
 	
 	/**
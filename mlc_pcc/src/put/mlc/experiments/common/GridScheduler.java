@@ -0,0 +1,291 @@
+package put.mlc.experiments.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import mulan.data.MultiLabelInstances;
+import put.mlc.data.ColumnarDataset;
+import put.mlc.data.DatasetRegistry;
+import put.mlc.utils.ParallelExecutor;
+import weka.core.Instances;
+
+/**
+ * Scheduler of the jobs of an experiment grid, e.g. (data set, parameter,
+ * fold) triples. The jobs are run at the same time in the threads of
+ * {@link ParallelExecutor}, as long as the sum of their estimated memory
+ * does not exceed the memory budget.<br>
+ * <br>
+ * The jobs are admitted in the order of submission. A job which does not
+ * fit into the budget waits (together with the jobs after it) until enough
+ * running jobs are finished; a job greater than the whole budget is run
+ * alone. After a job is finished, its {@link Job#done()} method is called in
+ * the thread of the scheduler, so it may collect the results and submit new
+ * jobs without locks. The results do not depend on the order in which the
+ * jobs are finished, as long as the jobs store them by their position in
+ * the grid.
+ */
+public class GridScheduler {
+
+	/**
+	 * number of bytes taken by an instance apart from its values
+	 */
+	private static final long INSTANCE_OVERHEAD = 64;
+
+	/**
+	 * number of bytes taken by a data set per byte of its ARFF file, with
+	 * a dense value of a few characters taking 8 bytes
+	 */
+	private static final long ARFF_FACTOR = 2;
+
+	/**
+	 * maximal number of jobs run at the same time
+	 */
+	private final int maxJobs;
+
+	/**
+	 * maximal sum of the estimated memory of the running jobs (in bytes)
+	 */
+	private final long memoryBudget;
+
+	/**
+	 * jobs waiting for admission, in the order of admission
+	 */
+	private final LinkedList<Job> pending = new LinkedList<Job>();
+
+	/**
+	 * jobs finished in the threads of the pool
+	 */
+	private final BlockingQueue<Job> finished = new LinkedBlockingQueue<Job>();
+
+	private boolean running = false;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param maxJobs maximal number of jobs run at the same time
+	 * @param memoryBudget maximal sum of the estimated memory of the running
+	 * jobs (in bytes)
+	 */
+	public GridScheduler(int maxJobs, long memoryBudget) {
+		if (maxJobs < 1) {
+			throw new IllegalArgumentException("At least one job has to be run.");
+		}
+		this.maxJobs = maxJobs;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Class constructor with the default memory budget.
+	 *
+	 * @param maxJobs maximal number of jobs run at the same time
+	 * @see #defaultMemoryBudget()
+	 */
+	public GridScheduler(int maxJobs) {
+		this(maxJobs, defaultMemoryBudget());
+	}
+
+	/**
+	 * Returns the default memory budget: three quarters of the heap which is
+	 * not used at the moment of the call.
+	 *
+	 * @return memory budget in bytes
+	 */
+	public static long defaultMemoryBudget() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		return Math.max(0, runtime.maxMemory() - used) / 4 * 3;
+	}
+
+	/**
+	 * Estimates the memory taken by one copy of a data set, with dense
+	 * instances.
+	 *
+	 * @param data the data set
+	 * @return memory in bytes
+	 */
+	public static long estimateMemory(MultiLabelInstances data) {
+		Instances dataSet = data.getDataSet();
+		return dataSet.numInstances() * (8L * dataSet.numAttributes() + INSTANCE_OVERHEAD);
+	}
+
+	/**
+	 * Estimates the memory taken by one copy of a data set without loading
+	 * it: from the header of its binary cache if it is up to date (see
+	 * {@link DatasetRegistry#findCacheFile(String, String)}), otherwise from
+	 * the size of its ARFF file.
+	 *
+	 * @param arffFile name of ARFF file with the data set
+	 * @param xmlFile name of XML file with IDs of labels
+	 * @return memory in bytes
+	 */
+	public static long estimateMemory(String arffFile, String xmlFile) {
+		File cache = DatasetRegistry.findCacheFile(arffFile, xmlFile);
+		if (cache != null) {
+			try {
+				ColumnarDataset dataset = ColumnarDataset.open(cache);
+				return dataset.getNumInstances()
+						* (8L * dataset.getHeader().numAttributes() + INSTANCE_OVERHEAD);
+			} catch (IOException e) {
+				// the size of the ARFF file is used
+			}
+		}
+		return ARFF_FACTOR * new File(arffFile).length();
+	}
+
+	/**
+	 * @return maximal number of jobs run at the same time
+	 */
+	public int getMaxJobs() {
+		return maxJobs;
+	}
+
+	/**
+	 * @return maximal sum of the estimated memory of the running jobs (in bytes)
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Submits a job. The jobs submitted from {@link Job#done()} are admitted
+	 * before the ones submitted earlier, so that a part of the grid which
+	 * depends on them (e.g. a data set) is finished as soon as possible. This
+	 * method must be called from the thread of the scheduler only.
+	 *
+	 * @param job the job to run
+	 */
+	public void submit(Job job) {
+		if (running) {
+			pending.addFirst(job);
+		} else {
+			pending.addLast(job);
+		}
+	}
+
+	/**
+	 * Runs the submitted jobs (and the jobs submitted by them) and waits for
+	 * all of them. If a job fails, no more jobs are admitted and the exception
+	 * is thrown after the running ones are finished. This method waits for
+	 * the jobs, so it must not be called from a thread of the pool.
+	 *
+	 * @throws Exception the exception thrown by the first failed job
+	 */
+	public void run() throws Exception {
+		Exception failure = null;
+		int numRunning = 0;
+		long admittedMemory = 0;
+
+		running = true;
+		try {
+			while (true) {
+				while (failure == null && !pending.isEmpty() && numRunning < maxJobs) {
+					Job job = pending.getFirst();
+					long memory = Math.min(job.getMemory(), memoryBudget);
+					if (numRunning > 0 && admittedMemory + memory > memoryBudget) {
+						break;
+					}
+					pending.removeFirst();
+					job.admittedMemory = memory;
+					admittedMemory += memory;
+					numRunning++;
+					start(job);
+				}
+				if (numRunning == 0) {
+					break;
+				}
+
+				Job job = finished.take();
+				numRunning--;
+				admittedMemory -= job.admittedMemory;
+				if (job.failure != null) {
+					if (failure == null) {
+						failure = job.failure;
+					}
+				} else if (failure == null) {
+					try {
+						job.done();
+					} catch (Exception e) {
+						failure = e;
+					}
+				}
+			}
+		} finally {
+			running = false;
+			pending.clear();
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Runs a job in the pool and puts it to the queue of finished jobs.
+	 */
+	private void start(final Job job) {
+		ParallelExecutor.getPool().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					job.run();
+				} catch (Exception e) {
+					job.failure = e;
+				} catch (Error e) {
+					job.failure = new Exception(e);
+				} finally {
+					finished.add(job);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Job of an experiment grid.
+	 */
+	public static abstract class Job {
+
+		/**
+		 * estimated memory of the job (in bytes)
+		 */
+		private final long memory;
+
+		private long admittedMemory = 0;
+
+		private Exception failure = null;
+
+		/**
+		 * Class constructor.
+		 *
+		 * @param memory estimated memory of the job (in bytes)
+		 */
+		protected Job(long memory) {
+			this.memory = memory;
+		}
+
+		/**
+		 * @return estimated memory of the job (in bytes)
+		 */
+		public long getMemory() {
+			return memory;
+		}
+
+		/**
+		 * Runs the job in a thread of the pool.
+		 *
+		 * @throws Exception
+		 */
+		protected abstract void run() throws Exception;
+
+		/**
+		 * Called in the thread of the scheduler after the job is finished. By
+		 * default, it does nothing.
+		 *
+		 * @throws Exception
+		 */
+		protected void done() throws Exception {
+		}
+	}
+}
@@ -8,21 +8,29 @@ import mulan.classifier.MultiLabelLearner;
 import mulan.classifier.transformation.BinaryRelevance;
 import mulan.data.MultiLabelInstances;
 import mulan.evaluation.Evaluation;
-import mulan.evaluation.Evaluator;
 import mulan.evaluation.MultipleEvaluation;
 import put.mlc.classifiers.common.MalletClassifier;
+import put.mlc.data.CrossValidationFolds;
+import put.mlc.data.DatasetRegistry;
 import put.mlc.experiments.Experiment;
+import put.mlc.experiments.GeneralExperiment;
 import put.mlc.experiments.common.ExperimentResult;
+import put.mlc.experiments.common.ExperimentResults;
+import put.mlc.experiments.common.GridScheduler;
+import put.mlc.measures.InstanceBasedFMeasure;
+import put.mlc.utils.BatchEvaluator;
 import weka.classifiers.Classifier;
 
 /**
- * Implementation of cross-validation (CV) tuning experiment.
+ * Implementation of cross-validation (CV) tuning experiment. The jobs of the
+ * grid (data set, regularization parameter, fold) are run at the same time
+ * by {@link GridScheduler}.
  * 
  * @author Arkadiusz Jachnik
  * 
  * @see {@link Experiment}
  */
-public class CVExperiment extends Experiment {
+public class CVExperiment extends GeneralExperiment {
 	
 	/**
 	 * number of folds in cross-validation
@@ -34,8 +42,11 @@ public class CVExperiment extends Experiment {
 	 */
 	protected List<Double> variances = null;
 	
-	private long trainingTime = 0;
-
+	/**
+	 * seed of the division into the folds, the same as in mulan.evaluation.Evaluator
+	 */
+	private static final int SEED = 1;
+	
 	/**
 	 * Constructor with multi-label learner to set.
 	 * 
@@ -86,32 +97,6 @@ public class CVExperiment extends Experiment {
 			variances.add(d);
 		}
 	}
-	
-	/**
-	 * Performs the cross-validation for a given regularization parameter.
-	 * 
-	 * @param trainSet name of ARFF file with the training set
-	 * @param labelsXML name of XML file with IDs of labels
-	 * @param variance the logistic regression regularization parameter
-	 * @return {@link MultipleEvaluation} object with results for each measure
-	 * @throws Exception
-	 */
-	private MultipleEvaluation crossValidation(String trainSet, String labelsXML, double variance) throws Exception {
-		
-		MaxEntTrainer maxEntTrainer = new MaxEntTrainer();
-		maxEntTrainer.setGaussianPriorVariance(variance);
-
-		MultiLabelInstances train = new MultiLabelInstances(trainSet, labelsXML);
-		
-		initMeasures(train.getNumLabels());
-		
-		Evaluator eval = new Evaluator();
-		long trainingTimeStart = System.currentTimeMillis();
-		MultipleEvaluation results = eval.crossValidate(this.learner, train, this.measures, this.folds);
-		this.trainingTime += System.currentTimeMillis() - trainingTimeStart;
-		
-		return results;
-	}
 
 	/**
 	 * Runs experiment with cross-validation tuning for each regularization parameter.
@@ -122,30 +107,257 @@ public class CVExperiment extends Experiment {
 	 * @param labelsXML name of XML file with IDs of labels
 	 * @return {@link ExperimentResult} object with results for each measure, training time and inference time
 	 * @throws Exception
+	 * @see #evaluation()
 	 */
 	@Override
 	public ExperimentResult evaluation(String trainSet, String testSet,
 			String labelsXML) throws Exception {
-
-		double maxF = Double.MIN_VALUE;
+		DatasetGrid grid = new DatasetGrid(null, trainSet, testSet, labelsXML);
+		runGrid(new DatasetGrid[] { grid }, null);
+		return grid.result;
+	}
+	
+	/**
+	 * Runs experiment for defined data sets. The cross-validation jobs of all
+	 * data sets, regularization parameters and folds are run at the same
+	 * time (in multi-threaded mode), as long as their estimated memory fits
+	 * into the budget. When all folds of a data set are evaluated, the final
+	 * learner with the best parameter is trained and tested, and its result
+	 * is added at once.<br>
+	 * The memory of the jobs is estimated from the files of the data sets
+	 * (see {@link GridScheduler#estimateMemory(String, String)}), and the data
+	 * sets are loaded by the first jobs which use them. The folds are taken
+	 * from {@link DatasetRegistry}, where the training set is acquired until
+	 * the final learner is trained. The results are collected by their
+	 * position in the grid, so they do not depend on the order in which the
+	 * jobs are finished.
+	 * 
+	 * @return {@link ExperimentResults} object containing {@link ExperimentResult} for each data set
+	 * @throws Exception
+	 */
+	@Override
+	public ExperimentResults evaluation() throws Exception {
+		DatasetGrid[] grids = new DatasetGrid[this.datasets.length];
+		for (int d = 0; d < grids.length; d++) {
+			String datasetName = this.datasets[d];
+			grids[d] = new DatasetGrid(datasetName, datasetName + "-train.arff",
+					datasetName + "-test.arff", datasetName + ".xml");
+		}
+		
+		ExperimentResults results = new ExperimentResults();
+		runGrid(grids, results);
+		return results;
+	}
+	
+	/**
+	 * Runs the grid of the given data sets.
+	 * 
+	 * @param grids the data sets
+	 * @param results the results to add the result of each data set to, or null
+	 * @throws Exception
+	 */
+	private void runGrid(final DatasetGrid[] grids, final ExperimentResults results) throws Exception {
+		final double[] gridVariances = new double[this.variances.size()];
+		for (int v = 0; v < gridVariances.length; v++) {
+			gridVariances[v] = this.variances.get(v);
+		}
+		
+		final GridScheduler scheduler = createScheduler();
+		
+		for (final DatasetGrid grid : grids) {
+			grid.acquire(gridVariances.length);
+			final long foldMemory = (long) (this.memoryFactor
+					* GridScheduler.estimateMemory(grid.trainSet, grid.labelsXML));
+			for (int v = 0; v < gridVariances.length; v++) {
+				for (int fold = 0; fold < this.folds; fold++) {
+					final int vF = v;
+					final int foldF = fold;
+					scheduler.submit(new GridScheduler.Job(foldMemory) {
+						@Override
+						protected void run() throws Exception {
+							grid.evaluateFold(gridVariances[vF], vF, foldF);
+						}
+						
+						@Override
+						protected void done() throws Exception {
+							if (--grid.remaining == 0) {
+								scheduler.submit(finalJob(grid, gridVariances, results));
+							}
+						}
+					});
+				}
+			}
+		}
+		
+		try {
+			scheduler.run();
+		} finally {
+			// the data sets of the grids not finished because of a failure
+			for (DatasetGrid grid : grids) {
+				grid.release();
+			}
+		}
+	}
+	
+	/**
+	 * Creates the job which trains and tests the learner with the best
+	 * regularization parameter for a data set whose folds are evaluated.
+	 */
+	private GridScheduler.Job finalJob(final DatasetGrid grid, double[] gridVariances,
+			final ExperimentResults results) throws Exception {
+		double maxF = Double.NEGATIVE_INFINITY;
 		double bestVariance = Double.NaN;
 		
-		for (Double variance : this.variances) {
-			MultipleEvaluation results = crossValidation(trainSet, labelsXML, variance);
-			double f = results.getMean("Example-Based F-Measure");
+		// the training set is loaded by the jobs of the folds
+		MultiLabelInstances data = DatasetRegistry.getShared(grid.trainSet, grid.labelsXML);
+		for (int v = 0; v < gridVariances.length; v++) {
+			MultipleEvaluation evaluation = new MultipleEvaluation(grid.evaluations[v], data);
+			evaluation.calculateStatistics();
+			double f = evaluation.getMean(InstanceBasedFMeasure.measureName);
 			
 			if (f > maxF) {
 				maxF = f;
-				bestVariance = variance;
+				bestVariance = gridVariances[v];
 			}
 		}
-
-		SingleExperiment se = new SingleExperiment(this.learner, bestVariance);
 		
-		ExperimentResult result = se.evaluation(trainSet, testSet, labelsXML);
-		result.setTrainingTime(result.getTrainingTime() + this.trainingTime);
+		final double variance = bestVariance;
+		long memory = (long) (this.memoryFactor
+				* (GridScheduler.estimateMemory(grid.trainSet, grid.labelsXML)
+						+ GridScheduler.estimateMemory(grid.testSet, grid.labelsXML)));
+		
+		return new GridScheduler.Job(memory) {
+			@Override
+			protected void run() throws Exception {
+				grid.evaluateFinal(variance);
+			}
+			
+			@Override
+			protected void done() {
+				grid.release();
+				if (results != null) {
+					results.addResult(grid.name, grid.result);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Creates a copy of the learner of this experiment with MaxEnt with
+	 * the given regularization parameter as the base classifier.
+	 */
+	private MultiLabelLearner createLearner(double variance) throws Exception {
+		MaxEntTrainer maxEntTrainer = new MaxEntTrainer();
+		maxEntTrainer.setGaussianPriorVariance(variance);
+		
+		MultiLabelLearner copy = this.learner.makeCopy();
+		setBaseCLassifierForLearner(copy, new MalletClassifier(maxEntTrainer));
+		return copy;
+	}
+	
+	/**
+	 * State of the grid of a single data set. The evaluations of the folds
+	 * are written by the jobs into their own cells, the other fields are
+	 * updated by the scheduler.
+	 */
+	private class DatasetGrid {
 		
-		return result;
+		final String name;
+		final String trainSet;
+		final String testSet;
+		final String labelsXML;
+		
+		/**
+		 * evaluations for each regularization parameter and fold
+		 */
+		Evaluation[][] evaluations = null;
+		
+		/**
+		 * training and testing time of the folds, for each regularization
+		 * parameter and fold
+		 */
+		long[][] times = null;
+		
+		/**
+		 * number of the folds not evaluated yet
+		 */
+		int remaining = 0;
+		
+		ExperimentResult result = null;
+		
+		/**
+		 * true while the training set is acquired in {@link DatasetRegistry}
+		 */
+		boolean acquired = false;
+		
+		DatasetGrid(String name, String trainSet, String testSet, String labelsXML) {
+			this.name = name;
+			this.trainSet = trainSet;
+			this.testSet = testSet;
+			this.labelsXML = labelsXML;
+		}
+		
+		/**
+		 * Acquires the training set, which is shared by the jobs of the folds
+		 * and the final job, and prepares the grid. The training set is loaded
+		 * by the first job.
+		 */
+		void acquire(int numVariances) {
+			DatasetRegistry.acquire(trainSet, labelsXML);
+			this.acquired = true;
+			this.evaluations = new Evaluation[numVariances][folds];
+			this.times = new long[numVariances][folds];
+			this.remaining = numVariances * folds;
+		}
+		
+		/**
+		 * Releases the training set, after the final job or a failure.
+		 */
+		void release() {
+			if (acquired) {
+				acquired = false;
+				DatasetRegistry.release(trainSet, labelsXML);
+			}
+		}
+		
+		void evaluateFold(double variance, int v, int fold) throws Exception {
+			MultiLabelLearner foldLearner = createLearner(variance);
+			CrossValidationFolds cvFolds = DatasetRegistry.getFolds(trainSet, labelsXML, folds, SEED);
+			MultiLabelInstances train = cvFolds.getTrain(fold);
+			MultiLabelInstances test = cvFolds.getTest(fold);
+			
+			long start = System.currentTimeMillis();
+			foldLearner.build(train);
+			evaluations[v][fold] = new BatchEvaluator().evaluate(foldLearner, test,
+					createMeasures(train.getNumLabels()));
+			times[v][fold] = System.currentTimeMillis() - start;
+		}
+		
+		void evaluateFinal(double variance) throws Exception {
+			MultiLabelLearner finalLearner = createLearner(variance);
+			MultiLabelInstances train = DatasetRegistry.get(trainSet, labelsXML);
+			MultiLabelInstances test = DatasetRegistry.get(testSet, labelsXML);
+			
+			long trainingTimeStart = System.currentTimeMillis();
+			finalLearner.build(train);
+			long trainingTime = System.currentTimeMillis() - trainingTimeStart;
+			
+			long testingTimeStart = System.currentTimeMillis();
+			BatchEvaluator evaluator = new BatchEvaluator();
+			Evaluation evaluation = evaluator.evaluate(finalLearner, test,
+					createMeasures(train.getNumLabels()));
+			long testingTime = System.currentTimeMillis() - testingTimeStart;
+			
+			// the time of cross-validation is the sum over the folds
+			for (long[] variancesTimes : times) {
+				for (long time : variancesTimes) {
+					trainingTime += time;
+				}
+			}
+			this.result = new ExperimentResult(evaluation, trainingTime, testingTime);
+			this.result.setLatency(evaluator.getLatency());
+			this.result.setThroughput(evaluator.getThroughput());
+		}
 	}
 
 }
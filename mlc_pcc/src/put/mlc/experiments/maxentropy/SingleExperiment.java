@@ -37,12 +37,12 @@ public class SingleExperiment extends GeneralExperiment {
 	 */
 	public SingleExperiment(MultiLabelLearner learner, double regulariationParameter) {
 		super(learner);
+		this.regulariationParameter = regulariationParameter;
 		try {
 			setMaxEntTrainerAsBaseClassifier();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		this.regulariationParameter = regulariationParameter;
 	}
 	
 	private void setMaxEntTrainerAsBaseClassifier() throws Exception {
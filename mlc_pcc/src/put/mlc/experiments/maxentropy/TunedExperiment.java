@@ -11,6 +11,8 @@ import mulan.data.MultiLabelInstances;
 import mulan.evaluation.Evaluation;
 import mulan.evaluation.Evaluator;
 import put.mlc.classifiers.common.MalletClassifier;
+import put.mlc.classifiers.common.PathTunedClassifier;
+import put.mlc.classifiers.common.RacingTunedClassifier;
 import put.mlc.classifiers.common.TunedClassifier;
 import put.mlc.experiments.Experiment;
 import put.mlc.experiments.GeneralExperiment;
@@ -68,17 +70,58 @@ public class TunedExperiment extends GeneralExperiment {
 	public TunedExperiment(MultiLabelLearner learner, int folds, int trials, int seed) {
 		super(learner);
 		initRegulariationParameters();
+		this.folds = folds;
+		this.trials = trials; 
+		this.seed = seed;
 		try {
 			setTunedClassifierAsBaseClassifier();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		this.folds = folds;
-		this.trials = trials; 
-		this.seed = seed;
+	}
+	
+	/**
+	 * Replaces the tuned classifier with {@link RacingTunedClassifier}, which
+	 * drops the worse half of the regularization parameters after each trial
+	 * of inner cross-validation.
+	 * 
+	 * @param margin safety margin in standard errors of the mean loss
+	 * (see {@link RacingTunedClassifier#setMargin(double)})
+	 * @throws Exception
+	 */
+	public void setRacing(double margin) throws Exception {
+		RacingTunedClassifier rtc = new RacingTunedClassifier(this.folds, this.trials,
+				this.seed, true, createBaseClassifiers());
+		rtc.setMargin(margin);
+		
+		this.setBaseCLassifierForLearner(rtc);
+	}
+	
+	/**
+	 * Replaces the tuned classifier with {@link PathTunedClassifier}, which
+	 * trains the classifiers for all regularization parameters in one
+	 * regularization path with warm starts.
+	 * 
+	 * @throws Exception
+	 */
+	public void setPathTuning() throws Exception {
+		double[] params = new double[this.variances.size()];
+		for (int i = 0; i < params.length; i++) {
+			params[i] = this.variances.get(i);
+		}
+		
+		this.setBaseCLassifierForLearner(new PathTunedClassifier(this.folds, this.trials,
+				this.seed, true, params));
 	}
 	
 	private void setTunedClassifierAsBaseClassifier() throws Exception {
+		TunedClassifier tc = new TunedClassifier(this.folds, this.trials, this.seed, true,
+				createBaseClassifiers());
+
+		this.setBaseCLassifierForLearner(tc);
+	}
+	
+	private Classifier[] createBaseClassifiers() {
 		Classifier[] baseClassifiers = new Classifier[this.variances.size()];
 
 		for (int i = 0; i < baseClassifiers.length; i++) {
@@ -88,10 +131,8 @@ public class TunedExperiment extends GeneralExperiment {
 			Classifier malletClassifier = new MalletClassifier(maxEntTrainer);
 			baseClassifiers[i] = malletClassifier;
 		}
-
-		TunedClassifier tc = new TunedClassifier(this.folds, this.trials, this.seed, true, baseClassifiers);
-
-		this.setBaseCLassifierForLearner(tc);
+		
+		return baseClassifiers;
 	}
 	
 	/**
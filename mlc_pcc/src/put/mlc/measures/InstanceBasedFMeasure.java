@@ -8,7 +8,7 @@ import mulan.evaluation.measure.ExampleBasedBipartitionMeasureBase;
  * 
  * @author Adrian Jaroszewicz
  */
-public class InstanceBasedFMeasure extends ExampleBasedBipartitionMeasureBase {
+public class InstanceBasedFMeasure extends ExampleBasedBipartitionMeasureBase implements MergeableMeasure {
 
 	private static final long serialVersionUID = -267641156033420969L;
 	private double beta = 1.0;
@@ -36,6 +36,17 @@ public class InstanceBasedFMeasure extends ExampleBasedBipartitionMeasureBase {
 		count++;
     }
 
+	@Override
+	public void merge(MergeableMeasure measure) {
+		if (!(measure instanceof InstanceBasedFMeasure)) {
+			throw new IllegalArgumentException("Cannot merge " + getName()
+					+ " with " + measure.getName() + ".");
+		}
+		InstanceBasedFMeasure other = (InstanceBasedFMeasure) measure;
+		sum += other.sum;
+		count += other.count;
+	}
+
 	@Override
 	public double getIdealValue() {
 		return 1;
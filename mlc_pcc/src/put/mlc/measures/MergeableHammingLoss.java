@@ -0,0 +1,60 @@
+package put.mlc.measures;
+
+import mulan.evaluation.measure.HammingLoss;
+
+/**
+ * Hamming loss which may be merged with other copies of itself. It counts
+ * the incorrectly predicted labels and all labels as integers, instead of
+ * summing the losses of the instances, so its value does not depend on the
+ * order in which the copies are updated and merged. It is the value of
+ * mulan.evaluation.measure.HammingLoss up to the rounding of the sum.
+ */
+public class MergeableHammingLoss extends HammingLoss implements MergeableMeasure {
+
+	private static final long serialVersionUID = -2785209125630473913L;
+
+	/**
+	 * number of the incorrectly predicted labels
+	 */
+	private long errors = 0;
+
+	/**
+	 * number of the predicted labels
+	 */
+	private long labels = 0;
+
+	@Override
+	public void updateBipartition(boolean[] bipartition, boolean[] truth) {
+		for (int i = 0; i < truth.length; i++) {
+			if (bipartition[i] != truth[i]) {
+				errors++;
+			}
+		}
+		labels += truth.length;
+		count++;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		errors = 0;
+		labels = 0;
+	}
+
+	@Override
+	public double getValue() {
+		return (double) errors / labels;
+	}
+
+	@Override
+	public void merge(MergeableMeasure measure) {
+		if (!(measure instanceof MergeableHammingLoss)) {
+			throw new IllegalArgumentException("Cannot merge " + getName()
+					+ " with " + measure.getName() + ".");
+		}
+		MergeableHammingLoss other = (MergeableHammingLoss) measure;
+		errors += other.errors;
+		labels += other.labels;
+		count += other.count;
+	}
+}
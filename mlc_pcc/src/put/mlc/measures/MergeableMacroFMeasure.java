@@ -0,0 +1,34 @@
+package put.mlc.measures;
+
+import mulan.evaluation.measure.MacroFMeasure;
+
+/**
+ * Macro-averaged F-measure which may be merged with other copies of itself.
+ */
+public class MergeableMacroFMeasure extends MacroFMeasure implements MergeableMeasure {
+
+	private static final long serialVersionUID = -6120379948231157022L;
+
+	public MergeableMacroFMeasure(int numOfLabels) {
+		super(numOfLabels);
+	}
+
+	public MergeableMacroFMeasure(int numOfLabels, double beta) {
+		super(numOfLabels, beta);
+	}
+
+	@Override
+	public void merge(MergeableMeasure measure) {
+		if (!(measure instanceof MergeableMacroFMeasure)) {
+			throw new IllegalArgumentException("Cannot merge " + getName()
+					+ " with " + measure.getName() + ".");
+		}
+		MergeableMacroFMeasure other = (MergeableMacroFMeasure) measure;
+		for (int labelIndex = 0; labelIndex < numOfLabels; labelIndex++) {
+			truePositives[labelIndex] += other.truePositives[labelIndex];
+			falsePositives[labelIndex] += other.falsePositives[labelIndex];
+			falseNegatives[labelIndex] += other.falseNegatives[labelIndex];
+			trueNegatives[labelIndex] += other.trueNegatives[labelIndex];
+		}
+	}
+}
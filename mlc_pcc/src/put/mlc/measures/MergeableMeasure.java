@@ -0,0 +1,22 @@
+package put.mlc.measures;
+
+import mulan.evaluation.measure.Measure;
+
+/**
+ * Interface for measures whose state may be merged with the state of
+ * another measure of the same type. Separate copies of such a measure may be
+ * updated on disjoint parts of a test set, e.g. by different threads, and
+ * merged afterwards in the order of the parts.
+ */
+public interface MergeableMeasure extends Measure {
+
+	/**
+	 * Adds the state of the given measure to the state of this measure,
+	 * as if this measure had been updated with the instances the given one
+	 * had been updated with.
+	 * 
+	 * @param measure a measure of the same type, it is not modified
+	 * @throws IllegalArgumentException if the measure is of a different type
+	 */
+	public void merge(MergeableMeasure measure);
+}
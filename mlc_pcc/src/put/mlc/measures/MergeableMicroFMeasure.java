@@ -0,0 +1,34 @@
+package put.mlc.measures;
+
+import mulan.evaluation.measure.MicroFMeasure;
+
+/**
+ * Micro-averaged F-measure which may be merged with other copies of itself.
+ */
+public class MergeableMicroFMeasure extends MicroFMeasure implements MergeableMeasure {
+
+	private static final long serialVersionUID = 4907561387520846153L;
+
+	public MergeableMicroFMeasure(int numOfLabels) {
+		super(numOfLabels);
+	}
+
+	public MergeableMicroFMeasure(int numOfLabels, double beta) {
+		super(numOfLabels, beta);
+	}
+
+	@Override
+	public void merge(MergeableMeasure measure) {
+		if (!(measure instanceof MergeableMicroFMeasure)) {
+			throw new IllegalArgumentException("Cannot merge " + getName()
+					+ " with " + measure.getName() + ".");
+		}
+		MergeableMicroFMeasure other = (MergeableMicroFMeasure) measure;
+		for (int labelIndex = 0; labelIndex < numOfLabels; labelIndex++) {
+			truePositives[labelIndex] += other.truePositives[labelIndex];
+			falsePositives[labelIndex] += other.falsePositives[labelIndex];
+			falseNegatives[labelIndex] += other.falseNegatives[labelIndex];
+			trueNegatives[labelIndex] += other.trueNegatives[labelIndex];
+		}
+	}
+}
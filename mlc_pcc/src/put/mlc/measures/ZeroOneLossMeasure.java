@@ -7,7 +7,7 @@ import mulan.evaluation.measure.LossBasedBipartitionMeasureBase;
  * 
  * @author Adrian Jaroszewicz
  */
-public class ZeroOneLossMeasure extends LossBasedBipartitionMeasureBase {
+public class ZeroOneLossMeasure extends LossBasedBipartitionMeasureBase implements MergeableMeasure {
 
 	private static final long serialVersionUID = 6851931758593766341L;
 
@@ -18,4 +18,15 @@ public class ZeroOneLossMeasure extends LossBasedBipartitionMeasureBase {
 	public ZeroOneLossMeasure() {
 		super(new ZeroOneLoss());
 	}
+
+	@Override
+	public void merge(MergeableMeasure measure) {
+		if (!(measure instanceof ZeroOneLossMeasure)) {
+			throw new IllegalArgumentException("Cannot merge " + getName()
+					+ " with " + measure.getName() + ".");
+		}
+		ZeroOneLossMeasure other = (ZeroOneLossMeasure) measure;
+		sum += other.sum;
+		count += other.count;
+	}
 }
@@ -0,0 +1,172 @@
+package put.mlc.serving;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mulan.data.MultiLabelInstances;
+import put.mlc.utils.LatencyHistogram;
+import weka.core.Instances;
+
+/**
+ * Client generating load for a {@link PredictionServer}: a number of
+ * threads send prediction requests one after another, each with a block of
+ * instances of a data set, and the latencies seen by the client are
+ * recorded. The server and the client may run on one machine, e.g. to tune
+ * the size and the delay of the micro-batches.
+ */
+public class LoadGenerator {
+
+	private final URL url;
+
+	private final List<String> lines;
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	private final AtomicLong instances = new AtomicLong();
+
+	private final AtomicLong failedRequests = new AtomicLong();
+
+	private long elapsedTime = 0;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param url address of the prediction of a model, e.g.
+	 * http://localhost:8080/predict/yeast
+	 * @param data the instances sent in the requests, in a cycle
+	 */
+	public LoadGenerator(URL url, MultiLabelInstances data) {
+		this.url = url;
+		Instances dataSet = data.getDataSet();
+		int[] labelIndices = data.getLabelIndices();
+		this.lines = new ArrayList<String>(dataSet.numInstances());
+		for (int n = 0; n < dataSet.numInstances(); n++) {
+			lines.add(PredictionServer.formatInstance(dataSet.instance(n), labelIndices));
+		}
+		if (lines.isEmpty()) {
+			throw new IllegalArgumentException("The data set is empty.");
+		}
+	}
+
+	/**
+	 * Sends the requests and waits for all responses. The statistics are
+	 * added to the ones of the previous runs.
+	 *
+	 * @param numThreads number of threads sending requests at the same time
+	 * @param numRequests number of requests sent by each thread
+	 * @param instancesPerRequest number of instances in a request
+	 * @throws Exception if a thread fails to connect to the server
+	 */
+	public void run(int numThreads, final int numRequests, final int instancesPerRequest)
+			throws Exception {
+		ExecutorService clients = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			long start = System.nanoTime();
+			for (int t = 0; t < numThreads; t++) {
+				final int first = t * numRequests * instancesPerRequest;
+				futures.add(clients.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int r = 0; r < numRequests; r++) {
+							send(first + r * instancesPerRequest, instancesPerRequest);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+			elapsedTime += System.nanoTime() - start;
+		} finally {
+			clients.shutdown();
+		}
+	}
+
+	/**
+	 * Sends one request with the given number of the instances, starting
+	 * from the given one, and records its latency.
+	 */
+	private void send(int from, int length) throws IOException {
+		StringBuilder body = new StringBuilder();
+		for (int k = 0; k < length; k++) {
+			body.append(lines.get((from + k) % lines.size())).append('\n');
+		}
+		byte[] bytes = body.toString().getBytes("UTF-8");
+
+		long start = System.nanoTime();
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setFixedLengthStreamingMode(bytes.length);
+		connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+		OutputStream out = connection.getOutputStream();
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+
+		int status = connection.getResponseCode();
+		InputStream in = (status == 200) ? connection.getInputStream() : connection.getErrorStream();
+		if (in != null) {
+			// the response is read to the end, so that the connection is reused
+			ByteArrayOutputStream response = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			try {
+				while ((read = in.read(buffer)) >= 0) {
+					response.write(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		if (status == 200) {
+			latency.record(System.nanoTime() - start);
+			instances.addAndGet(length);
+		} else {
+			failedRequests.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return latencies of the successful requests seen by the client
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @return number of the failed requests
+	 */
+	public long getFailedRequests() {
+		return failedRequests.get();
+	}
+
+	/**
+	 * @return number of the predicted instances per second of the runs
+	 */
+	public double getThroughput() {
+		return elapsedTime > 0 ? instances.get() / (elapsedTime / 1e9) : 0.0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("throughput: %.1f instances/s, failed requests: %d, latency: %s",
+				getThroughput(), getFailedRequests(), latency);
+	}
+}
@@ -0,0 +1,454 @@
+package put.mlc.serving;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import mulan.classifier.MultiLabelLearner;
+import mulan.classifier.MultiLabelOutput;
+import weka.core.Instance;
+
+/**
+ * Registry of the multi-label models served from one virtual machine. The
+ * models are registered by name with their {@link ModelSource}, loaded on
+ * the first use and kept in memory as long as the sum of their estimated
+ * memory does not exceed the memory budget; then the least recently used
+ * ones are evicted and loaded again on their next use.<br>
+ * <br>
+ * Getting a loaded model takes no locks. A model can be replaced by a new
+ * one, e.g. retrained, at any time by {@link #swap(String, ModelSource)}:
+ * the new model is set atomically, the following requests get it, and the
+ * predictions in progress are finished by the old one, which is detached
+ * from its source (see {@link ModelSource#detach(MultiLabelLearner)}) and
+ * released when they are done. Only loading a model is serialized, so that
+ * each model is loaded by one thread at a time.<br>
+ * <br>
+ * The registry counts the hits, misses, loads, evictions and swaps, see
+ * the getters of the metrics.
+ */
+public class ModelRegistry {
+
+	/**
+	 * maximal sum of the estimated memory of the loaded models (in bytes)
+	 */
+	private final long memoryBudget;
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * logical time of the uses of the models, for the LRU order
+	 */
+	private final AtomicLong clock = new AtomicLong();
+
+	/**
+	 * sum of the estimated memory of the loaded models (in bytes)
+	 */
+	private final AtomicLong usedMemory = new AtomicLong();
+
+	/**
+	 * lock of the eviction, taken after the lock of an entry
+	 */
+	private final Object evictionLock = new Object();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong loadFailures = new AtomicLong();
+	private final AtomicLong loadTime = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong swaps = new AtomicLong();
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param memoryBudget maximal sum of the estimated memory of the loaded
+	 * models (in bytes); the model used last is kept even if it exceeds it
+	 */
+	public ModelRegistry(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Registers a model. It is loaded on the first use.
+	 *
+	 * @param name name of the model
+	 * @param source source of the model
+	 * @throws IllegalArgumentException if a model with this name has been
+	 * already registered
+	 */
+	public void register(String name, ModelSource source) {
+		if (entries.putIfAbsent(name, new Entry(name, source)) != null) {
+			throw new IllegalArgumentException("Model " + name + " is already registered.");
+		}
+	}
+
+	/**
+	 * Removes a model from the registry. The predictions in progress are
+	 * finished by it.
+	 *
+	 * @param name name of the model
+	 * @return true if the model was registered
+	 */
+	public boolean unregister(String name) {
+		Entry entry = entries.remove(name);
+		if (entry == null) {
+			return false;
+		}
+		release(entry);
+		return true;
+	}
+
+	/**
+	 * @return names of the registered models
+	 */
+	public List<String> getNames() {
+		return new ArrayList<String>(entries.keySet());
+	}
+
+	/**
+	 * @param name name of the model
+	 * @return true if the model is loaded
+	 */
+	public boolean isLoaded(String name) {
+		Entry entry = entries.get(name);
+		return entry != null && entry.current.get() != null;
+	}
+
+	/**
+	 * Returns a model, loading it if it is not in memory. The returned
+	 * object may be used for any number of predictions; it stays valid after
+	 * the model is evicted or swapped.
+	 *
+	 * @param name name of the model
+	 * @return the model
+	 * @throws IllegalArgumentException if the model is not registered
+	 * @throws Exception if the model can not be loaded
+	 */
+	public MultiLabelLearner get(String name) throws Exception {
+		Entry entry = entry(name);
+		Loaded loaded = entry.current.get();
+		if (loaded != null) {
+			hits.incrementAndGet();
+			entry.lastUse = clock.incrementAndGet();
+			return loaded.learner;
+		}
+		misses.incrementAndGet();
+		return load(entry);
+	}
+
+	/**
+	 * Makes a prediction by a model.
+	 *
+	 * @param name name of the model
+	 * @param instance the instance to predict on
+	 * @return the output of the model
+	 * @throws Exception if the model can not be loaded or an error occurs
+	 * while making the prediction
+	 */
+	public MultiLabelOutput makePrediction(String name, Instance instance) throws Exception {
+		return get(name).makePrediction(instance);
+	}
+
+	/**
+	 * Replaces a model by a new one loaded from the given source, e.g.
+	 * a retrained model. The new model is loaded in the calling thread while
+	 * the old one serves the requests, then the new one is set atomically and
+	 * the old one is detached from its source. The source is used to reload
+	 * the model after it is evicted.
+	 *
+	 * @param name name of the model
+	 * @param source source of the new model
+	 * @throws IllegalArgumentException if the model is not registered
+	 * @throws Exception if the new model can not be loaded
+	 */
+	public void swap(String name, ModelSource source) throws Exception {
+		// fails before loading if the model is not registered
+		entry(name);
+		swap(name, source, loadFrom(source));
+	}
+
+	/**
+	 * Replaces a model by a new one, which is already in memory. The source
+	 * has to give the same model, since it is used to reload the model after
+	 * it is evicted. The old model is detached from its source outside the
+	 * lock of the model and is counted in the used memory until it is
+	 * detached.
+	 *
+	 * @param name name of the model
+	 * @param source source of the new model
+	 * @param learner the new model
+	 * @throws IllegalArgumentException if the model is not registered
+	 */
+	public void swap(String name, ModelSource source, MultiLabelLearner learner) {
+		Entry entry = entry(name);
+		Loaded old;
+		ModelSource oldSource;
+		synchronized (entry) {
+			old = entry.current.get();
+			oldSource = entry.source;
+			entry.source = source;
+			if (old != null) {
+				usedMemory.addAndGet(old.memory);
+			}
+			install(entry, new Loaded(learner, source.estimateMemory()));
+		}
+		swaps.incrementAndGet();
+		if (old != null) {
+			// the predictions in progress may not depend on the old source
+			try {
+				oldSource.detach(old.learner);
+			} finally {
+				usedMemory.addAndGet(-old.memory);
+			}
+		}
+	}
+
+	/**
+	 * Evicts a model from memory. It is loaded again on the next use.
+	 *
+	 * @param name name of the model
+	 * @return true if the model was loaded
+	 */
+	public boolean evict(String name) {
+		Entry entry = entries.get(name);
+		if (entry == null || !release(entry)) {
+			return false;
+		}
+		evictions.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Returns the entry of a registered model.
+	 */
+	private Entry entry(String name) {
+		Entry entry = entries.get(name);
+		if (entry == null) {
+			throw new IllegalArgumentException("Model " + name + " is not registered.");
+		}
+		return entry;
+	}
+
+	/**
+	 * Loads a model, or waits for another thread loading it.
+	 */
+	private MultiLabelLearner load(Entry entry) throws Exception {
+		synchronized (entry) {
+			Loaded loaded = entry.current.get();
+			if (loaded != null) {
+				entry.lastUse = clock.incrementAndGet();
+				return loaded.learner;
+			}
+			ModelSource source = entry.source;
+			MultiLabelLearner learner = loadFrom(source);
+			install(entry, new Loaded(learner, source.estimateMemory()));
+			return learner;
+		}
+	}
+
+	/**
+	 * Loads a model from its source and counts the load.
+	 */
+	private MultiLabelLearner loadFrom(ModelSource source) throws Exception {
+		long start = System.nanoTime();
+		MultiLabelLearner learner;
+		try {
+			learner = source.load();
+		} catch (Exception e) {
+			loadFailures.incrementAndGet();
+			throw e;
+		}
+		loadTime.addAndGet(System.nanoTime() - start);
+		loads.incrementAndGet();
+		return learner;
+	}
+
+	/**
+	 * Sets the loaded model of an entry and evicts the other models if the
+	 * memory budget is exceeded. Called with the lock of the entry.
+	 */
+	private void install(Entry entry, Loaded loaded) {
+		entry.lastUse = clock.incrementAndGet();
+		Loaded old = entry.current.getAndSet(loaded);
+		usedMemory.addAndGet(loaded.memory - (old == null ? 0 : old.memory));
+		if (entries.get(entry.name) != entry) {
+			// unregistered in the meantime
+			release(entry);
+			return;
+		}
+		evict(entry);
+	}
+
+	/**
+	 * Evicts the least recently used models, except the given one, until
+	 * the memory budget is not exceeded.
+	 */
+	private void evict(Entry kept) {
+		synchronized (evictionLock) {
+			while (usedMemory.get() > memoryBudget) {
+				Entry victim = null;
+				for (Entry entry : entries.values()) {
+					if (entry != kept && entry.current.get() != null
+							&& (victim == null || entry.lastUse < victim.lastUse)) {
+						victim = entry;
+					}
+				}
+				if (victim == null) {
+					break;
+				}
+				if (release(victim)) {
+					evictions.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Takes the loaded model out of an entry. The memory of a model is
+	 * released by the thread which has taken it out.
+	 *
+	 * @return true if the model was loaded
+	 */
+	private boolean release(Entry entry) {
+		Loaded loaded = entry.current.get();
+		while (loaded != null) {
+			if (entry.current.compareAndSet(loaded, null)) {
+				usedMemory.addAndGet(-loaded.memory);
+				return true;
+			}
+			loaded = entry.current.get();
+		}
+		return false;
+	}
+
+	/**
+	 * @return maximal sum of the estimated memory of the loaded models (in bytes)
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @return sum of the estimated memory of the loaded models (in bytes)
+	 */
+	public long getUsedMemory() {
+		return usedMemory.get();
+	}
+
+	/**
+	 * @return number of the loaded models
+	 */
+	public int getNumLoaded() {
+		int numLoaded = 0;
+		for (Entry entry : entries.values()) {
+			if (entry.current.get() != null) {
+				numLoaded++;
+			}
+		}
+		return numLoaded;
+	}
+
+	/**
+	 * @return number of the requests for a loaded model
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of the requests for a model which was not loaded
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of the loaded models, including the swapped ones
+	 */
+	public long getLoads() {
+		return loads.get();
+	}
+
+	/**
+	 * @return number of the failed loads
+	 */
+	public long getLoadFailures() {
+		return loadFailures.get();
+	}
+
+	/**
+	 * @return total time of the successful loads in nanoseconds
+	 */
+	public long getLoadTime() {
+		return loadTime.get();
+	}
+
+	/**
+	 * @return number of the evicted models
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return number of the swapped models
+	 */
+	public long getSwaps() {
+		return swaps.get();
+	}
+
+	@Override
+	public String toString() {
+		return "Models: " + entries.size() + " registered, " + getNumLoaded() + " loaded, "
+				+ getUsedMemory() + " of " + memoryBudget + " bytes; hits: " + getHits()
+				+ ", misses: " + getMisses() + ", loads: " + getLoads() + " ("
+				+ getLoadFailures() + " failed), evictions: " + getEvictions()
+				+ ", swaps: " + getSwaps();
+	}
+
+	/**
+	 * A loaded model with its estimated memory.
+	 */
+	private static class Loaded {
+
+		final MultiLabelLearner learner;
+
+		final long memory;
+
+		Loaded(MultiLabelLearner learner, long memory) {
+			this.learner = learner;
+			this.memory = memory;
+		}
+	}
+
+	/**
+	 * A registered model.
+	 */
+	private static class Entry {
+
+		final String name;
+
+		/**
+		 * the loaded model, null if it is not in memory
+		 */
+		final AtomicReference<Loaded> current = new AtomicReference<Loaded>();
+
+		/**
+		 * source of the model
+		 */
+		volatile ModelSource source;
+
+		/**
+		 * logical time of the last use
+		 */
+		volatile long lastUse = 0;
+
+		Entry(String name, ModelSource source) {
+			this.name = name;
+			this.source = source;
+		}
+	}
+}
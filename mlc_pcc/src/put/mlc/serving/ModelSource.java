@@ -0,0 +1,150 @@
+package put.mlc.serving;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import mulan.classifier.MultiLabelLearner;
+import put.mlc.classifiers.pcc.CompactModel;
+import put.mlc.classifiers.pcc.PCC;
+import put.mlc.utils.AtomicFiles;
+
+/**
+ * Source of a trained multi-label learner, from which {@link ModelRegistry}
+ * loads it on demand and reloads it after it has been evicted. The sources
+ * of the models stored on disk are created by the static methods; other
+ * sources may be implemented by subclasses.
+ */
+public abstract class ModelSource {
+
+	/**
+	 * Loads the learner. It is called each time the model is loaded into the
+	 * registry, so it has to return a new object.
+	 *
+	 * @return the trained learner
+	 * @throws Exception if the learner can not be loaded
+	 */
+	public abstract MultiLabelLearner load() throws Exception;
+
+	/**
+	 * Estimates the memory taken by the loaded learner.
+	 *
+	 * @return memory in bytes
+	 */
+	public abstract long estimateMemory();
+
+	/**
+	 * Makes a learner loaded from this source independent of it, e.g. reads
+	 * what the learner still reads lazily from a file. It is called by
+	 * {@link ModelRegistry} after the learner has been replaced by a new one,
+	 * while the predictions in progress may still use it, so that they are
+	 * finished by the old learner even if the source changes. By default it
+	 * does nothing.
+	 *
+	 * @param learner a learner loaded from this source
+	 */
+	public void detach(MultiLabelLearner learner) {
+	}
+
+	/**
+	 * Returns the source of a PCC model stored in {@link CompactModel} format.
+	 * The model is loaded with the exact inference. Its memory is estimated
+	 * by {@link CompactModel#estimateMemory(File)}, which is the memory taken
+	 * when all links have been read. The file is replaced by a rename (see
+	 * {@link CompactModel#write(PCC, File)}), so a detached model keeps reading
+	 * the links from the mapping of the old file. Only where a mapped file
+	 * can not be replaced (see {@link AtomicFiles#MAPPED_FILES_REPLACEABLE})
+	 * the links which have not been read yet are read when the model is
+	 * detached.
+	 *
+	 * @param file the file with the model
+	 * @return the source
+	 */
+	public static ModelSource compact(final File file) {
+		return new ModelSource() {
+			@Override
+			public MultiLabelLearner load() throws Exception {
+				return CompactModel.load(file);
+			}
+
+			@Override
+			public long estimateMemory() {
+				try {
+					return CompactModel.estimateMemory(file);
+				} catch (IOException e) {
+					// the weights stored as floats take twice the length
+					return 2 * file.length();
+				}
+			}
+
+			@Override
+			public void detach(MultiLabelLearner learner) {
+				if (!AtomicFiles.MAPPED_FILES_REPLACEABLE && learner instanceof PCC) {
+					CompactModel.materialize((PCC) learner);
+				}
+			}
+
+			@Override
+			public String toString() {
+				return file.getPath();
+			}
+		};
+	}
+
+	/**
+	 * Returns the source of a learner stored by Java serialization, e.g. by
+	 * {@link #writeSerialized(MultiLabelLearner, File)}. It is the format of
+	 * any learner, e.g. EFP or LFP. Its memory is estimated by the length of
+	 * the file.
+	 *
+	 * @param file the file with the learner
+	 * @return the source
+	 */
+	public static ModelSource serialized(final File file) {
+		return new ModelSource() {
+			@Override
+			public MultiLabelLearner load() throws Exception {
+				ObjectInputStream in = new ObjectInputStream(
+						new BufferedInputStream(new FileInputStream(file)));
+				try {
+					return (MultiLabelLearner) in.readObject();
+				} finally {
+					in.close();
+				}
+			}
+
+			@Override
+			public long estimateMemory() {
+				return file.length();
+			}
+
+			@Override
+			public String toString() {
+				return file.getPath();
+			}
+		};
+	}
+
+	/**
+	 * Writes a trained learner by Java serialization.
+	 *
+	 * @param learner the trained learner
+	 * @param file the file to write to, it is overwritten
+	 * @throws IOException
+	 * @see #serialized(File)
+	 */
+	public static void writeSerialized(MultiLabelLearner learner, File file) throws IOException {
+		ObjectOutputStream out = new ObjectOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeObject(learner);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,627 @@
+package put.mlc.serving;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import mulan.classifier.MultiLabelLearner;
+import mulan.classifier.MultiLabelOutput;
+import mulan.data.MultiLabelInstances;
+import put.mlc.classifiers.common.BatchMultiLabelLearner;
+import put.mlc.utils.LatencyHistogram;
+import put.mlc.utils.ParallelExecutor;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * Local HTTP server making predictions by the models of a
+ * {@link ModelRegistry}. It listens on the loopback interface only.<br>
+ * <br>
+ * The concurrent requests are collected into micro-batches: a batch is
+ * closed when it has the maximal number of instances or when its first
+ * request has waited for the maximal delay. The requests of a batch are
+ * grouped by model, and each group is predicted in one call of
+ * {@link BatchMultiLabelLearner#predictBatch(Instance[], int)} (or
+ * instance by instance for the other learners) in a fixed pool of worker
+ * threads.<br>
+ * <br>
+ * The server handles:
+ * <ul>
+ * <li><code>POST /predict/&lt;model&gt;</code> with a line for each
+ * instance: the non-zero feature values as <code>index:value</code> pairs
+ * separated by spaces, the indices of the attributes of the data set of the
+ * model (see {@link #formatInstance(Instance, int[])}). The response has
+ * a line for each instance: the bipartition (0 or 1 for each label), a tab
+ * and the confidences of the labels, "-" for a missing part.</li>
+ * <li><code>GET /stats</code> with the throughput and the latency of the
+ * requests, see {@link #getStatistics()}.</li>
+ * </ul>
+ */
+public class PredictionServer {
+
+	private final ModelRegistry registry;
+
+	private final int port;
+
+	/**
+	 * structures of the data sets of the served models
+	 */
+	private final ConcurrentMap<String, Structure> structures = new ConcurrentHashMap<String, Structure>();
+
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+
+	private int maxBatchSize = 64;
+
+	private long maxDelay = TimeUnit.MILLISECONDS.toNanos(2);
+
+	private int numWorkers = ParallelExecutor.getParallelism();
+
+	private int numHandlers = 64;
+
+	private long requestTimeout = TimeUnit.SECONDS.toNanos(30);
+
+	private HttpServer server = null;
+
+	private ExecutorService handlers = null;
+
+	private ExecutorService workers = null;
+
+	private Thread batcher = null;
+
+	private volatile long startTime = 0;
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong failedRequests = new AtomicLong();
+
+	private final AtomicLong instances = new AtomicLong();
+
+	private final AtomicLong batches = new AtomicLong();
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param registry the registry of the served models
+	 * @param port the port to listen on, 0 for any free port
+	 */
+	public PredictionServer(ModelRegistry registry, int port) {
+		this.registry = registry;
+		this.port = port;
+	}
+
+	/**
+	 * Adds a model of the registry to the served ones.
+	 *
+	 * @param name name of the model in the registry
+	 * @param data a data set with the structure of the training data set of
+	 * the model (it may be empty)
+	 */
+	public void addModel(String name, MultiLabelInstances data) {
+		structures.put(name, new Structure(new Instances(data.getDataSet(), 0),
+				data.getLabelIndices()));
+	}
+
+	/**
+	 * Sets the maximal number of instances in a batch (but a single request
+	 * with more instances is predicted as one batch). It has to be set
+	 * before the server is started.
+	 *
+	 * @param maxBatchSize maximal number of instances in a batch
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("A batch must have at least one instance.");
+		}
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Sets the maximal time a request waits for other requests to be
+	 * batched with it. 0 turns the batching off unless the requests are
+	 * already waiting. It has to be set before the server is started.
+	 *
+	 * @param maxDelay the maximal delay
+	 * @param unit unit of the delay
+	 */
+	public void setMaxDelay(long maxDelay, TimeUnit unit) {
+		this.maxDelay = unit.toNanos(maxDelay);
+	}
+
+	/**
+	 * Sets the number of worker threads which make the predictions, by
+	 * default the parallelism of {@link ParallelExecutor}. It has to be set
+	 * before the server is started.
+	 *
+	 * @param numWorkers number of worker threads
+	 */
+	public void setNumWorkers(int numWorkers) {
+		if (numWorkers < 1) {
+			throw new IllegalArgumentException("At least one worker is needed.");
+		}
+		this.numWorkers = numWorkers;
+	}
+
+	/**
+	 * Sets the number of threads handling the connections, which wait for
+	 * the predictions of their requests; it limits the number of requests
+	 * in progress. It has to be set before the server is started.
+	 *
+	 * @param numHandlers number of handler threads
+	 */
+	public void setNumHandlers(int numHandlers) {
+		if (numHandlers < 1) {
+			throw new IllegalArgumentException("At least one handler is needed.");
+		}
+		this.numHandlers = numHandlers;
+	}
+
+	/**
+	 * Sets the time after which a request waiting for its predictions fails.
+	 *
+	 * @param timeout the timeout
+	 * @param unit unit of the timeout
+	 */
+	public void setRequestTimeout(long timeout, TimeUnit unit) {
+		this.requestTimeout = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Starts the server.
+	 *
+	 * @throws IOException if the port can not be bound
+	 */
+	public synchronized void start() throws IOException {
+		if (server != null) {
+			throw new IllegalStateException("The server is already started.");
+		}
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/predict/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handlePredict(exchange);
+			}
+		});
+		server.createContext("/stats", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, 200, getStatistics());
+			}
+		});
+		handlers = Executors.newFixedThreadPool(numHandlers);
+		workers = Executors.newFixedThreadPool(numWorkers);
+		server.setExecutor(handlers);
+
+		batcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				batch();
+			}
+		}, "prediction-batcher");
+		batcher.setDaemon(true);
+		batcher.start();
+
+		startTime = System.nanoTime();
+		server.start();
+	}
+
+	/**
+	 * Stops the server. The requests waiting for their predictions fail.
+	 */
+	public synchronized void stop() {
+		if (server == null) {
+			return;
+		}
+		server.stop(0);
+		batcher.interrupt();
+		workers.shutdownNow();
+		handlers.shutdownNow();
+		Request request;
+		while ((request = queue.poll()) != null) {
+			request.fail(new IllegalStateException("The server has been stopped."));
+		}
+		server = null;
+	}
+
+	/**
+	 * @return the address the server listens on
+	 */
+	public synchronized InetSocketAddress getAddress() {
+		if (server == null) {
+			throw new IllegalStateException("The server is not started.");
+		}
+		return server.getAddress();
+	}
+
+	/**
+	 * Returns the address of the prediction of a model.
+	 *
+	 * @param name name of the model
+	 * @return the URL of the predictions
+	 * @throws MalformedURLException
+	 */
+	public URL getUrl(String name) throws MalformedURLException {
+		InetSocketAddress address = getAddress();
+		String host = address.getAddress().getHostAddress();
+		if (host.indexOf(':') >= 0) {
+			host = "[" + host + "]";
+		}
+		return new URL("http", host, address.getPort(), "/predict/" + name);
+	}
+
+	/**
+	 * @return latencies of the successful requests, from receiving the request
+	 * to sending the response
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @return number of the predicted instances per second since the start
+	 */
+	public double getThroughput() {
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		return seconds > 0 ? instances.get() / seconds : 0.0;
+	}
+
+	/**
+	 * Returns the statistics of the server: numbers of the requests,
+	 * instances and batches, the throughput and the latency.
+	 *
+	 * @return the statistics, a line for each value
+	 */
+	public String getStatistics() {
+		long numBatches = batches.get();
+		return "requests: " + requests.get() + "\n"
+				+ "failed requests: " + failedRequests.get() + "\n"
+				+ "instances: " + instances.get() + "\n"
+				+ "batches: " + numBatches + "\n"
+				+ String.format("mean batch size: %.2f%n",
+						numBatches == 0 ? 0.0 : (double) instances.get() / numBatches)
+				+ String.format("throughput: %.1f instances/s%n", getThroughput())
+				+ String.format("latency p50: %.3f ms%n", latency.getPercentile(50) / 1e6)
+				+ String.format("latency p99: %.3f ms%n", latency.getPercentile(99) / 1e6)
+				+ String.format("latency max: %.3f ms%n", latency.getMax() / 1e6);
+	}
+
+	/**
+	 * Handles a prediction request in a handler thread: parses it, queues it
+	 * for batching and waits for its predictions.
+	 */
+	private void handlePredict(HttpExchange exchange) throws IOException {
+		long arrival = System.nanoTime();
+		requests.incrementAndGet();
+		try {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				failedRequests.incrementAndGet();
+				respond(exchange, 405, "Use POST.\n");
+				return;
+			}
+			String name = exchange.getRequestURI().getPath().substring("/predict/".length());
+			Structure structure = structures.get(name);
+			if (structure == null) {
+				failedRequests.incrementAndGet();
+				respond(exchange, 404, "Unknown model " + name + ".\n");
+				return;
+			}
+
+			List<Instance> parsed = new ArrayList<Instance>();
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					exchange.getRequestBody(), "UTF-8"));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					parsed.add(parseInstance(line, structure));
+				}
+			} catch (IllegalArgumentException e) {
+				failedRequests.incrementAndGet();
+				respond(exchange, 400, e.getMessage() + "\n");
+				return;
+			}
+
+			Request request = new Request(name, parsed.toArray(new Instance[parsed.size()]));
+			if (request.instances.length > 0) {
+				queue.add(request);
+				long remaining = requestTimeout - (System.nanoTime() - arrival);
+				if (!request.done.await(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+					failedRequests.incrementAndGet();
+					respond(exchange, 503, "Timeout.\n");
+					return;
+				}
+			}
+			if (request.failure != null) {
+				failedRequests.incrementAndGet();
+				respond(exchange, 500, request.failure + "\n");
+				return;
+			}
+
+			StringBuilder response = new StringBuilder();
+			for (MultiLabelOutput output : request.outputs) {
+				formatOutput(output, response);
+			}
+			respond(exchange, 200, response.toString());
+			latency.record(System.nanoTime() - arrival);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failedRequests.incrementAndGet();
+			respond(exchange, 503, "The server has been stopped.\n");
+		}
+	}
+
+	/**
+	 * Collects the queued requests into batches, in the thread of the
+	 * batcher.
+	 */
+	private void batch() {
+		try {
+			while (true) {
+				Request first = queue.take();
+				List<Request> batch = new ArrayList<Request>();
+				batch.add(first);
+				int size = first.instances.length;
+				long deadline = first.arrival + maxDelay;
+				while (size < maxBatchSize) {
+					Request next = queue.peek();
+					if (next != null && size + next.instances.length > maxBatchSize) {
+						break;
+					}
+					long wait = deadline - System.nanoTime();
+					next = (wait > 0) ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+					size += next.instances.length;
+				}
+				dispatch(batch);
+			}
+		} catch (InterruptedException e) {
+			// the server is stopped
+		}
+	}
+
+	/**
+	 * Groups the requests of a batch by model and passes the groups to the
+	 * workers.
+	 */
+	private void dispatch(List<Request> batch) {
+		Map<String, List<Request>> groups = new LinkedHashMap<String, List<Request>>();
+		for (Request request : batch) {
+			List<Request> group = groups.get(request.model);
+			if (group == null) {
+				group = new ArrayList<Request>();
+				groups.put(request.model, group);
+			}
+			group.add(request);
+		}
+		for (final Map.Entry<String, List<Request>> group : groups.entrySet()) {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					predict(group.getKey(), group.getValue());
+				}
+			});
+		}
+	}
+
+	/**
+	 * Predicts the instances of the requests for one model in one block, in
+	 * a worker thread.
+	 */
+	private void predict(String model, List<Request> group) {
+		int length = 0;
+		for (Request request : group) {
+			length += request.instances.length;
+		}
+		Instance[] block = new Instance[length];
+		int position = 0;
+		for (Request request : group) {
+			System.arraycopy(request.instances, 0, block, position, request.instances.length);
+			position += request.instances.length;
+		}
+
+		MultiLabelOutput[] outputs;
+		try {
+			outputs = predict(registry.get(model), block);
+		} catch (Exception e) {
+			for (Request request : group) {
+				request.fail(e);
+			}
+			return;
+		}
+		batches.incrementAndGet();
+		instances.addAndGet(length);
+
+		position = 0;
+		for (Request request : group) {
+			request.outputs = Arrays.copyOfRange(outputs, position, position + request.instances.length);
+			position += request.instances.length;
+			request.done.countDown();
+		}
+	}
+
+	/**
+	 * Makes predictions for a block of instances, in one call if the learner
+	 * is able to; the other learners are used by one thread at a time.
+	 */
+	private static MultiLabelOutput[] predict(MultiLabelLearner learner, Instance[] block)
+			throws Exception {
+		if (learner instanceof BatchMultiLabelLearner) {
+			return ((BatchMultiLabelLearner) learner).predictBatch(block, block.length);
+		}
+		MultiLabelOutput[] outputs = new MultiLabelOutput[block.length];
+		synchronized (learner) {
+			for (int n = 0; n < block.length; n++) {
+				outputs[n] = learner.makePrediction(block[n]);
+			}
+		}
+		return outputs;
+	}
+
+	/**
+	 * Sends a response with a text.
+	 */
+	private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+		byte[] bytes = text.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Formats an instance as a line of a prediction request: the non-zero
+	 * values of the features as <code>index:value</code> pairs.
+	 *
+	 * @param instance the instance
+	 * @param labelIndices indices of the label attributes, which are skipped
+	 * @return the line, without the line separator
+	 */
+	public static String formatInstance(Instance instance, int[] labelIndices) {
+		int[] labels = labelIndices.clone();
+		Arrays.sort(labels);
+		StringBuilder line = new StringBuilder();
+		for (int j = 0; j < instance.numValues(); j++) {
+			int index = instance.index(j);
+			double value = instance.valueSparse(j);
+			if (value == 0 || Arrays.binarySearch(labels, index) >= 0) {
+				continue;
+			}
+			if (line.length() > 0) {
+				line.append(' ');
+			}
+			line.append(index).append(':').append(value);
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Parses a line of a prediction request.
+	 *
+	 * @throws IllegalArgumentException if the line is not valid
+	 */
+	private static Instance parseInstance(String line, Structure structure) {
+		String[] pairs = line.trim().isEmpty() ? new String[0] : line.trim().split("\\s+");
+		int numAttributes = structure.header.numAttributes();
+		int[] indices = new int[pairs.length];
+		double[] values = new double[pairs.length];
+		for (int k = 0; k < pairs.length; k++) {
+			int colon = pairs[k].indexOf(':');
+			try {
+				indices[k] = Integer.parseInt(pairs[k].substring(0, colon));
+				values[k] = Double.parseDouble(pairs[k].substring(colon + 1));
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException("Invalid value " + pairs[k] + ".");
+			}
+			if (indices[k] < 0 || indices[k] >= numAttributes || structure.isLabel[indices[k]]) {
+				throw new IllegalArgumentException("Invalid feature index " + indices[k] + ".");
+			}
+			if (k > 0 && indices[k] <= indices[k - 1]) {
+				throw new IllegalArgumentException("The indices are not increasing.");
+			}
+		}
+		Instance instance = new SparseInstance(1.0, values, indices, numAttributes);
+		instance.setDataset(structure.header);
+		return instance;
+	}
+
+	/**
+	 * Appends a line of the response for an output of a model.
+	 */
+	private static void formatOutput(MultiLabelOutput output, StringBuilder response) {
+		boolean[] bipartition = output.getBipartition();
+		if (bipartition == null) {
+			response.append('-');
+		} else {
+			for (int j = 0; j < bipartition.length; j++) {
+				response.append(j > 0 ? " " : "").append(bipartition[j] ? '1' : '0');
+			}
+		}
+		response.append('\t');
+		double[] confidences = output.getConfidences();
+		if (confidences == null) {
+			response.append('-');
+		} else {
+			for (int j = 0; j < confidences.length; j++) {
+				response.append(j > 0 ? " " : "").append(confidences[j]);
+			}
+		}
+		response.append('\n');
+	}
+
+	/**
+	 * Structure of the data set of a model.
+	 */
+	private static class Structure {
+
+		final Instances header;
+
+		final boolean[] isLabel;
+
+		Structure(Instances header, int[] labelIndices) {
+			this.header = header;
+			this.isLabel = new boolean[header.numAttributes()];
+			for (int labelIndex : labelIndices) {
+				isLabel[labelIndex] = true;
+			}
+		}
+	}
+
+	/**
+	 * A prediction request waiting for its predictions.
+	 */
+	private static class Request {
+
+		final String model;
+
+		final Instance[] instances;
+
+		final long arrival = System.nanoTime();
+
+		final CountDownLatch done = new CountDownLatch(1);
+
+		volatile MultiLabelOutput[] outputs = new MultiLabelOutput[0];
+
+		volatile Exception failure = null;
+
+		Request(String model, Instance[] instances) {
+			this.model = model;
+			this.instances = instances;
+		}
+
+		void fail(Exception e) {
+			failure = e;
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,340 @@
+package put.mlc.utils;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import mulan.classifier.MultiLabelLearner;
+import mulan.classifier.MultiLabelOutput;
+import put.mlc.classifiers.common.BatchMultiLabelLearner;
+import weka.core.Instance;
+
+/**
+ * Asynchronous predictions of multi-label learners. A prediction is a task
+ * queued until one of a bounded number of permits is free, and then run in
+ * the pool of {@link ParallelExecutor}; no thread is taken by a waiting
+ * prediction, so thousands of them may be submitted at once. The caller gets
+ * a {@link Future} and, optionally, a {@link Callback} called when the
+ * prediction is finished.<br>
+ * <br>
+ * A prediction may be cancelled, or have a timeout after which it fails
+ * with {@link TimeoutException}. In both cases its computation is stopped
+ * by {@link Cancellation} at the next step of the inference (the inference
+ * methods of PCC check it for every link of the chain they evaluate), and
+ * its permit is released when it stops.<br>
+ * <br>
+ * The learners implementing {@link BatchMultiLabelLearner} are used by many
+ * threads at once; the predictions of the other learners are made by one
+ * thread at a time. They are queued in a lane of their learner and only the
+ * first prediction of a lane waits for a permit, so the predictions waiting
+ * for a busy learner do not take the permits of the other learners.
+ */
+public final class AsyncPredictor {
+
+	/**
+	 * permits of the running predictions
+	 */
+	private static volatile Semaphore permits = new Semaphore(ParallelExecutor.getParallelism());
+
+	/**
+	 * predictions waiting for a permit
+	 */
+	private static final Queue<PredictionTask> pending = new ConcurrentLinkedQueue<PredictionTask>();
+
+	/**
+	 * lanes of the learners which are not {@link BatchMultiLabelLearner},
+	 * with a prediction queued or running; guarded by itself
+	 */
+	private static final Map<MultiLabelLearner, Queue<PredictionTask>> lanes =
+			new IdentityHashMap<MultiLabelLearner, Queue<PredictionTask>>();
+
+	/**
+	 * timer of the timeouts, created on the first use
+	 */
+	private static ScheduledThreadPoolExecutor timer = null;
+
+	private AsyncPredictor() {
+	}
+
+	/**
+	 * Sets the maximal number of predictions computed at the same time, by
+	 * default the parallelism of {@link ParallelExecutor}. The predictions
+	 * already running keep their permits.
+	 *
+	 * @param maxRunning maximal number of running predictions (at least 1)
+	 */
+	public static void setMaxRunning(int maxRunning) {
+		if (maxRunning < 1) {
+			throw new IllegalArgumentException("At least one prediction has to be run.");
+		}
+		permits = new Semaphore(maxRunning);
+		drain();
+	}
+
+	/**
+	 * @return number of predictions waiting for a permit
+	 */
+	public static int getNumPending() {
+		return pending.size();
+	}
+
+	/**
+	 * Submits a prediction without a timeout.
+	 *
+	 * @param learner a trained learner
+	 * @param instance the instance to predict on
+	 * @return the future output of the learner
+	 */
+	public static Future<MultiLabelOutput> submit(MultiLabelLearner learner, Instance instance) {
+		return submit(learner, instance, 0, TimeUnit.NANOSECONDS, null);
+	}
+
+	/**
+	 * Submits a prediction.
+	 *
+	 * @param learner a trained learner
+	 * @param instance the instance to predict on
+	 * @param timeout time after which the prediction fails with
+	 * {@link TimeoutException} (counted from the submission), 0 for no
+	 * timeout
+	 * @param unit unit of the timeout
+	 * @param callback called when the prediction is finished, or null
+	 * @return the future output of the learner
+	 */
+	public static Future<MultiLabelOutput> submit(MultiLabelLearner learner, Instance instance,
+			long timeout, TimeUnit unit, Callback callback) {
+		final PredictionTask task = new PredictionTask(learner, instance, callback);
+		if (timeout > 0) {
+			task.timeout = timer().schedule(new Runnable() {
+				@Override
+				public void run() {
+					task.expire();
+				}
+			}, timeout, unit);
+		}
+		if (enter(task)) {
+			pending.add(task);
+			drain();
+		}
+		return task;
+	}
+
+	/**
+	 * Puts a prediction of a learner which is used by one thread at a time
+	 * into the lane of its learner.
+	 *
+	 * @return true if the prediction may wait for a permit, false if it
+	 * waits in the lane for the previous predictions
+	 */
+	private static boolean enter(PredictionTask task) {
+		if (task.learner instanceof BatchMultiLabelLearner) {
+			return true;
+		}
+		synchronized (lanes) {
+			Queue<PredictionTask> lane = lanes.get(task.learner);
+			if (lane == null) {
+				lanes.put(task.learner, new ArrayDeque<PredictionTask>());
+				return true;
+			}
+			lane.add(task);
+			return false;
+		}
+	}
+
+	/**
+	 * Queues the next prediction of the lane of a finished prediction, or
+	 * removes the lane if it is empty.
+	 */
+	private static void leave(PredictionTask task) {
+		if (task.learner instanceof BatchMultiLabelLearner) {
+			return;
+		}
+		PredictionTask next;
+		synchronized (lanes) {
+			Queue<PredictionTask> lane = lanes.get(task.learner);
+			next = lane.poll();
+			if (next == null) {
+				lanes.remove(task.learner);
+			}
+		}
+		if (next != null) {
+			pending.add(next);
+		}
+	}
+
+	/**
+	 * Starts the pending predictions while there are free permits. It is
+	 * called after a prediction is queued and after a permit is released,
+	 * so a queued prediction is always started.
+	 */
+	private static void drain() {
+		while (!pending.isEmpty()) {
+			Semaphore semaphore = permits;
+			if (!semaphore.tryAcquire()) {
+				return;
+			}
+			PredictionTask task = pending.poll();
+			if (task == null) {
+				semaphore.release();
+				continue;
+			}
+			task.permits = semaphore;
+			ParallelExecutor.getPool().execute(task);
+		}
+	}
+
+	/**
+	 * Returns the timer, creating it on the first use.
+	 */
+	private static synchronized ScheduledThreadPoolExecutor timer() {
+		if (timer == null) {
+			timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "prediction-timeouts");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			timer.setRemoveOnCancelPolicy(true);
+		}
+		return timer;
+	}
+
+	/**
+	 * Makes a prediction in a thread of the pool.
+	 */
+	private static MultiLabelOutput predict(MultiLabelLearner learner, Instance instance)
+			throws Exception {
+		if (learner instanceof BatchMultiLabelLearner) {
+			return learner.makePrediction(instance);
+		}
+		// the lane runs one prediction at a time, the lock guards against the
+		// other users of the learner
+		synchronized (learner) {
+			return learner.makePrediction(instance);
+		}
+	}
+
+	/**
+	 * Callback of an asynchronous prediction. It is called in the thread
+	 * which has finished the prediction (a thread of the pool, of the timeout
+	 * or cancelling it), so it should not block.
+	 */
+	public interface Callback {
+
+		/**
+		 * Called after the prediction is made.
+		 *
+		 * @param output the output of the learner
+		 */
+		public void completed(MultiLabelOutput output);
+
+		/**
+		 * Called after the prediction has failed, timed out
+		 * ({@link TimeoutException}) or has been cancelled
+		 * ({@link CancellationException}).
+		 *
+		 * @param cause the reason of the failure
+		 */
+		public void failed(Throwable cause);
+	}
+
+	/**
+	 * A queued or running prediction.
+	 */
+	private static class PredictionTask extends FutureTask<MultiLabelOutput> {
+
+		private final MultiLabelLearner learner;
+
+		private final Cancellation cancellation;
+
+		private final Callback callback;
+
+		/**
+		 * the semaphore the permit of the task has been taken from
+		 */
+		private volatile Semaphore permits = null;
+
+		private volatile ScheduledFuture<?> timeout = null;
+
+		PredictionTask(final MultiLabelLearner learner, final Instance instance, Callback callback) {
+			super(new Callable<MultiLabelOutput>() {
+				@Override
+				public MultiLabelOutput call() throws Exception {
+					return predict(learner, instance);
+				}
+			});
+			this.learner = learner;
+			this.cancellation = new Cancellation();
+			this.callback = callback;
+		}
+
+		@Override
+		public void run() {
+			Cancellation previous = Cancellation.enter(cancellation);
+			try {
+				super.run();
+			} finally {
+				Cancellation.exit(previous);
+				permits.release();
+				leave(this);
+				drain();
+			}
+		}
+
+		/**
+		 * Cancels the prediction. The thread running it is not interrupted,
+		 * the inference stops at its next step.
+		 */
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			cancellation.cancel();
+			return super.cancel(false);
+		}
+
+		/**
+		 * Fails the prediction after its timeout.
+		 */
+		void expire() {
+			cancellation.cancel();
+			setException(new TimeoutException("The prediction has not been finished in time."));
+		}
+
+		@Override
+		protected void done() {
+			ScheduledFuture<?> scheduled = timeout;
+			if (scheduled != null) {
+				scheduled.cancel(false);
+			}
+			if (callback == null) {
+				return;
+			}
+			if (isCancelled()) {
+				callback.failed(new CancellationException("The prediction has been cancelled."));
+				return;
+			}
+			try {
+				callback.completed(get());
+			} catch (ExecutionException e) {
+				callback.failed(e.getCause());
+			} catch (InterruptedException e) {
+				// not possible, the task is done
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package put.mlc.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Replacement of files by a rename. A file is written to a temporary file
+ * in the same directory, which is then renamed to the target file. The
+ * target is never truncated, so the files mapped into memory by the readers
+ * (e.g. {@link put.mlc.data.ColumnarDataset} or
+ * {@link put.mlc.classifiers.pcc.CompactModel}) keep the old content, and a
+ * failed write leaves the old file untouched.
+ */
+public final class AtomicFiles {
+
+	/**
+	 * true if a file mapped into memory can be replaced by a rename; it can
+	 * not on Windows until the mapping is released
+	 */
+	public static final boolean MAPPED_FILES_REPLACEABLE =
+			!System.getProperty("os.name", "").startsWith("Windows");
+
+	private AtomicFiles() {
+	}
+
+	/**
+	 * Creates an empty temporary file next to a target file.
+	 *
+	 * @param target the file which will be replaced
+	 * @return the temporary file
+	 * @throws IOException
+	 */
+	public static File createTemporary(File target) throws IOException {
+		File directory = target.getAbsoluteFile().getParentFile();
+		return File.createTempFile(target.getName() + ".", ".tmp", directory);
+	}
+
+	/**
+	 * Renames a temporary file to the target file, atomically if the file
+	 * system supports it. The temporary file is deleted if the rename fails.
+	 *
+	 * @param temporary the written temporary file
+	 * @param target the file to replace
+	 * @throws IOException
+	 */
+	public static void replace(File temporary, File target) throws IOException {
+		try {
+			try {
+				Files.move(temporary.toPath(), target.toPath(),
+						StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary.toPath(), target.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			temporary.delete();
+			throw e;
+		}
+	}
+}
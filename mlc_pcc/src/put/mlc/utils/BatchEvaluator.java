@@ -0,0 +1,225 @@
+package put.mlc.utils;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import put.mlc.classifiers.common.BatchMultiLabelLearner;
+import weka.core.Instance;
+import weka.core.Instances;
+import mulan.classifier.MultiLabelLearner;
+import mulan.classifier.MultiLabelOutput;
+import mulan.data.MultiLabelInstances;
+import mulan.evaluation.Evaluation;
+import mulan.evaluation.Evaluator;
+import mulan.evaluation.measure.Measure;
+
+/**
+ * Evaluator class based on mulan.evaluation.Evaluator. If the learner
+ * implements {@link BatchMultiLabelLearner}, the test instances are passed
+ * to it in blocks instead of one by one. Other learners are evaluated in
+ * the same way as by mulan.evaluation.Evaluator.<br>
+ * <br>
+ * The measures are updated in the order of the test instances, so the
+ * results are the same as for mulan.evaluation.Evaluator. The predictions
+ * are timed (see {@link TimedEvaluator}): each instance of a block with the
+ * time of the work done for it, and each block with the time of the call.
+ * The instances of a block get their outputs when the whole block is
+ * predicted, so a block size of 1 gives the shortest response time of
+ * each instance.
+ */
+public class BatchEvaluator extends Evaluator implements TimedEvaluator {
+
+	// number of instances passed to the learner in one call
+	private int blockSize = 256;
+	// prediction times of the instances in the last evaluation
+	private final LatencyHistogram latency = new LatencyHistogram();
+	// times of the calls predicting a block of instances in the last evaluation
+	private final LatencyHistogram blockLatency = new LatencyHistogram();
+	// duration of the last evaluation in nanoseconds
+	private long elapsed = 0;
+
+	/**
+	 * Sets the number of instances passed to the learner in one call.
+	 * 
+	 * @param blockSize number of instances in a block
+	 */
+	public void setBlockSize(int blockSize) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("Block size must be at least 1.");
+		}
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @return number of instances passed to the learner in one call
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	@Override
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	@Override
+	public LatencyHistogram getBlockLatency() {
+		return blockLatency;
+	}
+
+	@Override
+	public double getThroughput() {
+		return elapsed == 0 ? 0.0 : latency.getCount() * 1e9 / elapsed;
+	}
+
+	/**
+	 * Evaluates a {@link MultiLabelLearner} on given test data set using
+	 * specified evaluation measures
+	 * 
+	 * @param learner the learner to be evaluated
+	 * @param data the data set for evaluation
+	 * @param measures the evaluation measures to compute
+	 * @return an Evaluation object
+	 * @throws IllegalArgumentException if an input parameter is null
+	 * @throws Exception
+	 */
+	@Override
+	public Evaluation evaluate(MultiLabelLearner learner,
+			MultiLabelInstances data, List<Measure> measures)
+			throws IllegalArgumentException, Exception {
+		if (learner == null || measures == null) {
+			return super.evaluate(learner, data, measures);
+		}
+		if (data == null) {
+			throw new IllegalArgumentException("Evaluation data object is null.");
+		}
+
+		// reset measures
+		for (Measure m : measures) {
+			m.reset();
+		}
+
+		int numLabels = data.getNumLabels();
+		int[] labelIndices = data.getLabelIndices();
+		Set<Measure> failed = new HashSet<Measure>();
+		Instances testData = data.getDataSet();
+		int numInstances = testData.numInstances();
+
+		Instance[] block = new Instance[blockSize];
+		Instance[] originals = new Instance[blockSize];
+
+		latency.reset();
+		blockLatency.reset();
+		long start = System.nanoTime();
+
+		int instanceIndex = 0;
+		while (instanceIndex < numInstances) {
+			int length = 0;
+			for (; instanceIndex < numInstances && length < blockSize; instanceIndex++) {
+				Instance instance = testData.instance(instanceIndex);
+				if (data.hasMissingLabels(instance)) {
+					continue;
+				}
+				originals[length] = instance;
+				block[length] = labelsMissing(instance, labelIndices);
+				length++;
+			}
+
+			MultiLabelOutput[] outputs = predict(learner, block, length);
+
+			for (int n = 0; n < length; n++) {
+				boolean[] trueLabels = getTrueLabels(originals[n], numLabels, labelIndices);
+				Iterator<Measure> it = measures.iterator();
+				while (it.hasNext()) {
+					Measure m = it.next();
+					if (!failed.contains(m)) {
+						try {
+							m.update(outputs[n], trueLabels);
+						} catch (Exception ex) {
+							failed.add(m);
+						}
+					}
+				}
+			}
+		}
+
+		elapsed = System.nanoTime() - start;
+
+		return new Evaluation(measures, data);
+	}
+
+	/**
+	 * Makes the predictions for a block of instances and records their times.
+	 * 
+	 * @param learner the learner to be evaluated
+	 * @param block test instances with missing values of the labels
+	 * @param length number of instances in the block
+	 * @return an array with the output of the learner for each of the instances
+	 * @throws Exception
+	 */
+	private MultiLabelOutput[] predict(MultiLabelLearner learner, Instance[] block,
+			int length) throws Exception {
+		if (learner instanceof BatchMultiLabelLearner) {
+			long[] nanos = new long[length];
+			long start = System.nanoTime();
+			MultiLabelOutput[] outputs = ((BatchMultiLabelLearner) learner).predictBatch(block,
+					length, nanos);
+			long blockNanos = System.nanoTime() - start;
+			if (length > 0) {
+				for (int n = 0; n < length; n++) {
+					latency.record(nanos[n]);
+				}
+				blockLatency.record(blockNanos);
+			}
+			return outputs;
+		}
+
+		MultiLabelOutput[] outputs = new MultiLabelOutput[length];
+		for (int n = 0; n < length; n++) {
+			long start = System.nanoTime();
+			outputs[n] = learner.makePrediction(block[n]);
+			latency.record(System.nanoTime() - start);
+		}
+		return outputs;
+	}
+
+	/**
+	 * Returns a copy of the given instance with missing values of the labels.
+	 * 
+	 * @param instance test instance
+	 * @param labelIndices indices of the labels
+	 * @return a copy of the instance
+	 */
+	static Instance labelsMissing(Instance instance, int[] labelIndices) {
+		Instance labelsMissing = (Instance) instance.copy();
+		labelsMissing.setDataset(instance.dataset());
+		for (int i = 0; i < labelIndices.length; i++) {
+			labelsMissing.setMissing(labelIndices[i]);
+		}
+		return labelsMissing;
+	}
+
+	/**
+	 * Returns the values of the labels of the given instance.
+	 * 
+	 * @param instance test instance
+	 * @param numLabels number of labels
+	 * @param labelIndices indices of the labels
+	 * @return true for the relevant labels
+	 */
+	static boolean[] getTrueLabels(Instance instance, int numLabels,
+			int[] labelIndices) {
+
+		boolean[] trueLabels = new boolean[numLabels];
+		for (int counter = 0; counter < numLabels; counter++) {
+			int classIdx = labelIndices[counter];
+			String classValue = instance.attribute(classIdx).value(
+					(int) instance.value(classIdx));
+			trueLabels[counter] = classValue.equals("1");
+		}
+
+		return trueLabels;
+	}
+}
@@ -0,0 +1,73 @@
+package put.mlc.utils;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Token of cooperative cancellation of a computation. The token of the
+ * computation run by a thread is set by {@link #enter(Cancellation)}, and
+ * long computations, e.g. the search of the inference methods of PCC, call
+ * {@link #check()} at their steps, which throws an exception after the token
+ * has been cancelled. Threads are not interrupted, so the threads of the
+ * shared pool are not affected by a cancellation of a task they have run.
+ */
+public final class Cancellation {
+
+	/**
+	 * the token of the computation run by each thread
+	 */
+	private static final ThreadLocal<Cancellation> current = new ThreadLocal<Cancellation>();
+
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Cancels the computation. It stops at the next call of {@link #check()}.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * @return true if the computation has been cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Sets the token of the computation run by the calling thread.
+	 *
+	 * @param token the token, or null
+	 * @return the previous token of the thread, to be restored by
+	 * {@link #exit(Cancellation)}
+	 */
+	public static Cancellation enter(Cancellation token) {
+		Cancellation previous = current.get();
+		current.set(token);
+		return previous;
+	}
+
+	/**
+	 * Restores the previous token of the calling thread.
+	 *
+	 * @param previous the token returned by {@link #enter(Cancellation)}
+	 */
+	public static void exit(Cancellation previous) {
+		if (previous == null) {
+			current.remove();
+		} else {
+			current.set(previous);
+		}
+	}
+
+	/**
+	 * Checks if the computation run by the calling thread has been cancelled.
+	 *
+	 * @throws CancellationException if it has been cancelled
+	 */
+	public static void check() throws CancellationException {
+		Cancellation token = current.get();
+		if (token != null && token.cancelled) {
+			throw new CancellationException("The computation has been cancelled.");
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package put.mlc.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds (or other non-negative values, e.g. counts),
+ * which can be updated by many threads at once without locks. The values
+ * below 64 ns are counted exactly, the greater ones in buckets with 64
+ * sub-buckets for each power of two, so the percentiles are reported with
+ * a relative error below 1/64 (1.6%) and the histogram takes a constant
+ * memory of 29 KB, no matter how many values are recorded.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * number of bits of the sub-buckets of a power of two
+	 */
+	private static final int SUB_BITS = 6;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private static final int NUM_BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Returns the bucket of a value.
+	 */
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BITS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	/**
+	 * Returns the greatest value counted in a bucket.
+	 */
+	private static long highestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		long mantissa = (bucket - SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	/**
+	 * Records a value. The negative values are recorded as 0.
+	 *
+	 * @param nanos the value in nanoseconds
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(bucket(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Records a value many times, e.g. the mean of a block of values.
+	 *
+	 * @param nanos the value in nanoseconds
+	 * @param times number of times the value is recorded
+	 */
+	public void record(long nanos, long times) {
+		if (times <= 0) {
+			return;
+		}
+		long value = Math.max(0, nanos);
+		counts.addAndGet(bucket(value), times);
+		count.addAndGet(times);
+		sum.addAndGet(value * times);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Adds the values recorded by another histogram.
+	 *
+	 * @param other the histogram to add
+	 */
+	public void add(LatencyHistogram other) {
+		for (int b = 0; b < NUM_BUCKETS; b++) {
+			long bucketCount = other.counts.get(b);
+			if (bucketCount > 0) {
+				counts.addAndGet(b, bucketCount);
+			}
+		}
+		count.addAndGet(other.count.get());
+		sum.addAndGet(other.sum.get());
+		long value = other.max.get();
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Removes the values recorded by another histogram, which has been
+	 * copied from this one earlier (see {@link #add(LatencyHistogram)}), so
+	 * that only the values recorded since then are left. The maximum is
+	 * bounded by the greatest bucket which is left.
+	 *
+	 * @param earlier the earlier copy of this histogram
+	 */
+	public void subtract(LatencyHistogram earlier) {
+		int highest = -1;
+		for (int b = 0; b < NUM_BUCKETS; b++) {
+			long bucketCount = earlier.counts.get(b);
+			long left = (bucketCount > 0) ? counts.addAndGet(b, -bucketCount) : counts.get(b);
+			if (left > 0) {
+				highest = b;
+			}
+		}
+		count.addAndGet(-earlier.count.get());
+		sum.addAndGet(-earlier.sum.get());
+		max.set(highest < 0 ? 0 : Math.min(highestValue(highest), max.get()));
+	}
+
+	/**
+	 * Removes all recorded values. The values recorded at the same time by
+	 * other threads may be partially removed.
+	 */
+	public void reset() {
+		for (int b = 0; b < NUM_BUCKETS; b++) {
+			counts.set(b, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * @return number of the recorded values
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return sum of the recorded values in nanoseconds
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * @return the greatest recorded value in nanoseconds, 0 if there are none
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return mean of the recorded values in nanoseconds, 0 if there are none
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0.0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Returns a percentile of the recorded values: the least value such that
+	 * the given percent of the values are not greater than it, up to the
+	 * width of its bucket.
+	 *
+	 * @param percent the percent, from 0 to 100
+	 * @return the percentile in nanoseconds, 0 if there are no values
+	 */
+	public long getPercentile(double percent) {
+		long n = 0;
+		long[] snapshot = new long[NUM_BUCKETS];
+		for (int b = 0; b < NUM_BUCKETS; b++) {
+			snapshot[b] = counts.get(b);
+			n += snapshot[b];
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percent / 100.0 * n));
+		long cumulative = 0;
+		for (int b = 0; b < NUM_BUCKETS; b++) {
+			cumulative += snapshot[b];
+			if (cumulative >= rank) {
+				return Math.min(highestValue(b), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Returns a summary of the histogram in milliseconds: number of values,
+	 * mean, 50th, 90th and 99th percentiles and maximum.
+	 */
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms",
+				getCount(), getMean() / 1e6, getPercentile(50) / 1e6, getPercentile(90) / 1e6,
+				getPercentile(99) / 1e6, getMax() / 1e6);
+	}
+}
@@ -1,19 +1,25 @@
 package put.mlc.utils;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import weka.core.Instance;
 import weka.core.Instances;
+import put.mlc.classifiers.common.BatchMultiLabelLearner;
+import put.mlc.data.CrossValidationFolds;
+import put.mlc.data.DatasetRegistry;
+import put.mlc.measures.MergeableHammingLoss;
+import put.mlc.measures.MergeableMacroFMeasure;
+import put.mlc.measures.MergeableMeasure;
+import put.mlc.measures.MergeableMicroFMeasure;
 import mulan.classifier.InvalidDataException;
 import mulan.classifier.ModelInitializationException;
 import mulan.classifier.MultiLabelLearner;
@@ -29,17 +35,14 @@ import mulan.evaluation.measure.ExampleBasedAccuracy;
 import mulan.evaluation.measure.ExampleBasedFMeasure;
 import mulan.evaluation.measure.ExampleBasedPrecision;
 import mulan.evaluation.measure.ExampleBasedRecall;
-import mulan.evaluation.measure.HammingLoss;
 import mulan.evaluation.measure.HierarchicalLoss;
 import mulan.evaluation.measure.IsError;
 import mulan.evaluation.measure.MacroAUC;
-import mulan.evaluation.measure.MacroFMeasure;
 import mulan.evaluation.measure.MacroPrecision;
 import mulan.evaluation.measure.MacroRecall;
 import mulan.evaluation.measure.MeanAveragePrecision;
 import mulan.evaluation.measure.Measure;
 import mulan.evaluation.measure.MicroAUC;
-import mulan.evaluation.measure.MicroFMeasure;
 import mulan.evaluation.measure.MicroPrecision;
 import mulan.evaluation.measure.MicroRecall;
 import mulan.evaluation.measure.OneError;
@@ -48,18 +51,27 @@ import mulan.evaluation.measure.SubsetAccuracy;
 
 /**
  * Evaluator class based on mulan.evaluation.Evaluator. It divides the
- * prediction process into threads (by instances).
+ * prediction process into threads (by contiguous chunks of instances).
+ * The predictions are timed (see {@link TimedEvaluator}).
  * 
  * This is experimental beta version.
  * 
  * @author Arkadiusz Jachnik
  */
-public class MultiThreadEvaluator extends Evaluator {
+public class MultiThreadEvaluator extends Evaluator implements TimedEvaluator {
 
 	// seed for reproduction of cross-validation results
 	private int seed = 1;
-	// number of threads
-	final int NUM_OF_PROCESSORS = Runtime.getRuntime().availableProcessors();
+	// number of folds evaluated at the same time, 0 for the default
+	private int foldThreads = 0;
+	// number of chunks of the test set for each thread
+	private static final int CHUNKS_PER_THREAD = 4;
+	// prediction times of the instances in the last evaluation
+	private final LatencyHistogram latency = new LatencyHistogram();
+	// times of the calls predicting a block of instances in the last evaluation
+	private final LatencyHistogram blockLatency = new LatencyHistogram();
+	// duration of the last evaluation in nanoseconds
+	private volatile long elapsed = 0;
 
 	/**
 	 * Sets the seed for reproduction of cross-validation results
@@ -70,9 +82,46 @@ public class MultiThreadEvaluator extends Evaluator {
 		seed = aSeed;
 	}
 
+	/**
+	 * Sets the number of folds of cross-validation evaluated at the same
+	 * time. The available processors are divided between the folds, so each
+	 * fold evaluates its test instances with a part of them.
+	 * 
+	 * @param foldThreads number of folds evaluated at the same time,
+	 * 0 for one fold per processor (at most)
+	 */
+	public void setFoldThreads(int foldThreads) {
+		if (foldThreads < 0) {
+			throw new IllegalArgumentException(
+					"Number of fold threads cannot be negative.");
+		}
+		this.foldThreads = foldThreads;
+	}
+
+	/**
+	 * @return number of folds of cross-validation evaluated at the same time,
+	 * 0 for one fold per processor (at most)
+	 */
+	public int getFoldThreads() {
+		return foldThreads;
+	}
+
 	/**
 	 * Evaluates a {@link MultiLabelLearner} on given test data set using
-	 * specified evaluation measures
+	 * specified evaluation measures.<br>
+	 * <br>
+	 * The test set is divided into contiguous chunks of instances. Each chunk
+	 * is evaluated by one thread, which updates its own copies of the
+	 * measures implementing {@link MergeableMeasure}. The copies are merged
+	 * in the order of the chunks afterwards. The other measures are updated
+	 * in the order of the test instances, when all predictions are made.
+	 * Hence, no locks are taken on the measures, and the results are the same
+	 * as for mulan.evaluation.Evaluator, up to the order of summation of the
+	 * example-based measures.<br>
+	 * <br>
+	 * If the learner implements {@link BatchMultiLabelLearner}, each chunk is
+	 * passed to it in one call. Otherwise, the predictions are made one by one
+	 * with a lock on the learner.
 	 * 
 	 * @param learner the learner to be evaluated via cross-validation
 	 * @param data the data set for cross-validation
@@ -87,85 +136,214 @@ public class MultiThreadEvaluator extends Evaluator {
 		checkLearner(learner);
 		checkData(data);
 		checkMeasures(measures);
-		final MultiLabelInstances dataCopy = data.clone();
+
+		latency.reset();
+		blockLatency.reset();
+		long start = System.nanoTime();
+		try {
+			return evaluate(learner, data, measures, ParallelExecutor.getParallelism());
+		} finally {
+			elapsed = System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	@Override
+	public LatencyHistogram getBlockLatency() {
+		return blockLatency;
+	}
+
+	@Override
+	public double getThroughput() {
+		long nanos = elapsed;
+		return nanos == 0 ? 0.0 : latency.getCount() * 1e9 / nanos;
+	}
+
+	/**
+	 * Evaluates a {@link MultiLabelLearner} on given test data set using
+	 * specified evaluation measures and the given number of threads.
+	 * 
+	 * @param learner the learner to be evaluated
+	 * @param data the data set for evaluation
+	 * @param measures the evaluation measures to compute
+	 * @param threads number of threads the test set is divided for
+	 * @return an Evaluation object
+	 * @throws Exception
+	 */
+	private Evaluation evaluate(MultiLabelLearner learner,
+			MultiLabelInstances data, List<Measure> measures, int threads)
+			throws Exception {
 		final MultiLabelLearner learnerCopy = learner;
-		final List<Measure> measuresCopy = measures;
 
 		// reset measures
+		final List<MergeableMeasure> mergeable = new ArrayList<MergeableMeasure>();
+		List<Measure> others = new ArrayList<Measure>();
 		for (Measure m : measures) {
 			m.reset();
+			if (m instanceof MergeableMeasure) {
+				mergeable.add((MergeableMeasure) m);
+			} else {
+				others.add(m);
+			}
 		}
 
 		final int numLabels = data.getNumLabels();
 		final int[] labelIndices = data.getLabelIndices();
 
 		final Set<Measure> failed = new HashSet<Measure>();
-		final Instances testData = data.getDataSet();
-		int numInstances = testData.numInstances();
+		Instances testData = data.getDataSet();
 
-		ExecutorService execLoop = Executors
-				.newFixedThreadPool(NUM_OF_PROCESSORS);
-		final CountDownLatch latch = new CountDownLatch(numInstances);
+		final List<Instance> instances = new ArrayList<Instance>();
+		for (int instanceIndex = 0; instanceIndex < testData.numInstances(); instanceIndex++) {
+			Instance instance = testData.instance(instanceIndex);
+			if (!data.hasMissingLabels(instance)) {
+				instances.add(instance);
+			}
+		}
+		int numInstances = instances.size();
 
-		for (int instanceIndex = 0; instanceIndex < numInstances; instanceIndex++) {
-			final int instanceIndexF = instanceIndex;
-			execLoop.submit(new Runnable() {
-				@Override
-				public void run() {
-					boolean[] trueLabels = new boolean[numLabels];
-					Instance instance = testData.instance(instanceIndexF);
-					if (dataCopy.hasMissingLabels(instance)) {
-						return;
-					}
+		final MultiLabelOutput[] outputs = others.isEmpty() ? null
+				: new MultiLabelOutput[numInstances];
+		int numChunks = Math.min(numInstances, threads * CHUNKS_PER_THREAD);
+		final boolean[][] failedInChunk = new boolean[numChunks][mergeable.size()];
 
-					Instance labelsMissing = (Instance) instance.copy();
-		            labelsMissing.setDataset(instance.dataset());
-		            for (int i = 0; i < dataCopy.getNumLabels(); i++) {
-		                labelsMissing.setMissing(dataCopy.getLabelIndices()[i]);
-		            }
-					
-					MultiLabelOutput output = null;
+		List<Callable<MergeableMeasure[]>> tasks = new ArrayList<Callable<MergeableMeasure[]>>(numChunks);
 
-					synchronized (learnerCopy) {
-						try {
-							output = learnerCopy.makePrediction(labelsMissing);
-						} catch (InvalidDataException e) {
-							e.printStackTrace();
-						} catch (ModelInitializationException e) {
-							e.printStackTrace();
-						} catch (Exception e) {
-							e.printStackTrace();
+		for (int chunk = 0; chunk < numChunks; chunk++) {
+			final int chunkF = chunk;
+			final int from = (int) ((long) numInstances * chunk / numChunks);
+			final int to = (int) ((long) numInstances * (chunk + 1) / numChunks);
+			tasks.add(new Callable<MergeableMeasure[]>() {
+				@Override
+				public MergeableMeasure[] call() {
+					try {
+						MergeableMeasure[] local = new MergeableMeasure[mergeable.size()];
+						for (int k = 0; k < local.length; k++) {
+							local[k] = (MergeableMeasure) mergeable.get(k).makeCopy();
+							local[k].reset();
+						}
+
+						Instance[] part = new Instance[to - from];
+						for (int n = 0; n < part.length; n++) {
+							part[n] = BatchEvaluator.labelsMissing(instances.get(from + n), labelIndices);
 						}
-					}
 
-					synchronized (measuresCopy) {
-						trueLabels = getTrueLabels(instance, numLabels, labelIndices);
-						Iterator<Measure> it = measuresCopy.iterator();
-						while (it.hasNext()) {
-							Measure m = it.next();
-							if (!failed.contains(m)) {
-								try {
-									m.update(output, trueLabels);
-								} catch (Exception ex) {
-									failed.add(m);
+						MultiLabelOutput[] predicted = predict(learnerCopy, part, latency, blockLatency);
+
+						for (int n = 0; n < part.length; n++) {
+							boolean[] trueLabels = getTrueLabels(instances.get(from + n),
+									numLabels, labelIndices);
+							for (int k = 0; k < local.length; k++) {
+								if (!failedInChunk[chunkF][k]) {
+									try {
+										local[k].update(predicted[n], trueLabels);
+									} catch (Exception ex) {
+										failedInChunk[chunkF][k] = true;
+									}
 								}
 							}
 						}
+
+						if (outputs != null) {
+							System.arraycopy(predicted, 0, outputs, from, predicted.length);
+						}
+						return local;
+					} catch (Exception e) {
+						e.printStackTrace();
+						return null;
 					}
-					
-					latch.countDown();
 				}
 			});
 		}
-		
-		try {
-			latch.await();
-		} catch (InterruptedException e2) {
-			e2.printStackTrace();
+
+		List<MergeableMeasure[]> accumulators = ParallelExecutor.invokeAll(tasks);
+
+		for (int chunk = 0; chunk < numChunks; chunk++) {
+			for (int k = 0; k < mergeable.size(); k++) {
+				MergeableMeasure m = mergeable.get(k);
+				if (accumulators.get(chunk) == null || failedInChunk[chunk][k]) {
+					failed.add(m);
+				}
+				if (!failed.contains(m)) {
+					m.merge(accumulators.get(chunk)[k]);
+				}
+			}
+		}
+
+		if (outputs != null) {
+			for (int n = 0; n < numInstances; n++) {
+				boolean[] trueLabels = getTrueLabels(instances.get(n), numLabels, labelIndices);
+				Iterator<Measure> it = others.iterator();
+				while (it.hasNext()) {
+					Measure m = it.next();
+					if (!failed.contains(m)) {
+						try {
+							m.update(outputs[n], trueLabels);
+						} catch (Exception ex) {
+							failed.add(m);
+						}
+					}
+				}
+			}
+		}
+
+		return new Evaluation(measures, data);
+	}
+
+	/**
+	 * Makes predictions for a chunk of test instances.
+	 * 
+	 * @param learner the learner to be evaluated
+	 * @param instances test instances with missing values of the labels
+	 * @param latency histogram the prediction times of the instances are
+	 * recorded in: the time of the work done for an instance in a block, or
+	 * the time of the call which has given its output; the time of waiting
+	 * for the lock on the learner is not counted
+	 * @param blockLatency histogram the times of the calls predicting a block
+	 * of instances are recorded in
+	 * @return an array with the output of the learner for each of the
+	 * instances, null if the prediction has failed
+	 * @throws Exception if a {@link BatchMultiLabelLearner} has failed
+	 */
+	static MultiLabelOutput[] predict(MultiLabelLearner learner,
+			Instance[] instances, LatencyHistogram latency, LatencyHistogram blockLatency)
+			throws Exception {
+		if (learner instanceof BatchMultiLabelLearner) {
+			long[] nanos = new long[instances.length];
+			long start = System.nanoTime();
+			MultiLabelOutput[] outputs = ((BatchMultiLabelLearner) learner).predictBatch(instances,
+					instances.length, nanos);
+			long blockNanos = System.nanoTime() - start;
+			if (instances.length > 0) {
+				for (long instanceNanos : nanos) {
+					latency.record(instanceNanos);
+				}
+				blockLatency.record(blockNanos);
+			}
+			return outputs;
 		}
-		execLoop.shutdown();
 
-		return new Evaluation(measuresCopy, data);
+		MultiLabelOutput[] outputs = new MultiLabelOutput[instances.length];
+		for (int n = 0; n < instances.length; n++) {
+			synchronized (learner) {
+				try {
+					long start = System.nanoTime();
+					outputs[n] = learner.makePrediction(instances[n]);
+					latency.record(System.nanoTime() - start);
+				} catch (InvalidDataException e) {
+					e.printStackTrace();
+				} catch (ModelInitializationException e) {
+					e.printStackTrace();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return outputs;
 	}
 
 	private void checkLearner(MultiLabelLearner learner) {
@@ -226,7 +404,7 @@ public class MultiThreadEvaluator extends Evaluator {
 			// add bipartition-based measures if applicable
 			if (prediction.hasBipartition()) {
 				// add example-based measures
-				measures.add(new HammingLoss());
+				measures.add(new MergeableHammingLoss());
 				measures.add(new SubsetAccuracy());
 				measures.add(new ExampleBasedPrecision());
 				measures.add(new ExampleBasedRecall());
@@ -236,10 +414,10 @@ public class MultiThreadEvaluator extends Evaluator {
 				int numOfLabels = data.getNumLabels();
 				measures.add(new MicroPrecision(numOfLabels));
 				measures.add(new MicroRecall(numOfLabels));
-				measures.add(new MicroFMeasure(numOfLabels));
+				measures.add(new MergeableMicroFMeasure(numOfLabels));
 				measures.add(new MacroPrecision(numOfLabels));
 				measures.add(new MacroRecall(numOfLabels));
-				measures.add(new MacroFMeasure(numOfLabels));
+				measures.add(new MergeableMacroFMeasure(numOfLabels));
 			}
 			// add ranking-based measures if applicable
 			if (prediction.hasRanking()) {
@@ -322,35 +500,155 @@ public class MultiThreadEvaluator extends Evaluator {
 		return innerCrossValidate(learner, data, true, measures, someFolds);
 	}
 
+	/**
+	 * Evaluates a {@link MultiLabelLearner} via cross-validation on the given
+	 * folds using given evaluation measures. The folds can be shared by many
+	 * evaluations (see {@link DatasetRegistry}), the seed of this evaluator is
+	 * not used.
+	 * 
+	 * @param learner the learner to be evaluated via cross-validation
+	 * @param folds the folds of the multi-label data set
+	 * @param measures the evaluation measures to compute
+	 * @return a {@link MultipleEvaluation} object holding the results
+	 */
+	public MultipleEvaluation crossValidate(MultiLabelLearner learner,
+			CrossValidationFolds folds, List<Measure> measures) {
+		checkLearner(learner);
+		checkData(folds.getData());
+		checkMeasures(measures);
+
+		return innerCrossValidate(learner, folds, true, measures);
+	}
+
+	/**
+	 * Evaluates the folds of cross-validation. The folds are built and
+	 * evaluated at the same time, by the number of threads set by
+	 * {@link #setFoldThreads(int)}. The rest of the processors are used for
+	 * the evaluation of the test instances inside each fold. The data set is
+	 * divided into the folds before any of them is started and the results
+	 * are stored in the order of the folds, so they depend on the seed only.
+	 * The threads are taken from {@link ParallelExecutor}.<br>
+	 * The prediction times of the test instances of all folds are recorded
+	 * (see {@link TimedEvaluator}), and the throughput is computed for the
+	 * time during which the test instances of any fold were predicted.
+	 */
 	private MultipleEvaluation innerCrossValidate(MultiLabelLearner learner,
 			MultiLabelInstances data, boolean hasMeasures,
 			List<Measure> measures, int someFolds) {
-		Evaluation[] evaluation = new Evaluation[someFolds];
-
-		Instances workingSet = new Instances(data.getDataSet());
-		workingSet.randomize(new Random(seed));
-		for (int i = 0; i < someFolds; i++) {
-			System.out.println("Fold " + (i + 1) + "/" + someFolds);
-			try {
-				Instances train = workingSet.trainCV(someFolds, i);
-				Instances test = workingSet.testCV(someFolds, i);
-				MultiLabelInstances mlTrain = new MultiLabelInstances(train,
-						data.getLabelsMetaData());
-				MultiLabelInstances mlTest = new MultiLabelInstances(test,
-						data.getLabelsMetaData());
-				MultiLabelLearner clone = learner.makeCopy();
-				clone.build(mlTrain);
-				if (hasMeasures)
-					evaluation[i] = evaluate(clone, mlTest, measures);
-				else
-					evaluation[i] = evaluate(clone, mlTest);
-			} catch (Exception ex) {
-				Logger.getLogger(Evaluator.class.getName()).log(Level.SEVERE,
-						null, ex);
-			}
+		return innerCrossValidate(learner,
+				new CrossValidationFolds(data, someFolds, seed), hasMeasures, measures);
+	}
+
+	private MultipleEvaluation innerCrossValidate(final MultiLabelLearner learner,
+			final CrossValidationFolds folds, final boolean hasMeasures,
+			final List<Measure> measures) {
+		final int someFolds = folds.getNumFolds();
+		final Evaluation[] evaluation = new Evaluation[someFolds];
+		// start and end of the predictions of each fold
+		final long[][] predicting = new long[someFolds][];
+
+		int parallelism = ParallelExecutor.getParallelism();
+		final int numFoldThreads = Math.min(someFolds,
+				foldThreads > 0 ? foldThreads : parallelism);
+		final int instanceThreads = Math.max(1, parallelism / numFoldThreads);
+
+		// the r-th task evaluates the folds r, r + numFoldThreads, ...
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numFoldThreads);
+		for (int r = 0; r < numFoldThreads; r++) {
+			final int first = r;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int fold = first; fold < someFolds; fold += numFoldThreads) {
+						evaluation[fold] = evaluateFold(learner, folds,
+								hasMeasures, measures, fold, instanceThreads, predicting);
+					}
+					return null;
+				}
+			});
 		}
-		MultipleEvaluation me = new MultipleEvaluation(evaluation, data);
+
+		latency.reset();
+		blockLatency.reset();
+		try {
+			ParallelExecutor.invokeAll(tasks);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		elapsed = union(predicting);
+
+		MultipleEvaluation me = new MultipleEvaluation(evaluation, folds.getData());
 		me.calculateStatistics();
 		return me;
 	}
+
+	/**
+	 * Returns the total length of the given time intervals, counting their
+	 * overlaps once.
+	 * 
+	 * @param intervals start and end of each interval, null for none
+	 * @return the length in nanoseconds
+	 */
+	private static long union(long[][] intervals) {
+		List<long[]> sorted = new ArrayList<long[]>(intervals.length);
+		for (long[] interval : intervals) {
+			if (interval != null) {
+				sorted.add(interval);
+			}
+		}
+		Collections.sort(sorted, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] left, long[] right) {
+				return Long.compare(left[0], right[0]);
+			}
+		});
+		
+		long total = 0;
+		long end = Long.MIN_VALUE;
+		for (long[] interval : sorted) {
+			if (interval[1] > end) {
+				total += interval[1] - Math.max(interval[0], end);
+				end = interval[1];
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Builds and evaluates a single fold of cross-validation.
+	 * 
+	 * @param predicting array the start and end of the predictions of the
+	 * fold are stored in
+	 * @return the evaluation of the fold or null if it has failed
+	 */
+	private Evaluation evaluateFold(MultiLabelLearner learner,
+			CrossValidationFolds folds, boolean hasMeasures,
+			List<Measure> measures, int fold, int threads, long[][] predicting) {
+		System.out.println("Fold " + (fold + 1) + "/" + folds.getNumFolds());
+		try {
+			MultiLabelInstances mlTrain = folds.getTrain(fold);
+			MultiLabelInstances mlTest = folds.getTest(fold);
+			MultiLabelLearner clone = learner.makeCopy();
+			clone.build(mlTrain);
+
+			// each fold updates its own copies of the measures
+			List<Measure> foldMeasures;
+			if (hasMeasures) {
+				foldMeasures = new ArrayList<Measure>(measures.size());
+				for (Measure m : measures) {
+					foldMeasures.add(m.makeCopy());
+				}
+			} else {
+				foldMeasures = prepareMeasures(clone, mlTest);
+			}
+			long start = System.nanoTime();
+			Evaluation foldEvaluation = evaluate(clone, mlTest, foldMeasures, threads);
+			predicting[fold] = new long[] { start, System.nanoTime() };
+			return foldEvaluation;
+		} catch (Exception ex) {
+			Logger.getLogger(Evaluator.class.getName()).log(Level.SEVERE,
+					null, ex);
+			return null;
+		}
+	}
 }
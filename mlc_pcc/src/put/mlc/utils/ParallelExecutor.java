@@ -0,0 +1,215 @@
+package put.mlc.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Execution service shared by all multi-threaded components of the library
+ * (tuning, training and evaluation). It is a single work-stealing
+ * {@link ForkJoinPool}, so the number of active threads stays at the global
+ * parallelism level, no matter how the components are nested, e.g. a tuned
+ * base classifier trained inside PCC which is cross-validated by
+ * {@link MultiThreadEvaluator}.<br>
+ * <br>
+ * Tasks submitted from a thread of the pool are forked into it, and the
+ * thread waiting for them executes the pending tasks instead of blocking.
+ * Tasks submitted from other threads are run in the pool and the caller
+ * waits for them.<br>
+ * <br>
+ * When the parallelism level is changed, the pool is replaced by a new one
+ * on the next use. The old pool is not shut down: the tasks running in it
+ * still fork into it and it accepts the tasks submitted by the components
+ * which have taken it before, and its threads end when it stays idle.
+ */
+public final class ParallelExecutor {
+
+	/**
+	 * maximal number of active threads, by default the number of processors
+	 */
+	private static int parallelism = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * the pool, created on the first use
+	 */
+	private static volatile ForkJoinPool pool = null;
+
+	private ParallelExecutor() {
+	}
+
+	/**
+	 * creates the threads of the pools, so that they are recognized by
+	 * {@link #inPool()} also after the pool has been replaced
+	 */
+	private static final ForkJoinPool.ForkJoinWorkerThreadFactory factory =
+			new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+				@Override
+				public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+					return new Worker(pool);
+				}
+			};
+
+	/**
+	 * Sets the maximal number of active threads used by the library. If the
+	 * pool has been already created with a different level, a new one is
+	 * created on the next use. The old pool is retired without shutting it
+	 * down, since the running tasks may still submit tasks to it; its threads
+	 * end when it stays idle.
+	 *
+	 * @param parallelism maximal number of active threads (at least 1)
+	 */
+	public static synchronized void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1.");
+		}
+		if (pool != null && pool.getParallelism() != parallelism) {
+			pool = null;
+		}
+		ParallelExecutor.parallelism = parallelism;
+	}
+
+	/**
+	 * @return maximal number of active threads used by the library
+	 */
+	public static synchronized int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Returns the pool shared by the library. It is created on the first use,
+	 * its threads do not keep the virtual machine running.
+	 *
+	 * @return the pool
+	 */
+	public static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(parallelism, factory, null, false);
+		}
+		return pool;
+	}
+
+	/**
+	 * Shuts down the pool after the tasks submitted so far are completed.
+	 * A new pool is created if the executor is used again.
+	 *
+	 * @param timeout maximal time to wait for the tasks, 0 for not waiting
+	 * @param unit unit of the timeout
+	 * @return true if the pool has terminated (or has not been created)
+	 * @throws InterruptedException if the current thread has been interrupted
+	 * while waiting
+	 */
+	public static boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		ForkJoinPool current;
+		synchronized (ParallelExecutor.class) {
+			current = pool;
+			pool = null;
+		}
+		if (current == null) {
+			return true;
+		}
+		current.shutdown();
+		return timeout <= 0 ? current.isTerminated() : current.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Shuts down the pool without waiting for the tasks.
+	 *
+	 * @see #shutdown(long, TimeUnit)
+	 */
+	public static void shutdown() {
+		try {
+			shutdown(0, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return true if the current thread is a thread of the shared pool, or
+	 * of a pool it has replaced
+	 */
+	public static boolean inPool() {
+		return Thread.currentThread() instanceof Worker;
+	}
+
+	/**
+	 * Runs the given tasks in the shared pool and waits for all of them.
+	 *
+	 * @param tasks tasks to run
+	 * @return results of the tasks, in the order of the tasks
+	 * @throws Exception the exception thrown by the first failed task (in the
+	 * order of the tasks), after all of them are completed
+	 */
+	public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws Exception {
+		List<CallableTask<T>> forked = new ArrayList<CallableTask<T>>(tasks.size());
+		boolean nested = inPool();
+		ForkJoinPool current = nested ? null : getPool();
+		for (Callable<T> task : tasks) {
+			CallableTask<T> forkJoinTask = new CallableTask<T>(task);
+			if (nested) {
+				// the task is pushed to the queue of this thread
+				forkJoinTask.fork();
+			} else {
+				current.execute(forkJoinTask);
+			}
+			forked.add(forkJoinTask);
+		}
+
+		// joined in reverse order, so the forked tasks which have not been
+		// stolen are executed by this thread
+		for (int i = forked.size() - 1; i >= 0; i--) {
+			forked.get(i).join();
+		}
+
+		List<T> results = new ArrayList<T>(forked.size());
+		for (CallableTask<T> task : forked) {
+			if (task.failure != null) {
+				throw task.failure;
+			}
+			results.add(task.getRawResult());
+		}
+		return results;
+	}
+
+	/**
+	 * Thread of the pools of the executor. It does not keep the virtual
+	 * machine running.
+	 */
+	private static class Worker extends ForkJoinWorkerThread {
+
+		Worker(ForkJoinPool pool) {
+			super(pool);
+			setDaemon(true);
+		}
+	}
+
+	/**
+	 * Adapter of a {@link Callable} which keeps the exception thrown by it.
+	 */
+	private static class CallableTask<T> extends RecursiveTask<T> {
+
+		private static final long serialVersionUID = -4162736529184772311L;
+
+		private final Callable<T> callable;
+
+		private Exception failure = null;
+
+		CallableTask(Callable<T> callable) {
+			this.callable = callable;
+		}
+
+		@Override
+		protected T compute() {
+			try {
+				return callable.call();
+			} catch (Exception e) {
+				failure = e;
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,479 @@
+package put.mlc.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+import mulan.classifier.MultiLabelLearner;
+import mulan.classifier.MultiLabelOutput;
+import mulan.data.LabelsBuilder;
+import mulan.data.LabelsMetaData;
+import mulan.data.MultiLabelInstances;
+import mulan.evaluation.Evaluation;
+import mulan.evaluation.measure.Measure;
+import put.mlc.classifiers.common.BatchMultiLabelLearner;
+import put.mlc.data.ColumnarDataset;
+import put.mlc.data.ColumnarFormat;
+import put.mlc.measures.MergeableMeasure;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ArffLoader;
+
+/**
+ * Evaluator which reads the test set incrementally, so the test set does not
+ * have to fit into the memory. The instances are read from an ARFF file or
+ * from a file in {@link ColumnarFormat} by one thread and put, in blocks,
+ * into a bounded queue. The blocks are taken by the worker threads, which
+ * make the predictions (in one call for a {@link BatchMultiLabelLearner})
+ * and update their own copies of the measures implementing
+ * {@link MergeableMeasure}. The copies are merged at the end. Hence,
+ * reading, inference and scoring overlap, and the memory taken by the test
+ * instances is bounded by the size of the queue.<br>
+ * <br>
+ * The other measures are updated with a lock, in the order in which the
+ * blocks are processed. The mergeable measures based on counts (Hamming
+ * loss, micro and macro F-measure) do not depend on the threads; the micro
+ * and macro F-measure are the same as for mulan.evaluation.Evaluator, and
+ * Hamming loss, which Mulan sums over the instances, may differ from it in
+ * the last digits. The example-based measures may differ in the last
+ * digits, since the order of summation depends on the threads.<br>
+ * The threads are taken from {@link ParallelExecutor}; blocking on the
+ * queue is managed, so the pool does not run out of threads. The predictions
+ * are timed (see {@link TimedEvaluator}).
+ */
+public class StreamingEvaluator implements TimedEvaluator {
+
+	// number of instances in a block
+	private int blockSize = 256;
+	// number of blocks in the queue, 0 for two blocks per worker
+	private int queueCapacity = 0;
+	// number of worker threads, 0 for the parallelism of the shared pool
+	private int threads = 0;
+	// prediction times of the instances in the last evaluation
+	private final LatencyHistogram latency = new LatencyHistogram();
+	// times of the calls predicting a block of instances in the last evaluation
+	private final LatencyHistogram blockLatency = new LatencyHistogram();
+	// duration of the last evaluation in nanoseconds
+	private volatile long elapsed = 0;
+
+	/**
+	 * Source of the test instances.
+	 */
+	private interface InstanceSource {
+
+		/**
+		 * @return the next instance (with the header as its data set) or null
+		 * at the end of the test set
+		 * @throws Exception
+		 */
+		Instance next() throws Exception;
+	}
+
+	/**
+	 * Sets the number of instances in a block.
+	 *
+	 * @param blockSize number of instances in a block
+	 */
+	public void setBlockSize(int blockSize) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("Block size must be at least 1.");
+		}
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @return number of instances in a block
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Sets the maximal number of blocks waiting in the queue.
+	 *
+	 * @param queueCapacity number of blocks, 0 for two blocks per worker
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 0) {
+			throw new IllegalArgumentException("Queue capacity cannot be negative.");
+		}
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @return maximal number of blocks waiting in the queue, 0 for two blocks
+	 * per worker
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * Sets the number of worker threads.
+	 *
+	 * @param threads number of workers, 0 for the parallelism of
+	 * {@link ParallelExecutor}
+	 */
+	public void setThreads(int threads) {
+		if (threads < 0) {
+			throw new IllegalArgumentException("Number of threads cannot be negative.");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * @return number of worker threads, 0 for the parallelism of
+	 * {@link ParallelExecutor}
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	@Override
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	@Override
+	public LatencyHistogram getBlockLatency() {
+		return blockLatency;
+	}
+
+	@Override
+	public double getThroughput() {
+		long nanos = elapsed;
+		return nanos == 0 ? 0.0 : latency.getCount() * 1e9 / nanos;
+	}
+
+	/**
+	 * Evaluates a {@link MultiLabelLearner} on a test set read from a file.
+	 *
+	 * @param learner the learner to be evaluated
+	 * @param testFile name of ARFF file or file in {@link ColumnarFormat}
+	 * (recognized by the extension) with the test set
+	 * @param xmlFile name of XML file with IDs of labels (not used for files in
+	 * {@link ColumnarFormat})
+	 * @param measures the evaluation measures to compute
+	 * @return an Evaluation object
+	 * @throws IllegalArgumentException if an input parameter is null
+	 * @throws Exception
+	 */
+	public Evaluation evaluate(MultiLabelLearner learner, String testFile,
+			String xmlFile, List<Measure> measures) throws IllegalArgumentException, Exception {
+		if (testFile == null) {
+			throw new IllegalArgumentException("Evaluation data file is null.");
+		}
+		if (testFile.endsWith(ColumnarFormat.EXTENSION)) {
+			return evaluate(learner, ColumnarDataset.open(new File(testFile)), measures);
+		}
+
+		LabelsMetaData labelsMetaData = LabelsBuilder.createLabels(xmlFile);
+		Reader reader = new BufferedReader(new FileReader(testFile));
+		try {
+			final ArffLoader.ArffReader arff = new ArffLoader.ArffReader(reader, 1);
+			final Instances structure = arff.getStructure();
+			return evaluate(learner, structure, labelsMetaData, new InstanceSource() {
+				@Override
+				public Instance next() throws Exception {
+					return arff.readInstance(structure);
+				}
+			}, measures);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Evaluates a {@link MultiLabelLearner} on a test set in
+	 * {@link ColumnarFormat}. The instances are materialized when they are
+	 * read from the queue.
+	 *
+	 * @param learner the learner to be evaluated
+	 * @param data the test set
+	 * @param measures the evaluation measures to compute
+	 * @return an Evaluation object
+	 * @throws IllegalArgumentException if an input parameter is null
+	 * @throws Exception
+	 */
+	public Evaluation evaluate(MultiLabelLearner learner, final ColumnarDataset data,
+			List<Measure> measures) throws IllegalArgumentException, Exception {
+		if (data == null) {
+			throw new IllegalArgumentException("Evaluation data object is null.");
+		}
+		final Instances header = data.getHeader();
+		return evaluate(learner, header, data.getLabelsMetaData(), new InstanceSource() {
+
+			private int n = 0;
+
+			@Override
+			public Instance next() {
+				if (n >= data.getNumInstances()) {
+					return null;
+				}
+				Instance instance = data.instance(n++);
+				instance.setDataset(header);
+				return instance;
+			}
+		}, measures);
+	}
+
+	/**
+	 * Runs the reading thread and the workers.
+	 */
+	private Evaluation evaluate(final MultiLabelLearner learner, Instances header,
+			LabelsMetaData labelsMetaData, final InstanceSource source,
+			List<Measure> measures) throws Exception {
+		if (learner == null) {
+			throw new IllegalArgumentException("Learner to be evaluated is null.");
+		}
+		if (measures == null) {
+			throw new IllegalArgumentException(
+					"List of evaluation measures to compute is null.");
+		}
+
+		// the label indices in the order of the attributes, as in MultiLabelInstances
+		List<Integer> labels = new ArrayList<Integer>();
+		for (int a = 0; a < header.numAttributes(); a++) {
+			if (labelsMetaData.containsLabel(header.attribute(a).name())) {
+				labels.add(a);
+			}
+		}
+		final int numLabels = labels.size();
+		final int[] labelIndices = new int[numLabels];
+		for (int j = 0; j < numLabels; j++) {
+			labelIndices[j] = labels.get(j);
+		}
+
+		// reset measures
+		final List<MergeableMeasure> mergeable = new ArrayList<MergeableMeasure>();
+		final List<Measure> others = new ArrayList<Measure>();
+		for (Measure m : measures) {
+			m.reset();
+			if (m instanceof MergeableMeasure) {
+				mergeable.add((MergeableMeasure) m);
+			} else {
+				others.add(m);
+			}
+		}
+		final boolean[] othersFailed = new boolean[others.size()];
+
+		latency.reset();
+		blockLatency.reset();
+		long start = System.nanoTime();
+
+		int numWorkers = (threads > 0) ? threads : ParallelExecutor.getParallelism();
+		final BlockingQueue<Instance[]> queue = new ArrayBlockingQueue<Instance[]>(
+				(queueCapacity > 0) ? queueCapacity : 2 * numWorkers);
+		final Instance[] end = new Instance[0];
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		final boolean[][] failedInWorker = new boolean[numWorkers][mergeable.size()];
+
+		List<Callable<MergeableMeasure[]>> tasks = new ArrayList<Callable<MergeableMeasure[]>>(numWorkers + 1);
+
+		final int numWorkersF = numWorkers;
+		tasks.add(new Callable<MergeableMeasure[]>() {
+			@Override
+			public MergeableMeasure[] call() throws Exception {
+				try {
+					Instance[] block = new Instance[blockSize];
+					int length = 0;
+					Instance instance;
+					while (failure.get() == null && (instance = source.next()) != null) {
+						if (hasMissingLabels(instance, labelIndices)) {
+							continue;
+						}
+						block[length++] = instance;
+						if (length == blockSize) {
+							put(queue, block);
+							block = new Instance[blockSize];
+							length = 0;
+						}
+					}
+					if (length > 0) {
+						put(queue, Arrays.copyOf(block, length));
+					}
+				} finally {
+					for (int w = 0; w < numWorkersF; w++) {
+						put(queue, end);
+					}
+				}
+				return null;
+			}
+		});
+
+		for (int w = 0; w < numWorkers; w++) {
+			final int worker = w;
+			tasks.add(new Callable<MergeableMeasure[]>() {
+				@Override
+				public MergeableMeasure[] call() throws Exception {
+					MergeableMeasure[] local = new MergeableMeasure[mergeable.size()];
+					for (int k = 0; k < local.length; k++) {
+						local[k] = (MergeableMeasure) mergeable.get(k).makeCopy();
+						local[k].reset();
+					}
+
+					Instance[] block;
+					while ((block = take(queue)) != end) {
+						if (failure.get() != null) {
+							// the rest of the blocks is only drained
+							continue;
+						}
+						try {
+							evaluateBlock(learner, block, numLabels, labelIndices,
+									local, failedInWorker[worker], others, othersFailed, latency,
+									blockLatency);
+						} catch (Exception e) {
+							failure.compareAndSet(null, e);
+						}
+					}
+					return local;
+				}
+			});
+		}
+
+		List<MergeableMeasure[]> accumulators = ParallelExecutor.invokeAll(tasks);
+		elapsed = System.nanoTime() - start;
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+
+		// merged in the order of the workers
+		for (int k = 0; k < mergeable.size(); k++) {
+			boolean failed = false;
+			for (int w = 0; w < numWorkers; w++) {
+				failed |= failedInWorker[w][k];
+			}
+			if (failed) {
+				continue;
+			}
+			for (int w = 0; w < numWorkers; w++) {
+				mergeable.get(k).merge(accumulators.get(w + 1)[k]);
+			}
+		}
+
+		return new Evaluation(measures, new MultiLabelInstances(new Instances(header, 0),
+				labelsMetaData));
+	}
+
+	/**
+	 * Makes the predictions for a block and updates the measures. The
+	 * instances belong to the stream, so their labels are hidden in place.
+	 */
+	private static void evaluateBlock(MultiLabelLearner learner, Instance[] block,
+			int numLabels, int[] labelIndices, MergeableMeasure[] local,
+			boolean[] localFailed, List<Measure> others, boolean[] othersFailed,
+			LatencyHistogram latency, LatencyHistogram blockLatency) throws Exception {
+		boolean[][] trueLabels = new boolean[block.length][];
+		for (int n = 0; n < block.length; n++) {
+			trueLabels[n] = BatchEvaluator.getTrueLabels(block[n], numLabels, labelIndices);
+			for (int labelIndex : labelIndices) {
+				block[n].setMissing(labelIndex);
+			}
+		}
+
+		MultiLabelOutput[] outputs = MultiThreadEvaluator.predict(learner, block, latency,
+				blockLatency);
+
+		for (int n = 0; n < block.length; n++) {
+			for (int k = 0; k < local.length; k++) {
+				if (!localFailed[k]) {
+					try {
+						local[k].update(outputs[n], trueLabels[n]);
+					} catch (Exception ex) {
+						localFailed[k] = true;
+					}
+				}
+			}
+		}
+
+		if (!others.isEmpty()) {
+			synchronized (others) {
+				for (int n = 0; n < block.length; n++) {
+					for (int k = 0; k < others.size(); k++) {
+						if (!othersFailed[k]) {
+							try {
+								others.get(k).update(outputs[n], trueLabels[n]);
+							} catch (Exception ex) {
+								othersFailed[k] = true;
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean hasMissingLabels(Instance instance, int[] labelIndices) {
+		for (int labelIndex : labelIndices) {
+			if (instance.isMissing(labelIndex)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Puts an element into the queue. If the queue is full, the thread waits
+	 * and the pool may start a spare thread meanwhile.
+	 */
+	private static <T> void put(final BlockingQueue<T> queue, final T element)
+			throws InterruptedException {
+		ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+
+			private boolean done = false;
+
+			@Override
+			public boolean block() throws InterruptedException {
+				if (!done) {
+					queue.put(element);
+					done = true;
+				}
+				return true;
+			}
+
+			@Override
+			public boolean isReleasable() {
+				return done || (done = queue.offer(element));
+			}
+		});
+	}
+
+	/**
+	 * Takes an element from the queue. If the queue is empty, the thread
+	 * waits and the pool may start a spare thread meanwhile.
+	 */
+	private static <T> T take(final BlockingQueue<T> queue) throws InterruptedException {
+		final List<T> taken = new ArrayList<T>(1);
+		ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+
+			@Override
+			public boolean block() throws InterruptedException {
+				if (taken.isEmpty()) {
+					taken.add(queue.take());
+				}
+				return true;
+			}
+
+			@Override
+			public boolean isReleasable() {
+				if (taken.isEmpty()) {
+					T element = queue.poll();
+					if (element != null) {
+						taken.add(element);
+					}
+				}
+				return !taken.isEmpty();
+			}
+		});
+		return taken.get(0);
+	}
+}
@@ -0,0 +1,32 @@
+package put.mlc.utils;
+
+/**
+ * Interface for evaluators which time the predictions. Each prediction is
+ * timed with {@link System#nanoTime()}. When a block of instances is
+ * predicted in one call (see
+ * {@link put.mlc.classifiers.common.BatchMultiLabelLearner}), each instance
+ * of the block is recorded with the time of the work done for it, as
+ * measured by the learner; the times of the whole calls are recorded
+ * separately, see {@link #getBlockLatency()}.
+ */
+public interface TimedEvaluator {
+
+	/**
+	 * @return histogram of the prediction times of the instances in the last
+	 * evaluation, in nanoseconds
+	 */
+	public LatencyHistogram getLatency();
+
+	/**
+	 * @return histogram of the times of the calls predicting a block of
+	 * instances in the last evaluation, in nanoseconds; empty if the
+	 * instances were predicted one by one
+	 */
+	public LatencyHistogram getBlockLatency();
+
+	/**
+	 * @return number of the instances evaluated per second in the last
+	 * evaluation, 0 if there was none
+	 */
+	public double getThroughput();
+}
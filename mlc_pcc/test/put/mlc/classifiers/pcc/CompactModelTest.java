@@ -0,0 +1,92 @@
+package put.mlc.classifiers.pcc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import mulan.classifier.MultiLabelOutput;
+import mulan.data.MultiLabelInstances;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import weka.core.Instances;
+
+/**
+ * Round trip of {@link CompactModel}.
+ */
+public class CompactModelTest {
+
+	private static MultiLabelInstances train;
+
+	private static MultiLabelInstances test;
+
+	private static PCC trained;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void trainModel() throws Exception {
+		MultiLabelInstances data = TrainedModels.emotions();
+		train = TrainedModels.part(data, 0, 400);
+		test = TrainedModels.part(data, 400, data.getNumInstances() - 400);
+		trained = TrainedModels.maxEnt(train);
+	}
+
+	@Test
+	public void loadedModelGivesSamePredictions() throws Exception {
+		File file = folder.newFile("emotions" + CompactModel.EXTENSION);
+		CompactModel.write(trained, file);
+		PCC loaded = CompactModel.load(file);
+
+		assertArrayEquals(trained.getChain(), loaded.getChain());
+		assertArrayEquals(trained.getLabelIndices(), loaded.getLabelIndices());
+		assertSamePredictions(trained, loaded, test.getDataSet());
+	}
+
+	@Test
+	public void singlePrecisionHalvesTheWeights() throws Exception {
+		File doubles = folder.newFile("doubles" + CompactModel.EXTENSION);
+		File floats = folder.newFile("floats" + CompactModel.EXTENSION);
+		CompactModel.write(trained, doubles, false);
+		CompactModel.write(trained, floats, true);
+		assertEquals(doubles.length() / 2, floats.length(), 1024);
+
+		// the written floats are read back as they were written
+		PCC loaded = CompactModel.load(floats);
+		File copy = folder.newFile("copy" + CompactModel.EXTENSION);
+		CompactModel.write(loaded, copy, true);
+		assertEquals(floats.length(), copy.length());
+		assertSamePredictions(loaded, CompactModel.load(copy), test.getDataSet());
+	}
+
+	@Test
+	public void rewriteDoesNotAffectLoadedModel() throws Exception {
+		File file = folder.newFile("emotions" + CompactModel.EXTENSION);
+		CompactModel.write(trained, file);
+		// the links are not read until the first prediction
+		PCC loaded = CompactModel.load(file);
+
+		PCC other = TrainedModels.maxEnt(TrainedModels.part(train, 0, 100));
+		CompactModel.write(other, file);
+
+		assertSamePredictions(trained, loaded, test.getDataSet());
+		assertSamePredictions(other, CompactModel.load(file), test.getDataSet());
+
+		// no temporary files are left
+		assertEquals(1, folder.getRoot().list().length);
+	}
+
+	static void assertSamePredictions(PCC expected, PCC actual, Instances instances)
+			throws Exception {
+		for (int n = 0; n < instances.numInstances(); n++) {
+			MultiLabelOutput output = expected.makePrediction(instances.instance(n));
+			assertArrayEquals("instance " + n, output.getBipartition(),
+					actual.makePrediction(instances.instance(n)).getBipartition());
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package put.mlc.classifiers.pcc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import mulan.classifier.MultiLabelOutput;
+import mulan.data.MultiLabelInstances;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import put.mlc.classifiers.common.PredictionCache;
+import put.mlc.classifiers.pcc.inference.depthfirst.ExactInference;
+import put.mlc.classifiers.pcc.inference.montecarlo.MarginalModesInference;
+import weka.core.Instances;
+
+/**
+ * Invalidation of the predictions of {@link PCC} cached in
+ * {@link PredictionCache}.
+ */
+public class PredictionCacheTest {
+
+	private static Instances test;
+
+	private static PCC trained;
+
+	private MarginalModesInference inference;
+
+	@BeforeClass
+	public static void trainModel() throws Exception {
+		MultiLabelInstances data = TrainedModels.emotions();
+		test = TrainedModels.part(data, 400, data.getNumInstances() - 400).getDataSet();
+		trained = TrainedModels.maxEnt(TrainedModels.part(data, 0, 400));
+	}
+
+	@Before
+	public void setCache() {
+		inference = new MarginalModesInference(1, 1);
+		trained.setInference(inference);
+		trained.setPredictionCache(new PredictionCache(1024));
+	}
+
+	@Test
+	public void repeatedInstancesAreHits() throws Exception {
+		boolean[][] first = predict(trained);
+		assertEquals(test.numInstances(), trained.getPredictionCache().getMisses());
+		assertTrue(Arrays.deepEquals(first, predict(trained)));
+		assertEquals(test.numInstances(), trained.getPredictionCache().getHits());
+	}
+
+	@Test
+	public void numberOfSimulationsInvalidatesCache() throws Exception {
+		boolean[][] before = predict(trained);
+		inference.setNumOfSimulations(500);
+		assertReconfigured(before);
+	}
+
+	@Test
+	public void seedInvalidatesCache() throws Exception {
+		boolean[][] before = predict(trained);
+		inference.setSeed(7);
+		assertReconfigured(before);
+	}
+
+	@Test
+	public void thresholdInvalidatesCache() throws Exception {
+		ExactInference exact = new ExactInference();
+		trained.setInference(exact);
+		boolean[][] before = predict(trained);
+		exact.setMax(0.9);
+		assertReconfigured(before);
+	}
+
+	@Test
+	public void newInferenceInvalidatesCache() throws Exception {
+		boolean[][] before = predict(trained);
+		trained.setInference(new MarginalModesInference(500, 1));
+		assertReconfigured(before);
+	}
+
+	/**
+	 * Checks that the cached predictions are the ones of the new
+	 * configuration, which differ from the ones of the old configuration.
+	 */
+	private void assertReconfigured(boolean[][] before) throws Exception {
+		boolean[][] cached = predict(trained);
+		PredictionCache cache = trained.getPredictionCache();
+		trained.setPredictionCache(null);
+		boolean[][] computed = predict(trained);
+		trained.setPredictionCache(cache);
+
+		for (int n = 0; n < computed.length; n++) {
+			assertArrayEquals("instance " + n, computed[n], cached[n]);
+		}
+		assertTrue(!Arrays.deepEquals(before, computed));
+	}
+
+	private static boolean[][] predict(PCC pcc) throws Exception {
+		boolean[][] bipartitions = new boolean[test.numInstances()][];
+		for (int n = 0; n < bipartitions.length; n++) {
+			MultiLabelOutput output = pcc.makePrediction(test.instance(n));
+			bipartitions[n] = output.getBipartition();
+		}
+		return bipartitions;
+	}
+}
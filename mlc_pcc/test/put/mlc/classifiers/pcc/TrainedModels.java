@@ -0,0 +1,55 @@
+package put.mlc.classifiers.pcc;
+
+import mulan.data.MultiLabelInstances;
+import put.mlc.classifiers.common.MalletClassifier;
+import weka.core.Instances;
+import cc.mallet.classify.MaxEntTrainer;
+
+/**
+ * Small data sets and models shared by the tests.
+ */
+public final class TrainedModels {
+
+	private static final String EMOTIONS = "lib/mulan-1.4.0/data/emotions";
+
+	private TrainedModels() {
+	}
+
+	/**
+	 * @return the emotions data set distributed with Mulan
+	 * @throws Exception
+	 */
+	public static MultiLabelInstances emotions() throws Exception {
+		return new MultiLabelInstances(EMOTIONS + ".arff", EMOTIONS + ".xml");
+	}
+
+	/**
+	 * @param data a data set
+	 * @param from index of the first instance
+	 * @param length number of instances
+	 * @return a part of the data set
+	 * @throws Exception
+	 */
+	public static MultiLabelInstances part(MultiLabelInstances data, int from, int length)
+			throws Exception {
+		Instances instances = new Instances(data.getDataSet(), from, length);
+		return new MultiLabelInstances(instances, data.getLabelsMetaData());
+	}
+
+	/**
+	 * Trains PCC with MaxEnt links, which can be written as a
+	 * {@link CompactModel}.
+	 *
+	 * @param train the training data set
+	 * @return the trained model
+	 * @throws Exception
+	 */
+	public static PCC maxEnt(MultiLabelInstances train) throws Exception {
+		MaxEntTrainer maxEntTrainer = new MaxEntTrainer();
+		maxEntTrainer.setGaussianPriorVariance(1.0);
+		PCC pcc = new PCC();
+		pcc.setBaseClassifier(new MalletClassifier(maxEntTrainer));
+		pcc.build(train);
+		return pcc;
+	}
+}
@@ -0,0 +1,75 @@
+package put.mlc.classifiers.pcc.inference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import mulan.data.MultiLabelInstances;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import put.mlc.classifiers.pcc.PCC;
+import put.mlc.classifiers.pcc.TrainedModels;
+import put.mlc.classifiers.pcc.inference.beamsearch.BeamSearchInference;
+import put.mlc.classifiers.pcc.inference.common.InferenceMetrics;
+import put.mlc.classifiers.pcc.inference.depthfirst.ExactInference;
+import put.mlc.utils.LatencyHistogram;
+import weka.core.Instances;
+
+/**
+ * Costs of the instances of a block recorded in {@link InferenceMetrics},
+ * compared with the ones of the instances classified one by one.
+ */
+public class InferenceMetricsTest {
+
+	private static Instances test;
+
+	private static PCC trained;
+
+	@BeforeClass
+	public static void trainModel() throws Exception {
+		MultiLabelInstances data = TrainedModels.emotions();
+		test = TrainedModels.part(data, 400, data.getNumInstances() - 400).getDataSet();
+		trained = TrainedModels.maxEnt(TrainedModels.part(data, 0, 400));
+	}
+
+	@Test
+	public void instancesOfBlockHaveTheirOwnCounters() throws Exception {
+		for (Inference inference : new Inference[] { new ExactInference(),
+				new BeamSearchInference(3) }) {
+			trained.setInference(inference);
+			InferenceMetrics metrics = inference.getMetrics();
+
+			InferenceMetrics start = metrics.snapshot();
+			for (int n = 0; n < test.numInstances(); n++) {
+				trained.makePrediction(test.instance(n));
+			}
+			InferenceMetrics single = metrics.since(start);
+
+			start = metrics.snapshot();
+			long blockStart = System.nanoTime();
+			trained.predictBatch(test);
+			long blockNanos = System.nanoTime() - blockStart;
+			InferenceMetrics batch = metrics.since(start);
+
+			String name = inference.getName();
+			assertSameHistograms(name, single.getClassifierCalls(), batch.getClassifierCalls());
+			assertSameHistograms(name, single.getNodesExpanded(), batch.getNodesExpanded());
+			assertSameHistograms(name, single.getNodesPruned(), batch.getNodesPruned());
+			assertSameHistograms(name, single.getPeakFrontier(), batch.getPeakFrontier());
+
+			// the wall time of the block is divided between its instances
+			assertEquals(name, test.numInstances(), batch.getWallTime().getCount());
+			assertTrue(name, batch.getWallTime().getSum() <= blockNanos);
+		}
+	}
+
+	private static void assertSameHistograms(String name, LatencyHistogram expected,
+			LatencyHistogram actual) {
+		assertEquals(name, expected.getCount(), actual.getCount());
+		assertEquals(name, expected.getSum(), actual.getSum());
+		assertEquals(name, expected.getMax(), actual.getMax());
+		assertEquals(name, expected.getPercentile(50), actual.getPercentile(50));
+		assertEquals(name, expected.getPercentile(90), actual.getPercentile(90));
+	}
+}
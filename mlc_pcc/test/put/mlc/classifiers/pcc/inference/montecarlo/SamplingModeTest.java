@@ -0,0 +1,79 @@
+package put.mlc.classifiers.pcc.inference.montecarlo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import put.mlc.classifiers.pcc.inference.montecarlo.SamplingMode.Uniforms;
+
+/**
+ * Uniform numbers drawn on the fly by {@link SamplingMode}, compared with
+ * the ones drawn beforehand, simulation by simulation.
+ */
+public class SamplingModeTest {
+
+	private static final int SIMULATIONS = 100;
+
+	private static final int LABELS = 7;
+
+	@Test
+	public void randomNumbersAreThoseOfRandom() {
+		for (long seed : new long[] { 0, 1, -5, 123456789L }) {
+			assertSameNumbers(drawn(seed, 0),
+					SamplingMode.RANDOM.generate(SIMULATIONS, LABELS, 0, seed));
+		}
+	}
+
+	@Test
+	public void stratifiedNumbersAreThoseOfRandom() {
+		for (int stratifiedLinks : new int[] { 0, 3, LABELS + 1 }) {
+			assertSameNumbers(drawn(7, stratifiedLinks),
+					SamplingMode.STRATIFIED.generate(SIMULATIONS, LABELS, stratifiedLinks, 7));
+		}
+	}
+
+	/**
+	 * Reads the numbers position by position along the chain, as the
+	 * sampling does.
+	 */
+	private static void assertSameNumbers(double[][] expected, Uniforms uniforms) {
+		for (int i = 0; i < LABELS; i++) {
+			for (int s = 0; s < SIMULATIONS; s++) {
+				assertEquals("simulation " + s + ", position " + i, expected[s][i],
+						uniforms.get(s, i), 0.0);
+			}
+		}
+	}
+
+	/**
+	 * Draws the numbers of all simulations beforehand and stratifies the
+	 * first positions.
+	 */
+	private static double[][] drawn(long seed, int stratifiedLinks) {
+		Random random = new Random(seed);
+		double[][] uniforms = new double[SIMULATIONS][LABELS];
+		for (int s = 0; s < SIMULATIONS; s++) {
+			for (int i = 0; i < LABELS; i++) {
+				uniforms[s][i] = random.nextDouble();
+			}
+		}
+		int[] strata = new int[SIMULATIONS];
+		for (int i = 0; i < Math.min(stratifiedLinks, LABELS); i++) {
+			for (int s = 0; s < SIMULATIONS; s++) {
+				strata[s] = s;
+			}
+			for (int s = SIMULATIONS - 1; s > 0; s--) {
+				int k = random.nextInt(s + 1);
+				int temp = strata[s];
+				strata[s] = strata[k];
+				strata[k] = temp;
+			}
+			for (int s = 0; s < SIMULATIONS; s++) {
+				uniforms[s][i] = (strata[s] + uniforms[s][i]) / SIMULATIONS;
+			}
+		}
+		return uniforms;
+	}
+}
@@ -0,0 +1,76 @@
+package put.mlc.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import mulan.data.MultiLabelInstances;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import weka.core.Instances;
+
+/**
+ * Round trip of {@link ColumnarFormat} and {@link ColumnarDataset}.
+ */
+public class ColumnarFormatTest {
+
+	static final String EMOTIONS = "lib/mulan-1.4.0/data/emotions";
+
+	private static MultiLabelInstances data;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void loadData() throws Exception {
+		data = new MultiLabelInstances(EMOTIONS + ".arff", EMOTIONS + ".xml");
+	}
+
+	@Test
+	public void roundTripKeepsInstances() throws Exception {
+		File file = folder.newFile("emotions" + ColumnarFormat.EXTENSION);
+		ColumnarFormat.write(data, file);
+
+		ColumnarDataset dataset = ColumnarDataset.open(file);
+		assertEquals(data.getNumInstances(), dataset.getNumInstances());
+		assertEquals(data.getNumLabels(), dataset.getNumLabels());
+		assertArrayEquals(data.getLabelIndices(), dataset.getLabelIndices());
+		assertEquals(data.getDataSet().numAttributes(), dataset.getHeader().numAttributes());
+
+		assertSameInstances(data.getDataSet(), dataset.toMultiLabelInstances().getDataSet());
+	}
+
+	@Test
+	public void rewriteDoesNotAffectMappedDataset() throws Exception {
+		File file = folder.newFile("emotions" + ColumnarFormat.EXTENSION);
+		ColumnarFormat.write(data, file);
+		ColumnarDataset mapped = ColumnarDataset.open(file);
+
+		// a smaller data set written over the mapped file
+		Instances head = new Instances(data.getDataSet(), 0, 10);
+		ColumnarFormat.write(new MultiLabelInstances(head, data.getLabelsMetaData()), file);
+
+		int last = data.getNumInstances() - 1;
+		assertEquals(data.getNumInstances(), mapped.getNumInstances());
+		assertArrayEquals(data.getDataSet().instance(last).toDoubleArray(),
+				mapped.instance(last).toDoubleArray(), 0.0);
+		assertEquals(10, ColumnarDataset.open(file).getNumInstances());
+
+		// no temporary files are left
+		assertEquals(1, folder.getRoot().list().length);
+	}
+
+	static void assertSameInstances(Instances expected, Instances actual) {
+		assertEquals(expected.numInstances(), actual.numInstances());
+		for (int n = 0; n < expected.numInstances(); n++) {
+			assertArrayEquals("instance " + n, expected.instance(n).toDoubleArray(),
+					actual.instance(n).toDoubleArray(), 0.0);
+			assertEquals(expected.instance(n).weight(), actual.instance(n).weight(), 0.0);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package put.mlc.data;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import mulan.data.MultiLabelInstances;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import weka.core.Instances;
+
+/**
+ * Partition of {@link CrossValidationFolds} compared with the one of
+ * mulan.evaluation.Evaluator.
+ */
+public class CrossValidationFoldsTest {
+
+	private static MultiLabelInstances data;
+
+	@BeforeClass
+	public static void loadData() throws Exception {
+		data = new MultiLabelInstances(ColumnarFormatTest.EMOTIONS + ".arff",
+				ColumnarFormatTest.EMOTIONS + ".xml");
+	}
+
+	@Test
+	public void foldsAreThoseOfMulan() throws Exception {
+		for (int seed : new int[] { 1, 7 }) {
+			for (int numFolds : new int[] { 3, 10 }) {
+				CrossValidationFolds folds = new CrossValidationFolds(data, numFolds, seed);
+
+				// the sequence of Evaluator.innerCrossValidate in Mulan 1.4
+				Instances workingSet = new Instances(data.getDataSet());
+				workingSet.randomize(new Random(seed));
+				for (int i = 0; i < numFolds; i++) {
+					ColumnarFormatTest.assertSameInstances(workingSet.trainCV(numFolds, i),
+							folds.getTrain(i).getDataSet());
+					ColumnarFormatTest.assertSameInstances(workingSet.testCV(numFolds, i),
+							folds.getTest(i).getDataSet());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void foldsCoverEachInstanceOnce() {
+		CrossValidationFolds folds = new CrossValidationFolds(data, 10, 1);
+		int[] tested = new int[data.getNumInstances()];
+		for (int i = 0; i < folds.getNumFolds(); i++) {
+			int[] test = folds.getTestIndices(i);
+			assertEquals(data.getNumInstances() - test.length, folds.getTrainIndices(i).length);
+			for (int index : test) {
+				tested[index]++;
+			}
+		}
+		for (int index = 0; index < tested.length; index++) {
+			assertEquals("instance " + index, 1, tested[index]);
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package put.mlc.data;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import mulan.data.MultiLabelInstances;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Data sets kept in {@link DatasetRegistry} while they are acquired.
+ */
+public class DatasetRegistryTest {
+
+	private static final String ARFF = ColumnarFormatTest.EMOTIONS + ".arff";
+
+	private static final String XML = ColumnarFormatTest.EMOTIONS + ".xml";
+
+	@After
+	public void clear() {
+		DatasetRegistry.clear();
+	}
+
+	@Test
+	public void acquiredDataSetIsKeptUntilLastRelease() throws Exception {
+		DatasetRegistry.acquire(ARFF, XML);
+		DatasetRegistry.acquire(ARFF, XML);
+		MultiLabelInstances shared = DatasetRegistry.getShared(ARFF, XML);
+		CrossValidationFolds folds = DatasetRegistry.getFolds(ARFF, XML, 5, 1);
+
+		DatasetRegistry.release(ARFF, XML);
+		assertSame(shared, DatasetRegistry.getShared(ARFF, XML));
+		assertSame(folds, DatasetRegistry.getFolds(ARFF, XML, 5, 1));
+
+		DatasetRegistry.release(ARFF, XML);
+		assertNotSame(shared, DatasetRegistry.getShared(ARFF, XML));
+		assertNotSame(folds, DatasetRegistry.getFolds(ARFF, XML, 5, 1));
+	}
+
+	@Test
+	public void copyOfAcquiredDataSetIsTakenFromSharedOne() throws Exception {
+		DatasetRegistry.acquire(ARFF, XML);
+		try {
+			MultiLabelInstances copy = DatasetRegistry.get(ARFF, XML);
+			MultiLabelInstances shared = DatasetRegistry.getShared(ARFF, XML);
+			assertNotSame(shared, copy);
+			ColumnarFormatTest.assertSameInstances(shared.getDataSet(), copy.getDataSet());
+		} finally {
+			DatasetRegistry.release(ARFF, XML);
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void releaseWithoutAcquireFails() {
+		DatasetRegistry.release(ARFF, XML);
+	}
+}
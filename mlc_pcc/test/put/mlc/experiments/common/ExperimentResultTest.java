@@ -0,0 +1,51 @@
+package put.mlc.experiments.common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import put.mlc.utils.LatencyHistogram;
+
+/**
+ * Columns of {@link ExperimentResult#toCSVString()}.
+ */
+public class ExperimentResultTest {
+
+	@Test
+	public void rowsHaveSameColumns() {
+		ExperimentResult unknown = result();
+
+		ExperimentResult known = result();
+		LatencyHistogram latency = new LatencyHistogram();
+		latency.record(2000000L, 4);
+		known.setLatency(latency);
+		LatencyHistogram blockLatency = new LatencyHistogram();
+		blockLatency.record(2000000L);
+		known.setBlockLatency(blockLatency);
+		known.setThroughput(2000);
+		known.setLinkTrainingTimes(new long[] { 1000000L, 3000000L, 2000000L });
+
+		String[] unknownColumns = unknown.toCSVString().split("\t");
+		String[] knownColumns = known.toCSVString().split("\t");
+		assertEquals(unknownColumns.length, knownColumns.length);
+
+		// the total and maximum training time of the links are the last columns
+		int last = knownColumns.length - 1;
+		assertEquals(6.0, Double.parseDouble(knownColumns[last - 1].replace(',', '.')), 1e-9);
+		assertEquals(3.0, Double.parseDouble(knownColumns[last].replace(',', '.')), 1e-9);
+		assertEquals(0.0, Double.parseDouble(unknownColumns[last].replace(',', '.')), 1e-9);
+	}
+
+	private static ExperimentResult result() {
+		ExperimentResult result = new ExperimentResult();
+		Map<String, Double> measures = new HashMap<String, Double>();
+		measures.put("Hamming Loss", 0.25);
+		result.setResultsForMeasures(measures);
+		result.setTrainingTime(10);
+		result.setTestingTime(5);
+		return result;
+	}
+}
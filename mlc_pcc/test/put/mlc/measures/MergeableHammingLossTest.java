@@ -0,0 +1,55 @@
+package put.mlc.measures;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import mulan.classifier.MultiLabelOutput;
+import mulan.evaluation.measure.HammingLoss;
+
+import org.junit.Test;
+
+/**
+ * Copies of {@link MergeableHammingLoss} merged in different orders,
+ * compared with mulan.evaluation.measure.HammingLoss.
+ */
+public class MergeableHammingLossTest {
+
+	private static final int INSTANCES = 1000;
+
+	private static final int LABELS = 7;
+
+	private static final int PARTS = 4;
+
+	@Test
+	public void valueDoesNotDependOnOrderOfMerging() {
+		Random random = new Random(1);
+		boolean[][] predicted = new boolean[INSTANCES][LABELS];
+		boolean[][] truth = new boolean[INSTANCES][LABELS];
+		for (int n = 0; n < INSTANCES; n++) {
+			for (int j = 0; j < LABELS; j++) {
+				predicted[n][j] = random.nextBoolean();
+				truth[n][j] = random.nextBoolean();
+			}
+		}
+
+		HammingLoss mulan = new HammingLoss();
+		MergeableHammingLoss[] parts = new MergeableHammingLoss[PARTS];
+		for (int p = 0; p < PARTS; p++) {
+			parts[p] = new MergeableHammingLoss();
+		}
+		for (int n = 0; n < INSTANCES; n++) {
+			mulan.update(new MultiLabelOutput(predicted[n]), truth[n]);
+			parts[n % PARTS].update(new MultiLabelOutput(predicted[n]), truth[n]);
+		}
+
+		MergeableHammingLoss forward = new MergeableHammingLoss();
+		MergeableHammingLoss backward = new MergeableHammingLoss();
+		for (int p = 0; p < PARTS; p++) {
+			forward.merge(parts[p]);
+			backward.merge(parts[PARTS - 1 - p]);
+		}
+		assertEquals(forward.getValue(), backward.getValue(), 0.0);
+		assertEquals(mulan.getValue(), forward.getValue(), 1e-12);
+	}
+}
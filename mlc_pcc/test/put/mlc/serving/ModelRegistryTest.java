@@ -0,0 +1,113 @@
+package put.mlc.serving;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import mulan.classifier.MultiLabelLearner;
+import mulan.data.MultiLabelInstances;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import put.mlc.classifiers.pcc.CompactModel;
+import put.mlc.classifiers.pcc.PCC;
+import put.mlc.classifiers.pcc.TrainedModels;
+import weka.core.Instances;
+
+/**
+ * Swaps of the models in {@link ModelRegistry} and the memory estimated by
+ * {@link ModelSource}.
+ */
+public class ModelRegistryTest {
+
+	private static MultiLabelInstances test;
+
+	private static PCC trained;
+
+	private static PCC retrained;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void trainModels() throws Exception {
+		MultiLabelInstances data = TrainedModels.emotions();
+		test = TrainedModels.part(data, 400, data.getNumInstances() - 400);
+		trained = TrainedModels.maxEnt(TrainedModels.part(data, 0, 400));
+		retrained = TrainedModels.maxEnt(TrainedModels.part(data, 0, 200));
+	}
+
+	@Test
+	public void swapPublishesNewModel() throws Exception {
+		File first = folder.newFile("first" + CompactModel.EXTENSION);
+		File second = folder.newFile("second" + CompactModel.EXTENSION);
+		CompactModel.write(trained, first);
+		CompactModel.write(retrained, second);
+
+		ModelRegistry registry = new ModelRegistry(Long.MAX_VALUE);
+		registry.register("emotions", ModelSource.compact(first));
+		MultiLabelLearner old = registry.get("emotions");
+		assertSame(old, registry.get("emotions"));
+
+		ModelSource source = ModelSource.compact(second);
+		registry.swap("emotions", source);
+		MultiLabelLearner swapped = registry.get("emotions");
+		assertNotSame(old, swapped);
+		assertEquals(1, registry.getSwaps());
+		assertEquals(source.estimateMemory(), registry.getUsedMemory());
+		assertSamePredictions(retrained, swapped, test.getDataSet());
+
+		// the swapped model is reloaded from the new source after an eviction
+		assertTrue(registry.evict("emotions"));
+		assertSamePredictions(retrained, registry.get("emotions"), test.getDataSet());
+	}
+
+	@Test
+	public void swappedModelKeepsReplacedFile() throws Exception {
+		File first = folder.newFile("first" + CompactModel.EXTENSION);
+		File second = folder.newFile("second" + CompactModel.EXTENSION);
+		CompactModel.write(trained, first);
+		CompactModel.write(retrained, second);
+
+		ModelRegistry registry = new ModelRegistry(Long.MAX_VALUE);
+		registry.register("emotions", ModelSource.compact(first));
+		// a prediction in progress holds the old model, its links are not read yet
+		MultiLabelLearner inFlight = registry.get("emotions");
+		registry.swap("emotions", ModelSource.compact(second));
+
+		// the old file is replaced by a rename after the swap
+		CompactModel.write(retrained, first);
+		assertEquals(ModelSource.compact(second).estimateMemory(), registry.getUsedMemory());
+		assertSamePredictions(trained, inFlight, test.getDataSet());
+	}
+
+	@Test
+	public void memoryOfFloatsIsMemoryOfDoubles() throws Exception {
+		File doubles = folder.newFile("doubles" + CompactModel.EXTENSION);
+		File floats = folder.newFile("floats" + CompactModel.EXTENSION);
+		CompactModel.write(trained, doubles, false);
+		CompactModel.write(trained, floats, true);
+
+		long memory = ModelSource.compact(doubles).estimateMemory();
+		assertEquals(memory, ModelSource.compact(floats).estimateMemory());
+		// the links of the file with doubles take the same memory as its blocks
+		assertEquals(doubles.length(), memory, 1024);
+		assertTrue(memory > 3 * floats.length() / 2);
+	}
+
+	private static void assertSamePredictions(MultiLabelLearner expected,
+			MultiLabelLearner actual, Instances instances) throws Exception {
+		for (int n = 0; n < instances.numInstances(); n++) {
+			assertArrayEquals("instance " + n,
+					expected.makePrediction(instances.instance(n)).getBipartition(),
+					actual.makePrediction(instances.instance(n)).getBipartition());
+		}
+	}
+}
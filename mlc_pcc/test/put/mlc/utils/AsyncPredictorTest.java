@@ -0,0 +1,113 @@
+package put.mlc.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mulan.classifier.MultiLabelLearner;
+import mulan.classifier.MultiLabelOutput;
+import mulan.data.MultiLabelInstances;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import weka.core.Instance;
+
+/**
+ * Scheduling of the predictions by {@link AsyncPredictor}.
+ */
+public class AsyncPredictorTest {
+
+	private int parallelism;
+
+	@Before
+	public void setParallelism() {
+		parallelism = ParallelExecutor.getParallelism();
+		// a thread for each permit, even on one processor
+		ParallelExecutor.setParallelism(2);
+	}
+
+	@After
+	public void restoreParallelism() {
+		ParallelExecutor.setParallelism(parallelism);
+		AsyncPredictor.setMaxRunning(parallelism);
+	}
+
+	@Test
+	public void busyLearnerDoesNotTakeAllPermits() throws Exception {
+		AsyncPredictor.setMaxRunning(2);
+		CountDownLatch open = new CountDownLatch(1);
+		BlockingLearner busy = new BlockingLearner(open);
+		BlockingLearner idle = new BlockingLearner(null);
+
+		List<Future<MultiLabelOutput>> waiting = new ArrayList<Future<MultiLabelOutput>>();
+		for (int n = 0; n < 4; n++) {
+			waiting.add(AsyncPredictor.submit(busy, null));
+		}
+		// the predictions of the busy learner wait in its lane, not for a permit
+		assertNotNull(AsyncPredictor.submit(idle, null).get(10, TimeUnit.SECONDS));
+
+		open.countDown();
+		for (Future<MultiLabelOutput> future : waiting) {
+			assertNotNull(future.get(10, TimeUnit.SECONDS));
+		}
+		assertEquals(1, busy.maxConcurrent.get());
+	}
+
+	/**
+	 * A learner which is not thread-safe, blocked until the latch is open.
+	 */
+	private static class BlockingLearner implements MultiLabelLearner {
+
+		private final CountDownLatch open;
+
+		private final AtomicInteger running = new AtomicInteger();
+
+		final AtomicInteger maxConcurrent = new AtomicInteger();
+
+		BlockingLearner(CountDownLatch open) {
+			this.open = open;
+		}
+
+		@Override
+		public MultiLabelOutput makePrediction(Instance instance) throws Exception {
+			int concurrent = running.incrementAndGet();
+			if (concurrent > maxConcurrent.get()) {
+				maxConcurrent.set(concurrent);
+			}
+			try {
+				if (open != null) {
+					open.await();
+				}
+				return new MultiLabelOutput(new boolean[] { true });
+			} finally {
+				running.decrementAndGet();
+			}
+		}
+
+		@Override
+		public boolean isUpdatable() {
+			return false;
+		}
+
+		@Override
+		public void build(MultiLabelInstances instances) {
+		}
+
+		@Override
+		public MultiLabelLearner makeCopy() {
+			return this;
+		}
+
+		@Override
+		public void setDebug(boolean debug) {
+		}
+	}
+}
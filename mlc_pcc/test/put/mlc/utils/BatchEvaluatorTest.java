@@ -0,0 +1,133 @@
+package put.mlc.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import mulan.classifier.MultiLabelLearner;
+import mulan.classifier.MultiLabelOutput;
+import mulan.data.MultiLabelInstances;
+import mulan.evaluation.measure.HammingLoss;
+import mulan.evaluation.measure.Measure;
+
+import org.junit.Test;
+
+import put.mlc.classifiers.common.BatchMultiLabelLearner;
+import put.mlc.classifiers.pcc.PCC;
+import put.mlc.classifiers.pcc.TrainedModels;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Timing of the predictions made in blocks by {@link BatchEvaluator}.
+ */
+public class BatchEvaluatorTest {
+
+	private static final String EMOTIONS = "lib/mulan-1.4.0/data/emotions";
+
+	private static final long INSTANCE_NANOS = 5000000L;
+
+	@Test
+	public void instancesOfBlockHaveTheirOwnTime() throws Exception {
+		MultiLabelInstances test = head(20);
+		BatchEvaluator evaluator = new BatchEvaluator();
+		evaluator.setBlockSize(4);
+		evaluator.evaluate(new SleepingLearner(test.getNumLabels()), test, hammingLoss());
+
+		LatencyHistogram latency = evaluator.getLatency();
+		LatencyHistogram blockLatency = evaluator.getBlockLatency();
+		assertEquals(20, latency.getCount());
+		assertEquals(5, blockLatency.getCount());
+		// each instance is recorded with its own time, not the one of its block
+		assertTrue(latency.getPercentile(50) >= INSTANCE_NANOS * 63 / 64);
+		assertTrue(latency.getPercentile(50) < 4 * INSTANCE_NANOS * 63 / 64);
+		assertTrue(blockLatency.getPercentile(50) >= 4 * INSTANCE_NANOS * 63 / 64);
+	}
+
+	@Test
+	public void instancesOfPccBlockHaveTimeOfTheirInference() throws Exception {
+		MultiLabelInstances data = TrainedModels.emotions();
+		PCC trained = TrainedModels.maxEnt(TrainedModels.part(data, 0, 400));
+		MultiLabelInstances test = TrainedModels.part(data, 400, data.getNumInstances() - 400);
+
+		BatchEvaluator evaluator = new BatchEvaluator();
+		evaluator.evaluate(trained, test, hammingLoss());
+
+		LatencyHistogram latency = evaluator.getLatency();
+		LatencyHistogram blockLatency = evaluator.getBlockLatency();
+		assertEquals(test.getNumInstances(), latency.getCount());
+		assertEquals(1, blockLatency.getCount());
+		assertTrue(latency.getSum() <= blockLatency.getSum());
+		assertTrue(latency.getMax() < blockLatency.getMax());
+	}
+
+	/**
+	 * @return the first instances of the emotions data set
+	 */
+	static MultiLabelInstances head(int length) throws Exception {
+		MultiLabelInstances data = new MultiLabelInstances(EMOTIONS + ".arff", EMOTIONS + ".xml");
+		Instances head = new Instances(data.getDataSet(), 0, length);
+		return new MultiLabelInstances(head, data.getLabelsMetaData());
+	}
+
+	static List<Measure> hammingLoss() {
+		List<Measure> measures = new ArrayList<Measure>();
+		measures.add(new HammingLoss());
+		return measures;
+	}
+
+	/**
+	 * A learner predicting each instance in a constant time.
+	 */
+	static class SleepingLearner implements MultiLabelLearner, BatchMultiLabelLearner {
+
+		private final int numLabels;
+
+		SleepingLearner(int numLabels) {
+			this.numLabels = numLabels;
+		}
+
+		@Override
+		public MultiLabelOutput[] predictBatch(Instance[] instances, int length) throws Exception {
+			return predictBatch(instances, length, new long[length]);
+		}
+
+		@Override
+		public MultiLabelOutput[] predictBatch(Instance[] instances, int length, long[] nanos)
+				throws Exception {
+			MultiLabelOutput[] outputs = new MultiLabelOutput[length];
+			for (int n = 0; n < length; n++) {
+				long start = System.nanoTime();
+				outputs[n] = makePrediction(instances[n]);
+				nanos[n] = System.nanoTime() - start;
+			}
+			return outputs;
+		}
+
+		@Override
+		public MultiLabelOutput makePrediction(Instance instance) throws InterruptedException {
+			Thread.sleep(INSTANCE_NANOS / 1000000L);
+			return new MultiLabelOutput(new boolean[numLabels]);
+		}
+
+		@Override
+		public boolean isUpdatable() {
+			return false;
+		}
+
+		@Override
+		public void build(MultiLabelInstances instances) {
+		}
+
+		@Override
+		public MultiLabelLearner makeCopy() {
+			return this;
+		}
+
+		@Override
+		public void setDebug(boolean debug) {
+		}
+	}
+}
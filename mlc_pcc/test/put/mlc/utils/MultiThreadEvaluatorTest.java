@@ -0,0 +1,31 @@
+package put.mlc.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import mulan.data.MultiLabelInstances;
+
+import org.junit.Test;
+
+import put.mlc.utils.BatchEvaluatorTest.SleepingLearner;
+
+/**
+ * Timing of the predictions of the folds of cross-validation made by
+ * {@link MultiThreadEvaluator}.
+ */
+public class MultiThreadEvaluatorTest {
+
+	@Test
+	public void crossValidationRecordsItsOwnFolds() throws Exception {
+		MultiLabelInstances data = BatchEvaluatorTest.head(20);
+		MultiThreadEvaluator evaluator = new MultiThreadEvaluator();
+		SleepingLearner learner = new SleepingLearner(data.getNumLabels());
+		for (int run = 0; run < 2; run++) {
+			evaluator.crossValidate(learner, data, BatchEvaluatorTest.hammingLoss(), 4);
+
+			// each instance is tested once in each cross-validation
+			assertEquals(20, evaluator.getLatency().getCount());
+			assertTrue(evaluator.getThroughput() > 0);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package put.mlc.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Changes of the parallelism of {@link ParallelExecutor} while its pool is
+ * used.
+ */
+public class ParallelExecutorTest {
+
+	private int parallelism;
+
+	@Before
+	public void saveParallelism() {
+		parallelism = ParallelExecutor.getParallelism();
+	}
+
+	@After
+	public void restoreParallelism() {
+		ParallelExecutor.setParallelism(parallelism);
+	}
+
+	@Test
+	public void replacedPoolAcceptsTasks() throws Exception {
+		ParallelExecutor.setParallelism(2);
+		ForkJoinPool old = ParallelExecutor.getPool();
+		ParallelExecutor.setParallelism(3);
+		assertNotSame(old, ParallelExecutor.getPool());
+
+		// a component which has taken the pool before still submits to it
+		final CountDownLatch done = new CountDownLatch(1);
+		old.execute(new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void runningTasksForkAfterChange() throws Exception {
+		ParallelExecutor.setParallelism(2);
+		List<Callable<Integer>> outer = new ArrayList<Callable<Integer>>();
+		for (int n = 0; n < 4; n++) {
+			final int value = n;
+			outer.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					ParallelExecutor.setParallelism(2 + value % 2);
+					assertTrue(ParallelExecutor.inPool());
+					List<Callable<Integer>> inner = new ArrayList<Callable<Integer>>();
+					for (int k = 0; k < 4; k++) {
+						inner.add(new Callable<Integer>() {
+							@Override
+							public Integer call() {
+								return value;
+							}
+						});
+					}
+					int sum = 0;
+					for (int result : ParallelExecutor.invokeAll(inner)) {
+						sum += result;
+					}
+					return sum;
+				}
+			});
+		}
+		List<Integer> results = ParallelExecutor.invokeAll(outer);
+		for (int n = 0; n < results.size(); n++) {
+			assertEquals(4 * n, (int) results.get(n));
+		}
+	}
+}
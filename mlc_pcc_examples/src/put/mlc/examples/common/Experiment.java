@@ -4,13 +4,13 @@ import java.util.ArrayList;
 import java.util.List;
 
 import put.mlc.measures.InstanceBasedFMeasure;
+import put.mlc.measures.MergeableHammingLoss;
+import put.mlc.measures.MergeableMacroFMeasure;
+import put.mlc.measures.MergeableMicroFMeasure;
 import put.mlc.measures.ZeroOneLossMeasure;
 
 import mulan.evaluation.Evaluation;
-import mulan.evaluation.measure.HammingLoss;
-import mulan.evaluation.measure.MacroFMeasure;
 import mulan.evaluation.measure.Measure;
-import mulan.evaluation.measure.MicroFMeasure;
 
 /**
  * This class shows you how you can implement your own experiment
@@ -48,11 +48,11 @@ public abstract class Experiment {
 	
 	public void initMeasures(int numOfLabels) {
 		this.measures = new ArrayList<Measure>();
-		this.measures.add(new HammingLoss());
+		this.measures.add(new MergeableHammingLoss());
 		this.measures.add(new ZeroOneLossMeasure());
 		this.measures.add(new InstanceBasedFMeasure());
-		this.measures.add(new MicroFMeasure(numOfLabels));
-		this.measures.add(new MacroFMeasure(numOfLabels));
+		this.measures.add(new MergeableMicroFMeasure(numOfLabels));
+		this.measures.add(new MergeableMacroFMeasure(numOfLabels));
 	}
 	
 	public String resultToString(Evaluation result, long trainingTime, long testingTime) {
@@ -9,6 +9,7 @@ import cc.mallet.classify.MaxEntTrainer;
 import put.mlc.classifiers.br.LFP;
 import put.mlc.classifiers.common.MalletClassifier;
 import put.mlc.classifiers.efp.EFP;
+import put.mlc.data.DatasetRegistry;
 import put.mlc.examples.common.Experiment;
 import put.mlc.measures.InstanceBasedFMeasure;
 import put.mlc.utils.MultiThreadEvaluator;
@@ -38,7 +39,7 @@ public class CVExperiment extends Experiment {
 
 	private MultipleEvaluation crossValidation(String dataset, double variance) throws Exception {
 		
-		MultiLabelInstances trainSet = new MultiLabelInstances(dataset + "-train.arff", dataset + ".xml");
+		MultiLabelInstances trainSet = DatasetRegistry.get(dataset + "-train.arff", dataset + ".xml");
 		
 		MaxEntTrainer maxEntTrainer = new MaxEntTrainer();
 		maxEntTrainer.setGaussianPriorVariance(variance);
@@ -59,8 +60,8 @@ public class CVExperiment extends Experiment {
 	
 	private Evaluation singleEvaluation(String dataset, double variance) throws Exception {
 		
-		MultiLabelInstances trainSet = new MultiLabelInstances(dataset + "-train.arff", dataset + ".xml");
-		MultiLabelInstances testSet = new MultiLabelInstances(dataset + "-test.arff", dataset + ".xml");
+		MultiLabelInstances trainSet = DatasetRegistry.get(dataset + "-train.arff", dataset + ".xml");
+		MultiLabelInstances testSet = DatasetRegistry.get(dataset + "-test.arff", dataset + ".xml");
 		
 		MaxEntTrainer maxEntTrainer = new MaxEntTrainer();
 		maxEntTrainer.setGaussianPriorVariance(variance);
@@ -8,6 +8,7 @@ import mulan.evaluation.MultipleEvaluation;
 import cc.mallet.classify.MaxEntTrainer;
 import put.mlc.classifiers.br.LFP;
 import put.mlc.classifiers.common.MalletClassifier;
+import put.mlc.data.DatasetRegistry;
 import put.mlc.examples.common.Experiment;
 import put.mlc.measures.InstanceBasedFMeasure;
 import put.mlc.utils.MultiThreadEvaluator;
@@ -37,7 +38,7 @@ public class CVExperiment extends Experiment {
 
 	private MultipleEvaluation crossValidation(String dataset, double variance) throws Exception {
 		
-		MultiLabelInstances trainSet = new MultiLabelInstances(dataset + "-train.arff", dataset + ".xml");
+		MultiLabelInstances trainSet = DatasetRegistry.get(dataset + "-train.arff", dataset + ".xml");
 		
 		MaxEntTrainer maxEntTrainer = new MaxEntTrainer();
 		maxEntTrainer.setGaussianPriorVariance(variance);
@@ -60,8 +61,8 @@ public class CVExperiment extends Experiment {
 	
 	private Evaluation singleEvaluation(String dataset, double variance) throws Exception {
 		
-		MultiLabelInstances trainSet = new MultiLabelInstances(dataset + "-train.arff", dataset + ".xml");
-		MultiLabelInstances testSet = new MultiLabelInstances(dataset + "-test.arff", dataset + ".xml");
+		MultiLabelInstances trainSet = DatasetRegistry.get(dataset + "-train.arff", dataset + ".xml");
+		MultiLabelInstances testSet = DatasetRegistry.get(dataset + "-test.arff", dataset + ".xml");
 		
 		MaxEntTrainer maxEntTrainer = new MaxEntTrainer();
 		maxEntTrainer.setGaussianPriorVariance(variance);
@@ -14,6 +14,7 @@ import put.mlc.classifiers.br.LFP;
 import put.mlc.classifiers.common.MalletClassifier;
 import put.mlc.classifiers.common.MultiThreadTunedClassifier;
 import put.mlc.classifiers.common.TunedClassifier;
+import put.mlc.data.DatasetRegistry;
 import put.mlc.examples.common.Experiment;
 import put.mlc.measures.InstanceBasedFMeasure;
 import put.mlc.utils.MultiThreadEvaluator;
@@ -50,8 +51,8 @@ public class TunedExperiment extends Experiment {
 
 	private Evaluation tunedExperiment(String dataset) throws Exception {
 
-		MultiLabelInstances trainSet = new MultiLabelInstances(dataset + "-train.arff", dataset + ".xml");
-		MultiLabelInstances testSet = new MultiLabelInstances(dataset + "-test.arff", dataset + ".xml");
+		MultiLabelInstances trainSet = DatasetRegistry.get(dataset + "-train.arff", dataset + ".xml");
+		MultiLabelInstances testSet = DatasetRegistry.get(dataset + "-test.arff", dataset + ".xml");
 		
 		Classifier[] baseClassifiers = new Classifier[this.regulariationParameters.size()];
 		
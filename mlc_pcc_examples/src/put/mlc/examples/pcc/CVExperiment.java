@@ -12,6 +12,7 @@ import put.mlc.classifiers.common.MalletClassifier;
 import put.mlc.classifiers.pcc.PCC;
 import put.mlc.classifiers.pcc.inference.Inference;
 import put.mlc.classifiers.pcc.inference.montecarlo.FMeasureMaximizerInference;
+import put.mlc.data.DatasetRegistry;
 import put.mlc.examples.common.Experiment;
 import put.mlc.measures.InstanceBasedFMeasure;
 import put.mlc.utils.MultiThreadEvaluator;
@@ -44,7 +45,7 @@ public class CVExperiment extends Experiment {
 
 	private MultipleEvaluation crossValidation(String dataset, double variance) throws Exception {
 		
-		MultiLabelInstances trainSet = new MultiLabelInstances(dataset + "-train.arff", dataset + ".xml");
+		MultiLabelInstances trainSet = DatasetRegistry.get(dataset + "-train.arff", dataset + ".xml");
 		
 		MaxEntTrainer maxEntTrainer = new MaxEntTrainer();
 		maxEntTrainer.setGaussianPriorVariance(variance);
@@ -66,8 +67,8 @@ public class CVExperiment extends Experiment {
 	
 	private Evaluation singleEvaluation(String dataset, double variance) throws Exception {
 		
-		MultiLabelInstances trainSet = new MultiLabelInstances(dataset + "-train.arff", dataset + ".xml");
-		MultiLabelInstances testSet = new MultiLabelInstances(dataset + "-test.arff", dataset + ".xml");
+		MultiLabelInstances trainSet = DatasetRegistry.get(dataset + "-train.arff", dataset + ".xml");
+		MultiLabelInstances testSet = DatasetRegistry.get(dataset + "-test.arff", dataset + ".xml");
 		
 		MaxEntTrainer maxEntTrainer = new MaxEntTrainer();
 		maxEntTrainer.setGaussianPriorVariance(variance);
@@ -0,0 +1,112 @@
+package put.mlc.examples.pcc;
+
+import mulan.classifier.MultiLabelOutput;
+import mulan.data.MultiLabelInstances;
+import cc.mallet.classify.MaxEntTrainer;
+import put.mlc.classifiers.common.MalletClassifier;
+import put.mlc.classifiers.pcc.PCC;
+import put.mlc.classifiers.pcc.inference.ExhaustiveInference;
+import put.mlc.classifiers.pcc.inference.montecarlo.FMeasureMaximizerInference;
+import put.mlc.classifiers.pcc.inference.montecarlo.MarginalModesInference;
+import put.mlc.classifiers.pcc.inference.montecarlo.SamplingMode;
+import put.mlc.data.DatasetRegistry;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * This class compares the sampling modes of the Monte Carlo inference. For
+ * each number of simulations it reports the mean absolute error of the
+ * marginal probabilities (with respect to the exact marginals computed by
+ * the exhaustive inference), estimated with the frequencies of the sampled
+ * labels and with the Rao-Blackwellized estimator, and the instance-based
+ * F-measure of the General F-Measure Maximizer, all averaged over several
+ * seeds.
+ */
+public class SamplingBenchmark {
+
+	private static final int[] NUM_SIMULATIONS = { 10, 20, 50, 100, 200, 500 };
+	private static final int NUM_SEEDS = 5;
+	private static final int NUM_INSTANCES = 100;
+
+	private PCC pcc;
+	private Instances testSet;
+	private int[] labelIndices;
+	private double[][] exactMarginals;
+
+	public SamplingBenchmark(String dataset, double variance) throws Exception {
+		MultiLabelInstances trainSet = DatasetRegistry.get(dataset + "-train.arff", dataset + ".xml");
+		MultiLabelInstances test = DatasetRegistry.get(dataset + "-test.arff", dataset + ".xml");
+
+		MaxEntTrainer maxEntTrainer = new MaxEntTrainer();
+		maxEntTrainer.setGaussianPriorVariance(variance);
+
+		this.pcc = new PCC(new ExhaustiveInference());
+		this.pcc.setBaseClassifier(new MalletClassifier(maxEntTrainer));
+		this.pcc.build(trainSet);
+
+		this.testSet = test.getDataSet();
+		this.labelIndices = test.getLabelIndices();
+
+		int numInstances = Math.min(NUM_INSTANCES, testSet.numInstances());
+		this.exactMarginals = new double[numInstances][];
+		for (int i = 0; i < numInstances; i++) {
+			this.exactMarginals[i] = pcc.makePrediction(testSet.instance(i)).getConfidences();
+		}
+	}
+
+	private double marginalError(SamplingMode mode, int numSimulations, boolean raoBlackwellized)
+			throws Exception {
+		double error = 0.0;
+		for (int seed = 0; seed < NUM_SEEDS; seed++) {
+			MarginalModesInference inference = new MarginalModesInference(numSimulations, seed, mode);
+			inference.setRaoBlackwellized(raoBlackwellized);
+			pcc.setInference(inference);
+			for (int i = 0; i < exactMarginals.length; i++) {
+				double[] marginals = pcc.makePrediction(testSet.instance(i)).getConfidences();
+				for (int j = 0; j < marginals.length; j++) {
+					error += Math.abs(marginals[j] - exactMarginals[i][j]);
+				}
+			}
+		}
+		return error / (NUM_SEEDS * exactMarginals.length * labelIndices.length);
+	}
+
+	private double fMeasure(SamplingMode mode, int numSimulations) throws Exception {
+		double sum = 0.0;
+		for (int seed = 0; seed < NUM_SEEDS; seed++) {
+			pcc.setInference(new FMeasureMaximizerInference(numSimulations, seed, mode));
+			for (int i = 0; i < exactMarginals.length; i++) {
+				Instance instance = testSet.instance(i);
+				MultiLabelOutput output = pcc.makePrediction(instance);
+				boolean[] bipartition = output.getBipartition();
+
+				int truePositives = 0, predicted = 0, actual = 0;
+				for (int j = 0; j < labelIndices.length; j++) {
+					boolean relevant = instance.stringValue(labelIndices[j]).equals("1");
+					if (bipartition[j]) predicted++;
+					if (relevant) actual++;
+					if (bipartition[j] && relevant) truePositives++;
+				}
+				sum += (predicted + actual == 0) ? 1.0 : 2.0 * truePositives / (predicted + actual);
+			}
+		}
+		return sum / (NUM_SEEDS * exactMarginals.length);
+	}
+
+	public void run() throws Exception {
+		System.out.println("numSimulations\tmode\tmarginal MAE\tRao-Blackwellized MAE\tF-measure");
+		for (int numSimulations : NUM_SIMULATIONS) {
+			for (SamplingMode mode : SamplingMode.values()) {
+				System.out.println(numSimulations + "\t" + mode + "\t"
+						+ String.format("%.5f", marginalError(mode, numSimulations, false)) + "\t"
+						+ String.format("%.5f", marginalError(mode, numSimulations, true)) + "\t"
+						+ String.format("%.4f", fMeasure(mode, numSimulations)));
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		SamplingBenchmark benchmark = new SamplingBenchmark("datasets/yeast", 1.0);
+		benchmark.run();
+	}
+}
@@ -0,0 +1,75 @@
+package put.mlc.examples.pcc;
+
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import mulan.data.MultiLabelInstances;
+import cc.mallet.classify.MaxEntTrainer;
+import put.mlc.classifiers.common.MalletClassifier;
+import put.mlc.classifiers.pcc.CompactModel;
+import put.mlc.classifiers.pcc.PCC;
+import put.mlc.data.DatasetRegistry;
+import put.mlc.serving.LoadGenerator;
+import put.mlc.serving.ModelRegistry;
+import put.mlc.serving.ModelSource;
+import put.mlc.serving.PredictionServer;
+
+/**
+ * This class measures the throughput and the latency of the prediction
+ * server on one machine. A PCC model is trained and written in the compact
+ * format, served by {@link PredictionServer} with several maximal delays of
+ * the micro-batches, and loaded by {@link LoadGenerator} with the test
+ * instances.
+ */
+public class ServingBenchmark {
+
+	private static final long[] MAX_DELAYS = { 0, 1, 2, 5 };
+	private static final int MAX_BATCH_SIZE = 64;
+	private static final int NUM_CLIENTS = 32;
+	private static final int NUM_REQUESTS = 200;
+	private static final int INSTANCES_PER_REQUEST = 1;
+
+	public static void main(String[] args) throws Exception {
+		String dataset = "datasets/yeast";
+		MultiLabelInstances trainSet = DatasetRegistry.get(dataset + "-train.arff", dataset + ".xml");
+		MultiLabelInstances testSet = DatasetRegistry.getShared(dataset + "-test.arff", dataset + ".xml");
+
+		MaxEntTrainer maxEntTrainer = new MaxEntTrainer();
+		maxEntTrainer.setGaussianPriorVariance(1.0);
+		PCC pcc = new PCC();
+		pcc.setBaseClassifier(new MalletClassifier(maxEntTrainer));
+		pcc.build(trainSet);
+
+		File file = File.createTempFile("yeast", CompactModel.EXTENSION);
+		file.deleteOnExit();
+		CompactModel.write(pcc, file);
+
+		ModelRegistry registry = new ModelRegistry(Runtime.getRuntime().maxMemory() / 2);
+		registry.register("yeast", ModelSource.compact(file));
+
+		System.out.println("maxDelay\tclient");
+		for (long maxDelay : MAX_DELAYS) {
+			PredictionServer server = new PredictionServer(registry, 0);
+			server.addModel("yeast", testSet);
+			server.setMaxBatchSize(MAX_BATCH_SIZE);
+			server.setMaxDelay(maxDelay, TimeUnit.MILLISECONDS);
+			server.setNumHandlers(NUM_CLIENTS);
+			server.start();
+			try {
+				URL url = server.getUrl("yeast");
+				LoadGenerator generator = new LoadGenerator(url, testSet);
+				// warm-up
+				generator.run(NUM_CLIENTS, NUM_REQUESTS / 10, INSTANCES_PER_REQUEST);
+				generator = new LoadGenerator(url, testSet);
+				generator.run(NUM_CLIENTS, NUM_REQUESTS, INSTANCES_PER_REQUEST);
+
+				System.out.println(maxDelay + " ms\t" + generator);
+				System.out.println(server.getStatistics());
+			} finally {
+				server.stop();
+			}
+		}
+		System.out.println(registry);
+	}
+}